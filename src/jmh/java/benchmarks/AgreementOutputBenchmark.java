@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering a rental agreement with {@code ToolRentalAgreement.getOutput}, on a single thread and with every
+ * available core rendering at once, and with {@code ToolRentalAgreement.renderTo} into a reused buffer. The rental
+ * length does not affect rendering, so only the tool type is varied.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgreementOutputBenchmark {
+
+    @Param({"CHNS", "LADW", "JAKD"})
+    public String toolCode;
+
+    private Object agreement;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        agreement = (Object) PricingHandles.CREATE_RENTAL_AGREEMENT.invokeExact(toolCode, 30, 10, LocalDate.of(2015, 7, 2));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String singleThreaded() throws Throwable
+    {
+        return (String) PricingHandles.GET_OUTPUT.invokeExact(agreement);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String contended() throws Throwable
+    {
+        return (String) PricingHandles.GET_OUTPUT.invokeExact(agreement);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ByteBuffer reusedBuffer() throws Throwable
+    {
+        buffer.clear();
+        PricingHandles.RENDER_TO_BYTE_BUFFER.invokeExact(agreement, buffer);
+        return buffer;
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code ToolRentalController.calculateChargeDays} across rental lengths and tool types, on a single thread and
+ * with every available core calculating at once. Rentals starting today are looked up in the default calendar's
+ * {@code ChargeDayTable}; rentals in 2015 fall outside its horizon and are counted arithmetically.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChargeDaysBenchmark {
+
+    @Param({"1", "7", "30", "365", "3650"})
+    public int rentalDays;
+
+    @Param({"CHNS", "LADW", "JAKD"})
+    public String toolCode;
+
+    @Param({"true", "false"})
+    public boolean withinTableHorizon;
+
+    private Object chargeData;
+    private LocalDate rentalDate;
+    private LocalDate dueDate;
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        chargeData = PricingHandles.chargeDataFor(toolCode);
+        rentalDate = withinTableHorizon ? LocalDate.now() : LocalDate.of(2015, 7, 2);
+        dueDate = (LocalDate) PricingHandles.CALCULATE_DUE_DATE.invokeExact(rentalDate, rentalDays);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int singleThreaded() throws Throwable
+    {
+        return (int) PricingHandles.CALCULATE_CHARGE_DAYS.invokeExact(chargeData, rentalDate, dueDate, rentalDays);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int contended() throws Throwable
+    {
+        return (int) PricingHandles.CALCULATE_CHARGE_DAYS.invokeExact(chargeData, rentalDate, dueDate, rentalDays);
+    }
+}
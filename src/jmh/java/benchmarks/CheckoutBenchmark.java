@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code Checkout.createRentalAgreement} across rental lengths and tool types, on a single thread and with every
+ * available core checking out at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckoutBenchmark {
+
+    @Param({"1", "7", "30", "365", "3650"})
+    public int rentalDays;
+
+    // one tool per charge profile: no weekend charge, no holiday charge, neither
+    @Param({"CHNS", "LADW", "JAKD"})
+    public String toolCode;
+
+    private final LocalDate checkoutDate = LocalDate.of(2015, 7, 2);
+
+    @Benchmark
+    @Threads(1)
+    public Object singleThreaded() throws Throwable
+    {
+        return (Object) PricingHandles.CREATE_RENTAL_AGREEMENT.invokeExact(toolCode, rentalDays, 10, checkoutDate);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object contended() throws Throwable
+    {
+        return (Object) PricingHandles.CREATE_RENTAL_AGREEMENT.invokeExact(toolCode, rentalDays, 10, checkoutDate);
+    }
+}
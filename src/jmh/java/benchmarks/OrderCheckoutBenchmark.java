@@ -0,0 +1,69 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares pricing an order of tools with {@code Checkout.createOrderAgreement} against checking out each tool with
+ * {@code Checkout.createRentalAgreement}, for orders of a mix of every tool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderCheckoutBenchmark {
+
+    private static final String[] TOOL_CODES = {"CHNS", "LADW", "JAKD", "JAKR"};
+
+    @Param({"1", "10", "50"})
+    public int items;
+
+    @Param({"7", "365"})
+    public int rentalDays;
+
+    private final LocalDate checkoutDate = LocalDate.of(2015, 7, 2);
+    private List<String> toolCodes;
+
+    @Setup
+    public void setUp()
+    {
+        toolCodes = new ArrayList<>();
+        for(int item = 0; item < items; item++)
+        {
+            toolCodes.add(TOOL_CODES[item % TOOL_CODES.length]);
+        }
+    }
+
+    @Benchmark
+    public Object order() throws Throwable
+    {
+        return (Object) PricingHandles.CREATE_ORDER_AGREEMENT.invokeExact(toolCodes, rentalDays, 10, checkoutDate);
+    }
+
+    @Benchmark
+    public void separateCheckouts(Blackhole blackhole) throws Throwable
+    {
+        for(int item = 0; item < toolCodes.size(); item++)
+        {
+            blackhole.consume((Object) PricingHandles.CREATE_RENTAL_AGREEMENT.invokeExact(toolCodes.get(item), rentalDays,
+                    10, checkoutDate));
+        }
+    }
+}
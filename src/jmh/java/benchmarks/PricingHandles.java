@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Method handles for the pricing entry points.
+ * <p>
+ * JMH does not allow benchmarks in the default package, and the pricing classes live there, so the benchmarks cannot
+ * refer to them by name. The handles are held in static final fields, which the JIT treats as constants and inlines
+ * through, so calling through them adds no measurable cost.
+ */
+final class PricingHandles {
+
+    /** {@code Checkout.createRentalAgreement(String, int, int, LocalDate)}, returning the agreement as an Object */
+    static final MethodHandle CREATE_RENTAL_AGREEMENT;
+    /** {@code Checkout.createOrderAgreement(List, int, int, LocalDate)}, returning the agreement as an Object */
+    static final MethodHandle CREATE_ORDER_AGREEMENT;
+    /** {@code ToolRentalController.calculateChargeDays(ToolChargeData, LocalDate, LocalDate, int)}, taking the charge data as an Object */
+    static final MethodHandle CALCULATE_CHARGE_DAYS;
+    /** {@code ToolRentalController.calculateDueDate(LocalDate, int)} */
+    static final MethodHandle CALCULATE_DUE_DATE;
+    /** {@code ToolRentalAgreement.getOutput()}, taking the agreement as an Object */
+    static final MethodHandle GET_OUTPUT;
+    /** {@code ToolRentalAgreement.renderTo(ByteBuffer)}, taking the agreement as an Object */
+    static final MethodHandle RENDER_TO_BYTE_BUFFER;
+
+    private static final MethodHandle GET_TOOL;
+    private static final MethodHandle GET_CHARGE_DATA;
+
+    static
+    {
+        try
+        {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> checkout = Class.forName("Checkout");
+            final Class<?> controller = Class.forName("ToolRentalController");
+            final Class<?> agreement = Class.forName("ToolRentalAgreement");
+            final Class<?> chargeData = Class.forName("ToolChargeData");
+            final Class<?> repository = Class.forName("ToolRepository");
+            final Class<?> tool = Class.forName("Tool");
+
+            CREATE_RENTAL_AGREEMENT = lookup.findStatic(checkout, "createRentalAgreement",
+                            MethodType.methodType(agreement, String.class, int.class, int.class, LocalDate.class))
+                    .asType(MethodType.methodType(Object.class, String.class, int.class, int.class, LocalDate.class));
+            CREATE_ORDER_AGREEMENT = lookup.findStatic(checkout, "createOrderAgreement",
+                            MethodType.methodType(Class.forName("OrderAgreement"), List.class, int.class, int.class,
+                                    LocalDate.class))
+                    .asType(MethodType.methodType(Object.class, List.class, int.class, int.class, LocalDate.class));
+            CALCULATE_CHARGE_DAYS = lookup.findStatic(controller, "calculateChargeDays",
+                            MethodType.methodType(int.class, chargeData, LocalDate.class, LocalDate.class, int.class))
+                    .asType(MethodType.methodType(int.class, Object.class, LocalDate.class, LocalDate.class, int.class));
+            CALCULATE_DUE_DATE = lookup.findStatic(controller, "calculateDueDate",
+                    MethodType.methodType(LocalDate.class, LocalDate.class, int.class));
+            GET_OUTPUT = lookup.findVirtual(agreement, "getOutput", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            RENDER_TO_BYTE_BUFFER = lookup.findVirtual(agreement, "renderTo", MethodType.methodType(void.class, ByteBuffer.class))
+                    .asType(MethodType.methodType(void.class, Object.class, ByteBuffer.class));
+            GET_TOOL = lookup.findStatic(repository, "getTool", MethodType.methodType(tool, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            GET_CHARGE_DATA = lookup.findVirtual(tool, "getChargeData", MethodType.methodType(chargeData))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+        }
+        catch(ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private PricingHandles()
+    {
+    }
+
+    /**
+     * @return the {@code ToolChargeData} of the tool with the given code
+     */
+    static Object chargeDataFor(String toolCode) throws Throwable
+    {
+        return (Object) GET_CHARGE_DATA.invokeExact((Object) GET_TOOL.invokeExact(toolCode));
+    }
+}
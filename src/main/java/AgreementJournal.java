@@ -0,0 +1,571 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only journal of {@link ToolRentalAgreement}s, stored in a memory-mapped file so that agreements survive a
+ * restart.
+ * <p>
+ * Each agreement is stored as a fixed-width binary record of its raw values and the code of its currency. The tool is
+ * referred to by its position in a table of tool codes kept in the header, which the journal adds each code to the first
+ * time it is appended, so records are read back by code however {@link ToolRepository} ids were interned when they were
+ * written. Appending only copies the record into the mapped file; {@link #sync(long)} makes records
+ * durable, and concurrent callers waiting on a sync share a single flush to disk. The file is mapped in fixed-size
+ * segments, and the header records how many records were known to be durable when the last segment filled up or the
+ * journal was closed. On opening, only the records after that point are checked, stopping at the first one which is
+ * incomplete.
+ */
+public class AgreementJournal implements Closeable {
+
+    private static final int MAGIC = 0x544A524E;
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 64 * 1024;
+    private static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 20;
+
+    // header layout
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_RECORD_SIZE = 8;
+    private static final int HEADER_CHECKPOINT = 16;
+    private static final int HEADER_TOOL_CODE_COUNT = 24;
+    // each tool code is a length byte followed by the code in UTF-8
+    private static final int HEADER_TOOL_CODES = 32;
+    private static final int MAX_TOOL_CODE_LENGTH = 255;
+
+    // record layout
+    static final int RECORD_SIZE = 64;
+    private static final int CHECKOUT_EPOCH_DAY = 0;
+    private static final int DAILY_RENTAL_CHARGE_CENTS = 8;
+    private static final int PRE_DISCOUNT_CHARGE_CENTS = 16;
+    private static final int DISCOUNT_AMOUNT_CENTS = 24;
+    private static final int FINAL_CHARGE_CENTS = 32;
+    private static final int TOOL_CODE_INDEX = 40;
+    private static final int NUMBER_OF_DAYS = 44;
+    private static final int CHARGE_DAYS = 48;
+    private static final int DISCOUNT_PERCENT = 52;
+    private static final int CURRENCY = 56;
+    private static final int CURRENCY_CODE_LENGTH = 3;
+    private static final int CHECKSUM = 60;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int recordsPerSegment;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final CRC32C checksum = new CRC32C();
+
+    // guarded by this
+    private long recordCount;
+    private boolean closed;
+    private final List<String> toolCodes = new ArrayList<>();
+    private final Map<String, Integer> toolCodeIndexes = new HashMap<>();
+    private int toolCodesEnd = HEADER_TOOL_CODES;
+
+    private final Object syncLock = new Object();
+    // guarded by syncLock
+    private long durableRecordCount;
+    private boolean syncInProgress;
+
+    /**
+     * Opens the journal in the given file, creating it if it does not exist and recovering any records written before
+     * the last shutdown or crash.
+     *
+     * @param file the file holding the journal
+     */
+    public AgreementJournal(Path file) throws IOException
+    {
+        this(file, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    /**
+     * Opens the journal in the given file, creating it if it does not exist and recovering any records written before
+     * the last shutdown or crash.
+     *
+     * @param file the file holding the journal
+     * @param recordsPerSegment the number of records in each mapped segment of the file
+     */
+    public AgreementJournal(Path file, int recordsPerSegment) throws IOException
+    {
+        if(recordsPerSegment < 1 || (long) recordsPerSegment * RECORD_SIZE > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Records per segment must be between 1 and "
+                    + (Integer.MAX_VALUE / RECORD_SIZE) + ".");
+        }
+        this.recordsPerSegment = recordsPerSegment;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        final boolean isNew = channel.size() == 0;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if(isNew)
+        {
+            header.putInt(HEADER_MAGIC, MAGIC);
+            header.putInt(HEADER_VERSION, VERSION);
+            header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+            header.putLong(HEADER_CHECKPOINT, 0);
+            header.putInt(HEADER_TOOL_CODE_COUNT, 0);
+            header.force();
+        }
+        else if(header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION
+                || header.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE || !readToolCodes())
+        {
+            channel.close();
+            throw new IOException("File is not a rental agreement journal: " + file);
+        }
+
+        recordCount = recover(header.getLong(HEADER_CHECKPOINT));
+        durableRecordCount = recordCount;
+        // anything past the last complete record is discarded, so stale records can never reappear after a later crash
+        channel.truncate(recordOffset(recordCount));
+
+        final long segmentCount = recordCount / recordsPerSegment + 1;
+        for(long segment = 0; segment < segmentCount; segment++)
+        {
+            mapSegment();
+        }
+    }
+
+    /**
+     * Copies an agreement into the journal. The record is visible to {@link #replay(RecordVisitor)} immediately, but is
+     * only guaranteed to survive a crash once {@link #sync(long)} has been called with its sequence number.
+     *
+     * @param agreement the agreement to append
+     *
+     * @return the sequence number of the record, starting at 0
+     */
+    public synchronized long append(ToolRentalAgreement agreement) throws IOException
+    {
+        if(closed)
+        {
+            throw new IllegalStateException("Journal is closed.");
+        }
+        if(ToolRepository.getTool(agreement.getCode()) == null)
+        {
+            throw new IllegalArgumentException("Tool code does not correspond to an existing tool.");
+        }
+        final int toolCodeIndex = toolCodeIndex(agreement.getCode());
+
+        if(recordCount / recordsPerSegment >= segments.size())
+        {
+            rollSegment();
+        }
+        final MappedByteBuffer segment = segments.get(segments.size() - 1);
+        final int offset = (int) (recordCount % recordsPerSegment) * RECORD_SIZE;
+
+        segment.putLong(offset + CHECKOUT_EPOCH_DAY, agreement.getCheckoutEpochDay());
+        segment.putLong(offset + DAILY_RENTAL_CHARGE_CENTS, agreement.getDailyRentalChargeCents());
+        segment.putLong(offset + PRE_DISCOUNT_CHARGE_CENTS, agreement.getPreDiscountChargeCents());
+        segment.putLong(offset + DISCOUNT_AMOUNT_CENTS, agreement.getDiscountAmountCents());
+        segment.putLong(offset + FINAL_CHARGE_CENTS, agreement.getFinalChargeCents());
+        segment.putInt(offset + TOOL_CODE_INDEX, toolCodeIndex);
+        segment.putInt(offset + NUMBER_OF_DAYS, agreement.getNumberOfDays());
+        segment.putInt(offset + CHARGE_DAYS, agreement.getChargeDays());
+        segment.putInt(offset + DISCOUNT_PERCENT, agreement.getDiscountPercent());
+        final String currencyCode = agreement.getCurrency().getCurrencyCode();
+        for(int i = 0; i < CURRENCY_CODE_LENGTH; i++)
+        {
+            segment.put(offset + CURRENCY + i, (byte) currencyCode.charAt(i));
+        }
+        segment.putInt(offset + CHECKSUM, checksum(segment, offset));
+
+        return recordCount++;
+    }
+
+    /**
+     * Waits until the record with the given sequence number, and every record before it, has been written to disk. If
+     * another thread is already flushing, this waits for it and then flushes whatever it did not cover, so a burst of
+     * appends is made durable with few flushes.
+     *
+     * @param sequence the sequence number returned by {@link #append(ToolRentalAgreement)}
+     */
+    public void sync(long sequence) throws IOException
+    {
+        while(true)
+        {
+            synchronized(syncLock)
+            {
+                while(syncInProgress && durableRecordCount <= sequence)
+                {
+                    try
+                    {
+                        syncLock.wait();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the journal to sync.", e);
+                    }
+                }
+                if(durableRecordCount > sequence)
+                {
+                    return;
+                }
+                syncInProgress = true;
+            }
+
+            long flushedRecordCount = -1;
+            try
+            {
+                flushedRecordCount = flush();
+            }
+            finally
+            {
+                synchronized(syncLock)
+                {
+                    durableRecordCount = Math.max(durableRecordCount, flushedRecordCount);
+                    syncInProgress = false;
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends an agreement and waits until it has been written to disk.
+     *
+     * @param agreement the agreement to append
+     *
+     * @return the sequence number of the record
+     */
+    public long appendDurably(ToolRentalAgreement agreement) throws IOException
+    {
+        final long sequence = append(agreement);
+        sync(sequence);
+        return sequence;
+    }
+
+    /**
+     * @return the number of records in the journal, including any not yet synced
+     */
+    public synchronized long size()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Visits every record in the journal in the order they were appended. The records are read directly from the mapped
+     * file through a single reusable {@link JournalRecord}, which is only valid during the call to the visitor.
+     *
+     * @param visitor receives each record in turn
+     */
+    public void replay(RecordVisitor visitor)
+    {
+        final long count;
+        final List<ByteBuffer> views = new ArrayList<>();
+        final String[] codes;
+        synchronized(this)
+        {
+            count = recordCount;
+            for(MappedByteBuffer segment : segments)
+            {
+                views.add(segment.duplicate());
+            }
+            codes = toolCodes.toArray(new String[0]);
+        }
+
+        final JournalRecord record = new JournalRecord(codes);
+        for(long sequence = 0; sequence < count; sequence++)
+        {
+            record.moveTo(views.get((int) (sequence / recordsPerSegment)), sequence,
+                    (int) (sequence % recordsPerSegment) * RECORD_SIZE);
+            visitor.visit(record);
+        }
+    }
+
+    /**
+     * Syncs every record to disk, records the checkpoint and closes the file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        final long count;
+        synchronized(this)
+        {
+            if(closed)
+            {
+                return;
+            }
+            count = recordCount;
+        }
+        if(count > 0)
+        {
+            sync(count - 1);
+        }
+        synchronized(this)
+        {
+            closed = true;
+            writeCheckpoint(count);
+            channel.close();
+        }
+    }
+
+    /**
+     * Flushes the records appended to the current segment since the last flush.
+     *
+     * @return the number of records which are now durable
+     */
+    private long flush() throws IOException
+    {
+        final MappedByteBuffer segment;
+        final long segmentStart;
+        final long flushedRecordCount;
+        synchronized(this)
+        {
+            segment = segments.get(segments.size() - 1);
+            segmentStart = (long) (segments.size() - 1) * recordsPerSegment;
+            flushedRecordCount = recordCount;
+        }
+        final long alreadyDurable;
+        synchronized(syncLock)
+        {
+            alreadyDurable = durableRecordCount;
+        }
+        // earlier segments were flushed in full when the journal moved past them
+        final int from = (int) (Math.max(alreadyDurable, segmentStart) - segmentStart);
+        final int to = (int) (flushedRecordCount - segmentStart);
+        if(to > from)
+        {
+            segment.force(from * RECORD_SIZE, (to - from) * RECORD_SIZE);
+        }
+        return flushedRecordCount;
+    }
+
+    /**
+     * Flushes the full segment, records the checkpoint and maps the next segment. Must be called holding this lock.
+     */
+    private void rollSegment() throws IOException
+    {
+        segments.get(segments.size() - 1).force();
+        writeCheckpoint(recordCount);
+        mapSegment();
+    }
+
+    private void mapSegment() throws IOException
+    {
+        final long position = recordOffset((long) segments.size() * recordsPerSegment);
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long) recordsPerSegment * RECORD_SIZE));
+    }
+
+    /**
+     * Finds the position of a tool code in the header's table, adding it if it is not there yet. A new code is written to
+     * disk before any record refers to it. Must be called holding this lock.
+     */
+    private int toolCodeIndex(String toolCode)
+    {
+        final Integer index = toolCodeIndexes.get(toolCode);
+        if(index != null)
+        {
+            return index;
+        }
+        final byte[] encoded = toolCode.getBytes(StandardCharsets.UTF_8);
+        if(encoded.length > MAX_TOOL_CODE_LENGTH)
+        {
+            throw new IllegalArgumentException("Tool code is too long to be journaled.");
+        }
+        if(toolCodesEnd + 1 + encoded.length > HEADER_SIZE)
+        {
+            throw new IllegalStateException("Journal has no room for another tool code.");
+        }
+        header.put(toolCodesEnd, (byte) encoded.length);
+        header.put(toolCodesEnd + 1, encoded);
+        toolCodesEnd += 1 + encoded.length;
+        header.putInt(HEADER_TOOL_CODE_COUNT, toolCodes.size() + 1);
+        header.force();
+        toolCodeIndexes.put(toolCode, toolCodes.size());
+        toolCodes.add(toolCode);
+        return toolCodes.size() - 1;
+    }
+
+    /**
+     * Reads the table of tool codes from the header.
+     *
+     * @return whether the table is well formed
+     */
+    private boolean readToolCodes()
+    {
+        final int count = header.getInt(HEADER_TOOL_CODE_COUNT);
+        if(count < 0)
+        {
+            return false;
+        }
+        for(int index = 0; index < count; index++)
+        {
+            if(toolCodesEnd >= HEADER_SIZE)
+            {
+                return false;
+            }
+            final int length = Byte.toUnsignedInt(header.get(toolCodesEnd));
+            if(toolCodesEnd + 1 + length > HEADER_SIZE)
+            {
+                return false;
+            }
+            final byte[] encoded = new byte[length];
+            header.get(toolCodesEnd + 1, encoded);
+            final String toolCode = new String(encoded, StandardCharsets.UTF_8);
+            toolCodeIndexes.put(toolCode, index);
+            toolCodes.add(toolCode);
+            toolCodesEnd += 1 + length;
+        }
+        return true;
+    }
+
+    private void writeCheckpoint(long durableRecords)
+    {
+        header.putLong(HEADER_CHECKPOINT, durableRecords);
+        header.force();
+    }
+
+    /**
+     * Finds the number of complete records by checking every record after the checkpoint until one is incomplete.
+     */
+    private long recover(long checkpoint) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE);
+        long count = checkpoint;
+        while(true)
+        {
+            buffer.clear();
+            final long position = recordOffset(count);
+            while(buffer.hasRemaining())
+            {
+                if(channel.read(buffer, position + buffer.position()) < 0)
+                {
+                    return count;
+                }
+            }
+            if(buffer.getInt(CHECKSUM) != checksum(buffer, 0))
+            {
+                return count;
+            }
+            count++;
+        }
+    }
+
+    private int checksum(ByteBuffer buffer, int offset)
+    {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(offset + CHECKSUM).position(offset);
+        checksum.reset();
+        checksum.update(view);
+        return (int) checksum.getValue();
+    }
+
+    private static long recordOffset(long sequence)
+    {
+        return HEADER_SIZE + sequence * RECORD_SIZE;
+    }
+
+    /**
+     * Receives records during {@link #replay(RecordVisitor)}.
+     */
+    public interface RecordVisitor {
+
+        void visit(JournalRecord record);
+    }
+
+    /**
+     * A view over one record in the journal. The view is moved from record to record during a replay, so its values must
+     * be copied out if they are needed after the visit.
+     */
+    public static final class JournalRecord {
+
+        private final String[] toolCodes;
+        private ByteBuffer buffer;
+        private long sequence;
+        private int offset;
+
+        private JournalRecord(String[] toolCodes)
+        {
+            this.toolCodes = toolCodes;
+        }
+
+        private void moveTo(ByteBuffer buffer, long sequence, int offset)
+        {
+            this.buffer = buffer;
+            this.sequence = sequence;
+            this.offset = offset;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getToolCode() {
+            return toolCodes[buffer.getInt(offset + TOOL_CODE_INDEX)];
+        }
+
+        public int getNumberOfDays() {
+            return buffer.getInt(offset + NUMBER_OF_DAYS);
+        }
+
+        public long getCheckoutEpochDay() {
+            return buffer.getLong(offset + CHECKOUT_EPOCH_DAY);
+        }
+
+        public long getDueEpochDay() {
+            return getCheckoutEpochDay() + getNumberOfDays();
+        }
+
+        public long getDailyRentalChargeCents() {
+            return buffer.getLong(offset + DAILY_RENTAL_CHARGE_CENTS);
+        }
+
+        public int getChargeDays() {
+            return buffer.getInt(offset + CHARGE_DAYS);
+        }
+
+        public long getPreDiscountChargeCents() {
+            return buffer.getLong(offset + PRE_DISCOUNT_CHARGE_CENTS);
+        }
+
+        public int getDiscountPercent() {
+            return buffer.getInt(offset + DISCOUNT_PERCENT);
+        }
+
+        public long getDiscountAmountCents() {
+            return buffer.getLong(offset + DISCOUNT_AMOUNT_CENTS);
+        }
+
+        public long getFinalChargeCents() {
+            return buffer.getLong(offset + FINAL_CHARGE_CENTS);
+        }
+
+        /**
+         * @return the currency of the record's amounts
+         */
+        public Currency getCurrency()
+        {
+            final byte[] currencyCode = new byte[CURRENCY_CODE_LENGTH];
+            buffer.get(offset + CURRENCY, currencyCode);
+            return Currency.getInstance(new String(currencyCode, StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * Rebuilds the agreement from the record, taking the tool's type and brand from {@link ToolRepository}.
+         *
+         * @return the agreement stored in this record
+         */
+        public ToolRentalAgreement toAgreement()
+        {
+            final String code = getToolCode();
+            final Tool tool = ToolRepository.getTool(code);
+            if(tool == null)
+            {
+                throw new IllegalStateException("Journal record refers to a tool which no longer exists: " + code);
+            }
+            return new ToolRentalAgreement(code, tool.getType(), tool.getBrand(), getNumberOfDays(),
+                    getCheckoutEpochDay(), getDueEpochDay(),
+                    getDailyRentalChargeCents(), getChargeDays(), getPreDiscountChargeCents(), getDiscountPercent(),
+                    getDiscountAmountCents(), getFinalChargeCents(), getCurrency());
+        }
+    }
+}
@@ -0,0 +1,1001 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.time.chrono.IsoChronology;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.FormatStyle;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders {@link ToolRentalAgreement}s as text, JSON or a compact binary record, directly into a caller-supplied
+ * {@link Appendable}, {@link CharBuffer} or {@link ByteBuffer}.
+ * <p>
+ * Dates and amounts are written digit by digit from the agreement's epoch days and minor units. By default dates are
+ * written as MM-dd-yy and amounts in the default locale's currency format; text can instead be rendered for a locale, with
+ * its short date format. The date and currency encoders for each locale and currency are built once from the JDK's
+ * formats and shared, since they are immutable. Each thread reuses its own output adapters, so once a thread has
+ * rendered an agreement, rendering another creates no garbage.
+ */
+public final class AgreementRenderer {
+
+    // version 1 records had no currency, and are read as being in the base currency
+    private static final byte BINARY_FORMAT_VERSION = 2;
+    private static final byte FIRST_BINARY_FORMAT_VERSION = 1;
+    private static final int CURRENCY_CODE_LENGTH = 3;
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for(int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static final Locale defaultLocale = Locale.getDefault(Locale.Category.FORMAT);
+    private static final DateEncoder defaultDateEncoder = DateEncoder.forPattern("MM-dd-yy", defaultLocale);
+    // by currency, the formats for the default rendering
+    private static final Map<Currency, TextFormats> defaultFormats = new ConcurrentHashMap<>();
+    // by locale, then currency, the formats for rendering for a locale
+    private static final Map<Locale, Map<Currency, TextFormats>> localizedFormats = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Sinks> sinks = ThreadLocal.withInitial(Sinks::new);
+
+    private AgreementRenderer()
+    {
+    }
+
+    /**
+     * Appends the rental agreement text, as returned by {@link ToolRentalAgreement#getOutput()}.
+     */
+    public static void renderText(ToolRentalAgreement agreement, StringBuilder output)
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.stringBuilder.target = output;
+        try
+        {
+            writeText(agreement, defaultFormats(agreement), threadSinks.stringBuilder);
+        }
+        finally
+        {
+            threadSinks.stringBuilder.target = null;
+        }
+    }
+
+    /**
+     * Appends the rental agreement text, as returned by {@link ToolRentalAgreement#getOutput()}.
+     */
+    public static void renderText(ToolRentalAgreement agreement, Appendable output) throws IOException
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.appendable.target = output;
+        try
+        {
+            writeText(agreement, defaultFormats(agreement), threadSinks.appendable);
+        }
+        catch(UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            threadSinks.appendable.target = null;
+        }
+    }
+
+    /**
+     * Puts the rental agreement text, as returned by {@link ToolRentalAgreement#getOutput()}, into a buffer.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public static void renderText(ToolRentalAgreement agreement, CharBuffer output)
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.charBuffer.target = output;
+        try
+        {
+            writeText(agreement, defaultFormats(agreement), threadSinks.charBuffer);
+        }
+        finally
+        {
+            threadSinks.charBuffer.target = null;
+        }
+    }
+
+    /**
+     * Puts the rental agreement text, as returned by {@link ToolRentalAgreement#getOutput()}, into a buffer as UTF-8.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public static void renderText(ToolRentalAgreement agreement, ByteBuffer output)
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.utf8.start(output);
+        try
+        {
+            writeText(agreement, defaultFormats(agreement), threadSinks.utf8);
+        }
+        finally
+        {
+            threadSinks.utf8.target = null;
+        }
+    }
+
+    /**
+     * Appends the order agreement text, as returned by {@link OrderAgreement#getOutput()}.
+     */
+    public static void renderText(OrderAgreement order, StringBuilder output)
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.stringBuilder.target = output;
+        try
+        {
+            writeText(order, defaultFormats(order.getItems().get(0)), threadSinks.stringBuilder);
+        }
+        finally
+        {
+            threadSinks.stringBuilder.target = null;
+        }
+    }
+
+    /**
+     * Appends the rental agreement text with dates in the locale's short format and amounts in its currency format, as
+     * returned by {@link ToolRentalAgreement#getOutput(Locale)}.
+     */
+    public static void renderText(ToolRentalAgreement agreement, Locale locale, StringBuilder output)
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.stringBuilder.target = output;
+        try
+        {
+            writeText(agreement, localizedFormats(agreement, locale), threadSinks.stringBuilder);
+        }
+        finally
+        {
+            threadSinks.stringBuilder.target = null;
+        }
+    }
+
+    /**
+     * Appends the rental agreement text with dates in the locale's short format and amounts in its currency format, as
+     * returned by {@link ToolRentalAgreement#getOutput(Locale)}.
+     */
+    public static void renderText(ToolRentalAgreement agreement, Locale locale, Appendable output) throws IOException
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.appendable.target = output;
+        try
+        {
+            writeText(agreement, localizedFormats(agreement, locale), threadSinks.appendable);
+        }
+        catch(UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            threadSinks.appendable.target = null;
+        }
+    }
+
+    /**
+     * Appends the agreement as a JSON object, with ISO-8601 dates, amounts in minor units and the ISO 4217 currency code.
+     */
+    public static void renderJson(ToolRentalAgreement agreement, Appendable output) throws IOException
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.appendable.target = output;
+        try
+        {
+            writeJson(agreement, threadSinks.appendable);
+        }
+        catch(UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            threadSinks.appendable.target = null;
+        }
+    }
+
+    /**
+     * Puts the agreement into a buffer as a UTF-8 encoded JSON object, with ISO-8601 dates, amounts in minor units and the
+     * ISO 4217 currency code.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public static void renderJson(ToolRentalAgreement agreement, ByteBuffer output)
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.utf8.start(output);
+        try
+        {
+            writeJson(agreement, threadSinks.utf8);
+        }
+        finally
+        {
+            threadSinks.utf8.target = null;
+        }
+    }
+
+    /**
+     * Appends a string as a quoted, escaped JSON string, for other JSON written alongside agreements.
+     */
+    static void renderJsonString(String value, StringBuilder output)
+    {
+        final Sinks threadSinks = sinks.get();
+        threadSinks.stringBuilder.target = output;
+        try
+        {
+            putJsonString(threadSinks.stringBuilder, value);
+        }
+        finally
+        {
+            threadSinks.stringBuilder.target = null;
+        }
+    }
+
+    /**
+     * Puts the agreement into a buffer as a compact binary record, which can be read back with {@link #readBinary}. The
+     * record is: a format version byte, the tool type ordinal byte, the discount percent byte, the three letter currency
+     * code, the UTF-8 code and brand each preceded by a short length, then the rental days, checkout epoch day, charge days
+     * and the daily, pre-discount, discount and final amounts in minor units.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public static void renderBinary(ToolRentalAgreement agreement, ByteBuffer output)
+    {
+        output.put(BINARY_FORMAT_VERSION);
+        output.put((byte) agreement.getType().ordinal());
+        output.put((byte) agreement.getDiscountPercent());
+        final String currencyCode = agreement.getCurrency().getCurrencyCode();
+        for(int i = 0; i < CURRENCY_CODE_LENGTH; i++)
+        {
+            output.put((byte) currencyCode.charAt(i));
+        }
+        putBinaryString(agreement.getCode(), output);
+        putBinaryString(agreement.getBrand(), output);
+        output.putInt(agreement.getNumberOfDays());
+        output.putLong(agreement.getCheckoutEpochDay());
+        output.putInt(agreement.getChargeDays());
+        output.putLong(agreement.getDailyRentalChargeCents());
+        output.putLong(agreement.getPreDiscountChargeCents());
+        output.putLong(agreement.getDiscountAmountCents());
+        output.putLong(agreement.getFinalChargeCents());
+    }
+
+    /**
+     * Reads an agreement written by {@link #renderBinary(ToolRentalAgreement, ByteBuffer)}.
+     */
+    public static ToolRentalAgreement readBinary(ByteBuffer input)
+    {
+        final byte version = input.get();
+        if(version != BINARY_FORMAT_VERSION && version != FIRST_BINARY_FORMAT_VERSION)
+        {
+            throw new IllegalArgumentException("Unsupported agreement format version: " + version);
+        }
+        final ToolType type = ToolType.values()[input.get()];
+        final int discountPercent = input.get();
+        Currency currency = CurrencyRates.current().getBaseCurrency();
+        if(version != FIRST_BINARY_FORMAT_VERSION)
+        {
+            final byte[] currencyCode = new byte[CURRENCY_CODE_LENGTH];
+            input.get(currencyCode);
+            currency = Currency.getInstance(new String(currencyCode, StandardCharsets.US_ASCII));
+        }
+        final String code = getBinaryString(input);
+        final String brand = getBinaryString(input);
+        final int numberOfDays = input.getInt();
+        final long checkoutEpochDay = input.getLong();
+        final int chargeDays = input.getInt();
+        final long dailyRentalChargeCents = input.getLong();
+        final long preDiscountChargeCents = input.getLong();
+        final long discountAmountCents = input.getLong();
+        final long finalChargeCents = input.getLong();
+        return new ToolRentalAgreement(code, type, brand, numberOfDays, checkoutEpochDay, checkoutEpochDay + numberOfDays,
+                dailyRentalChargeCents, chargeDays, preDiscountChargeCents, discountPercent, discountAmountCents,
+                finalChargeCents, currency);
+    }
+
+    private static void writeText(ToolRentalAgreement agreement, TextFormats formats, Sink out)
+    {
+        final long start = PricingMetrics.startTimer();
+        out.put("Tool code: ").put(agreement.getCode()).put('\n');
+        out.put("Tool type: ").put(agreement.getType().getValue()).put('\n');
+        out.put("Tool brand: ").put(agreement.getBrand()).put('\n');
+        out.put("Rental days: ");
+        putNumber(out, agreement.getNumberOfDays());
+        out.put("\nCheckout date: ");
+        formats.dateEncoder.put(out, agreement.getCheckoutEpochDay());
+        out.put("\nDue date: ");
+        formats.dateEncoder.put(out, agreement.getDueEpochDay());
+        out.put("\nDaily rental charge: ");
+        formats.currencyEncoder.put(out, agreement.getDailyRentalChargeCents());
+        out.put("\nCharge days: ");
+        putNumber(out, agreement.getChargeDays());
+        out.put("\nPre-discount charge: ");
+        formats.currencyEncoder.put(out, agreement.getPreDiscountChargeCents());
+        out.put("\nDiscount percent: ");
+        putNumber(out, agreement.getDiscountPercent());
+        out.put("%\nDiscount amount: ");
+        formats.currencyEncoder.put(out, agreement.getDiscountAmountCents());
+        out.put("\nFinal charge: ");
+        formats.currencyEncoder.put(out, agreement.getFinalChargeCents());
+        PricingMetrics.record(PricingMetrics.Stage.RENDERING, start);
+    }
+
+    private static void writeText(OrderAgreement order, TextFormats formats, Sink out)
+    {
+        final long start = PricingMetrics.startTimer();
+        out.put("Rental days: ");
+        putNumber(out, order.getNumberOfDays());
+        out.put("\nCheckout date: ");
+        formats.dateEncoder.put(out, order.getCheckoutEpochDay());
+        out.put("\nDue date: ");
+        formats.dateEncoder.put(out, order.getDueEpochDay());
+        final List<ToolRentalAgreement> items = order.getItems();
+        for(int item = 0; item < items.size(); item++)
+        {
+            final ToolRentalAgreement agreement = items.get(item);
+            out.put("\nItem ");
+            putNumber(out, item + 1);
+            out.put(": ").put(agreement.getCode()).put(' ').put(agreement.getType().getValue()).put(' ')
+                    .put(agreement.getBrand()).put(", ");
+            putNumber(out, agreement.getChargeDays());
+            out.put(" charge days at ");
+            formats.currencyEncoder.put(out, agreement.getDailyRentalChargeCents());
+            out.put(": ");
+            formats.currencyEncoder.put(out, agreement.getPreDiscountChargeCents());
+            if(agreement.getDiscountPercent() > 0)
+            {
+                out.put(", less ");
+                putNumber(out, agreement.getDiscountPercent());
+                out.put("%: ");
+                formats.currencyEncoder.put(out, agreement.getFinalChargeCents());
+            }
+        }
+        out.put("\nPre-discount charge: ");
+        formats.currencyEncoder.put(out, order.getPreDiscountChargeCents());
+        out.put("\nDiscount percent: ");
+        putNumber(out, order.getDiscountPercent());
+        out.put("%\nDiscount amount: ");
+        formats.currencyEncoder.put(out, order.getDiscountAmountCents());
+        out.put("\nFinal charge: ");
+        formats.currencyEncoder.put(out, order.getFinalChargeCents());
+        PricingMetrics.record(PricingMetrics.Stage.RENDERING, start);
+    }
+
+    private static void writeJson(ToolRentalAgreement agreement, Sink out)
+    {
+        final long start = PricingMetrics.startTimer();
+        out.put("{\"toolCode\":");
+        putJsonString(out, agreement.getCode());
+        out.put(",\"toolType\":");
+        putJsonString(out, agreement.getType().getValue());
+        out.put(",\"toolBrand\":");
+        putJsonString(out, agreement.getBrand());
+        out.put(",\"rentalDays\":");
+        putNumber(out, agreement.getNumberOfDays());
+        out.put(",\"checkoutDate\":\"");
+        putIsoDate(out, agreement.getCheckoutEpochDay());
+        out.put("\",\"dueDate\":\"");
+        putIsoDate(out, agreement.getDueEpochDay());
+        out.put("\",\"dailyRentalChargeCents\":");
+        putNumber(out, agreement.getDailyRentalChargeCents());
+        out.put(",\"chargeDays\":");
+        putNumber(out, agreement.getChargeDays());
+        out.put(",\"preDiscountChargeCents\":");
+        putNumber(out, agreement.getPreDiscountChargeCents());
+        out.put(",\"discountPercent\":");
+        putNumber(out, agreement.getDiscountPercent());
+        out.put(",\"discountAmountCents\":");
+        putNumber(out, agreement.getDiscountAmountCents());
+        out.put(",\"finalChargeCents\":");
+        putNumber(out, agreement.getFinalChargeCents());
+        out.put(",\"currency\":\"").put(agreement.getCurrency().getCurrencyCode()).put("\"}");
+        PricingMetrics.record(PricingMetrics.Stage.RENDERING, start);
+    }
+
+    private static TextFormats defaultFormats(ToolRentalAgreement agreement)
+    {
+        final Currency currency = agreement.getCurrency();
+        final TextFormats formats = defaultFormats.get(currency);
+        if(formats != null)
+        {
+            return formats;
+        }
+        return defaultFormats.computeIfAbsent(currency,
+                c -> new TextFormats(CurrencyEncoder.forLocale(defaultLocale, c), defaultDateEncoder));
+    }
+
+    private static TextFormats localizedFormats(ToolRentalAgreement agreement, Locale locale)
+    {
+        final Currency currency = agreement.getCurrency();
+        final Map<Currency, TextFormats> formatsByCurrency = localizedFormats.computeIfAbsent(locale,
+                l -> new ConcurrentHashMap<>());
+        final TextFormats formats = formatsByCurrency.get(currency);
+        if(formats != null)
+        {
+            return formats;
+        }
+        return formatsByCurrency.computeIfAbsent(currency, c -> new TextFormats(CurrencyEncoder.forLocale(locale, c),
+                DateEncoder.forPattern(DateTimeFormatterBuilder.getLocalizedDateTimePattern(FormatStyle.SHORT, null,
+                        IsoChronology.INSTANCE, locale), locale)));
+    }
+
+    private static void putJsonString(Sink out, String value)
+    {
+        out.put('"');
+        for(int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if(c == '"' || c == '\\')
+            {
+                out.put('\\').put(c);
+            }
+            else if(c < 0x20)
+            {
+                out.put("\\u00").put(Character.forDigit(c >> 4, 16)).put(Character.forDigit(c & 0xF, 16));
+            }
+            else
+            {
+                out.put(c);
+            }
+        }
+        out.put('"');
+    }
+
+    /**
+     * Writes a date as yyyy-MM-dd, the same as {@link java.time.LocalDate#toString()}.
+     */
+    private static void putIsoDate(Sink out, long epochDay)
+    {
+        final long civil = civilDate(epochDay);
+        final long year = civilYear(civil);
+        if(year < 0)
+        {
+            out.put('-');
+        }
+        else if(year > 9999)
+        {
+            out.put('+');
+        }
+        final long absoluteYear = Math.abs(year);
+        for(int digit = 3; digit > 0 && absoluteYear < POWERS_OF_TEN[digit]; digit--)
+        {
+            out.put('0');
+        }
+        putNumber(out, absoluteYear);
+        out.put('-');
+        putTwoDigits(out, civilMonth(civil));
+        out.put('-');
+        putTwoDigits(out, civilDay(civil));
+    }
+
+    /**
+     * Converts an epoch day to a year, month and day, packed into one long so that no object is needed to return them.
+     * Uses the days-from-civil algorithm of Howard Hinnant.
+     */
+    private static long civilDate(long epochDay)
+    {
+        final long shifted = epochDay + 719468;
+        final long era = Math.floorDiv(shifted, 146097);
+        final long dayOfEra = shifted - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (year << 9) | (month << 5) | day;
+    }
+
+    private static long civilYear(long civil)
+    {
+        return civil >> 9;
+    }
+
+    private static int civilMonth(long civil)
+    {
+        return (int) ((civil >> 5) & 0xF);
+    }
+
+    private static int civilDay(long civil)
+    {
+        return (int) (civil & 0x1F);
+    }
+
+    private static void putTwoDigits(Sink out, int value)
+    {
+        out.put((char) ('0' + value / 10)).put((char) ('0' + value % 10));
+    }
+
+    private static void putNumber(Sink out, long value)
+    {
+        if(value < 0)
+        {
+            out.put('-');
+            if(value == Long.MIN_VALUE)
+            {
+                // has no positive counterpart, so the last digit is written on its own
+                putDigits(out, -(value / 10), 1, '0', 0, ' ');
+                out.put((char) ('0' - value % 10));
+                return;
+            }
+            value = -value;
+        }
+        putDigits(out, value, 1, '0', 0, ' ');
+    }
+
+    /**
+     * Writes the decimal digits of a non-negative value, most significant first.
+     *
+     * @param minimumDigits the number of digits to pad the value to with zeros
+     * @param zeroDigit the character for the digit zero, which the other digits follow
+     * @param groupingSize the number of digits between grouping separators, or 0 for no grouping
+     * @param groupingSeparator the character separating groups of digits
+     */
+    private static void putDigits(Sink out, long value, int minimumDigits, char zeroDigit, int groupingSize,
+                                  char groupingSeparator)
+    {
+        int digits = 1;
+        while(digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits])
+        {
+            digits++;
+        }
+        for(int position = Math.max(digits, minimumDigits) - 1; position >= 0; position--)
+        {
+            out.put((char) (zeroDigit + (position < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[position] % 10 : 0)));
+            if(groupingSize > 0 && position > 0 && position % groupingSize == 0)
+            {
+                out.put(groupingSeparator);
+            }
+        }
+    }
+
+    private static void putBinaryString(String value, ByteBuffer output)
+    {
+        final int length = utf8Length(value);
+        if(length > Short.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Text is too long for a binary agreement record.");
+        }
+        output.putShort((short) length);
+        final Utf8Sink utf8 = sinks.get().utf8;
+        utf8.start(output);
+        try
+        {
+            utf8.put(value);
+        }
+        finally
+        {
+            utf8.target = null;
+        }
+    }
+
+    private static String getBinaryString(ByteBuffer input)
+    {
+        final byte[] bytes = new byte[input.getShort()];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int utf8Length(String value)
+    {
+        int length = 0;
+        for(int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if(c < 0x80)
+            {
+                length += 1;
+            }
+            else if(c < 0x800)
+            {
+                length += 2;
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                length += 4;
+                i++;
+            }
+            else
+            {
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The encoders for rendering text in one locale and currency.
+     */
+    private static final class TextFormats {
+
+        final CurrencyEncoder currencyEncoder;
+        final DateEncoder dateEncoder;
+
+        TextFormats(CurrencyEncoder currencyEncoder, DateEncoder dateEncoder)
+        {
+            this.currencyEncoder = currencyEncoder;
+            this.dateEncoder = dateEncoder;
+        }
+    }
+
+    /**
+     * Writes amounts in minor units the same way as a locale's {@link NumberFormat#getCurrencyInstance(Locale)} set to a
+     * currency, using the format's symbols, digits and grouping captured once. Formats which would not write exactly the
+     * currency's minor unit digits are used directly, through a copy for each thread.
+     */
+    private static final class CurrencyEncoder {
+
+        private final String positivePrefix;
+        private final String positiveSuffix;
+        private final String negativePrefix;
+        private final String negativeSuffix;
+        private final char zeroDigit;
+        private final char decimalSeparator;
+        private final char groupingSeparator;
+        private final int groupingSize;
+        private final int fractionDigits;
+        private final boolean exact;
+        private final ThreadLocal<NumberFormat> fallbackFormat;
+
+        private CurrencyEncoder(NumberFormat format, int fractionDigits)
+        {
+            this.fractionDigits = fractionDigits;
+            fallbackFormat = ThreadLocal.withInitial(() -> (NumberFormat) format.clone());
+            if(format instanceof DecimalFormat)
+            {
+                final DecimalFormat decimalFormat = (DecimalFormat) format;
+                positivePrefix = decimalFormat.getPositivePrefix();
+                positiveSuffix = decimalFormat.getPositiveSuffix();
+                negativePrefix = decimalFormat.getNegativePrefix();
+                negativeSuffix = decimalFormat.getNegativeSuffix();
+                zeroDigit = decimalFormat.getDecimalFormatSymbols().getZeroDigit();
+                decimalSeparator = decimalFormat.getDecimalFormatSymbols().getMonetaryDecimalSeparator();
+                groupingSeparator = decimalFormat.getDecimalFormatSymbols().getMonetaryGroupingSeparator();
+                groupingSize = decimalFormat.isGroupingUsed() ? decimalFormat.getGroupingSize() : 0;
+                exact = decimalFormat.getMinimumFractionDigits() == fractionDigits
+                        && decimalFormat.getMaximumFractionDigits() == fractionDigits
+                        && decimalFormat.getMinimumIntegerDigits() == 1 && decimalFormat.getMultiplier() == 1
+                        && !decimalFormat.isDecimalSeparatorAlwaysShown() && fractionDigits < POWERS_OF_TEN.length;
+            }
+            else
+            {
+                positivePrefix = positiveSuffix = negativePrefix = negativeSuffix = "";
+                zeroDigit = '0';
+                decimalSeparator = groupingSeparator = ' ';
+                groupingSize = 0;
+                exact = false;
+            }
+        }
+
+        static CurrencyEncoder forLocale(Locale locale, Currency currency)
+        {
+            final NumberFormat format = NumberFormat.getCurrencyInstance(locale);
+            format.setCurrency(currency);
+            return new CurrencyEncoder(format, currency.getDefaultFractionDigits());
+        }
+
+        void put(Sink out, long minorUnits)
+        {
+            if(!exact)
+            {
+                out.put(fallbackFormat.get().format(BigDecimal.valueOf(minorUnits, fractionDigits)));
+                return;
+            }
+            final boolean negative = minorUnits < 0;
+            final long absoluteMinorUnits = Math.abs(minorUnits);
+            final long unit = POWERS_OF_TEN[fractionDigits];
+            out.put(negative ? negativePrefix : positivePrefix);
+            putDigits(out, absoluteMinorUnits / unit, 1, zeroDigit, groupingSize, groupingSeparator);
+            if(fractionDigits > 0)
+            {
+                out.put(decimalSeparator);
+                putDigits(out, absoluteMinorUnits % unit, fractionDigits, zeroDigit, 0, ' ');
+            }
+            out.put(negative ? negativeSuffix : positiveSuffix);
+        }
+    }
+
+    /**
+     * Writes dates the same way as a {@link DateTimeFormatter} pattern, for patterns of numeric days, months and years and
+     * literal text, which covers the short date formats. Patterns with any other field are written through the formatter.
+     */
+    private static final class DateEncoder {
+
+        private static final int LITERAL = 0;
+        private static final int DAY = 1;
+        private static final int MONTH = 2;
+        private static final int YEAR = 3;
+        private static final int TWO_DIGIT_YEAR = 4;
+
+        private final int[] fields;
+        private final int[] widths;
+        private final String[] literals;
+        private final int widestYear;
+        private final DateTimeFormatter formatter;
+        private final boolean compiled;
+
+        private DateEncoder(int[] fields, int[] widths, String[] literals, int widestYear, DateTimeFormatter formatter)
+        {
+            this.compiled = fields != null;
+            this.fields = fields;
+            this.widths = widths;
+            this.literals = literals;
+            this.widestYear = widestYear;
+            this.formatter = formatter;
+        }
+
+        static DateEncoder forPattern(String pattern, Locale locale)
+        {
+            final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern, locale);
+            final int[] fields = new int[pattern.length()];
+            final int[] widths = new int[pattern.length()];
+            final String[] literals = new String[pattern.length()];
+            int count = 0;
+            int widestYear = 0;
+            int position = 0;
+            while(position < pattern.length())
+            {
+                final char c = pattern.charAt(position);
+                if(c == '\'')
+                {
+                    // quoted text, in which two quotes are one
+                    final StringBuilder literal = new StringBuilder();
+                    position++;
+                    while(position < pattern.length())
+                    {
+                        if(pattern.charAt(position) == '\'')
+                        {
+                            if(position + 1 < pattern.length() && pattern.charAt(position + 1) == '\'')
+                            {
+                                position++;
+                            }
+                            else
+                            {
+                                break;
+                            }
+                        }
+                        literal.append(pattern.charAt(position++));
+                    }
+                    position++;
+                    fields[count] = LITERAL;
+                    literals[count++] = literal.length() == 0 ? "'" : literal.toString();
+                    continue;
+                }
+                int width = 1;
+                while(position + width < pattern.length() && pattern.charAt(position + width) == c)
+                {
+                    width++;
+                }
+                if((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z'))
+                {
+                    if((c == 'd' || c == 'M') && width <= 2)
+                    {
+                        fields[count] = c == 'd' ? DAY : MONTH;
+                    }
+                    else if(c == 'y' && width < POWERS_OF_TEN.length)
+                    {
+                        fields[count] = width == 2 ? TWO_DIGIT_YEAR : YEAR;
+                        widestYear = Math.max(widestYear, width);
+                    }
+                    else
+                    {
+                        return new DateEncoder(null, null, null, 0, formatter);
+                    }
+                    widths[count++] = width;
+                }
+                else if(c == '[' || c == ']' || c == '{' || c == '}' || c == '#')
+                {
+                    return new DateEncoder(null, null, null, 0, formatter);
+                }
+                else
+                {
+                    fields[count] = LITERAL;
+                    literals[count++] = pattern.substring(position, position + width);
+                }
+                position += width;
+            }
+            return new DateEncoder(Arrays.copyOf(fields, count), Arrays.copyOf(widths, count),
+                    Arrays.copyOf(literals, count), widestYear, formatter);
+        }
+
+        void put(Sink out, long epochDay)
+        {
+            final long civil = civilDate(epochDay);
+            final long year = civilYear(civil);
+            // years before the common era are written as years of an era, and wide years which exceed their width are signed
+            if(!compiled || year < 1 || (widestYear >= 4 && year >= POWERS_OF_TEN[widestYear]))
+            {
+                out.put(formatter.format(LocalDate.ofEpochDay(epochDay)));
+                return;
+            }
+            for(int i = 0; i < fields.length; i++)
+            {
+                switch(fields[i])
+                {
+                    case DAY:
+                        putDigits(out, civilDay(civil), widths[i], '0', 0, ' ');
+                        break;
+                    case MONTH:
+                        putDigits(out, civilMonth(civil), widths[i], '0', 0, ' ');
+                        break;
+                    case YEAR:
+                        putDigits(out, year, widths[i], '0', 0, ' ');
+                        break;
+                    case TWO_DIGIT_YEAR:
+                        putDigits(out, year % 100, 2, '0', 0, ' ');
+                        break;
+                    default:
+                        out.put(literals[i]);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The output adapters reused by one thread.
+     */
+    private static final class Sinks {
+
+        final StringBuilderSink stringBuilder = new StringBuilderSink();
+        final AppendableSink appendable = new AppendableSink();
+        final CharBufferSink charBuffer = new CharBufferSink();
+        final Utf8Sink utf8 = new Utf8Sink();
+    }
+
+    /**
+     * A destination for rendered characters.
+     */
+    private abstract static class Sink {
+
+        abstract Sink put(char c);
+
+        Sink put(String value)
+        {
+            for(int i = 0; i < value.length(); i++)
+            {
+                put(value.charAt(i));
+            }
+            return this;
+        }
+    }
+
+    private static final class StringBuilderSink extends Sink {
+
+        StringBuilder target;
+
+        @Override
+        Sink put(char c) {
+            target.append(c);
+            return this;
+        }
+
+        @Override
+        Sink put(String value) {
+            target.append(value);
+            return this;
+        }
+    }
+
+    private static final class AppendableSink extends Sink {
+
+        Appendable target;
+
+        @Override
+        Sink put(char c) {
+            try
+            {
+                target.append(c);
+            }
+            catch(IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+    }
+
+    private static final class CharBufferSink extends Sink {
+
+        CharBuffer target;
+
+        @Override
+        Sink put(char c) {
+            target.put(c);
+            return this;
+        }
+
+        @Override
+        Sink put(String value) {
+            target.put(value);
+            return this;
+        }
+    }
+
+    /**
+     * Encodes characters as UTF-8. Unpaired surrogates are written as '?', as {@link String#getBytes} would.
+     */
+    private static final class Utf8Sink extends Sink {
+
+        ByteBuffer target;
+        private char highSurrogate;
+
+        void start(ByteBuffer output)
+        {
+            target = output;
+            highSurrogate = 0;
+        }
+
+        @Override
+        Sink put(char c) {
+            if(highSurrogate != 0)
+            {
+                final char high = highSurrogate;
+                highSurrogate = 0;
+                if(Character.isLowSurrogate(c))
+                {
+                    final int codePoint = Character.toCodePoint(high, c);
+                    target.put((byte) (0xF0 | (codePoint >> 18)));
+                    target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    target.put((byte) (0x80 | (codePoint & 0x3F)));
+                    return this;
+                }
+                target.put((byte) '?');
+            }
+
+            if(c < 0x80)
+            {
+                target.put((byte) c);
+            }
+            else if(c < 0x800)
+            {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else if(Character.isHighSurrogate(c))
+            {
+                highSurrogate = c;
+            }
+            else if(Character.isLowSurrogate(c))
+            {
+                target.put((byte) '?');
+            }
+            else
+            {
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            }
+            return this;
+        }
+
+        @Override
+        Sink put(String value) {
+            super.put(value);
+            if(highSurrogate != 0)
+            {
+                highSurrogate = 0;
+                target.put((byte) '?');
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Prices a {@link QuoteBatch} with the same rules as {@link Checkout}, without building a {@link ToolRentalAgreement} or
+ * any other object per row. Large batches can be split across a {@link ForkJoinPool}.
+ */
+public class BatchCheckout {
+
+    // below this many rows a batch is priced on the current thread rather than split further
+    private static final int SPLIT_THRESHOLD = 8192;
+
+    /**
+     * Prices every row of the batch on the current thread, using the default {@link HolidayCalendar}.
+     *
+     * @param batch the batch to price; its result columns are overwritten
+     */
+    public static void price(QuoteBatch batch)
+    {
+        price(batch, HolidayCalendars.getDefault());
+    }
+
+    /**
+     * Prices every row of the batch on the current thread.
+     *
+     * @param batch the batch to price; its result columns are overwritten
+     * @param holidayCalendar the calendar determining which days are holidays
+     */
+    public static void price(QuoteBatch batch, HolidayCalendar holidayCalendar)
+    {
+        final Snapshot snapshot = validate(batch);
+        priceRange(batch, holidayCalendar, snapshot, 0, batch.size());
+    }
+
+    /**
+     * Prices every row of the batch, splitting the work across the given pool.
+     *
+     * @param batch the batch to price; its result columns are overwritten
+     * @param holidayCalendar the calendar determining which days are holidays
+     * @param pool the pool to price the batch in
+     */
+    public static void price(QuoteBatch batch, HolidayCalendar holidayCalendar, ForkJoinPool pool)
+    {
+        final Snapshot snapshot = validate(batch);
+        pool.invoke(new PriceRangeAction(batch, holidayCalendar, snapshot, 0, batch.size()));
+    }
+
+    /**
+     * Checks every row before any are priced, so that an invalid row leaves the result columns untouched, and takes the
+     * tools and rules every row is then priced with.
+     */
+    private static Snapshot validate(QuoteBatch batch)
+    {
+        final int[] toolIds = batch.getToolIds();
+        final int[] numberOfDays = batch.getNumberOfDays();
+        final int[] discountPercents = batch.getDiscountPercents();
+        // the rules are read once, so that every row is priced under the same rules even if they are reloaded meanwhile
+        final Snapshot snapshot = new Snapshot(PricingRules.current(), PromotionRules.current(), DynamicPrices.current());
+        for(int row = 0; row < batch.size(); row++)
+        {
+            if(numberOfDays[row] < 1)
+            {
+                throw new IllegalArgumentException("Row " + row + ": Rental day count must be at least 1.");
+            }
+            if(discountPercents[row] < 0 || discountPercents[row] > 100)
+            {
+                throw new IllegalArgumentException("Row " + row + ": Discount percent must be between 0 and 100.");
+            }
+            if(!snapshot.addTool(toolIds[row]))
+            {
+                throw new IllegalArgumentException("Row " + row + ": Tool code does not correspond to an existing tool.");
+            }
+        }
+        return snapshot;
+    }
+
+    private static void priceRange(QuoteBatch batch, HolidayCalendar holidayCalendar, Snapshot snapshot, int fromRow,
+                                   int toRow)
+    {
+        final int[] toolIds = batch.getToolIds();
+        final long[] checkoutEpochDays = batch.getCheckoutEpochDays();
+        final int[] numberOfDays = batch.getNumberOfDays();
+        final int[] discountPercents = batch.getDiscountPercents();
+        final int[] chargeDays = batch.getChargeDays();
+        final long[] preDiscountChargeCents = batch.getPreDiscountChargeCents();
+        final long[] discountAmountCents = batch.getDiscountAmountCents();
+        final long[] finalChargeCents = batch.getFinalChargeCents();
+
+        final Tool[] tools = snapshot.toolsById;
+        final ToolChargeData[] toolChargeData = snapshot.chargeDataById;
+        for(int row = fromRow; row < toRow; row++)
+        {
+            final Tool tool = tools[toolIds[row]];
+            final ToolChargeData chargeData = toolChargeData[toolIds[row]];
+            final long checkoutEpochDay = checkoutEpochDays[row];
+            final long dueEpochDay = checkoutEpochDay + numberOfDays[row];
+
+            chargeDays[row] = ToolRentalController.calculateChargeDays(chargeData, checkoutEpochDay, dueEpochDay,
+                    numberOfDays[row], holidayCalendar);
+            preDiscountChargeCents[row] = chargeDays[row] * snapshot.dynamicPrices.adjust(
+                    chargeData.getDailyRentalChargeCents(numberOfDays[row]), null, tool.getType());
+            final int discountPercent = Math.max(discountPercents[row], snapshot.promotionRules.getBestDiscountPercent(
+                    tool.getType(), tool.getBrand(), checkoutEpochDay, numberOfDays[row], LoyaltyTier.NONE));
+            discountAmountCents[row] = Checkout.calculateDiscountCents(preDiscountChargeCents[row], discountPercent);
+            finalChargeCents[row] = preDiscountChargeCents[row] - discountAmountCents[row];
+        }
+    }
+
+    /**
+     * The tools of a batch and the rules in effect when it was validated, by tool id, so that a tool removed or rules
+     * reloaded while the batch is priced change none of its rows.
+     */
+    private static final class Snapshot {
+
+        final PricingRules pricingRules;
+        final PromotionRules promotionRules;
+        final DynamicPrices dynamicPrices;
+        Tool[] toolsById = new Tool[16];
+        ToolChargeData[] chargeDataById = new ToolChargeData[16];
+
+        Snapshot(PricingRules pricingRules, PromotionRules promotionRules, DynamicPrices dynamicPrices)
+        {
+            this.pricingRules = pricingRules;
+            this.promotionRules = promotionRules;
+            this.dynamicPrices = dynamicPrices;
+        }
+
+        /**
+         * @return whether the id is of an existing tool
+         */
+        boolean addTool(int toolId)
+        {
+            if(toolId >= 0 && toolId < toolsById.length && toolsById[toolId] != null)
+            {
+                return true;
+            }
+            final Tool tool = ToolRepository.getToolById(toolId);
+            if(tool == null)
+            {
+                return false;
+            }
+            if(toolId >= toolsById.length)
+            {
+                final int capacity = Math.max(toolId + 1, toolsById.length * 2);
+                toolsById = Arrays.copyOf(toolsById, capacity);
+                chargeDataById = Arrays.copyOf(chargeDataById, capacity);
+            }
+            toolsById[toolId] = tool;
+            chargeDataById[toolId] = pricingRules.getChargeData(tool.getType());
+            return true;
+        }
+    }
+
+    /**
+     * Prices a range of rows, splitting it in half until it is small enough to price directly.
+     */
+    private static final class PriceRangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final QuoteBatch batch;
+        private final HolidayCalendar holidayCalendar;
+        private final Snapshot snapshot;
+        private final int fromRow;
+        private final int toRow;
+
+        PriceRangeAction(QuoteBatch batch, HolidayCalendar holidayCalendar, Snapshot snapshot, int fromRow, int toRow)
+        {
+            this.batch = batch;
+            this.holidayCalendar = holidayCalendar;
+            this.snapshot = snapshot;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if(toRow - fromRow <= SPLIT_THRESHOLD)
+            {
+                priceRange(batch, holidayCalendar, snapshot, fromRow, toRow);
+                return;
+            }
+            final int middleRow = (fromRow + toRow) >>> 1;
+            invokeAll(new PriceRangeAction(batch, holidayCalendar, snapshot, fromRow, middleRow),
+                    new PriceRangeAction(batch, holidayCalendar, snapshot, middleRow, toRow));
+        }
+    }
+}
@@ -0,0 +1,446 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Prices a file of rental requests, writing the results to another file as it goes.
+ * <p>
+ * Each input line is {@code toolCode,checkoutDate,rentalDays,discountPercent}, with the date as yyyy-MM-dd; a first line
+ * starting with "toolCode" is treated as a header. Each output line repeats the input and adds the due date, charge days,
+ * pre-discount charge, discount amount and final charge. Lines which cannot be priced are written with an error message
+ * instead, and do not stop the run.
+ * <p>
+ * The file is read in chunks of rows which are passed through a pipeline: the calling thread reads and parses chunks, a
+ * pool of pricing threads prices each chunk as a {@link QuoteBatch}, and a writer thread writes the chunks back out in
+ * their original order. The queues between the stages are bounded, so only a few chunks are held in memory at once
+ * however large the file is.
+ */
+public class BulkPricer {
+
+    private static final String HEADER_PREFIX = "toolCode";
+    private static final String OUTPUT_HEADER = "toolCode,checkoutDate,rentalDays,discountPercent,"
+            + "dueDate,chargeDays,preDiscountCharge,discountAmount,finalCharge";
+    private static final int ROWS_PER_CHUNK = 4096;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // marks the end of the input on a queue
+    private static final Chunk END = new Chunk(-1);
+
+    private final int pricingThreads;
+    private final PrintStream progress;
+
+    /**
+     * @param pricingThreads the number of threads pricing chunks
+     * @param progress where to report progress and errors, at most once a second
+     */
+    public BulkPricer(int pricingThreads, PrintStream progress)
+    {
+        if(pricingThreads < 1)
+        {
+            throw new IllegalArgumentException("At least one pricing thread is needed.");
+        }
+        this.pricingThreads = pricingThreads;
+        this.progress = progress;
+    }
+
+    /**
+     * Prices every request in the input file and writes the results to the output file, replacing it if it exists.
+     *
+     * @param input the file of rental requests
+     * @param output the file to write the priced requests to
+     *
+     * @return the number of requests read
+     */
+    public long price(Path input, Path output) throws IOException
+    {
+        final BlockingQueue<Chunk> toPrice = new ArrayBlockingQueue<>(pricingThreads * 2);
+        final BlockingQueue<Chunk> toWrite = new ArrayBlockingQueue<>(pricingThreads * 2);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        final List<Thread> pricers = new ArrayList<>();
+        for(int i = 0; i < pricingThreads; i++)
+        {
+            final Thread pricer = new Thread(() -> priceChunks(toPrice, toWrite, failure), "bulk-pricer-" + i);
+            pricers.add(pricer);
+            pricer.start();
+        }
+        final long[] rowsWritten = new long[1];
+        final Thread writer = new Thread(() -> rowsWritten[0] = writeChunks(toWrite, output, failure), "bulk-writer");
+        writer.start();
+
+        long rowsRead = 0;
+        try(BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8))
+        {
+            long sequence = 0;
+            Chunk chunk = new Chunk(sequence++);
+            String line = reader.readLine();
+            if(line != null && line.startsWith(HEADER_PREFIX))
+            {
+                line = reader.readLine();
+            }
+            for(; line != null && failure.get() == null; line = reader.readLine())
+            {
+                if(line.isBlank())
+                {
+                    continue;
+                }
+                chunk.add(line);
+                rowsRead++;
+                if(chunk.lineCount == ROWS_PER_CHUNK)
+                {
+                    put(toPrice, chunk);
+                    chunk = new Chunk(sequence++);
+                }
+            }
+            if(chunk.lineCount > 0)
+            {
+                put(toPrice, chunk);
+            }
+        }
+        finally
+        {
+            // every pricer stops at its own end marker; the writer stops once every pricer has passed one on
+            for(int i = 0; i < pricingThreads; i++)
+            {
+                put(toPrice, END);
+            }
+            join(pricers);
+            join(List.of(writer));
+        }
+
+        final Throwable error = failure.get();
+        if(error instanceof IOException e)
+        {
+            throw e;
+        }
+        else if(error != null)
+        {
+            throw new IllegalStateException("Bulk pricing failed.", error);
+        }
+        if(rowsWritten[0] != rowsRead)
+        {
+            throw new IllegalStateException("Read " + rowsRead + " rows but wrote " + rowsWritten[0] + ".");
+        }
+        return rowsRead;
+    }
+
+    private void priceChunks(BlockingQueue<Chunk> toPrice, BlockingQueue<Chunk> toWrite, AtomicReference<Throwable> failure)
+    {
+        // once anything has failed, chunks are still taken until the end marker, so the reader is never left blocked on a
+        // full queue
+        Chunk chunk;
+        while((chunk = take(toPrice)) != END)
+        {
+            if(failure.get() == null)
+            {
+                try
+                {
+                    chunk.price();
+                    put(toWrite, chunk);
+                }
+                catch(RuntimeException | Error e)
+                {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+        put(toWrite, END);
+    }
+
+    private long writeChunks(BlockingQueue<Chunk> toWrite, Path output, AtomicReference<Throwable> failure)
+    {
+        // chunks priced out of order wait here until the chunks before them have been written
+        final Map<Long, Chunk> waiting = new TreeMap<>();
+        long nextSequence = 0;
+        long rowsWritten = 0;
+        int pricersFinished = 0;
+        final long startNanos = System.nanoTime();
+        long lastProgressNanos = startNanos;
+
+        try(BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8))
+        {
+            writer.write(OUTPUT_HEADER);
+            writer.newLine();
+            final StringBuilder line = new StringBuilder(128);
+            while(pricersFinished < pricingThreads)
+            {
+                final Chunk chunk = toWrite.take();
+                if(chunk == END)
+                {
+                    pricersFinished++;
+                    continue;
+                }
+                waiting.put(chunk.sequence, chunk);
+
+                Chunk next;
+                while((next = waiting.remove(nextSequence)) != null)
+                {
+                    rowsWritten += next.write(writer, line);
+                    nextSequence++;
+                }
+
+                final long now = System.nanoTime();
+                if(now - lastProgressNanos >= PROGRESS_INTERVAL_NANOS)
+                {
+                    reportProgress(rowsWritten, now - startNanos);
+                    lastProgressNanos = now;
+                }
+            }
+            reportProgress(rowsWritten, System.nanoTime() - startNanos);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            failure.compareAndSet(null, e);
+            // keep taking chunks so that the pricers are never blocked on a full queue
+            drainUntilFinished(toWrite, pricersFinished);
+        }
+        catch(InterruptedException e)
+        {
+            failure.compareAndSet(null, e);
+            Thread.currentThread().interrupt();
+        }
+        return rowsWritten;
+    }
+
+    private void drainUntilFinished(BlockingQueue<Chunk> toWrite, int pricersFinished)
+    {
+        try
+        {
+            while(pricersFinished < pricingThreads)
+            {
+                if(toWrite.take() == END)
+                {
+                    pricersFinished++;
+                }
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reportProgress(long rowsWritten, long elapsedNanos)
+    {
+        final double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        progress.printf("Priced %,d rows in %.1f s (%,.0f rows/s)%n", rowsWritten, seconds, rowsWritten / seconds);
+    }
+
+    private static Chunk take(BlockingQueue<Chunk> queue)
+    {
+        boolean interrupted = false;
+        while(true)
+        {
+            try
+            {
+                final Chunk chunk = queue.take();
+                if(interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return chunk;
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+    }
+
+    private static void put(BlockingQueue<Chunk> queue, Chunk chunk)
+    {
+        boolean interrupted = false;
+        while(true)
+        {
+            try
+            {
+                queue.put(chunk);
+                break;
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void join(List<Thread> threads)
+    {
+        for(Thread thread : threads)
+        {
+            boolean joined = false;
+            while(!joined)
+            {
+                try
+                {
+                    thread.join();
+                    joined = true;
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends an amount in cents as a plain decimal, such as 12.05 or -0.50.
+     */
+    static void appendCents(StringBuilder builder, long cents)
+    {
+        if(cents < 0)
+        {
+            builder.append('-');
+            cents = -cents;
+        }
+        final long fraction = cents % 100;
+        builder.append(cents / 100).append('.');
+        if(fraction < 10)
+        {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+
+    /**
+     * A run of consecutive input lines. The lines which parse are gathered into request columns and priced as one
+     * {@link QuoteBatch}; the rest keep their error message.
+     */
+    private static final class Chunk {
+
+        final long sequence;
+        final String[] lines;
+        final String[] errors;
+        int lineCount;
+
+        // request columns for the lines which parsed, and the line each row came from
+        final int[] lineOfRow;
+        final int[] toolIds;
+        final long[] checkoutEpochDays;
+        final int[] numberOfDays;
+        final int[] discountPercents;
+        int rowCount;
+
+        QuoteBatch batch;
+
+        Chunk(long sequence)
+        {
+            this.sequence = sequence;
+            final int capacity = sequence < 0 ? 0 : ROWS_PER_CHUNK;
+            lines = new String[capacity];
+            errors = new String[capacity];
+            lineOfRow = new int[capacity];
+            toolIds = new int[capacity];
+            checkoutEpochDays = new long[capacity];
+            numberOfDays = new int[capacity];
+            discountPercents = new int[capacity];
+        }
+
+        void add(String line)
+        {
+            final int lineIndex = lineCount++;
+            lines[lineIndex] = line;
+
+            final String[] fields = line.split(",", -1);
+            if(fields.length != 4)
+            {
+                errors[lineIndex] = "Expected 4 fields but found " + fields.length + ".";
+                return;
+            }
+            final int toolId = ToolRepository.getToolId(fields[0].trim());
+            final long checkoutEpochDay;
+            final int days;
+            final int discountPercent;
+            try
+            {
+                checkoutEpochDay = LocalDate.parse(fields[1].trim()).toEpochDay();
+                days = Integer.parseInt(fields[2].trim());
+                discountPercent = Integer.parseInt(fields[3].trim());
+            }
+            catch(DateTimeParseException | NumberFormatException e)
+            {
+                errors[lineIndex] = "Could not parse the request: " + e.getMessage();
+                return;
+            }
+
+            // the same checks as Checkout, so one bad line does not fail the whole batch
+            if(days < 1)
+            {
+                errors[lineIndex] = "Rental day count must be at least 1.";
+            }
+            else if(discountPercent < 0 || discountPercent > 100)
+            {
+                errors[lineIndex] = "Discount percent must be between 0 and 100.";
+            }
+            else if(toolId < 0)
+            {
+                errors[lineIndex] = "Tool code does not correspond to an existing tool.";
+            }
+            else
+            {
+                final int row = rowCount++;
+                lineOfRow[row] = lineIndex;
+                toolIds[row] = toolId;
+                checkoutEpochDays[row] = checkoutEpochDay;
+                numberOfDays[row] = days;
+                discountPercents[row] = discountPercent;
+            }
+        }
+
+        void price()
+        {
+            batch = new QuoteBatch(rowCount, toolIds, checkoutEpochDays, numberOfDays, discountPercents);
+            BatchCheckout.price(batch);
+        }
+
+        /**
+         * @return the number of lines written
+         */
+        int write(BufferedWriter writer, StringBuilder line) throws IOException
+        {
+            int row = 0;
+            for(int lineIndex = 0; lineIndex < lineCount; lineIndex++)
+            {
+                line.setLength(0);
+                line.append(lines[lineIndex]).append(',');
+                if(errors[lineIndex] != null)
+                {
+                    line.append("ERROR: ").append(errors[lineIndex].replace(',', ';'));
+                }
+                else
+                {
+                    line.append(LocalDate.ofEpochDay(checkoutEpochDays[row] + numberOfDays[row])).append(',')
+                            .append(batch.getChargeDays()[row]).append(',');
+                    appendCents(line, batch.getPreDiscountChargeCents()[row]);
+                    line.append(',');
+                    appendCents(line, batch.getDiscountAmountCents()[row]);
+                    line.append(',');
+                    appendCents(line, batch.getFinalChargeCents()[row]);
+                    row++;
+                }
+                writer.append(line);
+                writer.newLine();
+            }
+            return lineCount;
+        }
+    }
+}
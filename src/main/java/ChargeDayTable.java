@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.util.zip.CRC32;
+
+/**
+ * Precomputed charge days for every rental within a bounded horizon of dates, for one {@link HolidayCalendar}.
+ * <p>
+ * There are only four charge profiles, the combinations of {@link ToolChargeData#hasHolidayCharge()} and
+ * {@link ToolChargeData#hasWeekendCharge()}. For each, the table holds the number of billable days before every day of the
+ * horizon, where a holiday on a weekend day is exempt once if either is not charged, so the charge days of a rental are
+ * the difference of two entries, less one if the checkout date is a weekend day which the profile does not charge for.
+ * {@link ToolRentalController} answers from the calendar's table when a rental lies within its horizon, and counts
+ * arithmetically otherwise.
+ * <p>
+ * A table can be written to a compact snapshot, holding only the horizon, a bitmap of its holidays and the
+ * {@link HolidayCalendar#getRulesFingerprint() fingerprint} of the rules they came from, so that it can be loaded at
+ * startup without evaluating the calendar's rules.
+ */
+public final class ChargeDayTable {
+
+    private static final int SNAPSHOT_MAGIC = 0x43445432;
+    private static final int SNAPSHOT_HEADER_SIZE = Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int FIRST_WEEKEND_DAY_INDEX = DayOfWeek.SATURDAY.ordinal();
+
+    private final HolidayCalendar holidayCalendar;
+    private final long firstEpochDay;
+    private final int numberOfDays;
+    private final byte[] holidayBitmap;
+    // per profile, the number of billable days from the first day of the horizon up to, but not including, each day
+    private final int[][] billableDaysBefore;
+
+    private ChargeDayTable(HolidayCalendar holidayCalendar, long firstEpochDay, int numberOfDays, byte[] holidayBitmap)
+    {
+        this.holidayCalendar = holidayCalendar;
+        this.firstEpochDay = firstEpochDay;
+        this.numberOfDays = numberOfDays;
+        this.holidayBitmap = holidayBitmap;
+
+        billableDaysBefore = new int[ToolChargeData.NUMBER_OF_CHARGE_PROFILES][numberOfDays + 1];
+        for(int profile = 0; profile < ToolChargeData.NUMBER_OF_CHARGE_PROFILES; profile++)
+        {
+            final boolean holidayCharge = (profile & ToolChargeData.HOLIDAY_CHARGE_PROFILE_BIT) != 0;
+            final boolean weekendCharge = (profile & ToolChargeData.WEEKEND_CHARGE_PROFILE_BIT) != 0;
+            final int[] billable = billableDaysBefore[profile];
+            for(int day = 0; day < numberOfDays; day++)
+            {
+                final boolean exempt = (!holidayCharge && isHoliday(day))
+                        || (!weekendCharge && isWeekend(firstEpochDay + day));
+                billable[day + 1] = billable[day] + (exempt ? 0 : 1);
+            }
+        }
+    }
+
+    /**
+     * Builds the table for a horizon from the calendar's holidays.
+     *
+     * @param holidayCalendar the calendar determining which days are holidays
+     * @param firstEpochDay the first day of the horizon
+     * @param numberOfDays the number of days in the horizon
+     *
+     * @return the table
+     */
+    public static ChargeDayTable build(HolidayCalendar holidayCalendar, long firstEpochDay, int numberOfDays)
+    {
+        if(numberOfDays < 1)
+        {
+            throw new IllegalArgumentException("Horizon must be at least 1 day.");
+        }
+        final byte[] holidayBitmap = new byte[(numberOfDays + Byte.SIZE - 1) / Byte.SIZE];
+        for(int day = 0; day < numberOfDays; day++)
+        {
+            final long epochDay = firstEpochDay + day;
+            if(holidayCalendar.countHolidays(epochDay - 1, epochDay) != 0)
+            {
+                holidayBitmap[day / Byte.SIZE] |= (byte) (1 << (day % Byte.SIZE));
+            }
+        }
+        return new ChargeDayTable(holidayCalendar, firstEpochDay, numberOfDays, holidayBitmap);
+    }
+
+    /**
+     * Loads a table from a snapshot written by {@link #write(Path)}.
+     *
+     * @param file the snapshot file
+     * @param holidayCalendar the calendar the snapshot was written from
+     *
+     * @return the table
+     *
+     * @throws IOException if the file cannot be read, is not an intact snapshot, or was written from different rules
+     */
+    public static ChargeDayTable read(Path file, HolidayCalendar holidayCalendar) throws IOException
+    {
+        final byte[] contents = Files.readAllBytes(file);
+        if(contents.length < SNAPSHOT_HEADER_SIZE + Long.BYTES)
+        {
+            throw new IOException("File is not a charge day table snapshot: " + file);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(contents);
+        final int magic = buffer.getInt();
+        final long rulesFingerprint = buffer.getLong();
+        final long firstEpochDay = buffer.getLong();
+        final int numberOfDays = buffer.getInt();
+        final int bitmapLength = (numberOfDays + Byte.SIZE - 1) / Byte.SIZE;
+        if(magic != SNAPSHOT_MAGIC || numberOfDays < 1
+                || contents.length != SNAPSHOT_HEADER_SIZE + bitmapLength + Long.BYTES)
+        {
+            throw new IOException("File is not a charge day table snapshot: " + file);
+        }
+        final byte[] holidayBitmap = new byte[bitmapLength];
+        buffer.get(holidayBitmap);
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(contents, 0, SNAPSHOT_HEADER_SIZE + bitmapLength);
+        if(buffer.getLong() != checksum.getValue())
+        {
+            throw new IOException("Charge day table snapshot is corrupt: " + file);
+        }
+        if(rulesFingerprint != holidayCalendar.getRulesFingerprint())
+        {
+            throw new IOException("Charge day table snapshot is for different holiday rules: " + file);
+        }
+        return new ChargeDayTable(holidayCalendar, firstEpochDay, numberOfDays, holidayBitmap);
+    }
+
+    /**
+     * Writes the table's horizon and holidays to a snapshot file, replacing any existing file.
+     *
+     * @param file the snapshot file
+     */
+    public void write(Path file) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE + holidayBitmap.length + Long.BYTES);
+        buffer.putInt(SNAPSHOT_MAGIC).putLong(holidayCalendar.getRulesFingerprint()).putLong(firstEpochDay)
+                .putInt(numberOfDays).put(holidayBitmap);
+        final CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(checksum.getValue());
+        Files.write(file, buffer.array());
+    }
+
+    /**
+     * @return the calendar whose holidays the table holds
+     */
+    public HolidayCalendar getHolidayCalendar() {
+        return holidayCalendar;
+    }
+
+    public long getFirstEpochDay() {
+        return firstEpochDay;
+    }
+
+    public long getLastEpochDay() {
+        return firstEpochDay + numberOfDays - 1;
+    }
+
+    /**
+     * @return whether a rental period lies within the table's horizon
+     */
+    public boolean covers(long rentalEpochDay, long dueEpochDay)
+    {
+        return rentalEpochDay >= firstEpochDay && dueEpochDay >= rentalEpochDay
+                && dueEpochDay - firstEpochDay < numberOfDays;
+    }
+
+    /**
+     * Looks up the charge days of a rental period within the horizon, counted as
+     * {@link ToolRentalController#calculateChargeDays(ToolChargeData, long, long, int, HolidayCalendar)} does.
+     *
+     * @param toolChargeData contains whether the tool has a daily charge on holidays and weekends
+     * @param rentalEpochDay the epoch day of the start of the tool rental
+     * @param dueEpochDay the epoch day when the tool is due for return
+     * @param numberOfDays the number of days in the rental period
+     *
+     * @return the number of days in the rental period for which the customer will be charged
+     */
+    public int calculateChargeDays(ToolChargeData toolChargeData, long rentalEpochDay, long dueEpochDay, int numberOfDays)
+    {
+        final int[] billable = billableDaysBefore[toolChargeData.getChargeProfile()];
+        // the billable days after the checkout date through the due date; the checkout date itself is only exempt when
+        // it falls on a weekend, since a holiday on the day of checkout is charged
+        int chargeDays = numberOfDays - (int) (dueEpochDay - rentalEpochDay)
+                + billable[(int) (dueEpochDay + 1 - firstEpochDay)] - billable[(int) (rentalEpochDay + 1 - firstEpochDay)];
+        if(!toolChargeData.hasWeekendCharge() && isWeekend(rentalEpochDay))
+        {
+            chargeDays--;
+        }
+        return chargeDays;
+    }
+
+    private boolean isHoliday(int day)
+    {
+        return (holidayBitmap[day / Byte.SIZE] & (1 << (day % Byte.SIZE))) != 0;
+    }
+
+    private static boolean isWeekend(long epochDay)
+    {
+        return ToolRentalController.dayOfWeekIndex(epochDay) >= FIRST_WEEKEND_DAY_INDEX;
+    }
+}
@@ -1,23 +1,20 @@
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
 
 /**
- * Produces a {@link ToolRentalAgreement} via {@link #createRentalAgreement(String, int, int, LocalDate)}.
+ * Produces a {@link ToolRentalAgreement} via {@link #createRentalAgreement(String, int, int, LocalDate)}, or an
+ * {@link OrderAgreement} for several tools rented together via {@link #createOrderAgreement(List, int, int, LocalDate)}.
+ * <p>
+ * All amounts are calculated in whole cents with integer arithmetic and are only formatted when the agreement is output,
+ * so no shared mutable formatters are used and concurrent checkouts do not need to be synchronized. Each stage of a
+ * checkout is timed by {@link PricingMetrics} when metrics are enabled.
  */
 public class Checkout {
 
-    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM-dd-yy");
-
-    // used in intermediate calculations, this decimal format will specify a "round up" behavior
-    private static final DecimalFormat decimalFormat = new DecimalFormat("0.00");
-    // the final rental charge does not need to be rounded, so it needs to be a separate decimal format
-    private static final DecimalFormat finalAmountDecimalFormat =  new DecimalFormat("0.00");
-    // handles adding the local currency symbol (such as '$') to a value representing currency
-    private static final NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
+    private static final int PERCENT = 100;
 
     /**
      * Constructs the rental agreement for a tool rental.
@@ -31,31 +28,435 @@ public class Checkout {
      */
     public static ToolRentalAgreement createRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate)
     {
+        return createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate, HolidayCalendars.getDefault());
+    }
+
+    /**
+     * Constructs the rental agreement for a tool rental, using the holidays of a specific region or store.
+     *
+     * @param toolCode the type of tool being rented. Must correspond to a tool code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the final rental charge
+     * @param checkoutDate the start of the rental period
+     * @param holidayCalendar the calendar determining which days in the rental period are holidays
+     *
+     * @return the fully-constructed {@link ToolRentalAgreement}
+     */
+    public static ToolRentalAgreement createRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate,
+                                                            HolidayCalendar holidayCalendar)
+    {
+        return createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate, holidayCalendar,
+                CurrencyRates.current().getBaseCurrency());
+    }
+
+    /**
+     * Constructs the rental agreement for a tool rental priced in a given currency. The daily charge is converted from the
+     * base currency with the {@link CurrencyRates} in effect, rounded to the currency's minor unit, and the other amounts
+     * are calculated from it in that currency.
+     *
+     * @param toolCode the type of tool being rented. Must correspond to a tool code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the final rental charge
+     * @param checkoutDate the start of the rental period
+     * @param holidayCalendar the calendar determining which days in the rental period are holidays
+     * @param currency the currency to price the rental in
+     *
+     * @return the fully-constructed {@link ToolRentalAgreement}
+     */
+    public static ToolRentalAgreement createRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate,
+                                                            HolidayCalendar holidayCalendar, Currency currency)
+    {
+        return createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate, holidayCalendar, currency,
+                LoyaltyTier.NONE);
+    }
+
+    /**
+     * Constructs the rental agreement for a tool rental by a customer with a loyalty tier, which may make more
+     * promotions apply.
+     *
+     * @param toolCode the type of tool being rented. Must correspond to a tool code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the final rental charge
+     * @param checkoutDate the start of the rental period
+     * @param loyaltyTier the loyalty tier of the customer
+     *
+     * @return the fully-constructed {@link ToolRentalAgreement}
+     */
+    public static ToolRentalAgreement createRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate,
+                                                            LoyaltyTier loyaltyTier)
+    {
+        return createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate, HolidayCalendars.getDefault(),
+                CurrencyRates.current().getBaseCurrency(), loyaltyTier);
+    }
+
+    /**
+     * Constructs the rental agreement for a tool rental priced in a given currency, by a customer with a loyalty tier.
+     * <p>
+     * The discount is the larger of the given discount and the best of the {@link PromotionRules} in effect which apply to
+     * the rental; promotions do not add to each other or to the given discount. The daily charge is the chain's rate
+     * published by {@link DynamicPricing}, which is the list rate unless dynamic pricing is started.
+     *
+     * @param toolCode the type of tool being rented. Must correspond to a tool code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the final rental charge
+     * @param checkoutDate the start of the rental period
+     * @param holidayCalendar the calendar determining which days in the rental period are holidays
+     * @param currency the currency to price the rental in
+     * @param loyaltyTier the loyalty tier of the customer
+     *
+     * @return the fully-constructed {@link ToolRentalAgreement}
+     */
+    public static ToolRentalAgreement createRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate,
+                                                            HolidayCalendar holidayCalendar, Currency currency,
+                                                            LoyaltyTier loyaltyTier)
+    {
+        return createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate, holidayCalendar, currency,
+                loyaltyTier, null);
+    }
+
+    /**
+     * Constructs the rental agreement for a tool rental, at the daily rate published by {@link DynamicPricing} for the
+     * store it is rented from.
+     *
+     * @param storeId the store the tool is rented from, or null for the chain's rates
+     */
+    private static ToolRentalAgreement createRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate,
+                                                             HolidayCalendar holidayCalendar, Currency currency,
+                                                             LoyaltyTier loyaltyTier, String storeId)
+    {
+        long stageStart = PricingMetrics.startTimer();
+        final long checkoutStart = stageStart;
         if(numberOfDays < 1)
         {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.INVALID_RENTAL_DAYS);
             throw new IllegalArgumentException("Rental day count must be at least 1.");
         }
 
         if(discountPercent < 0 || discountPercent > 100)
         {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.INVALID_DISCOUNT);
             throw new IllegalArgumentException("Discount percent must be between 0 and 100.");
         }
 
-        final Tool tool = Optional.ofNullable(ToolRepository.getTool(toolCode))
-                    .orElseThrow(() -> new IllegalArgumentException("Tool code does not correspond to an existing tool."));
+        final CurrencyRates currencyRates = CurrencyRates.current();
+        if(!currencyRates.supports(currency))
+        {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.UNKNOWN_CURRENCY);
+            throw new IllegalArgumentException("No exchange rate is known for the currency.");
+        }
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.VALIDATION, stageStart);
+
+        final Tool tool = ToolRepository.getTool(toolCode);
+        if(tool == null)
+        {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.UNKNOWN_TOOL);
+            throw new IllegalArgumentException("Tool code does not correspond to an existing tool.");
+        }
         final ToolChargeData toolChargeData = tool.getChargeData();
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.TOOL_LOOKUP, stageStart);
+
+        final long checkoutEpochDay = checkoutDate.toEpochDay();
+        final long dueEpochDay = checkoutEpochDay + numberOfDays;
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.DUE_DATE, stageStart);
 
-        final LocalDate dueDate = ToolRentalController.calculateDueDate(checkoutDate, numberOfDays);
-        final int chargeDays = ToolRentalController.calculateChargeDays(toolChargeData, checkoutDate, dueDate, numberOfDays);
-        final double dailyRentalCharge = toolChargeData.getDailyRentalCharge();
-        decimalFormat.setRoundingMode(RoundingMode.UP);
-        final double preDiscountCharge = Double.parseDouble(decimalFormat.format(chargeDays * dailyRentalCharge));
-        final double discountAmount = Double.parseDouble(decimalFormat.format(preDiscountCharge * ((double)discountPercent / 100)));
-        final double finalCharge = Double.parseDouble(finalAmountDecimalFormat.format(preDiscountCharge - discountAmount));
+        final int chargeDays = ToolRentalController.calculateChargeDays(toolChargeData, checkoutEpochDay, dueEpochDay,
+                numberOfDays, holidayCalendar);
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.CHARGE_DAYS, stageStart);
 
+        final long dailyRentalChargeCents = currencyRates.convert(DynamicPrices.current().adjust(
+                toolChargeData.getDailyRentalChargeCents(numberOfDays), storeId, tool.getType()), currency);
+        final long preDiscountChargeCents = chargeDays * dailyRentalChargeCents;
+        final int appliedDiscountPercent = Math.max(discountPercent, PromotionRules.current().getBestDiscountPercent(
+                tool.getType(), tool.getBrand(), checkoutEpochDay, numberOfDays, loyaltyTier));
+        final long discountAmountCents = calculateDiscountCents(preDiscountChargeCents, appliedDiscountPercent);
+        final long finalChargeCents = preDiscountChargeCents - discountAmountCents;
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.CHARGES, stageStart);
+
+        final ToolRentalAgreement agreement = new ToolRentalAgreement(toolCode, tool.getType(), tool.getBrand(),
+                numberOfDays, checkoutEpochDay, dueEpochDay, dailyRentalChargeCents, chargeDays, preDiscountChargeCents,
+                appliedDiscountPercent, discountAmountCents, finalChargeCents, currency);
+        PricingMetrics.record(PricingMetrics.Stage.AGREEMENT, stageStart);
+        PricingMetrics.record(PricingMetrics.Stage.CHECKOUT, checkoutStart);
+        PricingMetrics.recordCheckout(tool.getType());
+        return agreement;
+    }
+
+    /**
+     * Constructs the rental agreement for a tool rented from a specific store. One unit of the tool is reserved from the
+     * store's available units, the holidays of the store's region are used, and the rental is priced in the currency of
+     * the store's locale if one has been assigned with {@link StoreLocales}. When {@link DynamicPricing} is started, the
+     * store's published daily rate is charged and the checkout counts towards the store's demand.
+     * <p>
+     * The reserved unit is not returned to the store by this method. Open the rental with
+     * {@link OpenRentals#open(ToolRentalAgreement, String)} so that returning it releases the unit, or release it with
+     * {@link ToolRepository#releaseUnit(String, String)} if the rental is not going ahead.
+     *
+     * @param toolCode the type of tool being rented. Must correspond to a tool code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the final rental charge
+     * @param checkoutDate the start of the rental period
+     * @param storeId the identifier of the store the tool is rented from
+     *
+     * @return the fully-constructed {@link ToolRentalAgreement}
+     */
+    public static ToolRentalAgreement createRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate,
+                                                            String storeId)
+    {
+        if(ToolRepository.getTool(toolCode) == null)
+        {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.UNKNOWN_TOOL);
+            throw new IllegalArgumentException("Tool code does not correspond to an existing tool.");
+        }
+        if(!ToolRepository.tryReserveUnit(toolCode, storeId))
+        {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.NO_UNITS_AVAILABLE);
+            throw new IllegalStateException("No units of the tool are available at the store.");
+        }
+        try
+        {
+            final ToolRentalAgreement agreement = createRentalAgreement(toolCode, numberOfDays, discountPercent,
+                    checkoutDate, HolidayCalendars.forRegion(storeId), StoreLocales.getCurrency(storeId), LoyaltyTier.NONE,
+                    storeId);
+            DynamicPricing.recordCheckout(storeId, agreement.getType(), numberOfDays);
+            return agreement;
+        }
+        catch(RuntimeException e)
+        {
+            ToolRepository.releaseUnit(toolCode, storeId);
+            throw e;
+        }
+    }
 
-        return new ToolRentalAgreement(toolCode, tool.getType().getValue(), tool.getBrand(), numberOfDays, checkoutDate.format(formatter),
-                dueDate.format(formatter), currencyFormat.format(dailyRentalCharge), chargeDays, currencyFormat.format(preDiscountCharge),
-                discountPercent, currencyFormat.format(discountAmount), currencyFormat.format(finalCharge));
+    /**
+     * Constructs the rental agreement for a specific unit of a tool, booking the unit in the fleet calendar from the
+     * checkout date through the due date. The unit is booked before the rental is priced, so a rental which cannot be
+     * booked is not counted as a checkout, and the booking is cancelled if the rental cannot be priced.
+     *
+     * @param toolCode the type of tool being rented. Must correspond to a tool code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the final rental charge
+     * @param checkoutDate the start of the rental period
+     * @param fleetCalendar the calendar of bookings of the tool's units
+     * @param unitId the unit being rented, as found free by {@link FleetCalendar#findFreeUnits}
+     *
+     * @return the fully-constructed {@link ToolRentalAgreement}
+     */
+    public static ToolRentalAgreement createRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate,
+                                                            FleetCalendar fleetCalendar, int unitId)
+    {
+        if(!toolCode.equals(fleetCalendar.getToolCode(unitId)))
+        {
+            throw new IllegalArgumentException("Unit is not a unit of the tool.");
+        }
+        if(!fleetCalendar.tryBook(unitId, checkoutDate, numberOfDays))
+        {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.NO_UNITS_AVAILABLE);
+            throw new IllegalStateException("The unit is already rented during the rental period.");
+        }
+        try
+        {
+            return createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate);
+        }
+        catch(RuntimeException e)
+        {
+            fleetCalendar.cancel(unitId, checkoutDate);
+            throw e;
+        }
+    }
+
+    /**
+     * Constructs the combined agreement for an order of tools rented over the same rental period.
+     *
+     * @param toolCodes the tool being rented for each item of the order, which may repeat. Each must correspond to a tool
+     *                  code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the order's total charge
+     * @param checkoutDate the start of the rental period
+     *
+     * @return the fully-constructed {@link OrderAgreement}
+     */
+    public static OrderAgreement createOrderAgreement(List<String> toolCodes, int numberOfDays, int discountPercent,
+                                                      LocalDate checkoutDate)
+    {
+        return createOrderAgreement(toolCodes, numberOfDays, discountPercent, checkoutDate, HolidayCalendars.getDefault(),
+                CurrencyRates.current().getBaseCurrency());
+    }
+
+    /**
+     * Constructs the combined agreement for an order of tools rented over the same rental period, priced in a given
+     * currency.
+     *
+     * @param toolCodes the tool being rented for each item of the order, which may repeat. Each must correspond to a tool
+     *                  code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the order's total charge
+     * @param checkoutDate the start of the rental period
+     * @param holidayCalendar the calendar determining which days in the rental period are holidays
+     * @param currency the currency to price the order in
+     *
+     * @return the fully-constructed {@link OrderAgreement}
+     */
+    public static OrderAgreement createOrderAgreement(List<String> toolCodes, int numberOfDays, int discountPercent,
+                                                      LocalDate checkoutDate, HolidayCalendar holidayCalendar,
+                                                      Currency currency)
+    {
+        return createOrderAgreement(toolCodes, numberOfDays, discountPercent, checkoutDate, holidayCalendar, currency,
+                LoyaltyTier.NONE);
+    }
+
+    /**
+     * Constructs the combined agreement for an order of tools rented over the same rental period, priced in a given
+     * currency, by a customer with a loyalty tier.
+     * <p>
+     * The order is validated and its due date worked out once, and the charge days are counted once for each charge
+     * profile among the tools rather than once for each item, so pricing a large order costs little more than pricing
+     * one tool. The given discount is applied once to the total charge of the items; an item to which one of the
+     * {@link PromotionRules} in effect gives a larger discount is instead discounted on its own at the promotion's rate,
+     * so each item costs the same as checking it out alone.
+     *
+     * @param toolCodes the tool being rented for each item of the order, which may repeat. Each must correspond to a tool
+     *                  code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the order's total charge
+     * @param checkoutDate the start of the rental period
+     * @param holidayCalendar the calendar determining which days in the rental period are holidays
+     * @param currency the currency to price the order in
+     * @param loyaltyTier the loyalty tier of the customer
+     *
+     * @return the fully-constructed {@link OrderAgreement}
+     */
+    public static OrderAgreement createOrderAgreement(List<String> toolCodes, int numberOfDays, int discountPercent,
+                                                      LocalDate checkoutDate, HolidayCalendar holidayCalendar,
+                                                      Currency currency, LoyaltyTier loyaltyTier)
+    {
+        long stageStart = PricingMetrics.startTimer();
+        final long checkoutStart = stageStart;
+        if(toolCodes.isEmpty())
+        {
+            throw new IllegalArgumentException("An order must have at least one tool.");
+        }
+
+        if(numberOfDays < 1)
+        {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.INVALID_RENTAL_DAYS);
+            throw new IllegalArgumentException("Rental day count must be at least 1.");
+        }
+
+        if(discountPercent < 0 || discountPercent > 100)
+        {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.INVALID_DISCOUNT);
+            throw new IllegalArgumentException("Discount percent must be between 0 and 100.");
+        }
+
+        final CurrencyRates currencyRates = CurrencyRates.current();
+        if(!currencyRates.supports(currency))
+        {
+            PricingMetrics.recordFailure(PricingMetrics.Failure.UNKNOWN_CURRENCY);
+            throw new IllegalArgumentException("No exchange rate is known for the currency.");
+        }
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.VALIDATION, stageStart);
+
+        // the rules are read once, so that every item is priced under the same rules even if they are reloaded meanwhile
+        final PricingRules pricingRules = PricingRules.current();
+        final Tool[] tools = new Tool[toolCodes.size()];
+        final ToolChargeData[] toolChargeData = new ToolChargeData[tools.length];
+        for(int item = 0; item < tools.length; item++)
+        {
+            tools[item] = ToolRepository.getTool(toolCodes.get(item));
+            if(tools[item] == null)
+            {
+                PricingMetrics.recordFailure(PricingMetrics.Failure.UNKNOWN_TOOL);
+                throw new IllegalArgumentException("Item " + item + ": Tool code does not correspond to an existing tool.");
+            }
+            toolChargeData[item] = pricingRules.getChargeData(tools[item].getType());
+        }
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.TOOL_LOOKUP, stageStart);
+
+        final long checkoutEpochDay = checkoutDate.toEpochDay();
+        final long dueEpochDay = checkoutEpochDay + numberOfDays;
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.DUE_DATE, stageStart);
+
+        // the charge days of each charge profile, counted the first time an item has that profile
+        final int[] chargeDaysByProfile = new int[ToolChargeData.NUMBER_OF_CHARGE_PROFILES];
+        Arrays.fill(chargeDaysByProfile, -1);
+        final int[] chargeDays = new int[tools.length];
+        for(int item = 0; item < tools.length; item++)
+        {
+            final int profile = toolChargeData[item].getChargeProfile();
+            if(chargeDaysByProfile[profile] < 0)
+            {
+                chargeDaysByProfile[profile] = ToolRentalController.calculateChargeDays(toolChargeData[item],
+                        checkoutEpochDay, dueEpochDay, numberOfDays, holidayCalendar);
+            }
+            chargeDays[item] = chargeDaysByProfile[profile];
+        }
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.CHARGE_DAYS, stageStart);
+
+        final DynamicPrices dynamicPrices = DynamicPrices.current();
+        final PromotionRules promotionRules = PromotionRules.current();
+        final long[] dailyRentalChargeCents = new long[tools.length];
+        final int[] itemDiscountPercents = new int[tools.length];
+        final long[] itemDiscountAmountCents = new long[tools.length];
+        long preDiscountChargeCents = 0;
+        // the charges of the items without a larger promotion of their own, which are discounted together
+        long orderDiscountedChargeCents = 0;
+        long promotionDiscountCents = 0;
+        for(int item = 0; item < tools.length; item++)
+        {
+            dailyRentalChargeCents[item] = currencyRates.convert(dynamicPrices.adjust(
+                    toolChargeData[item].getDailyRentalChargeCents(numberOfDays), null, tools[item].getType()), currency);
+            final long itemChargeCents = chargeDays[item] * dailyRentalChargeCents[item];
+            preDiscountChargeCents += itemChargeCents;
+            final int promotionPercent = promotionRules.getBestDiscountPercent(tools[item].getType(),
+                    tools[item].getBrand(), checkoutEpochDay, numberOfDays, loyaltyTier);
+            if(promotionPercent > discountPercent)
+            {
+                itemDiscountPercents[item] = promotionPercent;
+                itemDiscountAmountCents[item] = calculateDiscountCents(itemChargeCents, promotionPercent);
+                promotionDiscountCents += itemDiscountAmountCents[item];
+            }
+            else
+            {
+                orderDiscountedChargeCents += itemChargeCents;
+            }
+        }
+        final long discountAmountCents = calculateDiscountCents(orderDiscountedChargeCents, discountPercent)
+                + promotionDiscountCents;
+        stageStart = PricingMetrics.record(PricingMetrics.Stage.CHARGES, stageStart);
+
+        final List<ToolRentalAgreement> items = new ArrayList<>(tools.length);
+        for(int item = 0; item < tools.length; item++)
+        {
+            final long itemChargeCents = chargeDays[item] * dailyRentalChargeCents[item];
+            items.add(new ToolRentalAgreement(toolCodes.get(item), tools[item].getType(), tools[item].getBrand(),
+                    numberOfDays, checkoutEpochDay, dueEpochDay, dailyRentalChargeCents[item], chargeDays[item],
+                    itemChargeCents, itemDiscountPercents[item], itemDiscountAmountCents[item],
+                    itemChargeCents - itemDiscountAmountCents[item], currency));
+            PricingMetrics.recordCheckout(tools[item].getType());
+        }
+        final OrderAgreement order = new OrderAgreement(items, preDiscountChargeCents, discountPercent,
+                discountAmountCents);
+        PricingMetrics.record(PricingMetrics.Stage.AGREEMENT, stageStart);
+        PricingMetrics.record(PricingMetrics.Stage.CHECKOUT, checkoutStart);
+        return order;
+    }
+
+    /**
+     * Calculates the discount on a charge. Fractions of a cent are rounded up (away from zero), so the discount always
+     * favours the customer.
+     *
+     * @param preDiscountChargeCents the charge before the discount, in cents
+     * @param discountPercent the discount percentage, between 0 and 100
+     *
+     * @return the discount amount in cents
+     */
+    static long calculateDiscountCents(long preDiscountChargeCents, int discountPercent)
+    {
+        final long scaledDiscount = preDiscountChargeCents * discountPercent;
+        if(scaledDiscount >= 0)
+        {
+            return (scaledDiscount + PERCENT - 1) / PERCENT;
+        }
+        return -((-scaledDiscount + PERCENT - 1) / PERCENT);
     }
 }
@@ -0,0 +1,527 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * An embedded HTTP service for quotes and checkouts, returning agreements as JSON.
+ * <ul>
+ *     <li>{@code GET /quote?tool=CHNS&days=5&discount=10&date=2015-07-02} prices a rental without reserving anything.</li>
+ *     <li>{@code POST /checkout} with the same parameters, in the query or as a form body, and optionally {@code store},
+ *     creates the agreement, reserving a unit at the store if one is given and recording the agreement in the journal if
+ *     the service has one.</li>
+ *     <li>{@code GET /metrics} returns the {@link PricingMetrics} and the service's own request counts as text, for a
+ *     metrics scraper.</li>
+ * </ul>
+ * Invalid requests are answered with 400, checkouts with no units available with 409, checkouts which cannot be recorded
+ * because the journal is closed with 503, and requests which arrive while the service is full with 503 and a Retry-After
+ * header. A checkout which fails to be recorded returns the unit it reserved to the store. Errors are returned as
+ * {@code {"error":"..."}}.
+ * <p>
+ * Each request is handled on its own virtual thread when the runtime has them, and otherwise on a fixed pool of worker
+ * threads. Either way the number of requests admitted at once is bounded: once {@code maxPendingRequests} are being
+ * handled or waiting for a worker, further requests are rejected straight away on the accepting thread, so a burst
+ * cannot build an unbounded queue. Identical quotes which arrive while one is being priced wait for that one instead of
+ * pricing it again.
+ */
+public class CheckoutService implements Closeable {
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String METRICS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final AgreementJournal journal;
+    private final int maxPendingRequests;
+    private final AtomicInteger pendingRequests = new AtomicInteger();
+    private final QuoteCoalescer quotes = new QuoteCoalescer();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // set while a rejected exchange is being answered on the accepting thread
+    private final ThreadLocal<Boolean> rejecting = new ThreadLocal<>();
+
+    /**
+     * Starts a service without a journal.
+     *
+     * @param address the address to listen on; a port of 0 picks a free port
+     * @param maxPendingRequests the most requests to handle or hold at once before rejecting more
+     */
+    public CheckoutService(InetSocketAddress address, int maxPendingRequests) throws IOException
+    {
+        this(address, maxPendingRequests, Runtime.getRuntime().availableProcessors() * 4, null);
+    }
+
+    /**
+     * Starts a service.
+     *
+     * @param address the address to listen on; a port of 0 picks a free port
+     * @param maxPendingRequests the most requests to handle or hold at once before rejecting more
+     * @param workerThreads the number of worker threads, when virtual threads are not available
+     * @param journal where to record checkouts, or null not to record them
+     */
+    public CheckoutService(InetSocketAddress address, int maxPendingRequests, int workerThreads, AgreementJournal journal)
+            throws IOException
+    {
+        if(maxPendingRequests < 1)
+        {
+            throw new IllegalArgumentException("Maximum pending requests must be at least 1.");
+        }
+        if(workerThreads < 1)
+        {
+            throw new IllegalArgumentException("At least one worker thread is needed.");
+        }
+        this.maxPendingRequests = maxPendingRequests;
+        this.journal = journal;
+        this.workers = newWorkers(workerThreads);
+        this.server = HttpServer.create(address, 0);
+        server.createContext("/quote", this::handleQuote);
+        server.createContext("/checkout", this::handleCheckout);
+        server.createContext("/metrics", this::handleMetrics);
+        PricingMetrics.registerMBean();
+        server.setExecutor(this::admit);
+        server.start();
+    }
+
+    /**
+     * @return the port the service is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the number of quotes which were answered by waiting for an identical quote already being priced
+     */
+    public long getCoalescedCount() {
+        return quotes.getCoalescedCount();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for those in progress, and stops the workers. The journal is left
+     * open.
+     */
+    @Override
+    public void close()
+    {
+        server.stop(1);
+        workers.shutdown();
+        try
+        {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands an exchange to a worker if there is room, otherwise answers it on the accepting thread as rejected.
+     */
+    private void admit(Runnable exchange)
+    {
+        if(pendingRequests.incrementAndGet() > maxPendingRequests)
+        {
+            pendingRequests.decrementAndGet();
+            rejected.increment();
+            rejecting.set(Boolean.TRUE);
+            try
+            {
+                exchange.run();
+            }
+            finally
+            {
+                rejecting.remove();
+            }
+            return;
+        }
+
+        admitted.increment();
+        try
+        {
+            workers.execute(() -> {
+                try
+                {
+                    exchange.run();
+                }
+                finally
+                {
+                    pendingRequests.decrementAndGet();
+                }
+            });
+        }
+        catch(RuntimeException e)
+        {
+            // the workers have been shut down
+            pendingRequests.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void handleQuote(HttpExchange exchange) throws IOException
+    {
+        handle(exchange, "GET", parameters -> {
+            final String toolCode = parameters.require("tool");
+            final int numberOfDays = parameters.requireInt("days");
+            final int discountPercent = parameters.requireInt("discount");
+            final LocalDate checkoutDate = parameters.requireDate("date");
+            final long key = QuoteCache.packKey(ToolRepository.getToolId(toolCode), checkoutDate.toEpochDay(),
+                    numberOfDays, discountPercent);
+            return quotes.get(key, () -> Checkout.createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate));
+        });
+    }
+
+    private void handleCheckout(HttpExchange exchange) throws IOException
+    {
+        handle(exchange, "POST", parameters -> {
+            final String toolCode = parameters.require("tool");
+            final int numberOfDays = parameters.requireInt("days");
+            final int discountPercent = parameters.requireInt("discount");
+            final LocalDate checkoutDate = parameters.requireDate("date");
+            final String storeId = parameters.get("store");
+            final ToolRentalAgreement agreement = storeId == null
+                    ? Checkout.createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate)
+                    : Checkout.createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate, storeId);
+            if(journal != null)
+            {
+                try
+                {
+                    journal.appendDurably(agreement);
+                }
+                catch(IllegalStateException e)
+                {
+                    releaseUnit(toolCode, storeId);
+                    throw new UnavailableException(e.getMessage());
+                }
+                catch(IOException | RuntimeException e)
+                {
+                    releaseUnit(toolCode, storeId);
+                    throw e;
+                }
+            }
+            return agreement;
+        });
+    }
+
+    /**
+     * Returns the unit reserved for a checkout which was not completed, if it was for a store.
+     */
+    private static void releaseUnit(String toolCode, String storeId)
+    {
+        if(storeId != null)
+        {
+            ToolRepository.releaseUnit(toolCode, storeId);
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException
+    {
+        try(exchange)
+        {
+            if(rejecting.get() != null)
+            {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "Too many requests in progress.");
+                return;
+            }
+
+            final StringBuilder text = new StringBuilder(4096);
+            PricingMetrics.writeText(text);
+            text.append("# TYPE checkout_service_requests_total counter\n");
+            text.append("checkout_service_requests_total{outcome=\"admitted\"} ").append(getAdmittedCount()).append('\n');
+            text.append("checkout_service_requests_total{outcome=\"rejected\"} ").append(getRejectedCount()).append('\n');
+            text.append("# TYPE checkout_service_coalesced_quotes_total counter\n");
+            text.append("checkout_service_coalesced_quotes_total ").append(getCoalescedCount()).append('\n');
+
+            final byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", METRICS_CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream output = exchange.getResponseBody())
+            {
+                output.write(body);
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange, String method, AgreementRequest request) throws IOException
+    {
+        try(exchange)
+        {
+            if(rejecting.get() != null)
+            {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "Too many requests in progress.");
+                return;
+            }
+            if(!method.equals(exchange.getRequestMethod()))
+            {
+                exchange.getResponseHeaders().set("Allow", method);
+                sendError(exchange, 405, "Use " + method + ".");
+                return;
+            }
+
+            final ToolRentalAgreement agreement;
+            try
+            {
+                agreement = request.handle(Parameters.of(exchange));
+            }
+            catch(IllegalArgumentException e)
+            {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+            catch(IllegalStateException e)
+            {
+                sendError(exchange, 409, e.getMessage());
+                return;
+            }
+            catch(UnavailableException e)
+            {
+                sendError(exchange, 503, e.getMessage());
+                return;
+            }
+            catch(IOException e)
+            {
+                sendError(exchange, 500, "The request could not be completed.");
+                return;
+            }
+
+            final StringBuilder json = new StringBuilder(384);
+            AgreementRenderer.renderJson(agreement, json);
+            send(exchange, 200, json);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException
+    {
+        final StringBuilder json = new StringBuilder("{\"error\":");
+        AgreementRenderer.renderJsonString(message == null ? "" : message, json);
+        send(exchange, status, json.append('}'));
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence json) throws IOException
+    {
+        final byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try(OutputStream output = exchange.getResponseBody())
+        {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Creates a virtual thread per task executor when the runtime supports it, otherwise a fixed pool of daemon threads.
+     * The pool's queue is never longer than the admission limit, since nothing beyond that limit is handed to it.
+     */
+    private static ExecutorService newWorkers(int workerThreads)
+    {
+        try
+        {
+            final Method virtualThreadPerTask = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreadPerTask.invoke(null);
+        }
+        catch(ReflectiveOperationException e)
+        {
+            final AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newFixedThreadPool(workerThreads, task -> {
+                final Thread thread = new Thread(task, "checkout-service-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Creates the agreement for a request.
+     */
+    private interface AgreementRequest {
+
+        ToolRentalAgreement handle(Parameters parameters) throws IOException;
+    }
+
+    /**
+     * Thrown by a request which cannot be completed while a resource the service depends on, such as the journal, is not
+     * available.
+     */
+    private static final class UnavailableException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnavailableException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * The decoded query and form parameters of a request.
+     */
+    private static final class Parameters {
+
+        private final Map<String, String> values = new HashMap<>();
+
+        static Parameters of(HttpExchange exchange) throws IOException
+        {
+            final Parameters parameters = new Parameters();
+            parameters.parse(exchange.getRequestURI().getRawQuery());
+            final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if(contentType != null && contentType.startsWith("application/x-www-form-urlencoded"))
+            {
+                try(InputStream body = exchange.getRequestBody())
+                {
+                    parameters.parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+            return parameters;
+        }
+
+        private void parse(String encoded)
+        {
+            if(encoded == null || encoded.isEmpty())
+            {
+                return;
+            }
+            for(String pair : encoded.split("&"))
+            {
+                final int equals = pair.indexOf('=');
+                if(equals > 0)
+                {
+                    values.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        String get(String name)
+        {
+            return values.get(name);
+        }
+
+        String require(String name)
+        {
+            final String value = values.get(name);
+            if(value == null || value.isEmpty())
+            {
+                throw new IllegalArgumentException("Missing parameter: " + name);
+            }
+            return value;
+        }
+
+        int requireInt(String name)
+        {
+            try
+            {
+                return Integer.parseInt(require(name));
+            }
+            catch(NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Parameter " + name + " must be a whole number.");
+            }
+        }
+
+        LocalDate requireDate(String name)
+        {
+            try
+            {
+                return LocalDate.parse(require(name));
+            }
+            catch(DateTimeParseException e)
+            {
+                throw new IllegalArgumentException("Parameter " + name + " must be a date as yyyy-MM-dd.");
+            }
+        }
+    }
+
+    /**
+     * Shares the result of a quote between identical requests which arrive while it is being priced. Nothing is kept once
+     * the quote is done, so this is not a cache; a failure is passed to every waiting request.
+     */
+    static final class QuoteCoalescer {
+
+        private final ConcurrentHashMap<Long, CompletableFuture<ToolRentalAgreement>> inFlight = new ConcurrentHashMap<>();
+        private final LongAdder coalesced = new LongAdder();
+
+        /**
+         * @param key the quote's packed key from {@link QuoteCache#packKey}, or a negative number if it has none, in
+         *            which case the quote is always priced
+         * @param pricer prices the quote
+         */
+        ToolRentalAgreement get(long key, Supplier<ToolRentalAgreement> pricer)
+        {
+            if(key < 0)
+            {
+                return pricer.get();
+            }
+
+            final CompletableFuture<ToolRentalAgreement> result = new CompletableFuture<>();
+            final CompletableFuture<ToolRentalAgreement> existing = inFlight.putIfAbsent(key, result);
+            if(existing != null)
+            {
+                coalesced.increment();
+                try
+                {
+                    return existing.join();
+                }
+                catch(CompletionException e)
+                {
+                    if(e.getCause() instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+
+            try
+            {
+                final ToolRentalAgreement agreement = pricer.get();
+                result.complete(agreement);
+                return agreement;
+            }
+            catch(RuntimeException | Error e)
+            {
+                result.completeExceptionally(e);
+                throw e;
+            }
+            finally
+            {
+                inFlight.remove(key, result);
+            }
+        }
+
+        long getCoalescedCount() {
+            return coalesced.sum();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The exchange rates from the base currency, in which the {@link PricingRules} are written, to the other currencies rentals
+ * may be priced in.
+ * <p>
+ * The rates are loaded from a properties file: the built-in currency-rates.properties, or the file named by the
+ * currency.rates system property, which can be reloaded while running with a {@link PricingRulesWatcher} in the same way
+ * as the pricing rules. A reload may change the rates but not the base currency, which the pricing rules and the amounts
+ * already priced are written in. Each rate is held as a fixed-point factor from minor units of the base currency to minor
+ * units of the other currency, so converting an amount is a multiplication and a division of longs.
+ */
+public final class CurrencyRates {
+
+    private static final String RATES_FILE_PROPERTY = "currency.rates";
+    private static final String DEFAULT_RATES_RESOURCE = "/currency-rates.properties";
+    private static final String BASE_CURRENCY_PROPERTY = "base";
+    private static final int FACTOR_SCALE = 9;
+    private static final long FACTOR_UNIT = 1_000_000_000L;
+
+    private static volatile CurrencyRates current = loadInitialRates();
+
+    private final Currency baseCurrency;
+    // Currency instances are unique per code, so they can be compared by identity
+    private final Map<Currency, Long> factors;
+
+    private CurrencyRates(Currency baseCurrency, Map<Currency, Long> factors)
+    {
+        this.baseCurrency = baseCurrency;
+        this.factors = factors;
+    }
+
+    /**
+     * @return the rates currently in effect
+     */
+    public static CurrencyRates current()
+    {
+        return current;
+    }
+
+    /**
+     * Loads rates from a file and puts them into effect. If the file cannot be read, is not valid or has a different base
+     * currency, the rates in effect are left unchanged.
+     *
+     * @param ratesFile the properties file to load
+     */
+    public static void reload(Path ratesFile) throws IOException
+    {
+        try(Reader reader = Files.newBufferedReader(ratesFile))
+        {
+            final Properties properties = new Properties();
+            properties.load(reader);
+            final CurrencyRates rates = parse(properties);
+            if(rates.baseCurrency != current.baseCurrency)
+            {
+                throw new IllegalArgumentException("Base currency cannot be changed from "
+                        + current.baseCurrency.getCurrencyCode() + " to " + rates.baseCurrency.getCurrencyCode() + ".");
+            }
+            install(rates);
+        }
+    }
+
+    /**
+     * Puts the given rates into effect.
+     */
+    public static void install(CurrencyRates rates)
+    {
+        current = rates;
+    }
+
+    /**
+     * Builds rates from properties in the format of currency-rates.properties.
+     *
+     * @param properties the base currency, and the rate of every other currency
+     *
+     * @return the parsed rates
+     */
+    public static CurrencyRates parse(Properties properties)
+    {
+        final String base = properties.getProperty(BASE_CURRENCY_PROPERTY);
+        if(base == null)
+        {
+            throw new IllegalArgumentException("Currency rates are missing " + BASE_CURRENCY_PROPERTY + ".");
+        }
+        final Currency baseCurrency = parseCurrency(base.trim());
+        final Map<Currency, Long> factors = new IdentityHashMap<>();
+        for(String name : properties.stringPropertyNames())
+        {
+            if(!name.equals(BASE_CURRENCY_PROPERTY))
+            {
+                final Currency currency = parseCurrency(name);
+                factors.put(currency, parseFactor(baseCurrency, currency, properties.getProperty(name).trim()));
+            }
+        }
+        return new CurrencyRates(baseCurrency, factors);
+    }
+
+    /**
+     * @return the currency the pricing rules are written in
+     */
+    public Currency getBaseCurrency() {
+        return baseCurrency;
+    }
+
+    /**
+     * @return every currency amounts can be converted to, including the base currency
+     */
+    public Set<Currency> getCurrencies()
+    {
+        final Set<Currency> currencies = Collections.newSetFromMap(new IdentityHashMap<>());
+        currencies.addAll(factors.keySet());
+        currencies.add(baseCurrency);
+        return currencies;
+    }
+
+    /**
+     * @return whether amounts can be converted to the currency
+     */
+    public boolean supports(Currency currency)
+    {
+        return currency == baseCurrency || factors.containsKey(currency);
+    }
+
+    /**
+     * Converts an amount from the base currency, rounding to the nearest minor unit of the other currency with halves
+     * rounded away from zero.
+     *
+     * @param baseMinorUnits the amount in minor units of the base currency, such as cents
+     * @param currency the currency to convert to
+     *
+     * @return the amount in minor units of the given currency
+     */
+    public long convert(long baseMinorUnits, Currency currency)
+    {
+        if(currency == baseCurrency)
+        {
+            return baseMinorUnits;
+        }
+        final Long factor = factors.get(currency);
+        if(factor == null)
+        {
+            throw new IllegalArgumentException("No exchange rate is known for " + currency.getCurrencyCode() + ".");
+        }
+
+        final long absoluteAmount = Math.abs(baseMinorUnits);
+        if(absoluteAmount <= (Long.MAX_VALUE - FACTOR_UNIT) / factor)
+        {
+            final long converted = (absoluteAmount * factor + FACTOR_UNIT / 2) / FACTOR_UNIT;
+            return baseMinorUnits < 0 ? -converted : converted;
+        }
+        return BigDecimal.valueOf(baseMinorUnits).multiply(BigDecimal.valueOf(factor))
+                .divide(BigDecimal.valueOf(FACTOR_UNIT), 0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    private static CurrencyRates loadInitialRates()
+    {
+        final String ratesFile = System.getProperty(RATES_FILE_PROPERTY);
+        final Properties properties = new Properties();
+        try
+        {
+            if(ratesFile != null)
+            {
+                try(Reader reader = Files.newBufferedReader(Path.of(ratesFile)))
+                {
+                    properties.load(reader);
+                }
+            }
+            else
+            {
+                try(InputStream in = CurrencyRates.class.getResourceAsStream(DEFAULT_RATES_RESOURCE))
+                {
+                    if(in == null)
+                    {
+                        throw new IllegalStateException("Currency rates resource is missing: " + DEFAULT_RATES_RESOURCE);
+                    }
+                    properties.load(in);
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException("Currency rates could not be loaded.", e);
+        }
+        return parse(properties);
+    }
+
+    private static Currency parseCurrency(String code)
+    {
+        final Currency currency;
+        try
+        {
+            currency = Currency.getInstance(code);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Not an ISO 4217 currency code: " + code, e);
+        }
+        if(currency.getDefaultFractionDigits() < 0)
+        {
+            throw new IllegalArgumentException("Currency has no minor unit: " + code);
+        }
+        return currency;
+    }
+
+    /**
+     * Scales a rate between major units to a factor between minor units, as a fixed-point number with nine decimal places.
+     */
+    private static long parseFactor(Currency baseCurrency, Currency currency, String rate)
+    {
+        try
+        {
+            final BigDecimal factor = new BigDecimal(rate)
+                    .movePointRight(currency.getDefaultFractionDigits() - baseCurrency.getDefaultFractionDigits()
+                            + FACTOR_SCALE)
+                    .setScale(0, RoundingMode.HALF_UP);
+            if(factor.signum() <= 0)
+            {
+                throw new IllegalArgumentException("Exchange rate must be positive: " + currency.getCurrencyCode() + "=" + rate);
+            }
+            return factor.longValueExact();
+        }
+        catch(ArithmeticException | NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Exchange rate is not a number in range: " + currency.getCurrencyCode()
+                    + "=" + rate, e);
+        }
+    }
+}
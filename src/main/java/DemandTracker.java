@@ -0,0 +1,100 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link DemandWindow}s of every store and {@link ToolType}, and the working out of new {@link DynamicPrices} from
+ * them under a {@link DynamicPricingPolicy}. Time is passed in rather than read from the clock, so that the same
+ * tracker serves live checkouts and the faster-than-real-time replays of {@link PricingSimulator}.
+ */
+final class DemandTracker {
+
+    private static final ToolType[] toolTypes = ToolType.values();
+
+    private final DynamicPricingPolicy policy;
+    private final int buckets;
+    // by ToolType ordinal
+    private final Map<String, DemandWindow[]> windowsByStore = new ConcurrentHashMap<>();
+
+    DemandTracker(DynamicPricingPolicy policy)
+    {
+        this.policy = policy;
+        this.buckets = (int) (policy.getWindowMillis() / policy.getBucketMillis());
+    }
+
+    /**
+     * Records a checkout.
+     *
+     * @param storeId the store the tool was rented from
+     * @param type the type of tool rented
+     * @param numberOfDays the number of days in the rental period
+     * @param nowMillis the time of the checkout
+     */
+    void record(String storeId, ToolType type, int numberOfDays, long nowMillis)
+    {
+        DemandWindow[] windows = windowsByStore.get(storeId);
+        if(windows == null)
+        {
+            windows = windowsByStore.computeIfAbsent(storeId, this::newWindows);
+        }
+        windows[type.ordinal()].record(nowMillis, numberOfDays);
+    }
+
+    /**
+     * Works out the next rates of every store with recorded demand, each moved from its previous rate towards the rate
+     * for its demand in the window ending now. The chain's rate of each tool type is the average of the stores' rates.
+     *
+     * @param previous the rates published last
+     * @param nowMillis the time to work out the rates at
+     *
+     * @return the new rates
+     */
+    DynamicPrices publish(DynamicPrices previous, long nowMillis)
+    {
+        final Map<String, int[]> ratePercentsByStore = new HashMap<>();
+        final long[] chainTotals = new long[toolTypes.length];
+        for(Map.Entry<String, DemandWindow[]> store : windowsByStore.entrySet())
+        {
+            final DemandWindow[] windows = store.getValue();
+            final int[] ratePercents = new int[toolTypes.length];
+            for(ToolType type : toolTypes)
+            {
+                final int index = type.ordinal();
+                ratePercents[index] = policy.getRatePercent(type, windows[index].getUnitDays(nowMillis),
+                        previous.getRatePercent(store.getKey(), type));
+                chainTotals[index] += ratePercents[index];
+            }
+            ratePercentsByStore.put(store.getKey(), ratePercents);
+        }
+
+        final int[] chainRatePercents = DynamicPrices.listRatePercents();
+        if(!ratePercentsByStore.isEmpty())
+        {
+            for(int index = 0; index < chainRatePercents.length; index++)
+            {
+                chainRatePercents[index] = (int) ((chainTotals[index] + ratePercentsByStore.size() / 2)
+                        / ratePercentsByStore.size());
+            }
+        }
+        return new DynamicPrices(ratePercentsByStore, chainRatePercents, nowMillis);
+    }
+
+    /**
+     * @return the checkouts of a tool type at a store in the window ending at the given time
+     */
+    long getCheckouts(String storeId, ToolType type, long nowMillis)
+    {
+        final DemandWindow[] windows = windowsByStore.get(storeId);
+        return windows == null ? 0 : windows[type.ordinal()].getCheckouts(nowMillis);
+    }
+
+    private DemandWindow[] newWindows(String storeId)
+    {
+        final DemandWindow[] windows = new DemandWindow[toolTypes.length];
+        for(int index = 0; index < windows.length; index++)
+        {
+            windows[index] = new DemandWindow(policy.getBucketMillis(), buckets);
+        }
+        return windows;
+    }
+}
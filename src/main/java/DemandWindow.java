@@ -0,0 +1,112 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the checkouts of one tool type at one store, and the unit-days they booked, over a sliding window of time.
+ * <p>
+ * The window is a ring of fixed-width time buckets. Each bucket is a single long holding an occupied bit and the low
+ * bits of the bucket's number above its count, so a checkout is recorded with one compare-and-set: a checkout landing
+ * on an empty slot, or on a slot last used by an older bucket, starts the slot over at its own count, without a separate
+ * reset that a concurrent checkout could race with. Summing the window only counts occupied slots stamped with one of
+ * the window's buckets, so buckets which have slid out of the window are ignored without ever being cleared.
+ */
+final class DemandWindow {
+
+    private static final int STAMP_BITS = 23;
+    private static final int COUNT_BITS = Long.SIZE - 1 - STAMP_BITS;
+    private static final long STAMP_MASK = (1L << STAMP_BITS) - 1;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    // set above the stamp of every slot which has been recorded in, so that an empty slot never looks like a bucket
+    private static final long OCCUPIED = 1L << STAMP_BITS;
+    // a stamp less than half the stamp range behind another is older than it
+    private static final long HALF_STAMP_RANGE = 1L << (STAMP_BITS - 1);
+
+    private final long bucketMillis;
+    private final AtomicLongArray checkouts;
+    private final AtomicLongArray unitDays;
+
+    /**
+     * @param bucketMillis the width of each bucket, in milliseconds
+     * @param buckets the number of buckets in the window
+     */
+    DemandWindow(long bucketMillis, int buckets)
+    {
+        this.bucketMillis = bucketMillis;
+        this.checkouts = new AtomicLongArray(buckets);
+        this.unitDays = new AtomicLongArray(buckets);
+    }
+
+    /**
+     * Records a checkout.
+     *
+     * @param nowMillis the time of the checkout
+     * @param numberOfDays the number of days in the rental period
+     */
+    void record(long nowMillis, int numberOfDays)
+    {
+        final long bucket = Math.floorDiv(nowMillis, bucketMillis);
+        final int slot = (int) Math.floorMod(bucket, (long) checkouts.length());
+        add(checkouts, slot, bucket, 1);
+        add(unitDays, slot, bucket, numberOfDays);
+    }
+
+    /**
+     * @return the number of checkouts in the window ending at the given time
+     */
+    long getCheckouts(long nowMillis)
+    {
+        return sum(checkouts, nowMillis);
+    }
+
+    /**
+     * @return the number of unit-days booked by the checkouts in the window ending at the given time
+     */
+    long getUnitDays(long nowMillis)
+    {
+        return sum(unitDays, nowMillis);
+    }
+
+    private static void add(AtomicLongArray counts, int slot, long bucket, long amount)
+    {
+        final long stamp = OCCUPIED | bucket & STAMP_MASK;
+        while(true)
+        {
+            final long value = counts.get(slot);
+            final long slotStamp = value >>> COUNT_BITS;
+            final long updated;
+            if(slotStamp == stamp)
+            {
+                updated = value + amount;
+            }
+            else if((slotStamp & OCCUPIED) == 0 || ((stamp - slotStamp) & STAMP_MASK) < HALF_STAMP_RANGE)
+            {
+                updated = stamp << COUNT_BITS | amount;
+            }
+            else
+            {
+                // recorded so late that its bucket has already slid out of the window
+                return;
+            }
+            if(counts.compareAndSet(slot, value, updated))
+            {
+                return;
+            }
+        }
+    }
+
+    private long sum(AtomicLongArray counts, long nowMillis)
+    {
+        final long currentBucket = Math.floorDiv(nowMillis, bucketMillis);
+        final int buckets = counts.length();
+        long total = 0;
+        for(int age = 0; age < buckets; age++)
+        {
+            final long bucket = currentBucket - age;
+            final long value = counts.get((int) Math.floorMod(bucket, (long) buckets));
+            if(value >>> COUNT_BITS == (OCCUPIED | bucket & STAMP_MASK))
+            {
+                total += value & COUNT_MASK;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A published set of dynamic daily rates: for every store with recorded demand, and for the chain as a whole, the rate
+ * of each {@link ToolType} as a percentage of its list rate in the {@link PricingRules}.
+ * <p>
+ * Rates are worked out by {@link DynamicPricing} every publish interval and swapped in whole with a single write, so
+ * pricing a rental only looks its store up in a map and reads one array element, and every rental priced between two
+ * publishes sees the same rates. Until dynamic pricing is started every rate is the list rate.
+ */
+public final class DynamicPrices {
+
+    private static final int PERCENT = 100;
+
+    /** every rate at its list rate */
+    public static final DynamicPrices LIST = new DynamicPrices(Collections.emptyMap(), listRatePercents(), 0);
+
+    private static volatile DynamicPrices current = LIST;
+
+    private final Map<String, int[]> ratePercentsByStore;
+    private final int[] chainRatePercents;
+    private final long publishedAtMillis;
+
+    /**
+     * @param ratePercentsByStore the rate of each tool type at each store, by {@link ToolType#ordinal()}
+     * @param chainRatePercents the rate of each tool type for rentals not made at a particular store
+     * @param publishedAtMillis when the rates were worked out
+     */
+    DynamicPrices(Map<String, int[]> ratePercentsByStore, int[] chainRatePercents, long publishedAtMillis)
+    {
+        this.ratePercentsByStore = ratePercentsByStore;
+        this.chainRatePercents = chainRatePercents;
+        this.publishedAtMillis = publishedAtMillis;
+    }
+
+    /**
+     * @return the rates currently in effect
+     */
+    public static DynamicPrices current()
+    {
+        return current;
+    }
+
+    /**
+     * Puts the given rates into effect. Anything holding prices calculated with other rates is told they may be out of
+     * date, unless every rate is unchanged.
+     */
+    public static void install(DynamicPrices prices)
+    {
+        final DynamicPrices previous = current;
+        current = prices;
+        if(!prices.hasSameRates(previous))
+        {
+            PricingChanges.recordChange();
+        }
+    }
+
+    /**
+     * @param storeId the store the tool is rented from, or null for a rental not made at a particular store
+     * @param type the tool type
+     *
+     * @return the rate of the tool type, as a percentage of its list rate; stores without rates of their own have the
+     * chain's rate
+     */
+    public int getRatePercent(String storeId, ToolType type)
+    {
+        final int[] ratePercents = storeId == null ? null : ratePercentsByStore.get(storeId);
+        return (ratePercents == null ? chainRatePercents : ratePercents)[type.ordinal()];
+    }
+
+    /**
+     * Applies the rate of a tool type to its list daily charge, rounding to the nearest cent.
+     *
+     * @param listDailyChargeCents the daily charge in the pricing rules, in cents
+     * @param storeId the store the tool is rented from, or null for a rental not made at a particular store
+     * @param type the tool type
+     *
+     * @return the daily charge to use, in cents
+     */
+    public long adjust(long listDailyChargeCents, String storeId, ToolType type)
+    {
+        final int ratePercent = getRatePercent(storeId, type);
+        if(ratePercent == PERCENT)
+        {
+            return listDailyChargeCents;
+        }
+        return (listDailyChargeCents * ratePercent + PERCENT / 2) / PERCENT;
+    }
+
+    /**
+     * @return when the rates were worked out, or 0 for the list rates
+     */
+    public long getPublishedAtMillis() {
+        return publishedAtMillis;
+    }
+
+    /**
+     * @return the stores with rates of their own
+     */
+    Map<String, int[]> getRatePercentsByStore() {
+        return ratePercentsByStore;
+    }
+
+    int[] getChainRatePercents() {
+        return chainRatePercents;
+    }
+
+    private boolean hasSameRates(DynamicPrices other)
+    {
+        if(!Arrays.equals(chainRatePercents, other.chainRatePercents)
+                || ratePercentsByStore.size() != other.ratePercentsByStore.size())
+        {
+            return false;
+        }
+        for(Map.Entry<String, int[]> store : ratePercentsByStore.entrySet())
+        {
+            if(!Arrays.equals(store.getValue(), other.ratePercentsByStore.get(store.getKey())))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int[] listRatePercents()
+    {
+        final int[] ratePercents = new int[ToolType.values().length];
+        Arrays.fill(ratePercents, PERCENT);
+        return ratePercents;
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional demand-aware pricing: while started, checkouts at stores are counted in sliding windows by store and
+ * {@link ToolType}, and every publish interval of the {@link DynamicPricingPolicy} new {@link DynamicPrices} are worked
+ * out from them and installed.
+ * <p>
+ * Rates are never worked out while pricing a rental: {@link Checkout} only reads the last published rates, and recording
+ * a checkout is a few lock-free updates. When dynamic pricing is not started nothing is recorded and every rental is
+ * priced at its list rate.
+ */
+public final class DynamicPricing {
+
+    private static volatile DemandTracker tracker;
+    private static ScheduledExecutorService publisher;
+
+    private DynamicPricing()
+    {
+    }
+
+    /**
+     * Starts counting checkouts and publishing rates under a policy, replacing any policy already running. Rates start
+     * from the list rates.
+     *
+     * @param policy the policy to price by
+     */
+    public static synchronized void start(DynamicPricingPolicy policy)
+    {
+        stop();
+        tracker = new DemandTracker(policy);
+        publisher = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "dynamic-pricing-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleAtFixedRate(DynamicPricing::publish, policy.getPublishIntervalMillis(),
+                policy.getPublishIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops dynamic pricing and puts the list rates back into effect.
+     */
+    public static synchronized void stop()
+    {
+        if(publisher != null)
+        {
+            publisher.shutdownNow();
+            publisher = null;
+        }
+        tracker = null;
+        DynamicPrices.install(DynamicPrices.LIST);
+    }
+
+    /**
+     * @return whether dynamic pricing is started
+     */
+    public static boolean isRunning()
+    {
+        return tracker != null;
+    }
+
+    /**
+     * Works out and installs new rates now, without waiting for the next publish interval.
+     */
+    public static synchronized void publish()
+    {
+        if(tracker != null)
+        {
+            DynamicPrices.install(tracker.publish(DynamicPrices.current(), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Counts a checkout towards the demand for its tool type at a store, if dynamic pricing is started.
+     *
+     * @param storeId the store the tool was rented from
+     * @param type the type of tool rented
+     * @param numberOfDays the number of days in the rental period
+     */
+    static void recordCheckout(String storeId, ToolType type, int numberOfDays)
+    {
+        final DemandTracker currentTracker = tracker;
+        if(currentTracker != null)
+        {
+            currentTracker.record(storeId, type, numberOfDays, System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How {@link DynamicPricing} moves daily rates with demand: the sliding window demand is counted over, how often new
+ * rates are published, and for every {@link ToolType} the demand at which the list rate is charged and the bounds the
+ * rate is kept within.
+ * <p>
+ * Demand is measured in unit-days: the number of days booked by the checkouts in the window. Each published rate is a
+ * percentage of the list rate in the {@link PricingRules}, moved from 100% by {@code sensitivityPercent} for every 100%
+ * that demand is above or below {@code targetUnitDays}, kept between {@code minPercent} and {@code maxPercent}, and moved
+ * by at most {@code maxStepPercent} from the previous published rate so that rates change gradually.
+ * <p>
+ * The policy is loaded from a properties file: the built-in dynamic-pricing.properties, or the file named by the
+ * pricing.dynamic system property.
+ */
+public final class DynamicPricingPolicy {
+
+    private static final String POLICY_FILE_PROPERTY = "pricing.dynamic";
+    private static final String DEFAULT_POLICY_RESOURCE = "/dynamic-pricing.properties";
+    private static final int PERCENT = 100;
+
+    private final boolean enabled;
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final long publishIntervalMillis;
+    private final int maxStepPercent;
+    // by ToolType ordinal
+    private final long[] targetUnitDays;
+    private final int[] sensitivityPercents;
+    private final int[] minPercents;
+    private final int[] maxPercents;
+
+    private DynamicPricingPolicy(boolean enabled, long windowMillis, long bucketMillis, long publishIntervalMillis,
+                                 int maxStepPercent, long[] targetUnitDays, int[] sensitivityPercents, int[] minPercents,
+                                 int[] maxPercents)
+    {
+        this.enabled = enabled;
+        this.windowMillis = windowMillis;
+        this.bucketMillis = bucketMillis;
+        this.publishIntervalMillis = publishIntervalMillis;
+        this.maxStepPercent = maxStepPercent;
+        this.targetUnitDays = targetUnitDays;
+        this.sensitivityPercents = sensitivityPercents;
+        this.minPercents = minPercents;
+        this.maxPercents = maxPercents;
+    }
+
+    /**
+     * Loads the policy from the file named by the pricing.dynamic system property, or the built-in policy if it is not
+     * set.
+     *
+     * @return the policy
+     */
+    public static DynamicPricingPolicy load()
+    {
+        final String policyFile = System.getProperty(POLICY_FILE_PROPERTY);
+        if(policyFile != null)
+        {
+            try
+            {
+                return load(Path.of(policyFile));
+            }
+            catch(IOException e)
+            {
+                throw new UncheckedIOException("Dynamic pricing policy could not be loaded.", e);
+            }
+        }
+        final Properties properties = new Properties();
+        try(InputStream in = DynamicPricingPolicy.class.getResourceAsStream(DEFAULT_POLICY_RESOURCE))
+        {
+            if(in == null)
+            {
+                throw new IllegalStateException("Dynamic pricing policy resource is missing: " + DEFAULT_POLICY_RESOURCE);
+            }
+            properties.load(in);
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException("Dynamic pricing policy could not be loaded.", e);
+        }
+        return parse(properties);
+    }
+
+    /**
+     * Loads the policy from a file.
+     *
+     * @param policyFile the properties file to load
+     *
+     * @return the policy
+     */
+    public static DynamicPricingPolicy load(Path policyFile) throws IOException
+    {
+        try(Reader reader = Files.newBufferedReader(policyFile))
+        {
+            final Properties properties = new Properties();
+            properties.load(reader);
+            return parse(properties);
+        }
+    }
+
+    /**
+     * Builds a policy from properties in the format of dynamic-pricing.properties. Every setting has a default, and the
+     * settings of each tool type can be given for all types at once or overridden for one type with the type's name as
+     * a prefix, such as {@code LADDER.targetUnitDays}.
+     *
+     * @param properties the policy's settings
+     *
+     * @return the parsed policy
+     */
+    public static DynamicPricingPolicy parse(Properties properties)
+    {
+        final boolean enabled = Boolean.parseBoolean(properties.getProperty("enabled", "false").trim());
+        final long windowMinutes = parseLong(properties, "windowMinutes", 1440);
+        final long bucketMinutes = parseLong(properties, "bucketMinutes", 60);
+        final long publishSeconds = parseLong(properties, "publishSeconds", 60);
+        final int maxStepPercent = (int) parseLong(properties, "maxStepPercent", 5);
+        if(bucketMinutes < 1 || windowMinutes < bucketMinutes || windowMinutes % bucketMinutes != 0
+                || windowMinutes / bucketMinutes > 10_000)
+        {
+            throw new IllegalArgumentException("Dynamic pricing window must be a whole number of buckets, at most 10000.");
+        }
+        if(publishSeconds < 1)
+        {
+            throw new IllegalArgumentException("Dynamic pricing publishSeconds must be at least 1.");
+        }
+        if(maxStepPercent < 1)
+        {
+            throw new IllegalArgumentException("Dynamic pricing maxStepPercent must be at least 1.");
+        }
+
+        final int types = ToolType.values().length;
+        final long[] targetUnitDays = new long[types];
+        final int[] sensitivityPercents = new int[types];
+        final int[] minPercents = new int[types];
+        final int[] maxPercents = new int[types];
+        for(ToolType type : ToolType.values())
+        {
+            final int index = type.ordinal();
+            targetUnitDays[index] = parseLong(properties, type, "targetUnitDays", 100);
+            sensitivityPercents[index] = (int) parseLong(properties, type, "sensitivityPercent", 50);
+            minPercents[index] = (int) parseLong(properties, type, "minPercent", 80);
+            maxPercents[index] = (int) parseLong(properties, type, "maxPercent", 150);
+            if(targetUnitDays[index] < 1)
+            {
+                throw new IllegalArgumentException("Dynamic pricing targetUnitDays must be at least 1: " + type);
+            }
+            if(sensitivityPercents[index] < 0)
+            {
+                throw new IllegalArgumentException("Dynamic pricing sensitivityPercent must not be negative: " + type);
+            }
+            if(minPercents[index] < 1 || minPercents[index] > PERCENT || maxPercents[index] < PERCENT
+                    || maxPercents[index] > 1000)
+            {
+                throw new IllegalArgumentException("Dynamic pricing bounds must include 100 and be between 1 and 1000: "
+                        + type);
+            }
+        }
+        return new DynamicPricingPolicy(enabled, TimeUnit.MINUTES.toMillis(windowMinutes),
+                TimeUnit.MINUTES.toMillis(bucketMinutes), TimeUnit.SECONDS.toMillis(publishSeconds), maxStepPercent,
+                targetUnitDays, sensitivityPercents, minPercents, maxPercents);
+    }
+
+    /**
+     * @return whether dynamic pricing should be started with this policy when the application starts
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public long getPublishIntervalMillis() {
+        return publishIntervalMillis;
+    }
+
+    /**
+     * Works out the next rate of a tool type from its demand.
+     *
+     * @param type the tool type
+     * @param unitDays the unit-days booked in the window
+     * @param previousPercent the rate published last, as a percentage of the list rate
+     *
+     * @return the new rate, as a percentage of the list rate
+     */
+    int getRatePercent(ToolType type, long unitDays, int previousPercent)
+    {
+        final int index = type.ordinal();
+        final long target = targetUnitDays[index];
+        // unit-days are capped so that the product cannot overflow however busy a store is
+        final long deviationPercent = (Math.min(unitDays, target * 1000) - target) * PERCENT / target;
+        final long targetPercent = PERCENT + deviationPercent * sensitivityPercents[index] / PERCENT;
+        final long bounded = Math.max(minPercents[index], Math.min(maxPercents[index], targetPercent));
+        return (int) Math.max(previousPercent - maxStepPercent, Math.min(previousPercent + maxStepPercent, bounded));
+    }
+
+    private static long parseLong(Properties properties, ToolType type, String name, long defaultValue)
+    {
+        final String value = properties.getProperty(type.name() + "." + name);
+        return value == null ? parseLong(properties, name, defaultValue) : parseLong(type.name() + "." + name, value);
+    }
+
+    private static long parseLong(Properties properties, String name, long defaultValue)
+    {
+        final String value = properties.getProperty(name);
+        return value == null ? defaultValue : parseLong(name, value);
+    }
+
+    private static long parseLong(String name, String value)
+    {
+        try
+        {
+            return Long.parseLong(value.trim());
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Expected a whole number for " + name + ": " + value, e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+
+/**
+ * A holiday which falls on the same date every year, such as Independence Day. When the date falls on a weekend the
+ * holiday is observed on the closest weekday: Saturday moves back to Friday and Sunday moves forward to Monday.
+ */
+public class FixedDateHolidayRule implements HolidayRule {
+
+    private final Month month;
+    private final int dayOfMonth;
+
+    public FixedDateHolidayRule(Month month, int dayOfMonth)
+    {
+        this.month = month;
+        this.dayOfMonth = dayOfMonth;
+    }
+
+    @Override
+    public long observedEpochDay(int year) {
+        final long epochDay = LocalDate.of(year, month, dayOfMonth).toEpochDay();
+        final int dayOfWeek = ToolRentalController.dayOfWeekIndex(epochDay);
+
+        if(dayOfWeek == DayOfWeek.SATURDAY.ordinal())
+        {
+            return epochDay - 1;
+        }
+        else if(dayOfWeek == DayOfWeek.SUNDAY.ordinal())
+        {
+            return epochDay + 1;
+        }
+        return epochDay;
+    }
+
+    @Override
+    public String toString() {
+        return "FixedDateHolidayRule[" + month + " " + dayOfMonth + "]";
+    }
+}
@@ -0,0 +1,420 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks when each individual unit of the rental fleet is booked, so that a unit is never rented out twice over the same
+ * days.
+ * <p>
+ * Each unit holds its bookings as a sorted array of non-overlapping day ranges, which is replaced as a whole by
+ * compare-and-set. A booking checks for overlaps against the array it read, and retries if another booking of the same
+ * unit got in first, so bookings never lock and never double book. A booking occupies the unit from its checkout date
+ * through its due date, inclusive.
+ * <p>
+ * To find free units quickly across a large fleet, units of each {@link ToolType} are also grouped into blocks of 4096,
+ * and each block keeps a bitmap per day of which of its units are booked that day. Finding the free units of a type for
+ * a rental period ORs together one bitmap per day of the period for each block. The bitmaps are brought up to date from
+ * the booking arrays after every change, so a search can briefly see a unit as free which is just being booked; booking
+ * it then fails and another unit can be tried.
+ */
+public class FleetCalendar {
+
+    private static final int BLOCK_SHIFT = 12;
+    private static final int UNITS_PER_BLOCK = 1 << BLOCK_SHIFT;
+    private static final int WORDS_PER_BLOCK = UNITS_PER_BLOCK / Long.SIZE;
+    private static final long[] NO_BOOKINGS = new long[0];
+
+    // indexed by unit id; replaced with a larger copy when full, under unitLock
+    private volatile Unit[] unitsById = new Unit[64];
+    private int unitCount;
+    private final Object unitLock = new Object();
+    private final TypeIndex[] typeIndexes = new TypeIndex[ToolType.values().length];
+
+    public FleetCalendar()
+    {
+        for(int i = 0; i < typeIndexes.length; i++)
+        {
+            typeIndexes[i] = new TypeIndex();
+        }
+    }
+
+    /**
+     * Adds a unit of a tool to the fleet.
+     *
+     * @param toolCode the code of the tool. Must correspond to a tool code stored by {@link ToolRepository}.
+     *
+     * @return the id of the new unit
+     */
+    public int addUnit(String toolCode)
+    {
+        final Tool tool = ToolRepository.getTool(toolCode);
+        if(tool == null)
+        {
+            throw new IllegalArgumentException("Tool code does not correspond to an existing tool.");
+        }
+
+        synchronized(unitLock)
+        {
+            final TypeIndex typeIndex = typeIndexes[tool.getType().ordinal()];
+            final int indexInType = typeIndex.unitCount++;
+            final Unit unit = new Unit(unitCount++, toolCode, tool.getType(), indexInType);
+
+            Block[] blocks = typeIndex.blocks;
+            if(indexInType >> BLOCK_SHIFT >= blocks.length)
+            {
+                blocks = Arrays.copyOf(blocks, blocks.length + 1);
+                blocks[blocks.length - 1] = new Block();
+            }
+            final Block block = blocks[indexInType >> BLOCK_SHIFT];
+            block.units[indexInType & (UNITS_PER_BLOCK - 1)] = unit;
+            setBit(block.present, indexInType & (UNITS_PER_BLOCK - 1), true);
+            typeIndex.blocks = blocks;
+
+            Unit[] units = unitsById;
+            if(unit.id >= units.length)
+            {
+                units = Arrays.copyOf(units, units.length * 2);
+            }
+            units[unit.id] = unit;
+            // republishing the array makes the new unit visible to readers, even when the array was not grown
+            unitsById = units;
+            return unit.id;
+        }
+    }
+
+    /**
+     * Takes a unit out of the fleet, so that it is no longer found free. Its existing bookings are kept.
+     */
+    public void retireUnit(int unitId)
+    {
+        final Unit unit = getUnit(unitId);
+        final Block block = typeIndexes[unit.type.ordinal()].blocks[unit.indexInType >> BLOCK_SHIFT];
+        setBit(block.present, unit.indexInType & (UNITS_PER_BLOCK - 1), false);
+    }
+
+    /**
+     * @return the code of the tool the unit is a unit of
+     */
+    public String getToolCode(int unitId)
+    {
+        return getUnit(unitId).toolCode;
+    }
+
+    /**
+     * Books a unit from the checkout date through the due date, unless any of those days are already booked.
+     *
+     * @param unitId the unit to book
+     * @param checkoutDate the start of the rental period
+     * @param numberOfDays the number of days in the rental period
+     *
+     * @return true if the unit was booked, or false if it was already booked on one of the days
+     */
+    public boolean tryBook(int unitId, LocalDate checkoutDate, int numberOfDays)
+    {
+        if(numberOfDays < 1)
+        {
+            throw new IllegalArgumentException("Rental day count must be at least 1.");
+        }
+        final Unit unit = getUnit(unitId);
+        final long firstDay = checkoutDate.toEpochDay();
+        final long lastDay = firstDay + numberOfDays;
+
+        while(true)
+        {
+            final long[] bookings = unit.bookings.get();
+            if(isBooked(bookings, firstDay, lastDay))
+            {
+                return false;
+            }
+
+            final int insertAt = firstStartingAfter(bookings, firstDay);
+            final long[] updated = new long[bookings.length + 2];
+            System.arraycopy(bookings, 0, updated, 0, 2 * insertAt);
+            updated[2 * insertAt] = firstDay;
+            updated[2 * insertAt + 1] = lastDay;
+            System.arraycopy(bookings, 2 * insertAt, updated, 2 * insertAt + 2, bookings.length - 2 * insertAt);
+            if(unit.bookings.compareAndSet(bookings, updated))
+            {
+                refreshIndex(unit, firstDay, lastDay);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Cancels a unit's booking, freeing its days.
+     *
+     * @param unitId the booked unit
+     * @param checkoutDate the start of the booking's rental period
+     *
+     * @return true if the booking was cancelled, or false if the unit had no booking starting on that date
+     */
+    public boolean cancel(int unitId, LocalDate checkoutDate)
+    {
+        final Unit unit = getUnit(unitId);
+        final long firstDay = checkoutDate.toEpochDay();
+
+        while(true)
+        {
+            final long[] bookings = unit.bookings.get();
+            final int index = firstStartingAfter(bookings, firstDay) - 1;
+            if(index < 0 || bookings[2 * index] != firstDay)
+            {
+                return false;
+            }
+            final long lastDay = bookings[2 * index + 1];
+
+            final long[] updated = bookings.length == 2 ? NO_BOOKINGS : new long[bookings.length - 2];
+            System.arraycopy(bookings, 0, updated, 0, 2 * index);
+            System.arraycopy(bookings, 2 * index + 2, updated, 2 * index, bookings.length - 2 * index - 2);
+            if(unit.bookings.compareAndSet(bookings, updated))
+            {
+                refreshIndex(unit, firstDay, lastDay);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return whether the unit is booked on any day from the checkout date through the due date
+     */
+    public boolean isBooked(int unitId, LocalDate checkoutDate, int numberOfDays)
+    {
+        final long firstDay = checkoutDate.toEpochDay();
+        return isBooked(getUnit(unitId).bookings.get(), firstDay, firstDay + numberOfDays);
+    }
+
+    /**
+     * Finds the units of a tool type which are in the fleet and free from the checkout date through the due date.
+     *
+     * @param type the type of tool
+     * @param checkoutDate the start of the rental period
+     * @param numberOfDays the number of days in the rental period
+     *
+     * @return the ids of the free units, in the order they were added
+     */
+    public int[] findFreeUnits(ToolType type, LocalDate checkoutDate, int numberOfDays)
+    {
+        return findFreeUnits(type, null, checkoutDate, numberOfDays, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Books any free unit of a tool from the checkout date through the due date.
+     *
+     * @param toolCode the code of the tool
+     * @param checkoutDate the start of the rental period
+     * @param numberOfDays the number of days in the rental period
+     *
+     * @return the id of the booked unit, or -1 if no unit of the tool is free for the whole period
+     */
+    public int bookAnyFreeUnit(String toolCode, LocalDate checkoutDate, int numberOfDays)
+    {
+        final Tool tool = ToolRepository.getTool(toolCode);
+        if(tool == null)
+        {
+            throw new IllegalArgumentException("Tool code does not correspond to an existing tool.");
+        }
+        // most searches find a free unit among the first few, so only look for more if those were all taken meanwhile
+        for(int limit = 8; ; limit = Integer.MAX_VALUE)
+        {
+            final int[] candidates = findFreeUnits(tool.getType(), toolCode, checkoutDate, numberOfDays, limit);
+            for(int unitId : candidates)
+            {
+                if(tryBook(unitId, checkoutDate, numberOfDays))
+                {
+                    return unitId;
+                }
+            }
+            if(candidates.length < limit)
+            {
+                return -1;
+            }
+        }
+    }
+
+    private int[] findFreeUnits(ToolType type, String toolCode, LocalDate checkoutDate, int numberOfDays, int limit)
+    {
+        if(numberOfDays < 1)
+        {
+            throw new IllegalArgumentException("Rental day count must be at least 1.");
+        }
+        final long firstDay = checkoutDate.toEpochDay();
+        final long lastDay = firstDay + numberOfDays;
+        final long[] free = new long[WORDS_PER_BLOCK];
+        int[] found = new int[16];
+        int foundCount = 0;
+
+        for(Block block : typeIndexes[type.ordinal()].blocks)
+        {
+            long anyFree = 0;
+            for(int word = 0; word < WORDS_PER_BLOCK; word++)
+            {
+                free[word] = block.present.get(word);
+                anyFree |= free[word];
+            }
+            for(long day = firstDay; day <= lastDay && anyFree != 0; day++)
+            {
+                final AtomicLongArray booked = block.bookedByDay.get(day);
+                if(booked != null)
+                {
+                    anyFree = 0;
+                    for(int word = 0; word < WORDS_PER_BLOCK; word++)
+                    {
+                        free[word] &= ~booked.get(word);
+                        anyFree |= free[word];
+                    }
+                }
+            }
+
+            for(int word = 0; word < WORDS_PER_BLOCK && anyFree != 0; word++)
+            {
+                for(long bits = free[word]; bits != 0; bits &= bits - 1)
+                {
+                    final Unit unit = block.units[word * Long.SIZE + Long.numberOfTrailingZeros(bits)];
+                    if(toolCode != null && !toolCode.equals(unit.toolCode))
+                    {
+                        continue;
+                    }
+                    if(foundCount == found.length)
+                    {
+                        found = Arrays.copyOf(found, found.length * 2);
+                    }
+                    found[foundCount++] = unit.id;
+                    if(foundCount == limit)
+                    {
+                        return Arrays.copyOf(found, foundCount);
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(found, foundCount);
+    }
+
+    /**
+     * Brings the unit's bits in its block's day bitmaps up to date with its bookings, for the given days. Refreshes of a
+     * unit are serialized and each reads the latest bookings, so once the last change to a unit has been refreshed its
+     * bits are correct, whatever order concurrent changes and refreshes ran in.
+     */
+    private void refreshIndex(Unit unit, long firstDay, long lastDay)
+    {
+        final Block block = typeIndexes[unit.type.ordinal()].blocks[unit.indexInType >> BLOCK_SHIFT];
+        final int bit = unit.indexInType & (UNITS_PER_BLOCK - 1);
+        synchronized(unit)
+        {
+            final long[] bookings = unit.bookings.get();
+            for(long day = firstDay; day <= lastDay; day++)
+            {
+                if(isBooked(bookings, day, day))
+                {
+                    setBit(block.bookedByDay.computeIfAbsent(day, key -> new AtomicLongArray(WORDS_PER_BLOCK)), bit, true);
+                }
+                else
+                {
+                    final AtomicLongArray booked = block.bookedByDay.get(day);
+                    if(booked != null)
+                    {
+                        setBit(booked, bit, false);
+                    }
+                }
+            }
+        }
+    }
+
+    private Unit getUnit(int unitId)
+    {
+        final Unit[] units = unitsById;
+        if(unitId < 0 || unitId >= units.length || units[unitId] == null)
+        {
+            throw new IllegalArgumentException("Unit id does not correspond to a unit in the fleet.");
+        }
+        return units[unitId];
+    }
+
+    /**
+     * @return whether any booking overlaps the days from firstDay through lastDay
+     */
+    private static boolean isBooked(long[] bookings, long firstDay, long lastDay)
+    {
+        final int next = firstStartingAfter(bookings, firstDay);
+        return (next > 0 && bookings[2 * next - 1] >= firstDay)
+                || (next < bookings.length / 2 && bookings[2 * next] <= lastDay);
+    }
+
+    /**
+     * @return the index of the first booking which starts after the given day, or the number of bookings if none do
+     */
+    private static int firstStartingAfter(long[] bookings, long day)
+    {
+        int low = 0;
+        int high = bookings.length / 2;
+        while(low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if(bookings[2 * middle] <= day)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static void setBit(AtomicLongArray bits, int bit, boolean set)
+    {
+        final long mask = 1L << (bit & (Long.SIZE - 1));
+        if(set)
+        {
+            bits.accumulateAndGet(bit >> 6, mask, (current, added) -> current | added);
+        }
+        else
+        {
+            bits.accumulateAndGet(bit >> 6, ~mask, (current, kept) -> current & kept);
+        }
+    }
+
+    /**
+     * One unit of a tool. Its bookings are pairs of first and last days, sorted and never overlapping.
+     */
+    private static final class Unit {
+
+        final int id;
+        final String toolCode;
+        final ToolType type;
+        final int indexInType;
+        final AtomicReference<long[]> bookings = new AtomicReference<>(NO_BOOKINGS);
+
+        Unit(int id, String toolCode, ToolType type, int indexInType)
+        {
+            this.id = id;
+            this.toolCode = toolCode;
+            this.type = type;
+            this.indexInType = indexInType;
+        }
+    }
+
+    /**
+     * The units of one tool type, in blocks.
+     */
+    private static final class TypeIndex {
+
+        // replaced with a longer copy when full, under unitLock
+        volatile Block[] blocks = new Block[0];
+        int unitCount;
+    }
+
+    /**
+     * Up to 4096 units of one tool type, with a bitmap of which are in the fleet and one per day of which are booked.
+     */
+    private static final class Block {
+
+        final Unit[] units = new Unit[UNITS_PER_BLOCK];
+        final AtomicLongArray present = new AtomicLongArray(WORDS_PER_BLOCK);
+        final Map<Long, AtomicLongArray> bookedByDay = new ConcurrentHashMap<>();
+    }
+}
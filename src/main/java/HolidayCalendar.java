@@ -0,0 +1,281 @@
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A set of holidays, described by {@link HolidayRule}s, for which a rental may be exempt from a daily charge.
+ * <p>
+ * The observed holiday dates are precomputed for a window of years into a sorted array of epoch days. The window is filled
+ * lazily and grows as rentals in new years are priced, up to a bounded number of years. Counting the holidays in a rental
+ * period covered by the window takes two binary searches, whatever the length of the period.
+ * <p>
+ * Each calendar also has a {@link ChargeDayTable} for the years around the present, from which charge days are looked up
+ * directly.
+ */
+public class HolidayCalendar {
+
+    private static final int DEFAULT_MAX_CACHED_YEARS = 400;
+    // years added beyond a requested range when the window is extended, so neighbouring requests do not rebuild it again
+    private static final int GROWTH_PADDING_YEARS = 8;
+    // the charge day table covers the previous year, the current year and this many years after it
+    private static final int CHARGE_DAY_TABLE_FUTURE_YEARS = 10;
+
+    private final HolidayRule[] rules;
+    private final long rulesFingerprint;
+    private final int maxCachedYears;
+    private volatile HolidayIndex index;
+    private volatile ChargeDayTable chargeDayTable;
+
+    public HolidayCalendar(List<HolidayRule> rules)
+    {
+        this(rules, DEFAULT_MAX_CACHED_YEARS);
+    }
+
+    /**
+     * @param rules the rules describing the holidays in this calendar
+     * @param maxCachedYears the maximum number of years of holidays to keep precomputed
+     */
+    public HolidayCalendar(List<HolidayRule> rules, int maxCachedYears)
+    {
+        // the years either side of a cached range are needed in case a holiday is observed across a year boundary
+        if(maxCachedYears < 3)
+        {
+            throw new IllegalArgumentException("At least 3 years of holidays must be cached.");
+        }
+        this.rules = rules.toArray(new HolidayRule[0]);
+        this.rulesFingerprint = fingerprint(this.rules);
+        this.maxCachedYears = maxCachedYears;
+        this.index = HolidayIndex.EMPTY;
+    }
+
+    /**
+     * Counts the observed holidays in a rental period. The start of the rental period is not included, since the day the
+     * tool is checked out is not a holiday the customer would be charged for; the due date is included.
+     *
+     * @param rentalEpochDay the epoch day of the start of the tool rental
+     * @param dueEpochDay the epoch day when the tool is due for return
+     *
+     * @return the number of observed holidays after the rental date, up to and including the due date
+     */
+    public int countHolidays(long rentalEpochDay, long dueEpochDay)
+    {
+        if(dueEpochDay <= rentalEpochDay)
+        {
+            return 0;
+        }
+
+        HolidayIndex current = index;
+        if(!current.covers(rentalEpochDay, dueEpochDay))
+        {
+            current = extendIndex(rentalEpochDay, dueEpochDay);
+        }
+        return current.countUpTo(dueEpochDay) - current.countUpTo(rentalEpochDay);
+    }
+
+    /**
+     * Counts the observed holidays in a rental period which fall on a weekday, counting the period as
+     * {@link #countHolidays(long, long)} does. A holiday on a weekend day is already exempt from charge for a tool which
+     * is not charged on weekends, so is not exempted a second time.
+     *
+     * @param rentalEpochDay the epoch day of the start of the tool rental
+     * @param dueEpochDay the epoch day when the tool is due for return
+     *
+     * @return the number of observed holidays on a weekday after the rental date, up to and including the due date
+     */
+    public int countWeekdayHolidays(long rentalEpochDay, long dueEpochDay)
+    {
+        if(dueEpochDay <= rentalEpochDay)
+        {
+            return 0;
+        }
+
+        HolidayIndex current = index;
+        if(!current.covers(rentalEpochDay, dueEpochDay))
+        {
+            current = extendIndex(rentalEpochDay, dueEpochDay);
+        }
+        return current.countWeekdaysUpTo(dueEpochDay) - current.countWeekdaysUpTo(rentalEpochDay);
+    }
+
+    /**
+     * @return a fingerprint of the calendar's rules, taken from their descriptions, which a snapshot of the calendar's
+     * {@link ChargeDayTable} is checked against when it is loaded; rules without a description of their own fingerprint
+     * differently in every run, so a snapshot of them is never reused
+     */
+    public long getRulesFingerprint() {
+        return rulesFingerprint;
+    }
+
+    /**
+     * @return the calendar's table of charge days, built on first use unless one has been loaded
+     */
+    public ChargeDayTable getChargeDayTable()
+    {
+        final ChargeDayTable table = chargeDayTable;
+        return table != null ? table : buildChargeDayTable();
+    }
+
+    /**
+     * Replaces the calendar's table of charge days, such as with one loaded from a snapshot.
+     *
+     * @param table a table of this calendar's holidays
+     */
+    public void setChargeDayTable(ChargeDayTable table)
+    {
+        if(table.getHolidayCalendar() != this)
+        {
+            throw new IllegalArgumentException("Charge day table is for a different holiday calendar.");
+        }
+        chargeDayTable = table;
+    }
+
+    private synchronized ChargeDayTable buildChargeDayTable()
+    {
+        if(chargeDayTable == null)
+        {
+            final int currentYear = LocalDate.now().getYear();
+            final long firstEpochDay = LocalDate.of(currentYear - 1, 1, 1).toEpochDay();
+            final long lastEpochDay = LocalDate.of(currentYear + CHARGE_DAY_TABLE_FUTURE_YEARS, 12, 31).toEpochDay();
+            chargeDayTable = ChargeDayTable.build(this, firstEpochDay, (int) (lastEpochDay - firstEpochDay + 1));
+        }
+        return chargeDayTable;
+    }
+
+    private static long fingerprint(HolidayRule[] rules)
+    {
+        final CRC32 checksum = new CRC32();
+        for(HolidayRule rule : rules)
+        {
+            checksum.update(rule.toString().getBytes(StandardCharsets.UTF_8));
+            checksum.update('\n');
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Returns an index covering the given period, growing the cached index when it fits within the bound. Periods too
+     * long to cache get a one-off index of their own.
+     */
+    private synchronized HolidayIndex extendIndex(long rentalEpochDay, long dueEpochDay)
+    {
+        HolidayIndex current = index;
+        if(current.covers(rentalEpochDay, dueEpochDay))
+        {
+            return current;
+        }
+
+        final int startYear = LocalDate.ofEpochDay(rentalEpochDay).getYear();
+        final int endYear = LocalDate.ofEpochDay(dueEpochDay).getYear();
+        if(endYear - startYear + 3 > maxCachedYears)
+        {
+            return HolidayIndex.build(rules, startYear - 1, endYear + 1);
+        }
+
+        int firstYear = startYear - 1 - GROWTH_PADDING_YEARS;
+        int lastYear = endYear + 1 + GROWTH_PADDING_YEARS;
+        if(current != HolidayIndex.EMPTY)
+        {
+            firstYear = Math.min(firstYear, current.firstYear);
+            lastYear = Math.max(lastYear, current.lastYear);
+        }
+        // too wide to keep alongside what is already cached, so start a new window around the requested period
+        if(lastYear - firstYear + 1 > maxCachedYears)
+        {
+            final int padding = Math.min(GROWTH_PADDING_YEARS, (maxCachedYears - (endYear - startYear + 3)) / 2);
+            firstYear = startYear - 1 - padding;
+            lastYear = endYear + 1 + padding;
+        }
+
+        current = HolidayIndex.build(rules, firstYear, lastYear);
+        index = current;
+        return current;
+    }
+
+    /**
+     * An immutable, sorted set of observed holiday epoch days for a range of years.
+     */
+    private static final class HolidayIndex {
+
+        static final HolidayIndex EMPTY = new HolidayIndex(0, -1, 1, 0, new long[0], new long[0]);
+
+        final int firstYear;
+        final int lastYear;
+        // the period for which every observed holiday is in the index, including those shifted from a neighbouring year
+        final long firstCoveredEpochDay;
+        final long lastCoveredEpochDay;
+        final long[] holidays;
+        // the holidays which fall on a weekday
+        final long[] weekdayHolidays;
+
+        private HolidayIndex(int firstYear, int lastYear, long firstCoveredEpochDay, long lastCoveredEpochDay, long[] holidays,
+                             long[] weekdayHolidays)
+        {
+            this.firstYear = firstYear;
+            this.lastYear = lastYear;
+            this.firstCoveredEpochDay = firstCoveredEpochDay;
+            this.lastCoveredEpochDay = lastCoveredEpochDay;
+            this.holidays = holidays;
+            this.weekdayHolidays = weekdayHolidays;
+        }
+
+        static HolidayIndex build(HolidayRule[] rules, int firstYear, int lastYear)
+        {
+            final long[] holidays = new long[(lastYear - firstYear + 1) * rules.length];
+            int size = 0;
+            for(int year = firstYear; year <= lastYear; year++)
+            {
+                for(HolidayRule rule : rules)
+                {
+                    holidays[size++] = rule.observedEpochDay(year);
+                }
+            }
+            Arrays.sort(holidays);
+
+            // two holidays observed on the same day only exempt that day once
+            int distinct = 0;
+            for(int i = 0; i < size; i++)
+            {
+                if(distinct == 0 || holidays[distinct - 1] != holidays[i])
+                {
+                    holidays[distinct++] = holidays[i];
+                }
+            }
+
+            final long[] weekdayHolidays = Arrays.stream(holidays, 0, distinct)
+                    .filter(epochDay -> ToolRentalController.dayOfWeekIndex(epochDay) < DayOfWeek.SATURDAY.ordinal())
+                    .toArray();
+            return new HolidayIndex(firstYear, lastYear, LocalDate.of(firstYear + 1, 1, 1).toEpochDay(),
+                    LocalDate.of(lastYear - 1, 12, 31).toEpochDay(), Arrays.copyOf(holidays, distinct), weekdayHolidays);
+        }
+
+        boolean covers(long startEpochDay, long endEpochDay)
+        {
+            return startEpochDay >= firstCoveredEpochDay && endEpochDay <= lastCoveredEpochDay;
+        }
+
+        /**
+         * @return the number of holidays on or before the given epoch day
+         */
+        int countUpTo(long epochDay)
+        {
+            return countUpTo(holidays, epochDay);
+        }
+
+        /**
+         * @return the number of holidays on a weekday on or before the given epoch day
+         */
+        int countWeekdaysUpTo(long epochDay)
+        {
+            return countUpTo(weekdayHolidays, epochDay);
+        }
+
+        private static int countUpTo(long[] sortedEpochDays, long epochDay)
+        {
+            final int position = Arrays.binarySearch(sortedEpochDays, epochDay);
+            return position >= 0 ? position + 1 : -position - 1;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.time.DayOfWeek;
+import java.time.Month;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link HolidayCalendar}s used by the rental system. Each region or store may be assigned its own calendar; any
+ * region without one uses the default calendar, which recognizes Independence Day and Labor Day.
+ */
+public class HolidayCalendars {
+
+    private static final HolidayCalendar defaultCalendar = new HolidayCalendar(List.of(
+            new FixedDateHolidayRule(Month.JULY, 4),
+            new NthWeekdayHolidayRule(Month.SEPTEMBER, DayOfWeek.MONDAY, 1)));
+
+    private static final Map<String, HolidayCalendar> calendarsByRegion = new ConcurrentHashMap<>();
+
+    public static HolidayCalendar getDefault()
+    {
+        return defaultCalendar;
+    }
+
+    /**
+     * @param regionId the identifier of a region or store
+     *
+     * @return the calendar assigned to the region, or the default calendar if none has been assigned
+     */
+    public static HolidayCalendar forRegion(String regionId)
+    {
+        return calendarsByRegion.getOrDefault(regionId, defaultCalendar);
+    }
+
+    /**
+     * Assigns a calendar to a region or store, replacing any calendar previously assigned to it.
+     *
+     * @param regionId the identifier of a region or store
+     * @param calendar the calendar to use for rentals in the region
+     */
+    public static void register(String regionId, HolidayCalendar calendar)
+    {
+        calendarsByRegion.put(regionId, calendar);
+        PricingChanges.recordChange();
+    }
+
+    /**
+     * Removes the calendar assigned to a region or store, so that it uses the default calendar again.
+     *
+     * @param regionId the identifier of a region or store
+     */
+    public static void unregister(String regionId)
+    {
+        calendarsByRegion.remove(regionId);
+        PricingChanges.recordChange();
+    }
+}
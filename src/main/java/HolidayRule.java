@@ -0,0 +1,12 @@
+/**
+ * A rule which determines the date on which a holiday is observed in a given year.
+ */
+public interface HolidayRule {
+
+    /**
+     * @param year the year to determine the holiday for
+     *
+     * @return the epoch day on which the holiday is observed in the given year
+     */
+    long observedEpochDay(int year);
+}
@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends quote requests to a {@link CheckoutService} at a fixed rate and reports the latency percentiles.
+ * <p>
+ * Requests are sent on a fixed schedule whether or not earlier ones have been answered, and each latency is measured from
+ * when its request was due to be sent, so a stalled service shows up as high latency instead of as a lower request rate.
+ * The requests are drawn from a seeded random mix of tools, dates and discounts, so runs with the same arguments send the
+ * same requests in the same order.
+ * <p>
+ * Usage: {@code LoadGenerator <requestsPerSecond> <seconds> [<warmupSeconds> [<baseUrl>]]}. The warm-up, five seconds
+ * unless given, runs at the same rate and is not measured. Without a URL an embedded service is started on a free
+ * localhost port for the run.
+ */
+public class LoadGenerator {
+
+    private static final String[] TOOL_CODES = {"CHNS", "LADW", "JAKD", "JAKR"};
+    private static final LocalDate FIRST_CHECKOUT_DATE = LocalDate.of(2015, 6, 1);
+    private static final int CHECKOUT_DATES = 90;
+    private static final int DEFAULT_WARMUP_SECONDS = 5;
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final long seed;
+
+    /**
+     * @param baseUri the service to send requests to, such as {@code http://localhost:8080/}
+     * @param seed the seed for the request mix
+     */
+    public LoadGenerator(URI baseUri, long seed)
+    {
+        this.baseUri = baseUri;
+        this.seed = seed;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if(args.length < 2 || args.length > 4)
+        {
+            System.err.println("Usage: LoadGenerator <requestsPerSecond> <seconds> [<warmupSeconds> [<baseUrl>]]");
+            System.exit(1);
+        }
+        final int requestsPerSecond = Integer.parseInt(args[0]);
+        final Duration duration = Duration.ofSeconds(Long.parseLong(args[1]));
+        final Duration warmup = Duration.ofSeconds(args.length >= 3 ? Long.parseLong(args[2]) : DEFAULT_WARMUP_SECONDS);
+
+        if(args.length == 4)
+        {
+            new LoadGenerator(URI.create(args[3]), 1).run(requestsPerSecond, warmup, duration).print(System.out);
+            return;
+        }
+        try(CheckoutService service = new CheckoutService(new InetSocketAddress("localhost", 0), 1024))
+        {
+            final URI uri = URI.create("http://localhost:" + service.getPort() + "/");
+            new LoadGenerator(uri, 1).run(requestsPerSecond, warmup, duration).print(System.out);
+            System.out.println("Coalesced quotes: " + service.getCoalescedCount());
+        }
+    }
+
+    /**
+     * Sends requests at the given rate for a warm-up period whose results are discarded, then measures a run.
+     *
+     * @return the latencies and outcomes of the measured requests
+     */
+    public Result run(int requestsPerSecond, Duration warmup, Duration duration) throws InterruptedException
+    {
+        if(!warmup.isZero())
+        {
+            run(requestsPerSecond, warmup);
+        }
+        return run(requestsPerSecond, duration);
+    }
+
+    /**
+     * Sends requests at the given rate for the given time, then waits up to ten seconds for the outstanding responses.
+     *
+     * @return the latencies and outcomes of the requests
+     */
+    public Result run(int requestsPerSecond, Duration duration) throws InterruptedException
+    {
+        if(requestsPerSecond < 1)
+        {
+            throw new IllegalArgumentException("Request rate must be at least 1 per second.");
+        }
+        final int requestCount = (int) Math.min(Integer.MAX_VALUE - 8, requestsPerSecond * duration.toMillis() / 1000);
+        final HttpRequest[] requests = createRequests(requestCount);
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+
+        final long[] latencies = new long[requestCount];
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(requestCount);
+
+        final long start = System.nanoTime();
+        for(int i = 0; i < requestCount; i++)
+        {
+            final long due = start + i * intervalNanos;
+            for(long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+            {
+                LockSupport.parkNanos(wait);
+            }
+
+            final int index = i;
+            client.sendAsync(requests[i], HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                latencies[index] = System.nanoTime() - due;
+                if(error != null)
+                {
+                    failed.incrementAndGet();
+                }
+                else if(response.statusCode() == 200)
+                {
+                    succeeded.incrementAndGet();
+                }
+                else if(response.statusCode() == 503)
+                {
+                    rejected.incrementAndGet();
+                }
+                else
+                {
+                    failed.incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+        final long sendNanos = System.nanoTime() - start;
+
+        if(!done.await(10, TimeUnit.SECONDS))
+        {
+            throw new IllegalStateException("Responses were still outstanding ten seconds after the last request.");
+        }
+        // the latch orders each callback's write before this read
+        final long[] sortedLatencies = latencies.clone();
+        Arrays.sort(sortedLatencies);
+        return new Result(sortedLatencies, sendNanos, succeeded.get(), rejected.get(), failed.get());
+    }
+
+    private HttpRequest[] createRequests(int requestCount)
+    {
+        final Random random = new Random(seed);
+        final HttpRequest[] requests = new HttpRequest[requestCount];
+        for(int i = 0; i < requestCount; i++)
+        {
+            final String query = "quote?tool=" + TOOL_CODES[random.nextInt(TOOL_CODES.length)]
+                    + "&days=" + (1 + random.nextInt(14))
+                    + "&discount=" + (random.nextInt(5) * 5)
+                    + "&date=" + FIRST_CHECKOUT_DATE.plusDays(random.nextInt(CHECKOUT_DATES));
+            requests[i] = HttpRequest.newBuilder(baseUri.resolve(query)).timeout(Duration.ofSeconds(10)).GET().build();
+        }
+        return requests;
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static final class Result {
+
+        private final long[] sortedLatencyNanos;
+        private final long sendNanos;
+        private final int succeeded;
+        private final int rejected;
+        private final int failed;
+
+        Result(long[] sortedLatencyNanos, long sendNanos, int succeeded, int rejected, int failed)
+        {
+            this.sortedLatencyNanos = sortedLatencyNanos;
+            this.sendNanos = sendNanos;
+            this.succeeded = succeeded;
+            this.rejected = rejected;
+            this.failed = failed;
+        }
+
+        public int getRequestCount() {
+            return sortedLatencyNanos.length;
+        }
+
+        public int getSucceededCount() {
+            return succeeded;
+        }
+
+        /**
+         * @return the number of requests the service turned away as overloaded
+         */
+        public int getRejectedCount() {
+            return rejected;
+        }
+
+        public int getFailedCount() {
+            return failed;
+        }
+
+        /**
+         * @return the rate requests were actually sent at, which falls short of the target if the sender could not keep up
+         */
+        public double getSentPerSecond()
+        {
+            return sendNanos == 0 ? 0 : sortedLatencyNanos.length * 1e9 / sendNanos;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         *
+         * @return the latency which that percentage of requests took no longer than, or 0 if there were no requests
+         */
+        public long getLatencyNanos(double percentile)
+        {
+            if(sortedLatencyNanos.length == 0)
+            {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(percentile / 100 * sortedLatencyNanos.length);
+            return sortedLatencyNanos[Math.max(0, Math.min(sortedLatencyNanos.length, rank) - 1)];
+        }
+
+        public void print(PrintStream output)
+        {
+            output.printf("Requests: %d (%.0f/s sent), succeeded: %d, rejected: %d, failed: %d%n",
+                    getRequestCount(), getSentPerSecond(), succeeded, rejected, failed);
+            output.printf("Latency p50: %.3f ms, p99: %.3f ms, p99.9: %.3f ms, max: %.3f ms%n",
+                    getLatencyNanos(50) / 1e6, getLatencyNanos(99) / 1e6, getLatencyNanos(99.9) / 1e6,
+                    getLatencyNanos(100) / 1e6);
+        }
+    }
+}
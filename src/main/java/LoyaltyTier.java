@@ -0,0 +1,10 @@
+/**
+ * The loyalty tiers of customers, from lowest to highest. A promotion for a tier is also open to every higher tier.
+ */
+public enum LoyaltyTier
+{
+    NONE,
+    SILVER,
+    GOLD,
+    PLATINUM
+}
@@ -1,12 +1,161 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Creates a sample {@link ToolRentalAgreement} and calls {@link ToolRentalAgreement#print()} to print to console.
+ * <p>
+ * When given an input and an output file, instead prices every rental request in the input file with a {@link BulkPricer}
+ * and writes the results to the output file. Given {@code serve} and optionally a port, instead runs a
+ * {@link CheckoutService} until the process is stopped. Given {@code node}, a node id, the comma separated host:port
+ * addresses of every node and optionally a data directory, instead runs that {@link ReservationNode} of a reservation
+ * cluster until the process is stopped; {@code -Dreservations.partitions} and {@code -Dreservations.replicas} set the
+ * cluster's layout, and must be the same for every node. Given {@code simulate}, a journal file and one or more dynamic
+ * pricing policy files, instead replays the journal's rentals under each policy with a {@link PricingSimulator} and
+ * prints the revenue each would have earned.
+ * <p>
+ * If the {@link DynamicPricingPolicy} named by {@code -Dpricing.dynamic}, or the built-in one, is enabled,
+ * {@link DynamicPricing} is started before pricing starts.
+ * <p>
+ * When the pricing rules, currency rates or promotions are loaded from files, with {@code -Dpricing.rules},
+ * {@code -Dcurrency.rates} or {@code -Dpricing.promotions}, a {@link PricingRulesWatcher} reloads them whenever the files
+ * change.
+ * <p>
+ * The default calendar's {@link ChargeDayTable} is built before pricing starts. If {@code -Dpricing.chargeDayTable} names a
+ * file, the table is loaded from that snapshot instead, and the snapshot is rewritten when it is missing, out of date,
+ * damaged or written from different holiday rules.
  */
 public class Main {
-    public static void main(String[] args)
+    public static void main(String[] args) throws IOException
     {
+        final String chargeDayTableFile = System.getProperty("pricing.chargeDayTable");
+        if(chargeDayTableFile != null)
+        {
+            loadChargeDayTable(Path.of(chargeDayTableFile));
+        }
+        else
+        {
+            HolidayCalendars.getDefault().getChargeDayTable();
+        }
+        watchPricingFiles();
+
+        if(args.length >= 3 && args[0].equals("simulate"))
+        {
+            simulate(Path.of(args[1]), Arrays.asList(args).subList(2, args.length));
+            return;
+        }
+        final DynamicPricingPolicy dynamicPricingPolicy = DynamicPricingPolicy.load();
+        if(dynamicPricingPolicy.isEnabled())
+        {
+            DynamicPricing.start(dynamicPricingPolicy);
+        }
+
+        if(args.length >= 1 && args.length <= 2 && args[0].equals("serve"))
+        {
+            final int port = args.length == 2 ? Integer.parseInt(args[1]) : 8080;
+            PricingMetrics.setEnabled(true);
+            final CheckoutService service = new CheckoutService(new InetSocketAddress(port), 1024);
+            Runtime.getRuntime().addShutdownHook(new Thread(service::close));
+            System.err.println("Listening on port " + service.getPort());
+            return;
+        }
+        if(args.length >= 3 && args.length <= 4 && args[0].equals("node"))
+        {
+            final String addresses = args[2];
+            final int nodeCount = addresses.split(",").length;
+            final ReservationCluster cluster = ReservationCluster.parse(addresses,
+                    Integer.getInteger("reservations.partitions", 16),
+                    Integer.getInteger("reservations.replicas", Math.min(3, nodeCount)));
+            final ReservationNode node = new ReservationNode(cluster, Integer.parseInt(args[1]),
+                    args.length == 4 ? Path.of(args[3]) : null);
+            Runtime.getRuntime().addShutdownHook(new Thread(node::close));
+            System.err.println("Node " + node.getNodeId() + " listening on " + cluster.getNodes().get(node.getNodeId()));
+            return;
+        }
+        if(args.length == 2)
+        {
+            final int pricingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            new BulkPricer(pricingThreads, System.err).price(Path.of(args[0]), Path.of(args[1]));
+            return;
+        }
+        if(args.length != 0)
+        {
+            System.err.println("Usage: Main [<input.csv> <output.csv> | serve [<port>] | node <id> <host:port,...> [<dataDirectory>]"
+                    + " | simulate <journal> <policy.properties>...]");
+            System.exit(1);
+        }
+
         // the rental date will be "now"
         Checkout.createRentalAgreement("CHNS", 4, 0, LocalDate.now()).print();
     }
+
+    private static void simulate(Path journalFile, List<String> policyFiles) throws IOException
+    {
+        final PricingSimulator simulator;
+        try(AgreementJournal journal = new AgreementJournal(journalFile))
+        {
+            simulator = PricingSimulator.of(journal);
+        }
+        for(String policyFile : policyFiles)
+        {
+            final long start = System.nanoTime();
+            final PricingSimulator.Result result = simulator.simulate(DynamicPricingPolicy.load(Path.of(policyFile)));
+            System.out.printf("%s: %d rentals, revenue %d cents against %d recorded, average rate %.1f%%, "
+                            + "%d publishes, simulated in %d ms%n", policyFile, result.getRentalCount(),
+                    result.getRevenueCents(), result.getListRevenueCents(), result.getAverageRatePercent(),
+                    result.getPublishCount(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static void watchPricingFiles() throws IOException
+    {
+        final String rulesFile = System.getProperty("pricing.rules");
+        final String ratesFile = System.getProperty("currency.rates");
+        final String promotionsFile = System.getProperty("pricing.promotions");
+        if(rulesFile == null && ratesFile == null && promotionsFile == null)
+        {
+            return;
+        }
+        // runs for the life of the process
+        final PricingRulesWatcher watcher = new PricingRulesWatcher(System.err);
+        if(rulesFile != null)
+        {
+            watcher.watch(Path.of(rulesFile), PricingRules::reload);
+        }
+        if(ratesFile != null)
+        {
+            watcher.watch(Path.of(ratesFile), CurrencyRates::reload);
+        }
+        if(promotionsFile != null)
+        {
+            watcher.watch(Path.of(promotionsFile), PromotionRules::reload);
+        }
+    }
+
+    private static void loadChargeDayTable(Path file) throws IOException
+    {
+        final HolidayCalendar calendar = HolidayCalendars.getDefault();
+        final long today = LocalDate.now().toEpochDay();
+        if(Files.exists(file))
+        {
+            try
+            {
+                final ChargeDayTable table = ChargeDayTable.read(file, calendar);
+                if(table.covers(today, today))
+                {
+                    calendar.setChargeDayTable(table);
+                    return;
+                }
+            }
+            catch(IOException e)
+            {
+                System.err.println("Rebuilding the charge day table: " + e.getMessage());
+            }
+        }
+        calendar.getChargeDayTable().write(file);
+    }
 }
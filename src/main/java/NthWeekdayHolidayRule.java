@@ -0,0 +1,45 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+
+/**
+ * A holiday which falls on the n-th occurrence of a day of the week in a month, such as Labor Day (the first Monday in
+ * September).
+ */
+public class NthWeekdayHolidayRule implements HolidayRule {
+
+    private static final int DAYS_PER_WEEK = 7;
+
+    private final Month month;
+    private final DayOfWeek dayOfWeek;
+    private final int occurrence;
+
+    /**
+     * @param month the month the holiday falls in
+     * @param dayOfWeek the day of the week the holiday falls on
+     * @param occurrence which occurrence of the day of the week in the month, starting at 1
+     */
+    public NthWeekdayHolidayRule(Month month, DayOfWeek dayOfWeek, int occurrence)
+    {
+        if(occurrence < 1 || occurrence > 4)
+        {
+            throw new IllegalArgumentException("Occurrence must be between 1 and 4.");
+        }
+        this.month = month;
+        this.dayOfWeek = dayOfWeek;
+        this.occurrence = occurrence;
+    }
+
+    @Override
+    public long observedEpochDay(int year) {
+        final long firstOfMonth = LocalDate.of(year, month, 1).toEpochDay();
+        final int daysUntilFirstOccurrence =
+                Math.floorMod(dayOfWeek.ordinal() - ToolRentalController.dayOfWeekIndex(firstOfMonth), DAYS_PER_WEEK);
+        return firstOfMonth + daysUntilFirstOccurrence + (long) (occurrence - 1) * DAYS_PER_WEEK;
+    }
+
+    @Override
+    public String toString() {
+        return "NthWeekdayHolidayRule[" + month + " " + dayOfWeek + " " + occurrence + "]";
+    }
+}
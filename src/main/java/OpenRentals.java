@@ -0,0 +1,435 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The rentals which have been checked out and not yet returned, with their extensions and late returns priced
+ * incrementally.
+ * <ul>
+ *     <li>An extension lengthens a rental before it is overdue. Only the added days are counted, by
+ *     {@link ToolRentalController#calculateAdditionalChargeDays}, and the charges are recalculated at the daily rate
+ *     agreed at checkout.</li>
+ *     <li>A rental returned after its due date pays a late fee for each chargeable day it was late: the agreed daily rate
+ *     plus a surcharge percentage, rounded down to the cent.</li>
+ *     <li>A nightly sweep accrues the late charge days of every overdue rental up to a date, so that outstanding late fees
+ *     are known without waiting for returns. Each rental remembers how far it has been accrued, so a sweep only counts
+ *     the days since the last one, and sweeps are split across a {@link ForkJoinPool}.</li>
+ * </ul>
+ * A rental checked out at a store is opened with the store, and the unit reserved for it is returned to the store's
+ * available units when the rental is returned.
+ * <p>
+ * Rentals are stored in chunks of 4096, column by column, so a sweep reads only the few columns it needs. Each chunk is
+ * locked while a sweep or an individual return or extension updates it.
+ */
+public class OpenRentals {
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int ROWS_PER_CHUNK = 1 << CHUNK_SHIFT;
+    private static final int PERCENT = 100;
+
+    private final HolidayCalendar holidayCalendar;
+    private final int lateSurchargePercent;
+
+    // replaced with a longer copy when full, under appendLock
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int size;
+    private final Object appendLock = new Object();
+
+    /**
+     * @param holidayCalendar the calendar determining which added days are holidays
+     * @param lateSurchargePercent the percentage added to the daily rate for each chargeable late day
+     */
+    public OpenRentals(HolidayCalendar holidayCalendar, int lateSurchargePercent)
+    {
+        if(lateSurchargePercent < 0)
+        {
+            throw new IllegalArgumentException("Late surcharge percent must not be negative.");
+        }
+        this.holidayCalendar = holidayCalendar;
+        this.lateSurchargePercent = lateSurchargePercent;
+    }
+
+    /**
+     * Opens a rental for a checked-out agreement. The tool's charge data is taken as it is now, so later changes to
+     * pricing do not affect how the rental's extensions and late days are counted.
+     *
+     * @param agreement the agreement made at checkout
+     *
+     * @return the id of the rental
+     */
+    public int open(ToolRentalAgreement agreement)
+    {
+        return open(agreement, null);
+    }
+
+    /**
+     * Opens a rental for an agreement checked out at a store with
+     * {@link Checkout#createRentalAgreement(String, int, int, LocalDate, String)}. The unit reserved for it stays reserved
+     * until the rental is returned.
+     *
+     * @param agreement the agreement made at checkout
+     * @param storeId the store the tool was rented from, or null if no unit was reserved for it
+     *
+     * @return the id of the rental
+     */
+    public int open(ToolRentalAgreement agreement, String storeId)
+    {
+        final Tool tool = ToolRepository.getTool(agreement.getCode());
+        if(tool == null)
+        {
+            throw new IllegalArgumentException("Tool code does not correspond to an existing tool.");
+        }
+        final ToolChargeData toolChargeData = tool.getChargeData();
+
+        synchronized(appendLock)
+        {
+            final int rentalId = size;
+            Chunk[] currentChunks = chunks;
+            if(rentalId >> CHUNK_SHIFT >= currentChunks.length)
+            {
+                currentChunks = Arrays.copyOf(currentChunks, currentChunks.length + 1);
+                currentChunks[currentChunks.length - 1] = new Chunk();
+                chunks = currentChunks;
+            }
+            final Chunk chunk = currentChunks[rentalId >> CHUNK_SHIFT];
+            synchronized(chunk)
+            {
+                chunk.set(rentalId & (ROWS_PER_CHUNK - 1), agreement, toolChargeData, storeId);
+            }
+            size = rentalId + 1;
+            return rentalId;
+        }
+    }
+
+    /**
+     * @return the number of rentals opened, returned or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the rental's agreement, including any extensions
+     */
+    public ToolRentalAgreement getAgreement(int rentalId)
+    {
+        final Chunk chunk = chunkFor(rentalId);
+        synchronized(chunk)
+        {
+            return chunk.agreements[rentalId & (ROWS_PER_CHUNK - 1)];
+        }
+    }
+
+    /**
+     * @return whether the rental has not been returned yet
+     */
+    public boolean isOpen(int rentalId)
+    {
+        final Chunk chunk = chunkFor(rentalId);
+        synchronized(chunk)
+        {
+            return chunk.open[rentalId & (ROWS_PER_CHUNK - 1)];
+        }
+    }
+
+    /**
+     * @return the chargeable late days of the rental, as accrued by the sweeps so far or counted when it was returned
+     */
+    public int getLateChargeDays(int rentalId)
+    {
+        final Chunk chunk = chunkFor(rentalId);
+        synchronized(chunk)
+        {
+            return chunk.lateChargeDays[rentalId & (ROWS_PER_CHUNK - 1)];
+        }
+    }
+
+    /**
+     * @return the late fee for the rental's late charge days so far
+     */
+    public long getLateFeeCents(int rentalId)
+    {
+        final Chunk chunk = chunkFor(rentalId);
+        synchronized(chunk)
+        {
+            final int row = rentalId & (ROWS_PER_CHUNK - 1);
+            return calculateLateFeeCents(chunk.lateChargeDays[row], chunk.agreements[row].getDailyRentalChargeCents());
+        }
+    }
+
+    /**
+     * Lengthens a rental which is not yet overdue. A rental is overdue once the extension is asked for after its due
+     * date, whether or not a sweep has accrued its late days yet.
+     *
+     * @param rentalId the rental to extend
+     * @param additionalDays the number of days to add to the rental period
+     * @param requestDate the date the extension is asked for
+     *
+     * @return the rental's new agreement
+     */
+    public ToolRentalAgreement extend(int rentalId, int additionalDays, LocalDate requestDate)
+    {
+        if(additionalDays < 1)
+        {
+            throw new IllegalArgumentException("Additional day count must be at least 1.");
+        }
+        final Chunk chunk = chunkFor(rentalId);
+        synchronized(chunk)
+        {
+            final int row = rentalId & (ROWS_PER_CHUNK - 1);
+            if(!chunk.open[row])
+            {
+                throw new IllegalStateException("Rental has already been returned.");
+            }
+            final ToolRentalAgreement agreement = chunk.agreements[row];
+            final long requestEpochDay = requestDate.toEpochDay();
+            if(requestEpochDay < agreement.getCheckoutEpochDay())
+            {
+                throw new IllegalArgumentException("Request date must not be before the checkout date.");
+            }
+            if(requestEpochDay > chunk.dueEpochDays[row] || chunk.accruedThroughEpochDays[row] > chunk.dueEpochDays[row])
+            {
+                throw new IllegalStateException("Rental is overdue and cannot be extended.");
+            }
+
+            final long newDueEpochDay = agreement.getDueEpochDay() + additionalDays;
+            final int chargeDays = agreement.getChargeDays() + ToolRentalController.calculateAdditionalChargeDays(
+                    chunk.chargeData[row], agreement.getDueEpochDay(), newDueEpochDay, holidayCalendar);
+            final long preDiscountChargeCents = chargeDays * agreement.getDailyRentalChargeCents();
+            final long discountAmountCents = Checkout.calculateDiscountCents(preDiscountChargeCents,
+                    agreement.getDiscountPercent());
+            final ToolRentalAgreement extended = new ToolRentalAgreement(agreement.getCode(), agreement.getType(),
+                    agreement.getBrand(), agreement.getNumberOfDays() + additionalDays, agreement.getCheckoutEpochDay(),
+                    newDueEpochDay, agreement.getDailyRentalChargeCents(), chargeDays, preDiscountChargeCents,
+                    agreement.getDiscountPercent(), discountAmountCents, preDiscountChargeCents - discountAmountCents,
+                    agreement.getCurrency());
+
+            chunk.agreements[row] = extended;
+            chunk.dueEpochDays[row] = newDueEpochDay;
+            chunk.accruedThroughEpochDays[row] = newDueEpochDay;
+            return extended;
+        }
+    }
+
+    /**
+     * Closes a rental, counting its late days exactly from the due date to the return date whatever the sweeps had
+     * accrued. A rental opened with a store releases its unit back to the store.
+     *
+     * @param rentalId the rental being returned
+     * @param returnDate the date the tool was returned
+     *
+     * @return the charges for the rental, including any late fee
+     */
+    public RentalReturn returnRental(int rentalId, LocalDate returnDate)
+    {
+        final Chunk chunk = chunkFor(rentalId);
+        final RentalReturn rentalReturn;
+        final String storeId;
+        synchronized(chunk)
+        {
+            final int row = rentalId & (ROWS_PER_CHUNK - 1);
+            if(!chunk.open[row])
+            {
+                throw new IllegalStateException("Rental has already been returned.");
+            }
+            final ToolRentalAgreement agreement = chunk.agreements[row];
+            final long returnEpochDay = returnDate.toEpochDay();
+            if(returnEpochDay < agreement.getCheckoutEpochDay())
+            {
+                throw new IllegalArgumentException("Return date must not be before the checkout date.");
+            }
+
+            final int lateChargeDays = ToolRentalController.calculateAdditionalChargeDays(chunk.chargeData[row],
+                    agreement.getDueEpochDay(), returnEpochDay, holidayCalendar);
+            chunk.open[row] = false;
+            chunk.lateChargeDays[row] = lateChargeDays;
+            chunk.accruedThroughEpochDays[row] = Math.max(returnEpochDay, agreement.getDueEpochDay());
+            storeId = chunk.storeIds[row];
+            rentalReturn = new RentalReturn(agreement, returnEpochDay, lateChargeDays,
+                    calculateLateFeeCents(lateChargeDays, agreement.getDailyRentalChargeCents()));
+        }
+        // the rental is closed, so its unit can only be released once
+        if(storeId != null)
+        {
+            ToolRepository.releaseUnit(rentalReturn.getAgreement().getCode(), storeId);
+        }
+        return rentalReturn;
+    }
+
+    /**
+     * Accrues the late charge days of every open, overdue rental up to and including a date, on the current thread.
+     *
+     * @param asOf the last day to accrue
+     *
+     * @return the number of rentals which accrued late days
+     */
+    public long accrueLateDays(LocalDate asOf)
+    {
+        long accrued = 0;
+        for(Chunk chunk : chunks)
+        {
+            accrued += accrueChunk(chunk, asOf.toEpochDay());
+        }
+        return accrued;
+    }
+
+    /**
+     * Accrues the late charge days of every open, overdue rental up to and including a date, splitting the chunks across
+     * the given pool.
+     *
+     * @param asOf the last day to accrue
+     * @param pool the pool to run the sweep in
+     *
+     * @return the number of rentals which accrued late days
+     */
+    public long accrueLateDays(LocalDate asOf, ForkJoinPool pool)
+    {
+        final Chunk[] currentChunks = chunks;
+        return pool.invoke(new AccrueAction(currentChunks, asOf.toEpochDay(), 0, currentChunks.length));
+    }
+
+    private long accrueChunk(Chunk chunk, long asOfEpochDay)
+    {
+        long accrued = 0;
+        synchronized(chunk)
+        {
+            for(int row = 0; row < chunk.rows; row++)
+            {
+                final long accruedThrough = chunk.accruedThroughEpochDays[row];
+                if(chunk.open[row] && accruedThrough < asOfEpochDay)
+                {
+                    chunk.lateChargeDays[row] += ToolRentalController.calculateAdditionalChargeDays(chunk.chargeData[row],
+                            accruedThrough, asOfEpochDay, holidayCalendar);
+                    chunk.accruedThroughEpochDays[row] = asOfEpochDay;
+                    accrued++;
+                }
+            }
+        }
+        return accrued;
+    }
+
+    private long calculateLateFeeCents(int lateChargeDays, long dailyRentalChargeCents)
+    {
+        return lateChargeDays * dailyRentalChargeCents * (PERCENT + lateSurchargePercent) / PERCENT;
+    }
+
+    private Chunk chunkFor(int rentalId)
+    {
+        if(rentalId < 0 || rentalId >= size)
+        {
+            throw new IllegalArgumentException("Rental id does not correspond to an opened rental.");
+        }
+        return chunks[rentalId >> CHUNK_SHIFT];
+    }
+
+    /**
+     * The outcome of returning a rental.
+     */
+    public static final class RentalReturn {
+
+        private final ToolRentalAgreement agreement;
+        private final long returnEpochDay;
+        private final int lateChargeDays;
+        private final long lateFeeCents;
+
+        RentalReturn(ToolRentalAgreement agreement, long returnEpochDay, int lateChargeDays, long lateFeeCents)
+        {
+            this.agreement = agreement;
+            this.returnEpochDay = returnEpochDay;
+            this.lateChargeDays = lateChargeDays;
+            this.lateFeeCents = lateFeeCents;
+        }
+
+        public ToolRentalAgreement getAgreement() {
+            return agreement;
+        }
+
+        public LocalDate getReturnDate() {
+            return LocalDate.ofEpochDay(returnEpochDay);
+        }
+
+        /**
+         * @return the number of days after the due date the tool was returned, or 0 if it was not late
+         */
+        public int getLateDays() {
+            return (int) Math.max(0, returnEpochDay - agreement.getDueEpochDay());
+        }
+
+        public int getLateChargeDays() {
+            return lateChargeDays;
+        }
+
+        public long getLateFeeCents() {
+            return lateFeeCents;
+        }
+
+        /**
+         * @return the agreement's final charge plus the late fee
+         */
+        public long getTotalChargeCents() {
+            return agreement.getFinalChargeCents() + lateFeeCents;
+        }
+    }
+
+    /**
+     * The rentals in one chunk. The arrays are only read and written holding the chunk's monitor.
+     */
+    private static final class Chunk {
+
+        int rows;
+        final ToolRentalAgreement[] agreements = new ToolRentalAgreement[ROWS_PER_CHUNK];
+        final ToolChargeData[] chargeData = new ToolChargeData[ROWS_PER_CHUNK];
+        final String[] storeIds = new String[ROWS_PER_CHUNK];
+        final boolean[] open = new boolean[ROWS_PER_CHUNK];
+        final long[] dueEpochDays = new long[ROWS_PER_CHUNK];
+        // late days are counted after this day; the due date until the rental is first swept while overdue
+        final long[] accruedThroughEpochDays = new long[ROWS_PER_CHUNK];
+        final int[] lateChargeDays = new int[ROWS_PER_CHUNK];
+
+        void set(int row, ToolRentalAgreement agreement, ToolChargeData toolChargeData, String storeId)
+        {
+            agreements[row] = agreement;
+            chargeData[row] = toolChargeData;
+            storeIds[row] = storeId;
+            open[row] = true;
+            dueEpochDays[row] = agreement.getDueEpochDay();
+            accruedThroughEpochDays[row] = agreement.getDueEpochDay();
+            rows = row + 1;
+        }
+    }
+
+    /**
+     * Sweeps a range of chunks, splitting it in half until it is a single chunk.
+     */
+    private final class AccrueAction extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] sweptChunks;
+        private final long asOfEpochDay;
+        private final int fromChunk;
+        private final int toChunk;
+
+        AccrueAction(Chunk[] sweptChunks, long asOfEpochDay, int fromChunk, int toChunk)
+        {
+            this.sweptChunks = sweptChunks;
+            this.asOfEpochDay = asOfEpochDay;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected Long compute() {
+            if(toChunk - fromChunk <= 1)
+            {
+                return toChunk == fromChunk ? 0L : accrueChunk(sweptChunks[fromChunk], asOfEpochDay);
+            }
+            final int middleChunk = (fromChunk + toChunk) >>> 1;
+            final AccrueAction firstHalf = new AccrueAction(sweptChunks, asOfEpochDay, fromChunk, middleChunk);
+            firstHalf.fork();
+            final long secondHalf = new AccrueAction(sweptChunks, asOfEpochDay, middleChunk, toChunk).compute();
+            return firstHalf.join() + secondHalf;
+        }
+    }
+}
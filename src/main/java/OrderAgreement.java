@@ -0,0 +1,107 @@
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+
+/**
+ * Represents the combined agreement for an order of several tools rented over the same rental period, as produced by
+ * {@link Checkout#createOrderAgreement(List, int, int, LocalDate)}.
+ * <p>
+ * Each item is a {@link ToolRentalAgreement} for one tool, without a discount of its own unless a promotion gives it a
+ * larger one than the order's. The order's discount is applied once to the sum of the other items' charges, so rounding
+ * to whole minor units happens once per order rather than per item.
+ */
+public class OrderAgreement {
+
+    private final List<ToolRentalAgreement> items;
+    private final long preDiscountChargeCents;
+    private final int discountPercent;
+    private final long discountAmountCents;
+    private final long finalChargeCents;
+
+    /**
+     * @param items the agreement for each tool, all with the same rental period and currency
+     * @param preDiscountChargeCents the sum of the items' charges
+     * @param discountPercent the discount percentage applied to the items without a promotion of their own
+     * @param discountAmountCents the discount on the order, including the items' own discounts
+     */
+    OrderAgreement(List<ToolRentalAgreement> items, long preDiscountChargeCents, int discountPercent,
+                   long discountAmountCents)
+    {
+        this.items = Collections.unmodifiableList(items);
+        this.preDiscountChargeCents = preDiscountChargeCents;
+        this.discountPercent = discountPercent;
+        this.discountAmountCents = discountAmountCents;
+        this.finalChargeCents = preDiscountChargeCents - discountAmountCents;
+    }
+
+    /**
+     * @return the agreement for each tool, in the order the tools were given
+     */
+    public List<ToolRentalAgreement> getItems() {
+        return items;
+    }
+
+    public int getNumberOfDays() {
+        return items.get(0).getNumberOfDays();
+    }
+
+    public long getCheckoutEpochDay() {
+        return items.get(0).getCheckoutEpochDay();
+    }
+
+    public long getDueEpochDay() {
+        return items.get(0).getDueEpochDay();
+    }
+
+    public LocalDate getCheckoutDate() {
+        return items.get(0).getCheckoutDate();
+    }
+
+    public LocalDate getDueDate() {
+        return items.get(0).getDueDate();
+    }
+
+    public Currency getCurrency() {
+        return items.get(0).getCurrency();
+    }
+
+    public long getPreDiscountChargeCents() {
+        return preDiscountChargeCents;
+    }
+
+    /**
+     * @return the discount percentage applied to the items without a promotion of their own
+     */
+    public int getDiscountPercent() {
+        return discountPercent;
+    }
+
+    public long getDiscountAmountCents() {
+        return discountAmountCents;
+    }
+
+    public long getFinalChargeCents() {
+        return finalChargeCents;
+    }
+
+    /**
+     * Prints out the order agreement to the console.
+     */
+    public void print()
+    {
+        System.out.println(getOutput());
+    }
+
+    /**
+     * Constructs the order agreement text: the rental period, a line for each item, and the order's charges.
+     *
+     * @return the constructed order agreement text
+     */
+    public String getOutput()
+    {
+        final StringBuilder output = new StringBuilder(160 + 80 * items.size());
+        AgreementRenderer.renderText(this, output);
+        return output.toString();
+    }
+}
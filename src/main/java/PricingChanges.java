@@ -0,0 +1,26 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks changes to anything a rental price depends on, such as a tool's charge data or a holiday calendar. Each change
+ * moves the version on, so anything holding prices calculated at an earlier version knows they may be out of date.
+ */
+public class PricingChanges {
+
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * @return the current pricing version
+     */
+    public static long currentVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * Records that something a rental price depends on has changed.
+     */
+    public static void recordChange()
+    {
+        version.incrementAndGet();
+    }
+}
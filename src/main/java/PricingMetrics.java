@@ -0,0 +1,376 @@
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Latency histograms for each stage of pricing a rental, and counters of checkouts by tool type and of failures.
+ * <p>
+ * Metrics are off unless the {@code pricing.metrics} system property is "true" or they are turned on with
+ * {@link #setEnabled(boolean)} or over JMX. While off, each instrumented stage costs one volatile read and a branch, so
+ * the instrumentation stays in place in production.
+ * <p>
+ * Reading the clock can cost more than a whole checkout, so while on, only one in every {@link #getSampleInterval()}
+ * checkouts and renderings is timed, chosen at random; set by the {@code pricing.metrics.sampleInterval} system property
+ * and 32 unless given. The histograms' counts are of the timed stages only, while the checkout and failure counters
+ * count everything. A stage is timed with:
+ * <pre>
+ *     long start = PricingMetrics.startTimer();
+ *     ...
+ *     start = PricingMetrics.record(PricingMetrics.Stage.CHARGE_DAYS, start);
+ * </pre>
+ * where {@code record} returns the end of the stage, ready to time the next one.
+ */
+public final class PricingMetrics {
+
+    static final String OBJECT_NAME = "toolrental:type=PricingMetrics";
+
+    // returned by startTimer when metrics are off, so that turning them on part way through a checkout records nothing
+    private static final long NOT_TIMED = 0;
+
+    private static volatile boolean enabled = Boolean.getBoolean("pricing.metrics");
+    private static volatile int sampleInterval = Math.max(1, Integer.getInteger("pricing.metrics.sampleInterval", 32));
+
+    private static final LatencyHistogram[] stageLatencies = new LatencyHistogram[Stage.values().length];
+    private static final LongAdder[] checkoutsByToolType = new LongAdder[ToolType.values().length];
+    private static final LongAdder[] failures = new LongAdder[Failure.values().length];
+
+    static
+    {
+        for(int i = 0; i < stageLatencies.length; i++)
+        {
+            stageLatencies[i] = new LatencyHistogram();
+        }
+        for(int i = 0; i < checkoutsByToolType.length; i++)
+        {
+            checkoutsByToolType[i] = new LongAdder();
+        }
+        for(int i = 0; i < failures.length; i++)
+        {
+            failures[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * The timed stages of pricing and presenting a rental.
+     */
+    public enum Stage {
+        /** checking the rental days and discount */
+        VALIDATION("validation"),
+        /** finding the tool and its charge data */
+        TOOL_LOOKUP("tool_lookup"),
+        /** working out the due date */
+        DUE_DATE("due_date"),
+        /** counting the chargeable days */
+        CHARGE_DAYS("charge_days"),
+        /** calculating the charges and discount */
+        CHARGES("charges"),
+        /** constructing the agreement */
+        AGREEMENT("agreement"),
+        /**
+         * the whole of {@link Checkout#createRentalAgreement} or {@link Checkout#createOrderAgreement}, from validation to
+         * the constructed agreement
+         */
+        CHECKOUT("checkout"),
+        /** rendering an agreement as text or JSON */
+        RENDERING("rendering");
+
+        private final String label;
+
+        Stage(String label)
+        {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * The reasons a checkout can fail.
+     */
+    public enum Failure {
+        INVALID_RENTAL_DAYS("invalid_rental_days"),
+        INVALID_DISCOUNT("invalid_discount"),
+        UNKNOWN_TOOL("unknown_tool"),
+        UNKNOWN_CURRENCY("unknown_currency"),
+        NO_UNITS_AVAILABLE("no_units_available");
+
+        private final String label;
+
+        Failure(String label)
+        {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private PricingMetrics()
+    {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PricingMetrics.enabled = enabled;
+    }
+
+    /**
+     * @return how many checkouts there are for each one which is timed
+     */
+    public static int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * @param sampleInterval how many checkouts there are for each one which is timed; 1 times every checkout
+     */
+    public static void setSampleInterval(int sampleInterval)
+    {
+        if(sampleInterval < 1)
+        {
+            throw new IllegalArgumentException("Sample interval must be at least 1.");
+        }
+        PricingMetrics.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * @return the time to measure a stage from, or a marker meaning it is not being timed if metrics are off or it was
+     *         not sampled
+     */
+    public static long startTimer()
+    {
+        if(!enabled)
+        {
+            return NOT_TIMED;
+        }
+        final int interval = sampleInterval;
+        if(interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0)
+        {
+            return NOT_TIMED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since {@code start} against a stage, unless the stage is not being timed.
+     *
+     * @param stage the stage which has just finished
+     * @param start the value of {@link #startTimer()}, or of a previous call to this method, when the stage began
+     *
+     * @return the time the stage finished, to time the next stage from
+     */
+    public static long record(Stage stage, long start)
+    {
+        if(start == NOT_TIMED)
+        {
+            return NOT_TIMED;
+        }
+        final long now = System.nanoTime();
+        stageLatencies[stage.ordinal()].record(now - start);
+        return now;
+    }
+
+    /**
+     * Counts a successful checkout of a tool type.
+     */
+    public static void recordCheckout(ToolType type)
+    {
+        if(enabled)
+        {
+            checkoutsByToolType[type.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Counts a failed checkout.
+     */
+    public static void recordFailure(Failure failure)
+    {
+        if(enabled)
+        {
+            failures[failure.ordinal()].increment();
+        }
+    }
+
+    public static LatencyHistogram getStageLatencies(Stage stage) {
+        return stageLatencies[stage.ordinal()];
+    }
+
+    public static long getCheckoutCount(ToolType type) {
+        return checkoutsByToolType[type.ordinal()].sum();
+    }
+
+    public static long getFailureCount(Failure failure) {
+        return failures[failure.ordinal()].sum();
+    }
+
+    /**
+     * Clears every histogram and counter.
+     */
+    public static void reset()
+    {
+        for(LatencyHistogram histogram : stageLatencies)
+        {
+            histogram.reset();
+        }
+        for(LongAdder counter : checkoutsByToolType)
+        {
+            counter.reset();
+        }
+        for(LongAdder counter : failures)
+        {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, if they are not registered already.
+     */
+    public static void registerMBean()
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        }
+        catch(InstanceAlreadyExistsException e)
+        {
+            // registered already
+        }
+        catch(JMException e)
+        {
+            throw new IllegalStateException("Could not register the pricing metrics with JMX.", e);
+        }
+    }
+
+    /**
+     * Appends the metrics in the Prometheus text exposition format.
+     */
+    public static void writeText(StringBuilder output)
+    {
+        output.append("# TYPE pricing_stage_latency_nanos summary\n");
+        for(Stage stage : Stage.values())
+        {
+            final LatencyHistogram histogram = getStageLatencies(stage);
+            writeQuantile(output, stage, "0.5", histogram.getValueAtPercentile(50));
+            writeQuantile(output, stage, "0.99", histogram.getValueAtPercentile(99));
+            writeQuantile(output, stage, "0.999", histogram.getValueAtPercentile(99.9));
+            writeQuantile(output, stage, "1", histogram.getMaxNanos());
+            output.append("pricing_stage_latency_nanos_sum{stage=\"").append(stage.getLabel()).append("\"} ")
+                    .append(histogram.getTotalNanos()).append('\n');
+            output.append("pricing_stage_latency_nanos_count{stage=\"").append(stage.getLabel()).append("\"} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+
+        output.append("# TYPE pricing_checkouts_total counter\n");
+        for(ToolType type : ToolType.values())
+        {
+            output.append("pricing_checkouts_total{tool_type=\"").append(type.getValue()).append("\"} ")
+                    .append(getCheckoutCount(type)).append('\n');
+        }
+
+        output.append("# TYPE pricing_failures_total counter\n");
+        for(Failure failure : Failure.values())
+        {
+            output.append("pricing_failures_total{reason=\"").append(failure.getLabel()).append("\"} ")
+                    .append(getFailureCount(failure)).append('\n');
+        }
+    }
+
+    private static void writeQuantile(StringBuilder output, Stage stage, String quantile, long nanos)
+    {
+        output.append("pricing_stage_latency_nanos{stage=\"").append(stage.getLabel()).append("\",quantile=\"")
+                .append(quantile).append("\"} ").append(nanos).append('\n');
+    }
+
+    private static Map<String, Long> byStage(ToLongFunction<LatencyHistogram> value)
+    {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        for(Stage stage : Stage.values())
+        {
+            values.put(stage.getLabel(), value.applyAsLong(getStageLatencies(stage)));
+        }
+        return values;
+    }
+
+    private static final class Bean implements PricingMetricsMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return PricingMetrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            PricingMetrics.setEnabled(enabled);
+        }
+
+        @Override
+        public int getSampleInterval() {
+            return PricingMetrics.getSampleInterval();
+        }
+
+        @Override
+        public void setSampleInterval(int sampleInterval) {
+            PricingMetrics.setSampleInterval(sampleInterval);
+        }
+
+        @Override
+        public Map<String, Long> getStageCounts() {
+            return byStage(LatencyHistogram::getCount);
+        }
+
+        @Override
+        public Map<String, Long> getStageMedianNanos() {
+            return byStage(histogram -> histogram.getValueAtPercentile(50));
+        }
+
+        @Override
+        public Map<String, Long> getStage99thPercentileNanos() {
+            return byStage(histogram -> histogram.getValueAtPercentile(99));
+        }
+
+        @Override
+        public Map<String, Long> getStageMaxNanos() {
+            return byStage(LatencyHistogram::getMaxNanos);
+        }
+
+        @Override
+        public Map<String, Long> getCheckoutsByToolType()
+        {
+            final Map<String, Long> values = new LinkedHashMap<>();
+            for(ToolType type : ToolType.values())
+            {
+                values.put(type.getValue(), getCheckoutCount(type));
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getErrorCounts()
+        {
+            final Map<String, Long> values = new LinkedHashMap<>();
+            for(Failure failure : Failure.values())
+            {
+                values.put(failure.getLabel(), getFailureCount(failure));
+            }
+            return values;
+        }
+
+        @Override
+        public void reset() {
+            PricingMetrics.reset();
+        }
+    }
+}
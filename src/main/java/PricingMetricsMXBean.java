@@ -0,0 +1,30 @@
+import java.util.Map;
+
+/**
+ * The JMX view of {@link PricingMetrics}, registered as {@value PricingMetrics#OBJECT_NAME}. Stage and tool type names
+ * are the keys of the maps, and latencies are in nanoseconds.
+ */
+public interface PricingMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    int getSampleInterval();
+
+    void setSampleInterval(int sampleInterval);
+
+    Map<String, Long> getStageCounts();
+
+    Map<String, Long> getStageMedianNanos();
+
+    Map<String, Long> getStage99thPercentileNanos();
+
+    Map<String, Long> getStageMaxNanos();
+
+    Map<String, Long> getCheckoutsByToolType();
+
+    Map<String, Long> getErrorCounts();
+
+    void reset();
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The daily charge rules for every {@link ToolType}, held as one {@link ToolChargeData} per type in a flat table indexed
+ * by {@link ToolType#ordinal()}.
+ * <p>
+ * The rules are loaded from a properties file: the built-in pricing-rules.properties, or the file named by the
+ * pricing.rules system property. They can be reloaded while running; a reload builds a complete new table and swaps it in
+ * with a single write, so a checkout in progress keeps using the rules it started with.
+ */
+public final class PricingRules {
+
+    private static final String RULES_FILE_PROPERTY = "pricing.rules";
+    private static final String DEFAULT_RULES_RESOURCE = "/pricing-rules.properties";
+    private static final String TIER_PREFIX = ".tier.";
+
+    private static volatile PricingRules current = loadInitialRules();
+
+    private final ToolChargeData[] chargeDataByType;
+
+    private PricingRules(ToolChargeData[] chargeDataByType)
+    {
+        this.chargeDataByType = chargeDataByType;
+    }
+
+    /**
+     * @return the rules currently in effect
+     */
+    public static PricingRules current()
+    {
+        return current;
+    }
+
+    /**
+     * Loads rules from a file and puts them into effect. If the file cannot be read or is not valid, the rules in effect
+     * are left unchanged.
+     *
+     * @param rulesFile the properties file to load
+     */
+    public static void reload(Path rulesFile) throws IOException
+    {
+        try(Reader reader = Files.newBufferedReader(rulesFile))
+        {
+            final Properties properties = new Properties();
+            properties.load(reader);
+            install(parse(properties));
+        }
+    }
+
+    /**
+     * Puts the given rules into effect.
+     */
+    public static void install(PricingRules rules)
+    {
+        current = rules;
+        PricingChanges.recordChange();
+    }
+
+    /**
+     * @return the charge data for every tool of the given type
+     */
+    public ToolChargeData getChargeData(ToolType type)
+    {
+        return chargeDataByType[type.ordinal()];
+    }
+
+    /**
+     * Builds rules from properties in the format of pricing-rules.properties.
+     *
+     * @param properties the rules, with a dailyCharge, weekendCharge and holidayCharge for every tool type
+     *
+     * @return the parsed rules
+     */
+    public static PricingRules parse(Properties properties)
+    {
+        final ToolChargeData[] chargeDataByType = new ToolChargeData[ToolType.values().length];
+        for(ToolType type : ToolType.values())
+        {
+            final String prefix = type.name();
+            final TreeMap<Integer, Long> tiers = new TreeMap<>();
+            tiers.put(1, parseCents(requiredProperty(properties, prefix + ".dailyCharge")));
+            for(String name : properties.stringPropertyNames())
+            {
+                if(name.startsWith(prefix + TIER_PREFIX))
+                {
+                    final int minimumDays = parseTierDays(name, name.substring(prefix.length() + TIER_PREFIX.length()));
+                    tiers.put(minimumDays, parseCents(properties.getProperty(name)));
+                }
+            }
+
+            final int[] tierMinimumDays = new int[tiers.size()];
+            final long[] tierDailyChargeCents = new long[tiers.size()];
+            int tier = 0;
+            for(Map.Entry<Integer, Long> entry : tiers.entrySet())
+            {
+                tierMinimumDays[tier] = entry.getKey();
+                tierDailyChargeCents[tier++] = entry.getValue();
+            }
+            chargeDataByType[type.ordinal()] = new ToolChargeData(tierMinimumDays, tierDailyChargeCents,
+                    parseBoolean(requiredProperty(properties, prefix + ".holidayCharge")),
+                    parseBoolean(requiredProperty(properties, prefix + ".weekendCharge")));
+        }
+        return new PricingRules(chargeDataByType);
+    }
+
+    private static PricingRules loadInitialRules()
+    {
+        final String rulesFile = System.getProperty(RULES_FILE_PROPERTY);
+        final Properties properties = new Properties();
+        try
+        {
+            if(rulesFile != null)
+            {
+                try(Reader reader = Files.newBufferedReader(Path.of(rulesFile)))
+                {
+                    properties.load(reader);
+                }
+            }
+            else
+            {
+                try(InputStream in = PricingRules.class.getResourceAsStream(DEFAULT_RULES_RESOURCE))
+                {
+                    if(in == null)
+                    {
+                        throw new IllegalStateException("Pricing rules resource is missing: " + DEFAULT_RULES_RESOURCE);
+                    }
+                    properties.load(in);
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException("Pricing rules could not be loaded.", e);
+        }
+        return parse(properties);
+    }
+
+    private static String requiredProperty(Properties properties, String name)
+    {
+        final String value = properties.getProperty(name);
+        if(value == null)
+        {
+            throw new IllegalArgumentException("Pricing rules are missing " + name + ".");
+        }
+        return value.trim();
+    }
+
+    private static long parseCents(String dollars)
+    {
+        try
+        {
+            final BigDecimal amount = new BigDecimal(dollars.trim());
+            if(amount.signum() < 0)
+            {
+                throw new IllegalArgumentException("Daily charge must not be negative: " + dollars);
+            }
+            // throws if the amount has fractions of a cent
+            return amount.movePointRight(2).longValueExact();
+        }
+        catch(ArithmeticException | NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Daily charge is not a whole number of cents: " + dollars, e);
+        }
+    }
+
+    private static int parseTierDays(String name, String days)
+    {
+        try
+        {
+            final int minimumDays = Integer.parseInt(days);
+            if(minimumDays > 1)
+            {
+                return minimumDays;
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            // reported below
+        }
+        throw new IllegalArgumentException("Charge tier must be for more than 1 day: " + name);
+    }
+
+    private static boolean parseBoolean(String value)
+    {
+        if(!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false"))
+        {
+            throw new IllegalArgumentException("Expected true or false in pricing rules: " + value);
+        }
+        return Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Watches pricing files, such as the {@link PricingRules}, {@link CurrencyRates} or {@link PromotionRules} files, and
+ * reloads each whenever it changes. An invalid file is reported to the stream given for errors and ignored, leaving what
+ * was loaded before in effect.
+ */
+public class PricingRulesWatcher implements Closeable {
+
+    /**
+     * Loads a pricing file and puts it into effect, such as {@link PricingRules#reload(Path)}.
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * @param file the file to load
+         *
+         * @throws IOException if the file cannot be read
+         * @throws IllegalArgumentException if the file is not valid
+         */
+        void reload(Path file) throws IOException;
+    }
+
+    private final PrintStream errors;
+    private final WatchService watchService;
+    private final Map<Path, Loader> loaders = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    /**
+     * Loads the rules file and starts watching it for changes.
+     *
+     * @param rulesFile the properties file to load the rules from
+     * @param errors where to report changes to the file which could not be loaded
+     */
+    public PricingRulesWatcher(Path rulesFile, PrintStream errors) throws IOException
+    {
+        this(errors);
+        watch(rulesFile, PricingRules::reload);
+    }
+
+    /**
+     * Starts a watcher with no files to watch yet.
+     *
+     * @param errors where to report changes to watched files which could not be loaded
+     */
+    public PricingRulesWatcher(PrintStream errors) throws IOException
+    {
+        this.errors = errors;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::watch, "pricing-rules-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Loads a file and starts watching it for changes.
+     *
+     * @param file the file to load
+     * @param loader puts the file into effect, each time it changes
+     */
+    public void watch(Path file, Loader loader) throws IOException
+    {
+        final Path absoluteFile = file.toAbsolutePath();
+        loader.reload(absoluteFile);
+        loaders.put(absoluteFile, loader);
+        absoluteFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    private void watch()
+    {
+        try
+        {
+            while(true)
+            {
+                final WatchKey key = watchService.take();
+                final Path directory = (Path) key.watchable();
+                // a file written once may raise several events, but is only reloaded once
+                final Set<Path> changed = new LinkedHashSet<>();
+                for(WatchEvent<?> event : key.pollEvents())
+                {
+                    if(event.context() instanceof Path name && loaders.containsKey(directory.resolve(name)))
+                    {
+                        changed.add(directory.resolve(name));
+                    }
+                }
+                for(Path file : changed)
+                {
+                    reload(file, loaders.get(file));
+                }
+                // a key which cannot be reset is for a directory which no longer exists; the others are still watched
+                key.reset();
+            }
+        }
+        catch(InterruptedException | ClosedWatchServiceException e)
+        {
+            // closed
+        }
+    }
+
+    private void reload(Path file, Loader loader)
+    {
+        try
+        {
+            loader.reload(file);
+        }
+        catch(IOException | IllegalArgumentException e)
+        {
+            errors.println(file + " was not reloaded: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,286 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Replays a recorded history of rentals through {@link DynamicPricingPolicy}s, to compare the revenue each policy would
+ * have earned.
+ * <p>
+ * The history is copied once into primitive columns ordered by checkout date. Each simulation then steps a simulated
+ * clock through it, publishing rates every publish interval of the policy and charging each rental the rate in effect
+ * when it was checked out, so a year of history replays in well under a second rather than a year. Stretches with no
+ * demand and unchanging rates are skipped over rather than published through.
+ * <p>
+ * Recorded rentals only carry their checkout date, so the rentals of each day are spread evenly across it. The daily
+ * charge recorded with each rental is taken as its list rate, and every rental is replayed as it happened: the simulation
+ * shows what the same demand would have paid, not how demand would have responded to different rates.
+ */
+public final class PricingSimulator {
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    // recorded rentals have no store, so the whole history is simulated as one
+    private static final String STORE_ID = "";
+    private static final ToolType[] toolTypes = ToolType.values();
+
+    private final int size;
+    private final long[] checkoutTimes;
+    private final byte[] types;
+    private final int[] numberOfDays;
+    private final int[] chargeDays;
+    private final long[] listDailyChargeCents;
+    private final byte[] discountPercents;
+    private final long[] finalChargeCents;
+
+    private PricingSimulator(Columns columns)
+    {
+        size = columns.size;
+        // stable, so rentals on the same day keep their recorded order
+        final int[] order = IntStream.range(0, size).boxed()
+                .sorted(Comparator.comparingLong(row -> columns.checkoutEpochDays[row]))
+                .mapToInt(Integer::intValue).toArray();
+        checkoutTimes = new long[size];
+        types = new byte[size];
+        numberOfDays = new int[size];
+        chargeDays = new int[size];
+        listDailyChargeCents = new long[size];
+        discountPercents = new byte[size];
+        finalChargeCents = new long[size];
+        for(int start = 0; start < size; )
+        {
+            final long epochDay = columns.checkoutEpochDays[order[start]];
+            int end = start;
+            while(end < size && columns.checkoutEpochDays[order[end]] == epochDay)
+            {
+                end++;
+            }
+            for(int row = start; row < end; row++)
+            {
+                final int source = order[row];
+                checkoutTimes[row] = epochDay * MILLIS_PER_DAY + (row - start) * MILLIS_PER_DAY / (end - start);
+                types[row] = columns.types[source];
+                numberOfDays[row] = columns.numberOfDays[source];
+                chargeDays[row] = columns.chargeDays[source];
+                listDailyChargeCents[row] = columns.listDailyChargeCents[source];
+                discountPercents[row] = columns.discountPercents[source];
+                finalChargeCents[row] = columns.finalChargeCents[source];
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Loads the history to replay from rental agreements.
+     *
+     * @param agreements the rentals, in the base currency of {@link CurrencyRates}
+     *
+     * @return the simulator
+     */
+    public static PricingSimulator of(Iterable<ToolRentalAgreement> agreements)
+    {
+        final Columns columns = new Columns();
+        for(ToolRentalAgreement agreement : agreements)
+        {
+            // revenues are summed, so they must all be in one currency
+            if(agreement.getCurrency() != CurrencyRates.current().getBaseCurrency())
+            {
+                throw new IllegalArgumentException("Only agreements in the base currency can be simulated.");
+            }
+            columns.add(agreement.getCheckoutEpochDay(), agreement.getType(), agreement.getNumberOfDays(),
+                    agreement.getChargeDays(), agreement.getDailyRentalChargeCents(), agreement.getDiscountPercent(),
+                    agreement.getFinalChargeCents());
+        }
+        return new PricingSimulator(columns);
+    }
+
+    /**
+     * Loads the history to replay from a journal, reading its records without building an agreement for each.
+     *
+     * @param journal the journal of rentals, in the base currency of {@link CurrencyRates}
+     *
+     * @return the simulator
+     */
+    public static PricingSimulator of(AgreementJournal journal)
+    {
+        final Columns columns = new Columns();
+        journal.replay(record -> {
+            final Tool tool = ToolRepository.getTool(record.getToolCode());
+            if(tool == null)
+            {
+                throw new IllegalStateException("Journal record refers to a tool which no longer exists: "
+                        + record.getToolCode());
+            }
+            if(record.getCurrency() != CurrencyRates.current().getBaseCurrency())
+            {
+                throw new IllegalArgumentException("Only agreements in the base currency can be simulated.");
+            }
+            columns.add(record.getCheckoutEpochDay(), tool.getType(), record.getNumberOfDays(), record.getChargeDays(),
+                    record.getDailyRentalChargeCents(), record.getDiscountPercent(), record.getFinalChargeCents());
+        });
+        return new PricingSimulator(columns);
+    }
+
+    /**
+     * @return the number of rentals in the history
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Replays the history under a policy.
+     *
+     * @param policy the policy to simulate
+     *
+     * @return the revenue the policy would have earned
+     */
+    public Result simulate(DynamicPricingPolicy policy)
+    {
+        final DemandTracker tracker = new DemandTracker(policy);
+        final long publishInterval = policy.getPublishIntervalMillis();
+        final long[] listRevenueByType = new long[toolTypes.length];
+        final long[] revenueByType = new long[toolTypes.length];
+        long ratePercentTotal = 0;
+        long publishes = 0;
+        DynamicPrices prices = DynamicPrices.LIST;
+        long nextPublish = size == 0 ? 0 : checkoutTimes[0] + publishInterval;
+
+        for(int row = 0; row < size; row++)
+        {
+            final long time = checkoutTimes[row];
+            while(nextPublish <= time)
+            {
+                final DynamicPrices published = tracker.publish(prices, nextPublish);
+                publishes++;
+                final boolean unchanged = Arrays.equals(published.getChainRatePercents(), prices.getChainRatePercents());
+                prices = published;
+                nextPublish += publishInterval;
+                // once the window holds no demand and the rates have settled, later publishes change nothing
+                if(unchanged && nextPublish - checkoutTimes[row - 1] > policy.getWindowMillis() && nextPublish <= time)
+                {
+                    nextPublish += (time - nextPublish) / publishInterval * publishInterval;
+                }
+            }
+
+            final ToolType type = toolTypes[types[row]];
+            final long dailyChargeCents = prices.adjust(listDailyChargeCents[row], STORE_ID, type);
+            final long preDiscountChargeCents = chargeDays[row] * dailyChargeCents;
+            revenueByType[type.ordinal()] += preDiscountChargeCents
+                    - Checkout.calculateDiscountCents(preDiscountChargeCents, discountPercents[row]);
+            listRevenueByType[type.ordinal()] += finalChargeCents[row];
+            ratePercentTotal += prices.getRatePercent(STORE_ID, type);
+            tracker.record(STORE_ID, type, numberOfDays[row], time);
+        }
+        return new Result(size, listRevenueByType, revenueByType, publishes, ratePercentTotal);
+    }
+
+    /**
+     * The outcome of replaying the history under one policy.
+     */
+    public static final class Result {
+
+        private final int rentalCount;
+        private final long[] listRevenueByType;
+        private final long[] revenueByType;
+        private final long publishCount;
+        private final long ratePercentTotal;
+
+        Result(int rentalCount, long[] listRevenueByType, long[] revenueByType, long publishCount, long ratePercentTotal)
+        {
+            this.rentalCount = rentalCount;
+            this.listRevenueByType = listRevenueByType;
+            this.revenueByType = revenueByType;
+            this.publishCount = publishCount;
+            this.ratePercentTotal = ratePercentTotal;
+        }
+
+        public int getRentalCount() {
+            return rentalCount;
+        }
+
+        /**
+         * @return the number of times rates were worked out, not counting those skipped while nothing could change
+         */
+        public long getPublishCount() {
+            return publishCount;
+        }
+
+        /**
+         * @return the revenue recorded in the history, in cents
+         */
+        public long getListRevenueCents()
+        {
+            return Arrays.stream(listRevenueByType).sum();
+        }
+
+        /**
+         * @return the revenue under the policy, in cents
+         */
+        public long getRevenueCents()
+        {
+            return Arrays.stream(revenueByType).sum();
+        }
+
+        /**
+         * @return the revenue recorded in the history for a tool type, in cents
+         */
+        public long getListRevenueCents(ToolType type)
+        {
+            return listRevenueByType[type.ordinal()];
+        }
+
+        /**
+         * @return the revenue under the policy for a tool type, in cents
+         */
+        public long getRevenueCents(ToolType type)
+        {
+            return revenueByType[type.ordinal()];
+        }
+
+        /**
+         * @return the average rate the rentals were charged, as a percentage of their list rate
+         */
+        public double getAverageRatePercent()
+        {
+            return rentalCount == 0 ? 100 : (double) ratePercentTotal / rentalCount;
+        }
+    }
+
+    /**
+     * The history as it is loaded, in recorded order.
+     */
+    private static final class Columns {
+
+        int size;
+        long[] checkoutEpochDays = new long[1024];
+        byte[] types = new byte[1024];
+        int[] numberOfDays = new int[1024];
+        int[] chargeDays = new int[1024];
+        long[] listDailyChargeCents = new long[1024];
+        byte[] discountPercents = new byte[1024];
+        long[] finalChargeCents = new long[1024];
+
+        void add(long checkoutEpochDay, ToolType type, int days, int charged, long dailyChargeCents, int discountPercent,
+                 long finalCharge)
+        {
+            if(size == checkoutEpochDays.length)
+            {
+                final int capacity = size * 2;
+                checkoutEpochDays = Arrays.copyOf(checkoutEpochDays, capacity);
+                types = Arrays.copyOf(types, capacity);
+                numberOfDays = Arrays.copyOf(numberOfDays, capacity);
+                chargeDays = Arrays.copyOf(chargeDays, capacity);
+                listDailyChargeCents = Arrays.copyOf(listDailyChargeCents, capacity);
+                discountPercents = Arrays.copyOf(discountPercents, capacity);
+                finalChargeCents = Arrays.copyOf(finalChargeCents, capacity);
+            }
+            checkoutEpochDays[size] = checkoutEpochDay;
+            types[size] = (byte) type.ordinal();
+            numberOfDays[size] = days;
+            chargeDays[size] = charged;
+            listDailyChargeCents[size] = dailyChargeCents;
+            discountPercents[size] = (byte) discountPercent;
+            finalChargeCents[size] = finalCharge;
+            size++;
+        }
+    }
+}
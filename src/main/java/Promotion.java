@@ -0,0 +1,116 @@
+import java.time.LocalDate;
+
+/**
+ * A promotion giving a discount on rentals which meet all of its conditions. Each condition is optional, and a promotion
+ * without any applies to every rental.
+ */
+public final class Promotion {
+
+    private final String id;
+    private final int discountPercent;
+    private final ToolType toolType;
+    private final String brand;
+    private final int minimumDays;
+    private final int maximumDays;
+    private final long fromEpochDay;
+    private final long toEpochDay;
+    private final LoyaltyTier minimumLoyaltyTier;
+
+    /**
+     * @param id the name of the promotion
+     * @param discountPercent the discount percentage given, from 1 to 100
+     * @param toolType the type of tool the promotion is for, or null for every type
+     * @param brand the brand of tool the promotion is for, or null for every brand
+     * @param minimumDays the fewest rental days the promotion is for
+     * @param maximumDays the most rental days the promotion is for
+     * @param fromDate the first checkout date of the promotion, or null if it has always run
+     * @param toDate the last checkout date of the promotion, or null if it does not end
+     * @param minimumLoyaltyTier the lowest loyalty tier the promotion is for
+     */
+    public Promotion(String id, int discountPercent, ToolType toolType, String brand, int minimumDays, int maximumDays,
+                     LocalDate fromDate, LocalDate toDate, LoyaltyTier minimumLoyaltyTier)
+    {
+        if(discountPercent < 1 || discountPercent > 100)
+        {
+            throw new IllegalArgumentException("Promotion discount percent must be between 1 and 100: " + id);
+        }
+        if(minimumDays < 1 || maximumDays < minimumDays)
+        {
+            throw new IllegalArgumentException("Promotion rental days must be at least 1 and in order: " + id);
+        }
+        if(fromDate != null && toDate != null && toDate.isBefore(fromDate))
+        {
+            throw new IllegalArgumentException("Promotion must not end before it starts: " + id);
+        }
+        this.id = id;
+        this.discountPercent = discountPercent;
+        this.toolType = toolType;
+        this.brand = brand;
+        this.minimumDays = minimumDays;
+        this.maximumDays = maximumDays;
+        this.fromEpochDay = fromDate == null ? Long.MIN_VALUE : fromDate.toEpochDay();
+        this.toEpochDay = toDate == null ? Long.MAX_VALUE : toDate.toEpochDay();
+        this.minimumLoyaltyTier = minimumLoyaltyTier;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getDiscountPercent() {
+        return discountPercent;
+    }
+
+    /**
+     * @return the type of tool the promotion is for, or null for every type
+     */
+    public ToolType getToolType() {
+        return toolType;
+    }
+
+    /**
+     * @return the brand of tool the promotion is for, or null for every brand
+     */
+    public String getBrand() {
+        return brand;
+    }
+
+    public int getMinimumDays() {
+        return minimumDays;
+    }
+
+    public int getMaximumDays() {
+        return maximumDays;
+    }
+
+    /**
+     * @return the first checkout epoch day of the promotion, or {@link Long#MIN_VALUE} if it has always run
+     */
+    public long getFromEpochDay() {
+        return fromEpochDay;
+    }
+
+    /**
+     * @return the last checkout epoch day of the promotion, or {@link Long#MAX_VALUE} if it does not end
+     */
+    public long getToEpochDay() {
+        return toEpochDay;
+    }
+
+    public LoyaltyTier getMinimumLoyaltyTier() {
+        return minimumLoyaltyTier;
+    }
+
+    /**
+     * @return whether a rental meets every condition of the promotion
+     */
+    public boolean appliesTo(ToolType toolType, String brand, long checkoutEpochDay, int numberOfDays,
+                             LoyaltyTier loyaltyTier)
+    {
+        return (this.toolType == null || this.toolType == toolType)
+                && (this.brand == null || this.brand.equals(brand))
+                && numberOfDays >= minimumDays && numberOfDays <= maximumDays
+                && checkoutEpochDay >= fromEpochDay && checkoutEpochDay <= toEpochDay
+                && loyaltyTier.compareTo(minimumLoyaltyTier) >= 0;
+    }
+}
@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The active {@link Promotion}s, compiled into an index for finding the best discount on a rental.
+ * <p>
+ * The promotions are sorted by discount, largest first, and bucketed by {@link ToolType} and by checkout date. For each
+ * tool type, the start and day after the end of every promotion's date range divide time into intervals within which the
+ * same promotions run, and each interval holds the indexes of those promotions in discount order. Finding the best
+ * discount is a binary search for the checkout date's interval, then a scan of its promotions which stops at the first
+ * whose other conditions are met, so its cost depends on how many promotions overlap rather than how many there are.
+ * <p>
+ * The promotions are loaded from a properties file: the built-in promotions.properties, or the file named by the
+ * pricing.promotions system property, which can be reloaded while running with a {@link PricingRulesWatcher}. As with the
+ * {@link PricingRules}, a reload compiles a complete new index and swaps it in with a single write, so a checkout in
+ * progress keeps using the promotions it started with.
+ */
+public final class PromotionRules {
+
+    private static final String PROMOTIONS_FILE_PROPERTY = "pricing.promotions";
+    private static final String DEFAULT_PROMOTIONS_RESOURCE = "/promotions.properties";
+    private static final String DISCOUNT_PERCENT_SUFFIX = ".discountPercent";
+    private static final Comparator<Promotion> LARGEST_DISCOUNT_FIRST =
+            Comparator.comparingInt(Promotion::getDiscountPercent).reversed().thenComparing(Promotion::getId);
+
+    private static volatile PromotionRules current = loadInitialPromotions();
+
+    // largest discount first
+    private final Promotion[] promotions;
+    // per tool type, the first epoch day of every interval after the first, ascending
+    private final long[][] intervalStartsByType;
+    // per tool type and interval, the indexes into promotions of those running in the interval, ascending
+    private final int[][][] candidatesByType;
+
+    private PromotionRules(Promotion[] promotions)
+    {
+        this.promotions = promotions;
+        intervalStartsByType = new long[ToolType.values().length][];
+        candidatesByType = new int[ToolType.values().length][][];
+        for(ToolType type : ToolType.values())
+        {
+            compile(type);
+        }
+    }
+
+    /**
+     * @return the promotions currently in effect
+     */
+    public static PromotionRules current()
+    {
+        return current;
+    }
+
+    /**
+     * Loads promotions from a file and puts them into effect. If the file cannot be read or is not valid, the promotions
+     * in effect are left unchanged.
+     *
+     * @param promotionsFile the properties file to load
+     */
+    public static void reload(Path promotionsFile) throws IOException
+    {
+        try(Reader reader = Files.newBufferedReader(promotionsFile))
+        {
+            final Properties properties = new Properties();
+            properties.load(reader);
+            install(parse(properties));
+        }
+    }
+
+    /**
+     * Puts the given promotions into effect.
+     */
+    public static void install(PromotionRules rules)
+    {
+        current = rules;
+        PricingChanges.recordChange();
+    }
+
+    /**
+     * Compiles a set of promotions.
+     *
+     * @param promotions the promotions, with distinct ids
+     *
+     * @return the compiled promotions
+     */
+    public static PromotionRules of(Collection<Promotion> promotions)
+    {
+        final Set<String> ids = new HashSet<>();
+        for(Promotion promotion : promotions)
+        {
+            if(!ids.add(promotion.getId()))
+            {
+                throw new IllegalArgumentException("Promotion ids must be unique: " + promotion.getId());
+            }
+        }
+        final Promotion[] sorted = promotions.toArray(new Promotion[0]);
+        Arrays.sort(sorted, LARGEST_DISCOUNT_FIRST);
+        return new PromotionRules(sorted);
+    }
+
+    /**
+     * Builds promotions from properties in the format of promotions.properties.
+     *
+     * @param properties the settings of every promotion, each prefixed by its name
+     *
+     * @return the compiled promotions
+     */
+    public static PromotionRules parse(Properties properties)
+    {
+        final List<Promotion> promotions = new ArrayList<>();
+        for(String name : new TreeSet<>(properties.stringPropertyNames()))
+        {
+            if(!name.endsWith(DISCOUNT_PERCENT_SUFFIX))
+            {
+                continue;
+            }
+            final String id = name.substring(0, name.length() - DISCOUNT_PERCENT_SUFFIX.length());
+            final String toolType = optionalProperty(properties, id + ".toolType");
+            final String loyaltyTier = optionalProperty(properties, id + ".loyaltyTier");
+            final String minimumDays = optionalProperty(properties, id + ".minimumDays");
+            final String maximumDays = optionalProperty(properties, id + ".maximumDays");
+            final String from = optionalProperty(properties, id + ".from");
+            final String to = optionalProperty(properties, id + ".to");
+            promotions.add(new Promotion(id, parseInt(name, properties.getProperty(name)),
+                    toolType == null ? null : parseEnum(ToolType.class, id + ".toolType", toolType),
+                    optionalProperty(properties, id + ".brand"),
+                    minimumDays == null ? 1 : parseInt(id + ".minimumDays", minimumDays),
+                    maximumDays == null ? Integer.MAX_VALUE : parseInt(id + ".maximumDays", maximumDays),
+                    from == null ? null : parseDate(id + ".from", from),
+                    to == null ? null : parseDate(id + ".to", to),
+                    loyaltyTier == null ? LoyaltyTier.NONE : parseEnum(LoyaltyTier.class, id + ".loyaltyTier", loyaltyTier)));
+        }
+        return of(promotions);
+    }
+
+    /**
+     * @return every promotion, largest discount first
+     */
+    public List<Promotion> getPromotions()
+    {
+        return Collections.unmodifiableList(Arrays.asList(promotions));
+    }
+
+    /**
+     * Finds the largest discount of the promotions which apply to a rental.
+     *
+     * @param toolType the type of tool being rented
+     * @param brand the brand of tool being rented
+     * @param checkoutEpochDay the epoch day of the start of the rental period
+     * @param numberOfDays the number of days in the rental period
+     * @param loyaltyTier the loyalty tier of the customer
+     *
+     * @return the discount percentage, or 0 if no promotion applies
+     */
+    public int getBestDiscountPercent(ToolType toolType, String brand, long checkoutEpochDay, int numberOfDays,
+                                      LoyaltyTier loyaltyTier)
+    {
+        final Promotion promotion = getBestPromotion(toolType, brand, checkoutEpochDay, numberOfDays, loyaltyTier);
+        return promotion == null ? 0 : promotion.getDiscountPercent();
+    }
+
+    /**
+     * Finds the promotion with the largest discount which applies to a rental.
+     *
+     * @param toolType the type of tool being rented
+     * @param brand the brand of tool being rented
+     * @param checkoutEpochDay the epoch day of the start of the rental period
+     * @param numberOfDays the number of days in the rental period
+     * @param loyaltyTier the loyalty tier of the customer
+     *
+     * @return the promotion, or null if none applies
+     */
+    public Promotion getBestPromotion(ToolType toolType, String brand, long checkoutEpochDay, int numberOfDays,
+                                      LoyaltyTier loyaltyTier)
+    {
+        final int type = toolType.ordinal();
+        final int position = Arrays.binarySearch(intervalStartsByType[type], checkoutEpochDay);
+        final int[] candidates = candidatesByType[type][position >= 0 ? position + 1 : -position - 1];
+        for(int candidate : candidates)
+        {
+            final Promotion promotion = promotions[candidate];
+            if(promotion.appliesTo(toolType, brand, checkoutEpochDay, numberOfDays, loyaltyTier))
+            {
+                return promotion;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the intervals of a tool type, sweeping through the promotions' start and end days in order.
+     */
+    private void compile(ToolType type)
+    {
+        // the days on which promotions for the type start, and the days after they end
+        final TreeSet<Long> boundaries = new TreeSet<>();
+        for(Promotion promotion : promotions)
+        {
+            if(promotion.getToolType() == null || promotion.getToolType() == type)
+            {
+                if(promotion.getFromEpochDay() != Long.MIN_VALUE)
+                {
+                    boundaries.add(promotion.getFromEpochDay());
+                }
+                if(promotion.getToEpochDay() != Long.MAX_VALUE)
+                {
+                    boundaries.add(promotion.getToEpochDay() + 1);
+                }
+            }
+        }
+        final long[] intervalStarts = new long[boundaries.size()];
+        int boundary = 0;
+        for(long day : boundaries)
+        {
+            intervalStarts[boundary++] = day;
+        }
+
+        // the promotions starting in each interval, and those which ran until the one before it
+        final List<List<Integer>> starting = new ArrayList<>();
+        final List<List<Integer>> ending = new ArrayList<>();
+        for(int interval = 0; interval <= intervalStarts.length; interval++)
+        {
+            starting.add(new ArrayList<>());
+            ending.add(new ArrayList<>());
+        }
+        for(int index = 0; index < promotions.length; index++)
+        {
+            final Promotion promotion = promotions[index];
+            if(promotion.getToolType() == null || promotion.getToolType() == type)
+            {
+                starting.get(intervalOf(intervalStarts, promotion.getFromEpochDay())).add(index);
+                if(promotion.getToEpochDay() != Long.MAX_VALUE)
+                {
+                    ending.get(intervalOf(intervalStarts, promotion.getToEpochDay() + 1)).add(index);
+                }
+            }
+        }
+
+        final int[][] candidates = new int[intervalStarts.length + 1][];
+        final BitSet running = new BitSet(promotions.length);
+        for(int interval = 0; interval < candidates.length; interval++)
+        {
+            for(int index : ending.get(interval))
+            {
+                running.clear(index);
+            }
+            for(int index : starting.get(interval))
+            {
+                running.set(index);
+            }
+            final int[] indexes = running.stream().toArray();
+            // neighbouring intervals often run the same promotions, so they share one array
+            candidates[interval] = interval > 0 && Arrays.equals(indexes, candidates[interval - 1])
+                    ? candidates[interval - 1] : indexes;
+        }
+        intervalStartsByType[type.ordinal()] = intervalStarts;
+        candidatesByType[type.ordinal()] = candidates;
+    }
+
+    private static int intervalOf(long[] intervalStarts, long epochDay)
+    {
+        final int position = Arrays.binarySearch(intervalStarts, epochDay);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    private static PromotionRules loadInitialPromotions()
+    {
+        final String promotionsFile = System.getProperty(PROMOTIONS_FILE_PROPERTY);
+        final Properties properties = new Properties();
+        try
+        {
+            if(promotionsFile != null)
+            {
+                try(Reader reader = Files.newBufferedReader(Path.of(promotionsFile)))
+                {
+                    properties.load(reader);
+                }
+            }
+            else
+            {
+                try(InputStream in = PromotionRules.class.getResourceAsStream(DEFAULT_PROMOTIONS_RESOURCE))
+                {
+                    if(in == null)
+                    {
+                        throw new IllegalStateException("Promotions resource is missing: " + DEFAULT_PROMOTIONS_RESOURCE);
+                    }
+                    properties.load(in);
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException("Promotions could not be loaded.", e);
+        }
+        return parse(properties);
+    }
+
+    private static String optionalProperty(Properties properties, String name)
+    {
+        final String value = properties.getProperty(name);
+        return value == null ? null : value.trim();
+    }
+
+    private static int parseInt(String name, String value)
+    {
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Expected a whole number for " + name + ": " + value, e);
+        }
+    }
+
+    private static LocalDate parseDate(String name, String value)
+    {
+        try
+        {
+            return LocalDate.parse(value);
+        }
+        catch(DateTimeParseException e)
+        {
+            throw new IllegalArgumentException("Expected a date as yyyy-MM-dd for " + name + ": " + value, e);
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value)
+    {
+        try
+        {
+            return Enum.valueOf(type, value);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Unknown value for " + name + ": " + value, e);
+        }
+    }
+}
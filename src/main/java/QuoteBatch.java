@@ -0,0 +1,102 @@
+/**
+ * A batch of rental quotes stored as parallel primitive arrays, one entry per row. The request columns are supplied by the
+ * caller and the result columns are filled in by {@link BatchCheckout}. The request columns may be longer than the batch,
+ * in which case only the first {@link #size()} rows are part of it.
+ */
+public class QuoteBatch {
+
+    private final int size;
+
+    // request columns
+    private final int[] toolIds;
+    private final long[] checkoutEpochDays;
+    private final int[] numberOfDays;
+    private final int[] discountPercents;
+
+    // result columns
+    private final int[] chargeDays;
+    private final long[] preDiscountChargeCents;
+    private final long[] discountAmountCents;
+    private final long[] finalChargeCents;
+
+    /**
+     * Creates a batch over the given request columns, which must all have the same length.
+     *
+     * @param toolIds the interned tool id of each row, as returned by {@link ToolRepository#getToolId(String)}
+     * @param checkoutEpochDays the epoch day of the start of each rental period
+     * @param numberOfDays the number of days in each rental period
+     * @param discountPercents the discount percentage to apply to each rental charge
+     */
+    public QuoteBatch(int[] toolIds, long[] checkoutEpochDays, int[] numberOfDays, int[] discountPercents)
+    {
+        this(toolIds.length, toolIds, checkoutEpochDays, numberOfDays, discountPercents);
+        if(checkoutEpochDays.length != size || numberOfDays.length != size || discountPercents.length != size)
+        {
+            throw new IllegalArgumentException("All request columns must have the same length.");
+        }
+    }
+
+    /**
+     * Creates a batch over the first rows of the given request columns, so that column arrays can be reused for batches
+     * of different sizes.
+     *
+     * @param size the number of rows in the batch
+     * @param toolIds the interned tool id of each row, as returned by {@link ToolRepository#getToolId(String)}
+     * @param checkoutEpochDays the epoch day of the start of each rental period
+     * @param numberOfDays the number of days in each rental period
+     * @param discountPercents the discount percentage to apply to each rental charge
+     */
+    public QuoteBatch(int size, int[] toolIds, long[] checkoutEpochDays, int[] numberOfDays, int[] discountPercents)
+    {
+        if(size < 0 || toolIds.length < size || checkoutEpochDays.length < size || numberOfDays.length < size
+                || discountPercents.length < size)
+        {
+            throw new IllegalArgumentException("Every request column must have at least " + size + " rows.");
+        }
+        this.size = size;
+        this.toolIds = toolIds;
+        this.checkoutEpochDays = checkoutEpochDays;
+        this.numberOfDays = numberOfDays;
+        this.discountPercents = discountPercents;
+        this.chargeDays = new int[size];
+        this.preDiscountChargeCents = new long[size];
+        this.discountAmountCents = new long[size];
+        this.finalChargeCents = new long[size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] getToolIds() {
+        return toolIds;
+    }
+
+    public long[] getCheckoutEpochDays() {
+        return checkoutEpochDays;
+    }
+
+    public int[] getNumberOfDays() {
+        return numberOfDays;
+    }
+
+    public int[] getDiscountPercents() {
+        return discountPercents;
+    }
+
+    public int[] getChargeDays() {
+        return chargeDays;
+    }
+
+    public long[] getPreDiscountChargeCents() {
+        return preDiscountChargeCents;
+    }
+
+    public long[] getDiscountAmountCents() {
+        return discountAmountCents;
+    }
+
+    public long[] getFinalChargeCents() {
+        return finalChargeCents;
+    }
+}
@@ -0,0 +1,217 @@
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of rental quotes in front of {@link Checkout#createRentalAgreement(String, int, int, LocalDate)}, for
+ * front ends which quote the same tool, date and duration repeatedly.
+ * <p>
+ * Each quote is keyed by its tool id, checkout epoch day, number of days and discount packed into a single long. The
+ * cache is set-associative: a key can only be held in one of a few slots chosen by its hash, and when they are all in use
+ * the oldest is replaced. Lookups and insertions never lock. Entries expire after a fixed time, and every entry is
+ * ignored once the {@link PricingChanges} version moves on, so a change to a tool's charge data or to a holiday calendar
+ * is never served from stale quotes. Quotes for keys which do not fit in the packed format are not cached.
+ */
+public class QuoteCache {
+
+    private static final int WAYS = 4;
+
+    // packed key layout, from the lowest bits: discount, number of days, checkout epoch day, tool id
+    private static final int DISCOUNT_BITS = 7;
+    private static final int DAYS_BITS = 14;
+    private static final int EPOCH_DAY_BITS = 23;
+    private static final int TOOL_ID_BITS = 20;
+    private static final long EPOCH_DAY_OFFSET = 1L << (EPOCH_DAY_BITS - 1);
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int bucketMask;
+    private final long timeToLiveNanos;
+    private final LongSupplier nanoClock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize the maximum number of quotes to hold, rounded up to a power of two
+     * @param timeToLive how long a quote may be served after it was calculated
+     */
+    public QuoteCache(int maximumSize, Duration timeToLive)
+    {
+        this(maximumSize, timeToLive, System::nanoTime);
+    }
+
+    QuoteCache(int maximumSize, Duration timeToLive, LongSupplier nanoClock)
+    {
+        if(maximumSize < WAYS)
+        {
+            throw new IllegalArgumentException("Maximum size must be at least " + WAYS + ".");
+        }
+        final int neededBuckets = (maximumSize + WAYS - 1) / WAYS;
+        final int buckets = neededBuckets == 1 ? 1 : Integer.highestOneBit(neededBuckets - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(buckets * WAYS);
+        this.bucketMask = buckets - 1;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Returns the rental agreement for a quote, from the cache if an up-to-date one is held, otherwise by calling
+     * {@link Checkout#createRentalAgreement(String, int, int, LocalDate)} and caching the result.
+     *
+     * @param toolCode the type of tool being rented. Must correspond to a tool code stored by {@link ToolRepository}.
+     * @param numberOfDays the number of days in the rental period
+     * @param discountPercent the discount percentage to apply to the final rental charge
+     * @param checkoutDate the start of the rental period
+     *
+     * @return the rental agreement
+     */
+    public ToolRentalAgreement getRentalAgreement(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate)
+    {
+        final long key = packKey(ToolRepository.getToolId(toolCode), checkoutDate.toEpochDay(), numberOfDays, discountPercent);
+        if(key < 0)
+        {
+            misses.increment();
+            return Checkout.createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate);
+        }
+
+        final long version = PricingChanges.currentVersion();
+        final long now = nanoClock.getAsLong();
+        final int firstSlot = bucketFor(key) * WAYS;
+        for(int way = 0; way < WAYS; way++)
+        {
+            final Entry entry = slots.get(firstSlot + way);
+            if(entry != null && entry.key == key && entry.isCurrent(version, now))
+            {
+                hits.increment();
+                return entry.agreement;
+            }
+        }
+
+        misses.increment();
+        final ToolRentalAgreement agreement = Checkout.createRentalAgreement(toolCode, numberOfDays, discountPercent, checkoutDate);
+        insert(firstSlot, new Entry(key, agreement, version, now + timeToLiveNanos), version, now);
+        return agreement;
+    }
+
+    /**
+     * Removes every quote from the cache.
+     */
+    public void invalidateAll()
+    {
+        for(int i = 0; i < slots.length(); i++)
+        {
+            slots.set(i, null);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of quotes which were still current when they were replaced to make room for another
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the fraction of lookups served from the cache, or 0 if there have been none
+     */
+    public double getHitRate()
+    {
+        final long hitCount = hits.sum();
+        final long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Places an entry in the first free or out-of-date slot of its bucket, or failing that replaces the entry which will
+     * expire soonest. A concurrent insertion into the same slot may win instead, which only costs a later miss.
+     */
+    private void insert(int firstSlot, Entry entry, long version, long now)
+    {
+        int victim = -1;
+        long victimExpiry = 0;
+        for(int way = 0; way < WAYS; way++)
+        {
+            final Entry existing = slots.get(firstSlot + way);
+            if(existing == null || existing.key == entry.key || !existing.isCurrent(version, now))
+            {
+                slots.set(firstSlot + way, entry);
+                return;
+            }
+            if(victim < 0 || existing.expiresAtNanos - victimExpiry < 0)
+            {
+                victim = firstSlot + way;
+                victimExpiry = existing.expiresAtNanos;
+            }
+        }
+        slots.set(victim, entry);
+        evictions.increment();
+    }
+
+    private int bucketFor(long key)
+    {
+        // the finalizer of MurmurHash3, so that nearby dates spread over every bucket
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) hash & bucketMask;
+    }
+
+    /**
+     * Packs a quote's inputs into a single non-negative long.
+     *
+     * @return the packed key, or -1 if any of the values are out of the range which can be packed
+     */
+    static long packKey(int toolId, long checkoutEpochDay, int numberOfDays, int discountPercent)
+    {
+        final long epochDay = checkoutEpochDay + EPOCH_DAY_OFFSET;
+        if(toolId < 0 || toolId >= 1 << (TOOL_ID_BITS - 1)
+                || epochDay < 0 || epochDay >= 1L << EPOCH_DAY_BITS
+                || numberOfDays < 0 || numberOfDays >= 1 << DAYS_BITS
+                || discountPercent < 0 || discountPercent >= 1 << DISCOUNT_BITS)
+        {
+            return -1;
+        }
+        return ((long) toolId << (EPOCH_DAY_BITS + DAYS_BITS + DISCOUNT_BITS))
+                | (epochDay << (DAYS_BITS + DISCOUNT_BITS))
+                | ((long) numberOfDays << DISCOUNT_BITS)
+                | discountPercent;
+    }
+
+    /**
+     * A cached quote. Entries are immutable, so a slot can be read without locking.
+     */
+    private static final class Entry {
+
+        final long key;
+        final ToolRentalAgreement agreement;
+        final long pricingVersion;
+        final long expiresAtNanos;
+
+        Entry(long key, ToolRentalAgreement agreement, long pricingVersion, long expiresAtNanos)
+        {
+            this.key = key;
+            this.agreement = agreement;
+            this.pricingVersion = pricingVersion;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isCurrent(long currentPricingVersion, long nowNanos)
+        {
+            return pricingVersion == currentPricingVersion && nowNanos - expiresAtNanos < 0;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An in-memory history of {@link ToolRentalAgreement}s, stored column by column in primitive arrays for revenue rollups.
+ * Tool codes and brands are dictionary-encoded as ints and tool types as bytes, so a row takes 34 bytes and a
+ * rollup only reads the columns it needs.
+ * <p>
+ * Rows are stored in chunks of 65536, each of which records the earliest and latest checkout date in it, so rollups over
+ * a date range skip whole chunks outside it. A rollup first computes the group of every row in a chunk in one tight loop,
+ * then sums the charges of each group, and rollups over many chunks can be split across a {@link ForkJoinPool}.
+ * <p>
+ * Appends are serialized, and rollups may run concurrently with them; a rollup includes the rows appended before it
+ * started.
+ */
+public class RentalHistory {
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int ROWS_PER_CHUNK = 1 << CHUNK_SHIFT;
+    // 1970-01-01 was a Thursday; shifting an epoch day by this offset makes weeks start on Monday
+    private static final int EPOCH_DAY_TO_MONDAY_OFFSET = 3;
+    private static final int DAYS_PER_WEEK = 7;
+    private static final int PERCENT_PER_DISCOUNT_BAND = 10;
+    private static final int NUMBER_OF_DISCOUNT_BANDS = 11;
+    private static final ToolType[] toolTypes = ToolType.values();
+
+    /**
+     * The ways rentals can be grouped in a rollup.
+     */
+    public enum GroupBy {
+        TOOL_TYPE,
+        TOOL_CODE,
+        BRAND,
+        // Monday-based weeks of the checkout date
+        WEEK,
+        // 0%, then 1-10%, 11-20% and so on up to 91-100%
+        DISCOUNT_BAND
+    }
+
+    private final Dictionary toolCodes = new Dictionary();
+    private final Dictionary brands = new Dictionary();
+
+    // replaced with a longer copy when full, under the history's monitor
+    private volatile Chunk[] chunks = new Chunk[0];
+    // written after a row's columns, so rows below it are fully visible to rollups
+    private volatile long size;
+
+    /**
+     * Appends a rental agreement to the history.
+     *
+     * @param agreement the agreement to record, which must be priced in the base currency of {@link CurrencyRates}
+     */
+    public synchronized void append(ToolRentalAgreement agreement)
+    {
+        final long checkoutEpochDay = agreement.getCheckoutEpochDay();
+        if(checkoutEpochDay != (int) checkoutEpochDay)
+        {
+            throw new IllegalArgumentException("Checkout date is outside the range the history can store.");
+        }
+        // rollups sum amounts, so they must all be in one currency
+        if(agreement.getCurrency() != CurrencyRates.current().getBaseCurrency())
+        {
+            throw new IllegalArgumentException("Only agreements in the base currency can be added to the history.");
+        }
+
+        final long row = size;
+        Chunk[] currentChunks = chunks;
+        if(row >> CHUNK_SHIFT >= currentChunks.length)
+        {
+            currentChunks = Arrays.copyOf(currentChunks, currentChunks.length + 1);
+            currentChunks[currentChunks.length - 1] = new Chunk();
+            chunks = currentChunks;
+        }
+        final Chunk chunk = currentChunks[(int) (row >> CHUNK_SHIFT)];
+        final int index = (int) (row & (ROWS_PER_CHUNK - 1));
+        chunk.toolCodes[index] = toolCodes.encode(agreement.getCode());
+        chunk.brands[index] = brands.encode(agreement.getBrand());
+        chunk.toolTypes[index] = (byte) agreement.getType().ordinal();
+        chunk.checkoutEpochDays[index] = (int) checkoutEpochDay;
+        chunk.chargeDays[index] = agreement.getChargeDays();
+        chunk.discountPercents[index] = (byte) agreement.getDiscountPercent();
+        chunk.discountAmountCents[index] = agreement.getDiscountAmountCents();
+        chunk.finalChargeCents[index] = agreement.getFinalChargeCents();
+        chunk.minCheckoutEpochDay = Math.min(chunk.minCheckoutEpochDay, (int) checkoutEpochDay);
+        chunk.maxCheckoutEpochDay = Math.max(chunk.maxCheckoutEpochDay, (int) checkoutEpochDay);
+        size = row + 1;
+    }
+
+    /**
+     * Appends every agreement in a journal to the history, in the order they were journaled.
+     *
+     * @param journal the journal to load, whose agreements must be priced in the base currency of {@link CurrencyRates}
+     */
+    public void appendAll(AgreementJournal journal)
+    {
+        journal.replay(record -> append(record.toAgreement()));
+    }
+
+    /**
+     * @return the number of agreements in the history
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Sums the rentals checked out within a date range by group, on the current thread.
+     *
+     * @param groupBy how to group the rentals
+     * @param fromDate the earliest checkout date to include
+     * @param toDate the latest checkout date to include
+     *
+     * @return the totals of each group with at least one rental
+     */
+    public Rollup rollup(GroupBy groupBy, LocalDate fromDate, LocalDate toDate)
+    {
+        final RollupTask task = newRollupTask(groupBy, fromDate, toDate);
+        return task.toRollup(task.compute());
+    }
+
+    /**
+     * Sums the rentals checked out within a date range by group, splitting the chunks across the given pool.
+     *
+     * @param groupBy how to group the rentals
+     * @param fromDate the earliest checkout date to include
+     * @param toDate the latest checkout date to include
+     * @param pool the pool to run the rollup in
+     *
+     * @return the totals of each group with at least one rental
+     */
+    public Rollup rollup(GroupBy groupBy, LocalDate fromDate, LocalDate toDate, ForkJoinPool pool)
+    {
+        final RollupTask task = newRollupTask(groupBy, fromDate, toDate);
+        return task.toRollup(pool.invoke(task));
+    }
+
+    private RollupTask newRollupTask(GroupBy groupBy, LocalDate fromDate, LocalDate toDate)
+    {
+        if(toDate.isBefore(fromDate))
+        {
+            throw new IllegalArgumentException("The end of the date range must not be before its start.");
+        }
+        // snapshot the chunks after the size, so every counted row is in them
+        final long rows = size;
+        final Chunk[] snapshot = chunks;
+        final int fromEpochDay = (int) Math.max(Integer.MIN_VALUE, fromDate.toEpochDay());
+        final int toEpochDay = (int) Math.min(Integer.MAX_VALUE, toDate.toEpochDay());
+
+        int firstWeek = 0;
+        final int numberOfGroups;
+        switch(groupBy)
+        {
+            case TOOL_TYPE:
+                numberOfGroups = toolTypes.length;
+                break;
+            case TOOL_CODE:
+                numberOfGroups = toolCodes.size();
+                break;
+            case BRAND:
+                numberOfGroups = brands.size();
+                break;
+            case WEEK:
+                // only the weeks between the earliest and latest rental in range need a group
+                int minEpochDay = Integer.MAX_VALUE;
+                int maxEpochDay = Integer.MIN_VALUE;
+                for(Chunk chunk : snapshot)
+                {
+                    minEpochDay = Math.min(minEpochDay, chunk.minCheckoutEpochDay);
+                    maxEpochDay = Math.max(maxEpochDay, chunk.maxCheckoutEpochDay);
+                }
+                minEpochDay = Math.max(minEpochDay, fromEpochDay);
+                maxEpochDay = Math.min(maxEpochDay, toEpochDay);
+                if(minEpochDay > maxEpochDay)
+                {
+                    numberOfGroups = 0;
+                    break;
+                }
+                firstWeek = weekOf(minEpochDay);
+                numberOfGroups = weekOf(maxEpochDay) - firstWeek + 1;
+                break;
+            default:
+                numberOfGroups = NUMBER_OF_DISCOUNT_BANDS;
+                break;
+        }
+        return new RollupTask(new RollupQuery(groupBy, fromEpochDay, toEpochDay, firstWeek, numberOfGroups), snapshot,
+                rows, 0, (int) ((rows + ROWS_PER_CHUNK - 1) >> CHUNK_SHIFT));
+    }
+
+    private static int weekOf(int epochDay)
+    {
+        return (int) Math.floorDiv((long) epochDay + EPOCH_DAY_TO_MONDAY_OFFSET, DAYS_PER_WEEK);
+    }
+
+    /**
+     * Sums the rows of one chunk which are in the query's date range into the totals.
+     */
+    private static void rollupChunk(RollupQuery query, Chunk chunk, int rows, int[] groups, Totals totals)
+    {
+        if(chunk.maxCheckoutEpochDay < query.fromEpochDay || chunk.minCheckoutEpochDay > query.toEpochDay)
+        {
+            return;
+        }
+
+        // first compute every row's group, or -1 if the row is out of range, with one simple loop per kind of group
+        final int[] checkoutEpochDays = chunk.checkoutEpochDays;
+        final int from = query.fromEpochDay;
+        final int to = query.toEpochDay;
+        switch(query.groupBy)
+        {
+            case TOOL_TYPE:
+                final byte[] types = chunk.toolTypes;
+                for(int row = 0; row < rows; row++)
+                {
+                    groups[row] = checkoutEpochDays[row] >= from && checkoutEpochDays[row] <= to ? types[row] : -1;
+                }
+                break;
+            case TOOL_CODE:
+                final int[] codes = chunk.toolCodes;
+                for(int row = 0; row < rows; row++)
+                {
+                    groups[row] = checkoutEpochDays[row] >= from && checkoutEpochDays[row] <= to ? codes[row] : -1;
+                }
+                break;
+            case BRAND:
+                final int[] rowBrands = chunk.brands;
+                for(int row = 0; row < rows; row++)
+                {
+                    groups[row] = checkoutEpochDays[row] >= from && checkoutEpochDays[row] <= to ? rowBrands[row] : -1;
+                }
+                break;
+            case WEEK:
+                final int firstWeek = query.firstWeek;
+                for(int row = 0; row < rows; row++)
+                {
+                    groups[row] = checkoutEpochDays[row] >= from && checkoutEpochDays[row] <= to
+                            ? weekOf(checkoutEpochDays[row]) - firstWeek : -1;
+                }
+                break;
+            default:
+                final byte[] discountPercents = chunk.discountPercents;
+                for(int row = 0; row < rows; row++)
+                {
+                    groups[row] = checkoutEpochDays[row] >= from && checkoutEpochDays[row] <= to
+                            ? (discountPercents[row] + PERCENT_PER_DISCOUNT_BAND - 1) / PERCENT_PER_DISCOUNT_BAND : -1;
+                }
+                break;
+        }
+
+        // then add up each group's charges
+        final int[] chargeDays = chunk.chargeDays;
+        final long[] discountAmountCents = chunk.discountAmountCents;
+        final long[] finalChargeCents = chunk.finalChargeCents;
+        for(int row = 0; row < rows; row++)
+        {
+            final int group = groups[row];
+            if(group >= 0)
+            {
+                totals.rentalCounts[group]++;
+                totals.chargeDays[group] += chargeDays[row];
+                totals.discountAmountCents[group] += discountAmountCents[row];
+                totals.finalChargeCents[group] += finalChargeCents[row];
+            }
+        }
+    }
+
+    /**
+     * The totals of a rollup, one entry for each group which had at least one rental, in order of the group's key: tool
+     * type declaration order, first appearance of the tool code or brand, week, or discount band.
+     */
+    public static final class Rollup {
+
+        private final GroupBy groupBy;
+        private final String[] labels;
+        private final long[] rentalCounts;
+        private final long[] chargeDays;
+        private final long[] discountAmountCents;
+        private final long[] finalChargeCents;
+
+        Rollup(GroupBy groupBy, String[] labels, long[] rentalCounts, long[] chargeDays, long[] discountAmountCents,
+               long[] finalChargeCents)
+        {
+            this.groupBy = groupBy;
+            this.labels = labels;
+            this.rentalCounts = rentalCounts;
+            this.chargeDays = chargeDays;
+            this.discountAmountCents = discountAmountCents;
+            this.finalChargeCents = finalChargeCents;
+        }
+
+        public GroupBy getGroupBy() {
+            return groupBy;
+        }
+
+        /**
+         * @return the number of groups
+         */
+        public int size() {
+            return labels.length;
+        }
+
+        /**
+         * @return the group's tool type name, tool code, brand, first day of the week as an ISO date, or discount band
+         */
+        public String getLabel(int group) {
+            return labels[group];
+        }
+
+        public long getRentalCount(int group) {
+            return rentalCounts[group];
+        }
+
+        public long getChargeDays(int group) {
+            return chargeDays[group];
+        }
+
+        public long getPreDiscountChargeCents(int group) {
+            return finalChargeCents[group] + discountAmountCents[group];
+        }
+
+        public long getDiscountAmountCents(int group) {
+            return discountAmountCents[group];
+        }
+
+        public long getFinalChargeCents(int group) {
+            return finalChargeCents[group];
+        }
+
+        /**
+         * @return the final charges of every group
+         */
+        public long getTotalFinalChargeCents()
+        {
+            long total = 0;
+            for(long groupTotal : finalChargeCents)
+            {
+                total += groupTotal;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Assigns each distinct string an int, in order of first appearance. Strings are only encoded while appending, under
+     * the history's monitor; the decoded values are published as a copy, so rollups can read them without locking.
+     */
+    private static final class Dictionary {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private volatile String[] values = new String[0];
+
+        int encode(String value)
+        {
+            final Integer id = ids.get(value);
+            if(id != null)
+            {
+                return id;
+            }
+            final String[] currentValues = Arrays.copyOf(values, values.length + 1);
+            currentValues[currentValues.length - 1] = value;
+            ids.put(value, currentValues.length - 1);
+            values = currentValues;
+            return currentValues.length - 1;
+        }
+
+        int size() {
+            return values.length;
+        }
+
+        String decode(int id) {
+            return values[id];
+        }
+    }
+
+    private static final class Chunk {
+
+        int minCheckoutEpochDay = Integer.MAX_VALUE;
+        int maxCheckoutEpochDay = Integer.MIN_VALUE;
+        final int[] toolCodes = new int[ROWS_PER_CHUNK];
+        final int[] brands = new int[ROWS_PER_CHUNK];
+        final byte[] toolTypes = new byte[ROWS_PER_CHUNK];
+        final int[] checkoutEpochDays = new int[ROWS_PER_CHUNK];
+        final int[] chargeDays = new int[ROWS_PER_CHUNK];
+        final byte[] discountPercents = new byte[ROWS_PER_CHUNK];
+        final long[] discountAmountCents = new long[ROWS_PER_CHUNK];
+        final long[] finalChargeCents = new long[ROWS_PER_CHUNK];
+    }
+
+    private static final class RollupQuery {
+
+        final GroupBy groupBy;
+        final int fromEpochDay;
+        final int toEpochDay;
+        final int firstWeek;
+        final int numberOfGroups;
+
+        RollupQuery(GroupBy groupBy, int fromEpochDay, int toEpochDay, int firstWeek, int numberOfGroups)
+        {
+            this.groupBy = groupBy;
+            this.fromEpochDay = fromEpochDay;
+            this.toEpochDay = toEpochDay;
+            this.firstWeek = firstWeek;
+            this.numberOfGroups = numberOfGroups;
+        }
+    }
+
+    /**
+     * The running sums of each group.
+     */
+    private static final class Totals {
+
+        final long[] rentalCounts;
+        final long[] chargeDays;
+        final long[] discountAmountCents;
+        final long[] finalChargeCents;
+
+        Totals(int numberOfGroups)
+        {
+            rentalCounts = new long[numberOfGroups];
+            chargeDays = new long[numberOfGroups];
+            discountAmountCents = new long[numberOfGroups];
+            finalChargeCents = new long[numberOfGroups];
+        }
+
+        void add(Totals other)
+        {
+            for(int group = 0; group < rentalCounts.length; group++)
+            {
+                rentalCounts[group] += other.rentalCounts[group];
+                chargeDays[group] += other.chargeDays[group];
+                discountAmountCents[group] += other.discountAmountCents[group];
+                finalChargeCents[group] += other.finalChargeCents[group];
+            }
+        }
+    }
+
+    /**
+     * Rolls up a range of chunks, splitting it in half until it is a single chunk.
+     */
+    private final class RollupTask extends RecursiveTask<Totals> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RollupQuery query;
+        private final Chunk[] snapshot;
+        private final long rows;
+        private final int fromChunk;
+        private final int toChunk;
+
+        RollupTask(RollupQuery query, Chunk[] snapshot, long rows, int fromChunk, int toChunk)
+        {
+            this.query = query;
+            this.snapshot = snapshot;
+            this.rows = rows;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected Totals compute() {
+            if(toChunk - fromChunk > 1)
+            {
+                final int middleChunk = (fromChunk + toChunk) >>> 1;
+                final RollupTask firstHalf = new RollupTask(query, snapshot, rows, fromChunk, middleChunk);
+                firstHalf.fork();
+                final Totals totals = new RollupTask(query, snapshot, rows, middleChunk, toChunk).compute();
+                totals.add(firstHalf.join());
+                return totals;
+            }
+
+            final Totals totals = new Totals(query.numberOfGroups);
+            if(toChunk > fromChunk)
+            {
+                final int rowsInChunk = (int) Math.min(ROWS_PER_CHUNK, rows - ((long) fromChunk << CHUNK_SHIFT));
+                rollupChunk(query, snapshot[fromChunk], rowsInChunk, new int[rowsInChunk], totals);
+            }
+            return totals;
+        }
+
+        /**
+         * Keeps only the groups with rentals, and labels them.
+         */
+        Rollup toRollup(Totals totals)
+        {
+            int numberOfGroups = 0;
+            for(long rentalCount : totals.rentalCounts)
+            {
+                if(rentalCount > 0)
+                {
+                    numberOfGroups++;
+                }
+            }
+
+            final String[] labels = new String[numberOfGroups];
+            final long[] rentalCounts = new long[numberOfGroups];
+            final long[] chargeDays = new long[numberOfGroups];
+            final long[] discountAmountCents = new long[numberOfGroups];
+            final long[] finalChargeCents = new long[numberOfGroups];
+            int index = 0;
+            for(int group = 0; group < totals.rentalCounts.length; group++)
+            {
+                if(totals.rentalCounts[group] == 0)
+                {
+                    continue;
+                }
+                labels[index] = label(group);
+                rentalCounts[index] = totals.rentalCounts[group];
+                chargeDays[index] = totals.chargeDays[group];
+                discountAmountCents[index] = totals.discountAmountCents[group];
+                finalChargeCents[index] = totals.finalChargeCents[group];
+                index++;
+            }
+            return new Rollup(query.groupBy, labels, rentalCounts, chargeDays, discountAmountCents, finalChargeCents);
+        }
+
+        private String label(int group)
+        {
+            switch(query.groupBy)
+            {
+                case TOOL_TYPE:
+                    return toolTypes[group].getValue();
+                case TOOL_CODE:
+                    return toolCodes.decode(group);
+                case BRAND:
+                    return brands.decode(group);
+                case WEEK:
+                    return LocalDate.ofEpochDay((long) (query.firstWeek + group) * DAYS_PER_WEEK - EPOCH_DAY_TO_MONDAY_OFFSET)
+                            .toString();
+                default:
+                    return group == 0 ? "0%" : (group - 1) * PERCENT_PER_DISCOUNT_BAND + 1 + "-"
+                            + group * PERCENT_PER_DISCOUNT_BAND + "%";
+            }
+        }
+    }
+}
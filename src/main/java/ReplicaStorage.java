@@ -0,0 +1,217 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * The durable state of one replica of a reservation partition: the latest term it has seen, the node it voted for in
+ * that term, and its log. A node must not forget any of these across a restart, or it could vote twice in a term or deny
+ * having an entry it helped to commit, either of which could lose a committed reservation.
+ * <p>
+ * The term and vote are rewritten in place in a small checksummed file. The log is an append-only file of records, each
+ * a length, the entry and a checksum; entries are forced to disk before they are acknowledged. On opening, the log is
+ * read up to the first incomplete record, which is cut off as an append that did not finish.
+ */
+final class ReplicaStorage implements Closeable {
+
+    private static final int VOTE_FILE_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final FileChannel voteChannel;
+    private final FileChannel logChannel;
+    private final CRC32C checksum = new CRC32C();
+    // the file offset of the end of each entry's record, by log index - 1
+    private final List<Long> recordEnds = new ArrayList<>();
+    private final List<ReservationProtocol.Entry> entries = new ArrayList<>();
+    private long term;
+    private int votedFor = -1;
+
+    private ReplicaStorage(FileChannel voteChannel, FileChannel logChannel)
+    {
+        this.voteChannel = voteChannel;
+        this.logChannel = logChannel;
+    }
+
+    /**
+     * Opens the files of a partition's replica in a directory, creating them if they do not exist.
+     *
+     * @param directory the node's data directory
+     * @param partition the partition number
+     *
+     * @return the storage, holding the state read from the files
+     */
+    static ReplicaStorage open(Path directory, int partition) throws IOException
+    {
+        Files.createDirectories(directory);
+        final FileChannel voteChannel = FileChannel.open(directory.resolve("partition-" + partition + ".vote"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final FileChannel logChannel = FileChannel.open(directory.resolve("partition-" + partition + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final ReplicaStorage storage = new ReplicaStorage(voteChannel, logChannel);
+        try
+        {
+            storage.readVote(directory);
+            storage.readLog();
+        }
+        catch(IOException e)
+        {
+            storage.close();
+            throw e;
+        }
+        return storage;
+    }
+
+    long getTerm() {
+        return term;
+    }
+
+    int getVotedFor() {
+        return votedFor;
+    }
+
+    /**
+     * @return the entries read from the log when the storage was opened
+     */
+    List<ReservationProtocol.Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Durably records the current term and the node voted for in it.
+     *
+     * @param term the current term
+     * @param votedFor the id of the node voted for in the term, or -1 if none
+     */
+    void saveVote(long term, int votedFor) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(VOTE_FILE_SIZE);
+        buffer.putLong(term).putInt(votedFor);
+        checksum.reset();
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) checksum.getValue());
+        buffer.flip();
+        voteChannel.write(buffer, 0);
+        voteChannel.force(false);
+        this.term = term;
+        this.votedFor = votedFor;
+    }
+
+    /**
+     * Durably appends entries to the end of the log.
+     */
+    void append(List<ReservationProtocol.Entry> newEntries) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        long end = recordEnds.isEmpty() ? 0 : recordEnds.get(recordEnds.size() - 1);
+        final List<Long> newRecordEnds = new ArrayList<>(newEntries.size());
+        for(ReservationProtocol.Entry entry : newEntries)
+        {
+            final ByteArrayOutputStream record = new ByteArrayOutputStream();
+            entry.write(new DataOutputStream(record));
+            checksum.reset();
+            checksum.update(record.toByteArray());
+            output.writeInt(record.size());
+            record.writeTo(output);
+            output.writeInt((int) checksum.getValue());
+            end += Integer.BYTES + record.size() + Integer.BYTES;
+            newRecordEnds.add(end);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long position = recordEnds.isEmpty() ? 0 : recordEnds.get(recordEnds.size() - 1);
+        while(buffer.hasRemaining())
+        {
+            position += logChannel.write(buffer, position);
+        }
+        logChannel.force(false);
+        recordEnds.addAll(newRecordEnds);
+    }
+
+    /**
+     * Removes every entry after the given log index, which conflicted with the leader's log.
+     */
+    void truncate(long lastKeptIndex) throws IOException
+    {
+        logChannel.truncate(lastKeptIndex == 0 ? 0 : recordEnds.get((int) lastKeptIndex - 1));
+        logChannel.force(false);
+        recordEnds.subList((int) lastKeptIndex, recordEnds.size()).clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try
+        {
+            voteChannel.close();
+        }
+        finally
+        {
+            logChannel.close();
+        }
+    }
+
+    private void readVote(Path directory) throws IOException
+    {
+        if(voteChannel.size() == 0)
+        {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(VOTE_FILE_SIZE);
+        while(buffer.hasRemaining() && voteChannel.read(buffer, buffer.position()) > 0)
+        {
+            // keep reading
+        }
+        checksum.reset();
+        checksum.update(buffer.array(), 0, Long.BYTES + Integer.BYTES);
+        if(buffer.hasRemaining() || buffer.getInt(Long.BYTES + Integer.BYTES) != (int) checksum.getValue())
+        {
+            throw new IOException("Replica vote file is corrupt in " + directory);
+        }
+        term = buffer.getLong(0);
+        votedFor = buffer.getInt(Long.BYTES);
+    }
+
+    private void readLog() throws IOException
+    {
+        final ByteBuffer contents = ByteBuffer.allocate((int) logChannel.size());
+        while(contents.hasRemaining() && logChannel.read(contents, contents.position()) > 0)
+        {
+            // keep reading
+        }
+        contents.flip();
+        while(contents.remaining() >= Integer.BYTES)
+        {
+            final int length = contents.getInt(contents.position());
+            if(length < 0 || contents.remaining() < Integer.BYTES + length + Integer.BYTES)
+            {
+                break;
+            }
+            final byte[] record = new byte[length];
+            contents.position(contents.position() + Integer.BYTES);
+            contents.get(record);
+            checksum.reset();
+            checksum.update(record);
+            if(contents.getInt() != (int) checksum.getValue())
+            {
+                break;
+            }
+            entries.add(ReservationProtocol.Entry.read(new DataInputStream(new ByteArrayInputStream(record))));
+            recordEnds.add((long) contents.position());
+        }
+        // anything after the last complete record was an append that did not finish
+        final long end = recordEnds.isEmpty() ? 0 : recordEnds.get(recordEnds.size() - 1);
+        if(end != logChannel.size())
+        {
+            logChannel.truncate(end);
+            logChannel.force(false);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Reserves tool units held by a {@link ReservationCluster}, and reads how many are available.
+ * <p>
+ * Changes go to the leader of the store's partition. The client remembers the last leader of each partition, follows the
+ * leader a node names when it is not the leader itself, and tries the partition's other replicas while a new leader is
+ * elected. A reservation is sent with an id chosen by the client and is retried with the same id, so a reservation which
+ * was committed but whose answer was lost is not made twice. Reads of available units are spread over every replica of
+ * the partition and may miss the latest changes, which is fine for quoting but not for deciding whether a unit is free.
+ * <p>
+ * A client is safe to use from several threads at once.
+ */
+public class ReservationClient implements Closeable {
+
+    /** returned by {@link #reserve(String, String)} when no unit is available */
+    public static final long NO_RESERVATION = 0;
+
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final long RETRY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long RETRY_PAUSE_MILLIS = 50;
+
+    private final ReservationCluster cluster;
+    private final ReservationProtocol.ConnectionPool[] nodes;
+    // the node last known to lead each partition, or -1
+    private final AtomicIntegerArray leaders;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    public ReservationClient(ReservationCluster cluster)
+    {
+        this.cluster = cluster;
+        nodes = new ReservationProtocol.ConnectionPool[cluster.getNodes().size()];
+        for(int node = 0; node < nodes.length; node++)
+        {
+            nodes[node] = new ReservationProtocol.ConnectionPool(cluster.getNodes().get(node), READ_TIMEOUT_MILLIS);
+        }
+        leaders = new AtomicIntegerArray(cluster.getPartitions());
+        for(int partition = 0; partition < cluster.getPartitions(); partition++)
+        {
+            leaders.set(partition, -1);
+        }
+    }
+
+    /**
+     * Sets the number of units of a tool a store has available to reserve, replacing any earlier count.
+     *
+     * @param storeId the store's identifier
+     * @param toolCode the tool's code
+     * @param units the number of units available
+     */
+    public void setAvailableUnits(String storeId, String toolCode, int units) throws IOException
+    {
+        if(units < 0)
+        {
+            throw new IllegalArgumentException("Available units must be 0 or greater.");
+        }
+        propose(ReservationProtocol.Entry.SET_UNITS, storeId, toolCode, 0, units);
+    }
+
+    /**
+     * Reserves one unit of a tool at a store.
+     *
+     * @param storeId the store's identifier
+     * @param toolCode the tool's code
+     *
+     * @return the id of the reservation, or {@link #NO_RESERVATION} if the store has no unit available
+     */
+    public long reserve(String storeId, String toolCode) throws IOException
+    {
+        long reservationId;
+        do
+        {
+            reservationId = ThreadLocalRandom.current().nextLong();
+        }
+        while(reservationId == NO_RESERVATION);
+        return propose(ReservationProtocol.Entry.RESERVE, storeId, toolCode, reservationId, 0)
+                ? reservationId : NO_RESERVATION;
+    }
+
+    /**
+     * Releases a reservation, making its unit available again.
+     *
+     * @param storeId the store the reservation was made at
+     * @param reservationId the id returned by {@link #reserve(String, String)}
+     *
+     * @return whether the reservation was found, or had already been released
+     */
+    public boolean release(String storeId, long reservationId) throws IOException
+    {
+        return propose(ReservationProtocol.Entry.RELEASE, storeId, "", reservationId, 0);
+    }
+
+    /**
+     * Reads the number of units of a tool available at a store from one of the replicas of its partition, which may not
+     * yet have the latest changes.
+     *
+     * @param storeId the store's identifier
+     * @param toolCode the tool's code
+     *
+     * @return the number of units available
+     */
+    public int getAvailableUnits(String storeId, String toolCode) throws IOException
+    {
+        final int partition = cluster.partitionOf(storeId);
+        final int[] replicas = cluster.getReplicas(partition);
+        final long deadline = System.nanoTime() + RETRY_TIMEOUT_NANOS;
+        int attempt = Math.floorMod(nextReplica.getAndIncrement(), replicas.length);
+        while(true)
+        {
+            final int node = replicas[attempt % replicas.length];
+            ReservationProtocol.Connection connection = null;
+            try
+            {
+                connection = nodes[node].borrow();
+                connection.output.writeByte(ReservationProtocol.READ_UNITS);
+                connection.output.writeInt(partition);
+                connection.output.writeUTF(storeId);
+                connection.output.writeUTF(toolCode);
+                connection.output.flush();
+                final byte status = connection.input.readByte();
+                final int units = connection.input.readInt();
+                nodes[node].giveBack(connection);
+                if(status == ReservationProtocol.OK)
+                {
+                    return units;
+                }
+            }
+            catch(IOException e)
+            {
+                if(connection != null)
+                {
+                    connection.close();
+                }
+            }
+            attempt++;
+            if(attempt % replicas.length == 0)
+            {
+                pauseBeforeRetry(partition, deadline);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for(ReservationProtocol.ConnectionPool node : nodes)
+        {
+            node.close();
+        }
+    }
+
+    /**
+     * Sends a change to the leader of the store's partition, retrying until it is committed.
+     *
+     * @return true if the change was made, false if it was rejected
+     */
+    private boolean propose(byte type, String storeId, String toolCode, long reservationId, int units) throws IOException
+    {
+        final int partition = cluster.partitionOf(storeId);
+        final int[] replicas = cluster.getReplicas(partition);
+        final long deadline = System.nanoTime() + RETRY_TIMEOUT_NANOS;
+        int attempt = 0;
+        while(true)
+        {
+            int node = leaders.get(partition);
+            if(node < 0)
+            {
+                node = replicas[attempt % replicas.length];
+                attempt++;
+            }
+            ReservationProtocol.Connection connection = null;
+            try
+            {
+                connection = nodes[node].borrow();
+                connection.output.writeByte(ReservationProtocol.PROPOSE);
+                connection.output.writeInt(partition);
+                connection.output.writeByte(type);
+                connection.output.writeUTF(storeId);
+                connection.output.writeUTF(toolCode);
+                connection.output.writeLong(reservationId);
+                connection.output.writeInt(units);
+                connection.output.flush();
+                final byte status = connection.input.readByte();
+                final int leader = connection.input.readInt();
+                nodes[node].giveBack(connection);
+                switch(status)
+                {
+                    case ReservationProtocol.OK:
+                        return true;
+                    case ReservationProtocol.REJECTED:
+                        return false;
+                    case ReservationProtocol.NOT_LEADER:
+                        if(leader >= 0 && leader != node && leader < nodes.length)
+                        {
+                            leaders.set(partition, leader);
+                            continue;
+                        }
+                        break;
+                    default:
+                        // unavailable; the same node may manage once it hears from a majority again
+                        break;
+                }
+            }
+            catch(IOException e)
+            {
+                if(connection != null)
+                {
+                    connection.close();
+                }
+            }
+            leaders.compareAndSet(partition, node, -1);
+            if(attempt % replicas.length == 0)
+            {
+                pauseBeforeRetry(partition, deadline);
+            }
+        }
+    }
+
+    private static void pauseBeforeRetry(int partition, long deadline) throws IOException
+    {
+        if(System.nanoTime() - deadline >= 0)
+        {
+            throw new IOException("No leader could be reached for partition " + partition + ".");
+        }
+        try
+        {
+            Thread.sleep(RETRY_PAUSE_MILLIS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for partition " + partition + ".");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The layout of a cluster of {@link ReservationNode}s: the address of every node, and how the reservation state is split
+ * between them.
+ * <p>
+ * Stores are divided between a fixed number of partitions by a hash of their identifier. Each partition is held by
+ * {@code replicationFactor} consecutive nodes, starting at the partition's number, so that when there are at least as
+ * many partitions as nodes every node holds some and is the preferred leader of some. Every node and client of a cluster
+ * must be given the same layout.
+ */
+public final class ReservationCluster {
+
+    private final List<InetSocketAddress> nodes;
+    private final int partitions;
+    private final int replicationFactor;
+
+    /**
+     * @param nodes the address of each node, in node id order
+     * @param partitions the number of partitions the stores are divided between
+     * @param replicationFactor the number of nodes holding each partition
+     */
+    public ReservationCluster(List<InetSocketAddress> nodes, int partitions, int replicationFactor)
+    {
+        if(nodes.isEmpty())
+        {
+            throw new IllegalArgumentException("A cluster needs at least one node.");
+        }
+        if(partitions < 1)
+        {
+            throw new IllegalArgumentException("Partition count must be at least 1.");
+        }
+        if(replicationFactor < 1 || replicationFactor > nodes.size())
+        {
+            throw new IllegalArgumentException("Replication factor must be between 1 and the number of nodes.");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.partitions = partitions;
+        this.replicationFactor = replicationFactor;
+    }
+
+    /**
+     * Builds a cluster layout from a list of node addresses.
+     *
+     * @param addresses the address of each node as host:port, separated by commas, in node id order
+     * @param partitions the number of partitions the stores are divided between
+     * @param replicationFactor the number of nodes holding each partition
+     *
+     * @return the cluster layout
+     */
+    public static ReservationCluster parse(String addresses, int partitions, int replicationFactor)
+    {
+        final List<InetSocketAddress> nodes = new ArrayList<>();
+        for(String address : addresses.split(","))
+        {
+            final int separator = address.lastIndexOf(':');
+            if(separator < 0)
+            {
+                throw new IllegalArgumentException("Node address must be host:port: " + address);
+            }
+            try
+            {
+                nodes.add(new InetSocketAddress(address.substring(0, separator).trim(),
+                        Integer.parseInt(address.substring(separator + 1).trim())));
+            }
+            catch(NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Node address must be host:port: " + address, e);
+            }
+        }
+        return new ReservationCluster(nodes, partitions, replicationFactor);
+    }
+
+    /**
+     * @return the address of each node, in node id order
+     */
+    public List<InetSocketAddress> getNodes() {
+        return nodes;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    /**
+     * @return the partition holding a store's inventory and reservations
+     */
+    public int partitionOf(String storeId)
+    {
+        // String.hashCode is specified, so every process agrees on the partition
+        return Math.floorMod(storeId.hashCode(), partitions);
+    }
+
+    /**
+     * @return the ids of the nodes holding a partition, its preferred leader first
+     */
+    public int[] getReplicas(int partition)
+    {
+        final int[] replicas = new int[replicationFactor];
+        for(int i = 0; i < replicationFactor; i++)
+        {
+            replicas[i] = (partition + i) % nodes.size();
+        }
+        return replicas;
+    }
+}
@@ -0,0 +1,990 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One node of a {@link ReservationCluster}, holding replicas of some of the partitions of the tool inventory and
+ * reservations of every store, and serving {@link ReservationClient}s and the other nodes over TCP.
+ * <p>
+ * Each partition is replicated with leader-based log replication, in the manner of Raft. One replica is elected leader
+ * for a term by a majority of the partition's replicas; it appends every change to the partition to its log, sends the
+ * log to the other replicas, and applies a change and answers the client only once a majority of replicas have the entry.
+ * When the leader fails, a replica which stops hearing from it stands for election in a new term, and is only voted for
+ * if its log holds every entry the voter has. Since every committed entry is on a majority, and any two majorities
+ * overlap, a new leader always has every committed reservation, so a failover cannot hand out a unit twice. Reservations
+ * carry an id chosen by the client, and reserving an id which is already reserved succeeds without taking another unit,
+ * so a client can safely retry a reservation whose answer was lost in a failover. Released ids are remembered in the same
+ * way, so a retried release succeeds without giving back a second unit.
+ * <p>
+ * The log holds these reservations, releases and unit counts rather than whole checkout events. The cluster only has to
+ * agree on how many units each store has left, which is what a failover must not get wrong; pricing a rental and
+ * recording its agreement stay with {@link Checkout} and the {@link AgreementJournal} of the store which made it, so
+ * replicating them here would only make every entry larger without protecting anything more.
+ * <p>
+ * Any replica answers reads of available units from the changes it has applied, which may trail the leader by a
+ * heartbeat, so quotes can be spread over every replica while reservations go to the leader. Given a data directory, each
+ * replica's term, vote and log are kept in a {@link ReplicaStorage} so that the node can rejoin after a restart;
+ * without one the node keeps its state in memory, and must not be restarted into the same cluster. Logs are not
+ * compacted.
+ */
+public class ReservationNode implements Closeable {
+
+    private static final long HEARTBEAT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long ELECTION_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(400);
+    private static final long COMMIT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int PEER_READ_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_ENTRIES_PER_APPEND = 1024;
+
+    private enum Role {
+        FOLLOWER,
+        CANDIDATE,
+        LEADER
+    }
+
+    private final ReservationCluster cluster;
+    private final int nodeId;
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService ticker;
+    // by node id; null for this node
+    private final ReservationProtocol.ConnectionPool[] peers;
+    // by partition number; null for partitions this node does not hold
+    private final Partition[] partitions;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Starts a node, listening on its address in the cluster layout.
+     *
+     * @param cluster the layout of the cluster
+     * @param nodeId the id of this node, its index in the cluster's node addresses
+     * @param dataDirectory where to keep the node's durable state, or null to keep it in memory
+     */
+    public ReservationNode(ReservationCluster cluster, int nodeId, Path dataDirectory) throws IOException
+    {
+        if(nodeId < 0 || nodeId >= cluster.getNodes().size())
+        {
+            throw new IllegalArgumentException("Node id is not in the cluster.");
+        }
+        this.cluster = cluster;
+        this.nodeId = nodeId;
+
+        peers = new ReservationProtocol.ConnectionPool[cluster.getNodes().size()];
+        for(int node = 0; node < peers.length; node++)
+        {
+            if(node != nodeId)
+            {
+                peers[node] = new ReservationProtocol.ConnectionPool(cluster.getNodes().get(node), PEER_READ_TIMEOUT_MILLIS);
+            }
+        }
+        partitions = new Partition[cluster.getPartitions()];
+        try
+        {
+            for(int partition = 0; partition < partitions.length; partition++)
+            {
+                for(int replica : cluster.getReplicas(partition))
+                {
+                    if(replica == nodeId)
+                    {
+                        partitions[partition] = new Partition(partition,
+                                dataDirectory == null ? null : ReplicaStorage.open(dataDirectory, partition));
+                    }
+                }
+            }
+            serverSocket = new ServerSocket();
+            serverSocket.bind(cluster.getNodes().get(nodeId));
+        }
+        catch(IOException e)
+        {
+            closeStorage();
+            throw e;
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newCachedThreadPool(task -> {
+            final Thread thread = new Thread(task, "reservation-node-" + nodeId + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "reservation-node-" + nodeId + "-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // not a daemon, so that a process running a node keeps running until it is stopped
+        new Thread(this::accept, "reservation-node-" + nodeId + "-acceptor").start();
+        ticker.scheduleWithFixedDelay(this::tick, 0, HEARTBEAT_INTERVAL_NANOS / 2, TimeUnit.NANOSECONDS);
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return whether this node is currently the leader of a partition
+     */
+    public boolean isLeader(int partition)
+    {
+        final Partition replica = partitions[partition];
+        if(replica == null)
+        {
+            return false;
+        }
+        synchronized(replica)
+        {
+            return replica.role == Role.LEADER;
+        }
+    }
+
+    /**
+     * Stops the node at once, as if its process had been killed: requests in progress are abandoned, and the other
+     * replicas elect new leaders for the partitions it led.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try
+        {
+            serverSocket.close();
+        }
+        catch(IOException e)
+        {
+            // closing anyway
+        }
+        ticker.shutdownNow();
+        workers.shutdownNow();
+        for(Socket socket : connections)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch(IOException e)
+            {
+                // closing anyway
+            }
+        }
+        for(ReservationProtocol.ConnectionPool peer : peers)
+        {
+            if(peer != null)
+            {
+                peer.close();
+            }
+        }
+        for(Partition partition : partitions)
+        {
+            if(partition != null)
+            {
+                synchronized(partition)
+                {
+                    partition.role = Role.FOLLOWER;
+                    partition.notifyAll();
+                }
+            }
+        }
+        closeStorage();
+    }
+
+    private void closeStorage()
+    {
+        for(Partition partition : partitions)
+        {
+            if(partition != null && partition.storage != null)
+            {
+                try
+                {
+                    partition.storage.close();
+                }
+                catch(IOException e)
+                {
+                    // closing anyway
+                }
+            }
+        }
+    }
+
+    private void tick()
+    {
+        for(Partition partition : partitions)
+        {
+            if(partition != null && !closed)
+            {
+                partition.tick();
+            }
+        }
+    }
+
+    private void accept()
+    {
+        while(!closed)
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                execute(() -> serve(socket));
+            }
+            catch(IOException e)
+            {
+                // closed, or a connection which failed before it could be served
+            }
+        }
+    }
+
+    /**
+     * Answers the requests on one connection, one at a time, until it is closed.
+     */
+    private void serve(Socket socket)
+    {
+        try(socket)
+        {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while(!closed)
+            {
+                final byte type;
+                try
+                {
+                    type = input.readByte();
+                }
+                catch(EOFException e)
+                {
+                    return;
+                }
+                final int partitionNumber = input.readInt();
+                final Partition partition = partitionNumber >= 0 && partitionNumber < partitions.length
+                        ? partitions[partitionNumber] : null;
+                switch(type)
+                {
+                    case ReservationProtocol.REQUEST_VOTE:
+                        serveVote(partition, input, output);
+                        break;
+                    case ReservationProtocol.APPEND_ENTRIES:
+                        serveAppend(partition, input, output);
+                        break;
+                    case ReservationProtocol.PROPOSE:
+                        servePropose(partition, input, output);
+                        break;
+                    case ReservationProtocol.READ_UNITS:
+                        serveRead(partition, input, output);
+                        break;
+                    default:
+                        // not a request this node understands, so the rest of the stream cannot be parsed either
+                        return;
+                }
+                output.flush();
+            }
+        }
+        catch(IOException | UncheckedIOException e)
+        {
+            // the other side went away, or this node's storage failed; the other side reconnects and retries
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            connections.remove(socket);
+        }
+    }
+
+    private void serveVote(Partition partition, DataInputStream input, DataOutputStream output) throws IOException
+    {
+        final long term = input.readLong();
+        final int candidateId = input.readInt();
+        final long lastLogIndex = input.readLong();
+        final long lastLogTerm = input.readLong();
+        if(partition == null)
+        {
+            output.writeLong(term);
+            output.writeBoolean(false);
+            return;
+        }
+        partition.handleVote(term, candidateId, lastLogIndex, lastLogTerm, output);
+    }
+
+    private void serveAppend(Partition partition, DataInputStream input, DataOutputStream output) throws IOException
+    {
+        final long term = input.readLong();
+        final int leaderId = input.readInt();
+        final long previousIndex = input.readLong();
+        final long previousTerm = input.readLong();
+        final long leaderCommit = input.readLong();
+        final int count = input.readInt();
+        final List<ReservationProtocol.Entry> entries = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+        {
+            entries.add(ReservationProtocol.Entry.read(input));
+        }
+        if(partition == null)
+        {
+            output.writeLong(term);
+            output.writeBoolean(false);
+            output.writeLong(0);
+            return;
+        }
+        partition.handleAppend(term, leaderId, previousIndex, previousTerm, entries, leaderCommit, output);
+    }
+
+    private void servePropose(Partition partition, DataInputStream input, DataOutputStream output)
+            throws IOException, InterruptedException
+    {
+        final byte type = input.readByte();
+        final String storeId = input.readUTF();
+        final String toolCode = input.readUTF();
+        final long reservationId = input.readLong();
+        final int units = input.readInt();
+        if(partition == null)
+        {
+            output.writeByte(ReservationProtocol.UNAVAILABLE);
+            output.writeInt(-1);
+            return;
+        }
+        partition.propose(type, storeId, toolCode, reservationId, units, output);
+    }
+
+    private void serveRead(Partition partition, DataInputStream input, DataOutputStream output) throws IOException
+    {
+        final String storeId = input.readUTF();
+        final String toolCode = input.readUTF();
+        if(partition == null)
+        {
+            output.writeByte(ReservationProtocol.UNAVAILABLE);
+            output.writeInt(0);
+            return;
+        }
+        final int units;
+        synchronized(partition)
+        {
+            units = partition.availableUnits.getOrDefault(unitKey(storeId, toolCode), 0);
+        }
+        output.writeByte(ReservationProtocol.OK);
+        output.writeInt(units);
+    }
+
+    private boolean execute(Runnable task)
+    {
+        try
+        {
+            workers.execute(task);
+            return true;
+        }
+        catch(RejectedExecutionException e)
+        {
+            // closed
+            return false;
+        }
+    }
+
+    private static String unitKey(String storeId, String toolCode)
+    {
+        return storeId + '\u0000' + toolCode;
+    }
+
+    private static long randomElectionTimeout()
+    {
+        return ELECTION_TIMEOUT_NANOS + ThreadLocalRandom.current().nextLong(ELECTION_TIMEOUT_NANOS);
+    }
+
+    /**
+     * This node's replica of one partition: its share of the replication protocol, and the reservation state built by
+     * applying the committed entries of its log. Every field is guarded by the replica's monitor, and no request to
+     * another node is made while holding it.
+     */
+    private final class Partition {
+
+        final int partition;
+        final ReplicaStorage storage;
+        private final int[] replicas;
+        private final int position;
+
+        // log index i is log.get(i - 1); the first entry has index 1
+        private final List<ReservationProtocol.Entry> log = new ArrayList<>();
+        private long currentTerm;
+        private int votedFor = -1;
+        private long commitIndex;
+        private long lastApplied;
+        Role role = Role.FOLLOWER;
+        private int leaderId = -1;
+        private long electionDeadline;
+        private long lastHeartbeat;
+        private int votes;
+
+        // per replica position, while leader
+        private final long[] nextIndex;
+        private final long[] matchIndex;
+        private final boolean[] replicating;
+        private final boolean[] replicationPending;
+
+        // the reservation state
+        final Map<String, Integer> availableUnits = new HashMap<>();
+        private final Map<Long, String> reservations = new HashMap<>();
+        // released ids, so that a retried release is not rejected
+        private final Set<Long> released = new HashSet<>();
+        // the outcome of each entry a client is waiting on, by log index, once applied
+        private final Map<Long, Byte> outcomes = new HashMap<>();
+
+        Partition(int partition, ReplicaStorage storage)
+        {
+            this.partition = partition;
+            this.storage = storage;
+            this.replicas = cluster.getReplicas(partition);
+            int position = 0;
+            while(replicas[position] != nodeId)
+            {
+                position++;
+            }
+            this.position = position;
+            nextIndex = new long[replicas.length];
+            matchIndex = new long[replicas.length];
+            replicating = new boolean[replicas.length];
+            replicationPending = new boolean[replicas.length];
+            if(storage != null)
+            {
+                currentTerm = storage.getTerm();
+                votedFor = storage.getVotedFor();
+                log.addAll(storage.getEntries());
+            }
+            // the preferred leader stands first, so that leadership starts out spread across the nodes
+            electionDeadline = System.nanoTime() + (position == 0 ? HEARTBEAT_INTERVAL_NANOS : randomElectionTimeout());
+        }
+
+        void tick()
+        {
+            final long[] voteRequest;
+            synchronized(this)
+            {
+                final long now = System.nanoTime();
+                if(role == Role.LEADER)
+                {
+                    if(now - lastHeartbeat >= HEARTBEAT_INTERVAL_NANOS)
+                    {
+                        lastHeartbeat = now;
+                        for(int replica = 0; replica < replicas.length; replica++)
+                        {
+                            requestReplication(replica);
+                        }
+                    }
+                    return;
+                }
+                if(now - electionDeadline < 0)
+                {
+                    return;
+                }
+                voteRequest = startElection(now);
+            }
+            if(voteRequest != null)
+            {
+                for(int replica = 0; replica < replicas.length; replica++)
+                {
+                    if(replica != position)
+                    {
+                        final int peer = replicas[replica];
+                        execute(() -> requestVote(peer, voteRequest));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stands for election in a new term.
+         *
+         * @return the term, last log index and last log term to ask the other replicas to vote on, or null if this
+         * replica has already won
+         */
+        private long[] startElection(long now)
+        {
+            saveVote(currentTerm + 1, nodeId);
+            role = Role.CANDIDATE;
+            leaderId = -1;
+            votes = 1;
+            electionDeadline = now + randomElectionTimeout();
+            if(votes * 2 > replicas.length)
+            {
+                becomeLeader();
+                return null;
+            }
+            return new long[] {currentTerm, log.size(), termAt(log.size())};
+        }
+
+        private void requestVote(int peer, long[] voteRequest)
+        {
+            final long term;
+            final boolean granted;
+            ReservationProtocol.Connection connection = null;
+            try
+            {
+                connection = peers[peer].borrow();
+                connection.output.writeByte(ReservationProtocol.REQUEST_VOTE);
+                connection.output.writeInt(partition);
+                connection.output.writeLong(voteRequest[0]);
+                connection.output.writeInt(nodeId);
+                connection.output.writeLong(voteRequest[1]);
+                connection.output.writeLong(voteRequest[2]);
+                connection.output.flush();
+                term = connection.input.readLong();
+                granted = connection.input.readBoolean();
+                peers[peer].giveBack(connection);
+            }
+            catch(IOException e)
+            {
+                if(connection != null)
+                {
+                    connection.close();
+                }
+                return;
+            }
+            synchronized(this)
+            {
+                if(term > currentTerm)
+                {
+                    stepDown(term);
+                }
+                else if(role == Role.CANDIDATE && currentTerm == voteRequest[0] && granted && ++votes * 2 > replicas.length)
+                {
+                    becomeLeader();
+                }
+            }
+        }
+
+        synchronized void handleVote(long term, int candidateId, long lastLogIndex, long lastLogTerm,
+                                     DataOutputStream output) throws IOException
+        {
+            if(term > currentTerm)
+            {
+                stepDown(term);
+            }
+            // only vote for a candidate whose log has everything this one does, so it has every committed entry
+            final long ownLastTerm = termAt(log.size());
+            final boolean upToDate = lastLogTerm > ownLastTerm || (lastLogTerm == ownLastTerm && lastLogIndex >= log.size());
+            final boolean granted = term == currentTerm && (votedFor == -1 || votedFor == candidateId) && upToDate;
+            if(granted)
+            {
+                saveVote(currentTerm, candidateId);
+                electionDeadline = System.nanoTime() + randomElectionTimeout();
+            }
+            output.writeLong(currentTerm);
+            output.writeBoolean(granted);
+        }
+
+        private void becomeLeader()
+        {
+            role = Role.LEADER;
+            leaderId = nodeId;
+            for(int replica = 0; replica < replicas.length; replica++)
+            {
+                nextIndex[replica] = log.size() + 1;
+                matchIndex[replica] = 0;
+            }
+            // entries of earlier terms are only committed along with one of the leader's own term
+            append(new ReservationProtocol.Entry(currentTerm, ReservationProtocol.Entry.NO_OP, "", "", 0, 0));
+            lastHeartbeat = System.nanoTime();
+            for(int replica = 0; replica < replicas.length; replica++)
+            {
+                requestReplication(replica);
+            }
+        }
+
+        private void stepDown(long term)
+        {
+            if(term > currentTerm)
+            {
+                saveVote(term, -1);
+            }
+            if(role != Role.FOLLOWER)
+            {
+                role = Role.FOLLOWER;
+                notifyAll();
+            }
+            leaderId = -1;
+            electionDeadline = System.nanoTime() + randomElectionTimeout();
+        }
+
+        /**
+         * Appends a client's change to the log as leader, and answers once it has been committed and applied.
+         */
+        synchronized void propose(byte type, String storeId, String toolCode, long reservationId, int units,
+                                  DataOutputStream output) throws IOException, InterruptedException
+        {
+            if(role != Role.LEADER)
+            {
+                output.writeByte(ReservationProtocol.NOT_LEADER);
+                output.writeInt(leaderId);
+                return;
+            }
+            final long term = currentTerm;
+            append(new ReservationProtocol.Entry(term, type, storeId, toolCode, reservationId, units));
+            final long index = log.size();
+            outcomes.put(index, null);
+            for(int replica = 0; replica < replicas.length; replica++)
+            {
+                requestReplication(replica);
+            }
+
+            final long deadline = System.nanoTime() + COMMIT_TIMEOUT_NANOS;
+            while(lastApplied < index)
+            {
+                final long remaining = deadline - System.nanoTime();
+                if(role != Role.LEADER || currentTerm != term || remaining <= 0)
+                {
+                    // the entry may still be committed by a later leader; retrying with the same reservation id is safe
+                    outcomes.remove(index);
+                    output.writeByte(role == Role.LEADER ? ReservationProtocol.UNAVAILABLE : ReservationProtocol.NOT_LEADER);
+                    output.writeInt(role == Role.LEADER ? nodeId : leaderId);
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            final Byte outcome = outcomes.remove(index);
+            output.writeByte(outcome);
+            output.writeInt(nodeId);
+        }
+
+        private void append(ReservationProtocol.Entry entry)
+        {
+            if(storage != null)
+            {
+                try
+                {
+                    storage.append(List.of(entry));
+                }
+                catch(IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            log.add(entry);
+            matchIndex[position] = log.size();
+            advanceCommitIndex();
+        }
+
+        /**
+         * Sends the log to a replica on a worker thread, unless it is already being sent, in which case it is sent again
+         * once that finishes.
+         */
+        private void requestReplication(int replica)
+        {
+            if(replica == position)
+            {
+                return;
+            }
+            if(replicating[replica])
+            {
+                replicationPending[replica] = true;
+                return;
+            }
+            replicating[replica] = true;
+            replicationPending[replica] = false;
+            if(!execute(() -> replicate(replica)))
+            {
+                replicating[replica] = false;
+            }
+        }
+
+        private void replicate(int replica)
+        {
+            final int peer = replicas[replica];
+            while(true)
+            {
+                final long term;
+                final long previousIndex;
+                final long previousTerm;
+                final long leaderCommit;
+                final List<ReservationProtocol.Entry> entries;
+                synchronized(this)
+                {
+                    if(role != Role.LEADER || closed)
+                    {
+                        replicating[replica] = false;
+                        return;
+                    }
+                    replicationPending[replica] = false;
+                    term = currentTerm;
+                    previousIndex = nextIndex[replica] - 1;
+                    previousTerm = termAt(previousIndex);
+                    leaderCommit = commitIndex;
+                    entries = new ArrayList<>(log.subList((int) previousIndex,
+                            (int) Math.min(log.size(), previousIndex + MAX_ENTRIES_PER_APPEND)));
+                }
+
+                final long responseTerm;
+                final boolean success;
+                final long followerLastIndex;
+                ReservationProtocol.Connection connection = null;
+                try
+                {
+                    connection = peers[peer].borrow();
+                    final DataOutputStream output = connection.output;
+                    output.writeByte(ReservationProtocol.APPEND_ENTRIES);
+                    output.writeInt(partition);
+                    output.writeLong(term);
+                    output.writeInt(nodeId);
+                    output.writeLong(previousIndex);
+                    output.writeLong(previousTerm);
+                    output.writeLong(leaderCommit);
+                    output.writeInt(entries.size());
+                    for(ReservationProtocol.Entry entry : entries)
+                    {
+                        entry.write(output);
+                    }
+                    output.flush();
+                    responseTerm = connection.input.readLong();
+                    success = connection.input.readBoolean();
+                    followerLastIndex = connection.input.readLong();
+                    peers[peer].giveBack(connection);
+                }
+                catch(IOException e)
+                {
+                    if(connection != null)
+                    {
+                        connection.close();
+                    }
+                    // the next heartbeat tries again
+                    synchronized(this)
+                    {
+                        replicating[replica] = false;
+                    }
+                    return;
+                }
+
+                synchronized(this)
+                {
+                    if(responseTerm > currentTerm)
+                    {
+                        stepDown(responseTerm);
+                    }
+                    else if(role == Role.LEADER && currentTerm == term)
+                    {
+                        if(success)
+                        {
+                            matchIndex[replica] = Math.max(matchIndex[replica], previousIndex + entries.size());
+                            nextIndex[replica] = matchIndex[replica] + 1;
+                            advanceCommitIndex();
+                        }
+                        else
+                        {
+                            // step back to where the follower's log may match, at most to its end
+                            nextIndex[replica] = Math.max(1, Math.min(nextIndex[replica] - 1, followerLastIndex + 1));
+                        }
+                        if(nextIndex[replica] <= log.size() || replicationPending[replica])
+                        {
+                            continue;
+                        }
+                    }
+                    replicating[replica] = false;
+                    return;
+                }
+            }
+        }
+
+        synchronized void handleAppend(long term, int leader, long previousIndex, long previousTerm,
+                                       List<ReservationProtocol.Entry> entries, long leaderCommit,
+                                       DataOutputStream output) throws IOException
+        {
+            if(term < currentTerm)
+            {
+                writeAppendResponse(output, false, log.size());
+                return;
+            }
+            if(term > currentTerm || role != Role.FOLLOWER)
+            {
+                stepDown(term);
+            }
+            leaderId = leader;
+            electionDeadline = System.nanoTime() + randomElectionTimeout();
+
+            if(previousIndex > log.size())
+            {
+                writeAppendResponse(output, false, log.size());
+                return;
+            }
+            if(termAt(previousIndex) != previousTerm)
+            {
+                writeAppendResponse(output, false, previousIndex - 1);
+                return;
+            }
+            int matched = 0;
+            while(matched < entries.size() && previousIndex + matched < log.size())
+            {
+                if(termAt(previousIndex + matched + 1) != entries.get(matched).term)
+                {
+                    // a conflicting entry was never committed, so it and everything after it can go
+                    truncateAfter(previousIndex + matched);
+                    break;
+                }
+                matched++;
+            }
+            if(matched < entries.size())
+            {
+                final List<ReservationProtocol.Entry> newEntries = entries.subList(matched, entries.size());
+                if(storage != null)
+                {
+                    storage.append(newEntries);
+                }
+                log.addAll(newEntries);
+            }
+            final long lastNewIndex = previousIndex + entries.size();
+            if(leaderCommit > commitIndex)
+            {
+                commitIndex = Math.max(commitIndex, Math.min(leaderCommit, lastNewIndex));
+                applyCommitted();
+            }
+            writeAppendResponse(output, true, lastNewIndex);
+        }
+
+        private void writeAppendResponse(DataOutputStream output, boolean success, long lastIndex) throws IOException
+        {
+            output.writeLong(currentTerm);
+            output.writeBoolean(success);
+            output.writeLong(lastIndex);
+        }
+
+        private void truncateAfter(long lastKeptIndex) throws IOException
+        {
+            if(lastKeptIndex < commitIndex)
+            {
+                throw new IllegalStateException("Replica was asked to remove committed entries.");
+            }
+            if(storage != null)
+            {
+                storage.truncate(lastKeptIndex);
+            }
+            log.subList((int) lastKeptIndex, log.size()).clear();
+        }
+
+        /**
+         * Commits the newest entry of the current term which a majority of replicas have, with every entry before it.
+         */
+        private void advanceCommitIndex()
+        {
+            if(role != Role.LEADER)
+            {
+                return;
+            }
+            for(long index = log.size(); index > commitIndex && termAt(index) == currentTerm; index--)
+            {
+                int copies = 0;
+                for(long match : matchIndex)
+                {
+                    if(match >= index)
+                    {
+                        copies++;
+                    }
+                }
+                if(copies * 2 > replicas.length)
+                {
+                    commitIndex = index;
+                    applyCommitted();
+                    return;
+                }
+            }
+        }
+
+        private void applyCommitted()
+        {
+            if(lastApplied >= commitIndex)
+            {
+                return;
+            }
+            while(lastApplied < commitIndex)
+            {
+                final ReservationProtocol.Entry entry = log.get((int) lastApplied);
+                lastApplied++;
+                final byte outcome = apply(entry);
+                if(outcomes.containsKey(lastApplied))
+                {
+                    outcomes.put(lastApplied, outcome);
+                }
+            }
+            notifyAll();
+        }
+
+        private byte apply(ReservationProtocol.Entry entry)
+        {
+            switch(entry.type)
+            {
+                case ReservationProtocol.Entry.SET_UNITS:
+                    availableUnits.put(unitKey(entry.storeId, entry.toolCode), entry.units);
+                    return ReservationProtocol.OK;
+                case ReservationProtocol.Entry.RESERVE:
+                {
+                    if(reservations.containsKey(entry.reservationId) || released.contains(entry.reservationId))
+                    {
+                        // a retry of a reservation which was made
+                        return ReservationProtocol.OK;
+                    }
+                    final String key = unitKey(entry.storeId, entry.toolCode);
+                    final int available = availableUnits.getOrDefault(key, 0);
+                    if(available <= 0)
+                    {
+                        return ReservationProtocol.REJECTED;
+                    }
+                    availableUnits.put(key, available - 1);
+                    reservations.put(entry.reservationId, key);
+                    return ReservationProtocol.OK;
+                }
+                case ReservationProtocol.Entry.RELEASE:
+                {
+                    final String key = reservations.remove(entry.reservationId);
+                    if(key == null)
+                    {
+                        // a retry of a release which was made
+                        return released.contains(entry.reservationId) ? ReservationProtocol.OK
+                                : ReservationProtocol.REJECTED;
+                    }
+                    availableUnits.merge(key, 1, Integer::sum);
+                    released.add(entry.reservationId);
+                    return ReservationProtocol.OK;
+                }
+                default:
+                    return ReservationProtocol.OK;
+            }
+        }
+
+        private long termAt(long index)
+        {
+            return index == 0 ? 0 : log.get((int) index - 1).term;
+        }
+
+        private void saveVote(long term, int candidateId)
+        {
+            if(storage != null)
+            {
+                try
+                {
+                    storage.saveVote(term, candidateId);
+                }
+                catch(IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            currentTerm = term;
+            votedFor = candidateId;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The messages exchanged by {@link ReservationNode}s and {@link ReservationClient}s, and the connections they are sent
+ * over.
+ * <p>
+ * Each message is a type byte and the partition number, followed by the message's fields written with
+ * {@link DataOutput}; each is answered by exactly one response on the same connection before the next is sent.
+ */
+final class ReservationProtocol {
+
+    // requests between nodes
+    static final byte REQUEST_VOTE = 1;
+    static final byte APPEND_ENTRIES = 2;
+    // requests from clients
+    static final byte PROPOSE = 3;
+    static final byte READ_UNITS = 4;
+
+    // the outcome of a client request
+    static final byte OK = 0;
+    /** no unit was available to reserve, or the reservation to release was not found */
+    static final byte REJECTED = 1;
+    /** the node is not the partition's leader; the response names the leader if the node knows it */
+    static final byte NOT_LEADER = 2;
+    /** the node does not hold the partition, or could not commit the request in time */
+    static final byte UNAVAILABLE = 3;
+
+    static final int CONNECT_TIMEOUT_MILLIS = 250;
+
+    private ReservationProtocol()
+    {
+    }
+
+    /**
+     * One change to a partition's reservation state, as held in its replicated log.
+     */
+    static final class Entry {
+
+        /** committed by a new leader to commit the entries of earlier terms */
+        static final byte NO_OP = 0;
+        static final byte SET_UNITS = 1;
+        static final byte RESERVE = 2;
+        static final byte RELEASE = 3;
+
+        final long term;
+        final byte type;
+        final String storeId;
+        final String toolCode;
+        final long reservationId;
+        final int units;
+
+        Entry(long term, byte type, String storeId, String toolCode, long reservationId, int units)
+        {
+            this.term = term;
+            this.type = type;
+            this.storeId = storeId;
+            this.toolCode = toolCode;
+            this.reservationId = reservationId;
+            this.units = units;
+        }
+
+        void write(DataOutput output) throws IOException
+        {
+            output.writeLong(term);
+            output.writeByte(type);
+            output.writeUTF(storeId);
+            output.writeUTF(toolCode);
+            output.writeLong(reservationId);
+            output.writeInt(units);
+        }
+
+        static Entry read(DataInput input) throws IOException
+        {
+            return new Entry(input.readLong(), input.readByte(), input.readUTF(), input.readUTF(), input.readLong(),
+                    input.readInt());
+        }
+    }
+
+    /**
+     * A connection to one node, used by one thread at a time.
+     */
+    static final class Connection implements Closeable {
+
+        final DataInputStream input;
+        final DataOutputStream output;
+        private final Socket socket;
+
+        Connection(InetSocketAddress address, int readTimeoutMillis) throws IOException
+        {
+            socket = new Socket();
+            try
+            {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(readTimeoutMillis);
+                input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+            catch(IOException e)
+            {
+                socket.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            try
+            {
+                socket.close();
+            }
+            catch(IOException e)
+            {
+                // already broken
+            }
+        }
+    }
+
+    /**
+     * Idle connections to one node, so that concurrent requests to it each have a connection of their own.
+     */
+    static final class ConnectionPool implements Closeable {
+
+        private final InetSocketAddress address;
+        private final int readTimeoutMillis;
+        private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+        private volatile boolean closed;
+
+        ConnectionPool(InetSocketAddress address, int readTimeoutMillis)
+        {
+            this.address = address;
+            this.readTimeoutMillis = readTimeoutMillis;
+        }
+
+        /**
+         * @return an idle connection, or a new one if there are none
+         */
+        Connection borrow() throws IOException
+        {
+            if(closed)
+            {
+                throw new IOException("Connection pool is closed.");
+            }
+            final Connection connection = idle.poll();
+            return connection != null ? connection : new Connection(address, readTimeoutMillis);
+        }
+
+        /**
+         * Returns a connection after a complete request and response, for reuse.
+         */
+        void giveBack(Connection connection)
+        {
+            idle.add(connection);
+            if(closed)
+            {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for(Connection connection = idle.poll(); connection != null; connection = idle.poll())
+            {
+                connection.close();
+            }
+        }
+    }
+}
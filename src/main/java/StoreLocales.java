@@ -0,0 +1,59 @@
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The locales of the stores in other countries, which determine the currency their rentals are priced in and how their
+ * agreements are formatted. A store without a locale prices in the base currency of {@link CurrencyRates}.
+ */
+public class StoreLocales {
+
+    private static final Map<String, Locale> localesByStore = new ConcurrentHashMap<>();
+
+    /**
+     * @param storeId the identifier of a store
+     *
+     * @return the locale assigned to the store, or the default locale if none has been assigned
+     */
+    public static Locale forStore(String storeId)
+    {
+        return localesByStore.getOrDefault(storeId, Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    /**
+     * @param storeId the identifier of a store
+     *
+     * @return the currency of the locale assigned to the store, or the base currency if none has been assigned
+     */
+    public static Currency getCurrency(String storeId)
+    {
+        final Locale locale = localesByStore.get(storeId);
+        return locale == null ? CurrencyRates.current().getBaseCurrency() : Currency.getInstance(locale);
+    }
+
+    /**
+     * Assigns a locale to a store, replacing any locale previously assigned to it.
+     *
+     * @param storeId the identifier of a store
+     * @param locale a locale with a country, whose currency the store's rentals are priced in
+     */
+    public static void register(String storeId, Locale locale)
+    {
+        if(locale.getCountry().isEmpty())
+        {
+            throw new IllegalArgumentException("Store locale must have a country.");
+        }
+        localesByStore.put(storeId, locale);
+    }
+
+    /**
+     * Removes the locale assigned to a store, so that it prices in the base currency again.
+     *
+     * @param storeId the identifier of a store
+     */
+    public static void unregister(String storeId)
+    {
+        localesByStore.remove(storeId);
+    }
+}
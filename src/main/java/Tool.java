@@ -6,13 +6,11 @@ public class Tool {
 
     private final ToolType type;
     private final String brand;
-    private ToolChargeData chargeData;
 
     public Tool(ToolType type, String brand)
     {
         this.type = type;
         this.brand = brand;
-        setChargeData();
     }
 
     public ToolType getType() {
@@ -23,17 +21,11 @@ public class Tool {
         return brand;
     }
 
-    private void setChargeData()
-    {
-        switch (type) {
-            case CHAINSAW -> this.chargeData = new ChainsawChargeData();
-            case LADDER -> this.chargeData = new LadderChargeData();
-            case JACKHAMMER -> this.chargeData = new JackhammerChargeData();
-        }
-    }
-
+    /**
+     * @return the charge data for the tool's type under the {@link PricingRules} currently in effect
+     */
     public ToolChargeData getChargeData()
     {
-        return chargeData;
+        return PricingRules.current().getChargeData(type);
     }
 }
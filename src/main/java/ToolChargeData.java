@@ -1,9 +1,95 @@
 /**
- * Contains info for a given tool's daily rental price and whether a charge is incurred on holidays or weekends.
+ * Contains info for a given tool type's daily rental price and whether a charge is incurred on holidays or weekends.
+ * Instances are built from the {@link PricingRules} and shared by every tool of the type.
+ * <p>
+ * The daily charge may be tiered by the length of the rental: a rental of at least a tier's minimum number of days is
+ * charged that tier's daily rate for every charge day. The rate for every rental length up to the last tier's minimum is
+ * worked out when the instance is built, so looking one up is a single array read.
  */
-public abstract class ToolChargeData {
+public final class ToolChargeData {
 
-    public abstract double getDailyRentalCharge();
-    public abstract boolean hasHolidayCharge();
-    public abstract boolean hasWeekendCharge();
+    /** the number of distinct values of {@link #getChargeProfile()} */
+    static final int NUMBER_OF_CHARGE_PROFILES = 4;
+    static final int HOLIDAY_CHARGE_PROFILE_BIT = 1;
+    static final int WEEKEND_CHARGE_PROFILE_BIT = 2;
+    // bounds the lookup table; ten years is longer than any rental priced by tier
+    static final int MAX_TIER_MINIMUM_DAYS = 3660;
+
+    // indexed by rental length, up to the last tier's minimum, which also covers every longer rental
+    private final long[] dailyChargeCentsByDays;
+    private final boolean holidayCharge;
+    private final boolean weekendCharge;
+
+    /**
+     * @param tierMinimumDays the minimum rental length of each tier, in ascending order, starting with 1
+     * @param tierDailyChargeCents the daily charge of each tier, in cents
+     * @param holidayCharge whether holidays are charged
+     * @param weekendCharge whether weekend days are charged
+     */
+    public ToolChargeData(int[] tierMinimumDays, long[] tierDailyChargeCents, boolean holidayCharge, boolean weekendCharge)
+    {
+        if(tierMinimumDays.length == 0 || tierMinimumDays.length != tierDailyChargeCents.length || tierMinimumDays[0] != 1)
+        {
+            throw new IllegalArgumentException("Charge tiers must start at 1 day and have a charge for each tier.");
+        }
+        for(int i = 1; i < tierMinimumDays.length; i++)
+        {
+            if(tierMinimumDays[i] <= tierMinimumDays[i - 1])
+            {
+                throw new IllegalArgumentException("Charge tiers must be in ascending order of days.");
+            }
+        }
+        final int lastTierMinimumDays = tierMinimumDays[tierMinimumDays.length - 1];
+        if(lastTierMinimumDays > MAX_TIER_MINIMUM_DAYS)
+        {
+            throw new IllegalArgumentException("Charge tiers must start within " + MAX_TIER_MINIMUM_DAYS + " days.");
+        }
+        this.dailyChargeCentsByDays = new long[lastTierMinimumDays + 1];
+        int tier = 0;
+        for(int days = 0; days <= lastTierMinimumDays; days++)
+        {
+            if(tier + 1 < tierMinimumDays.length && tierMinimumDays[tier + 1] == days)
+            {
+                tier++;
+            }
+            dailyChargeCentsByDays[days] = tierDailyChargeCents[tier];
+        }
+        this.holidayCharge = holidayCharge;
+        this.weekendCharge = weekendCharge;
+    }
+
+    /**
+     * @return the daily rental charge in cents for the shortest rentals
+     */
+    public long getDailyRentalChargeCents()
+    {
+        return dailyChargeCentsByDays[1];
+    }
+
+    /**
+     * @param numberOfDays the number of days in the rental period
+     *
+     * @return the daily rental charge in cents for a rental of the given length
+     */
+    public long getDailyRentalChargeCents(int numberOfDays)
+    {
+        return dailyChargeCentsByDays[Math.max(0, Math.min(numberOfDays, dailyChargeCentsByDays.length - 1))];
+    }
+
+    public boolean hasHolidayCharge() {
+        return holidayCharge;
+    }
+
+    public boolean hasWeekendCharge() {
+        return weekendCharge;
+    }
+
+    /**
+     * @return which days the tool is charged for, as a number from 0 to 3 combining whether holidays and weekend days are
+     * charged; tools with the same profile have the same charge days for any rental period
+     */
+    int getChargeProfile()
+    {
+        return (holidayCharge ? HOLIDAY_CHARGE_PROFILE_BIT : 0) | (weekendCharge ? WEEKEND_CHARGE_PROFILE_BIT : 0);
+    }
 }
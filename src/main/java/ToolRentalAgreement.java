@@ -1,37 +1,112 @@
-import java.util.Objects;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.Locale;
 
 /**
- * Represents a tool rental agreement.
+ * Represents a tool rental agreement. Dates are held as epoch days and amounts as minor units of the agreement's currency,
+ * such as cents, and are only formatted when the agreement is rendered by {@link AgreementRenderer}.
  */
 public class ToolRentalAgreement {
-    private String code;
-    private String type;
-    private String brand;
-    private int numberOfDays;
-    private String checkoutDate;
-    private String dueDate;
-    private String dailyRentalCharge;
-    private int chargeDays;
-    private String preDiscountCharge;
-    private int discountPercent;
-    private String discountAmount;
-    private String finalCharge;
-
-    public ToolRentalAgreement(String code, String type, String brand, int numberOfDays, String checkoutDate,
-                               String dueDate, String dailyRentalCharge, int chargeDays, String preDiscountCharge,
-                               int discountPercent, String discountAmount, String finalCharge) {
+
+    private final String code;
+    private final ToolType type;
+    private final String brand;
+    private final int numberOfDays;
+    private final long checkoutEpochDay;
+    private final long dueEpochDay;
+    private final long dailyRentalChargeCents;
+    private final int chargeDays;
+    private final long preDiscountChargeCents;
+    private final int discountPercent;
+    private final long discountAmountCents;
+    private final long finalChargeCents;
+    private final Currency currency;
+
+    /**
+     * Creates an agreement with amounts in minor units of the given currency.
+     */
+    public ToolRentalAgreement(String code, ToolType type, String brand, int numberOfDays, long checkoutEpochDay,
+                               long dueEpochDay, long dailyRentalChargeCents, int chargeDays, long preDiscountChargeCents,
+                               int discountPercent, long discountAmountCents, long finalChargeCents, Currency currency) {
         this.code = code;
         this.type = type;
         this.brand = brand;
         this.numberOfDays = numberOfDays;
-        this.checkoutDate = checkoutDate;
-        this.dueDate = dueDate;
-        this.dailyRentalCharge = dailyRentalCharge;
+        this.checkoutEpochDay = checkoutEpochDay;
+        this.dueEpochDay = dueEpochDay;
+        this.dailyRentalChargeCents = dailyRentalChargeCents;
         this.chargeDays = chargeDays;
-        this.preDiscountCharge = preDiscountCharge;
+        this.preDiscountChargeCents = preDiscountChargeCents;
         this.discountPercent = discountPercent;
-        this.discountAmount = discountAmount;
-        this.finalCharge = finalCharge;
+        this.discountAmountCents = discountAmountCents;
+        this.finalChargeCents = finalChargeCents;
+        this.currency = currency;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public ToolType getType() {
+        return type;
+    }
+
+    public String getBrand() {
+        return brand;
+    }
+
+    public int getNumberOfDays() {
+        return numberOfDays;
+    }
+
+    public long getCheckoutEpochDay() {
+        return checkoutEpochDay;
+    }
+
+    public long getDueEpochDay() {
+        return dueEpochDay;
+    }
+
+    public LocalDate getCheckoutDate() {
+        return LocalDate.ofEpochDay(checkoutEpochDay);
+    }
+
+    public LocalDate getDueDate() {
+        return LocalDate.ofEpochDay(dueEpochDay);
+    }
+
+    public long getDailyRentalChargeCents() {
+        return dailyRentalChargeCents;
+    }
+
+    public int getChargeDays() {
+        return chargeDays;
+    }
+
+    public long getPreDiscountChargeCents() {
+        return preDiscountChargeCents;
+    }
+
+    public int getDiscountPercent() {
+        return discountPercent;
+    }
+
+    public long getDiscountAmountCents() {
+        return discountAmountCents;
+    }
+
+    public long getFinalChargeCents() {
+        return finalChargeCents;
+    }
+
+    /**
+     * @return the currency of the agreement's amounts
+     */
+    public Currency getCurrency() {
+        return currency;
     }
 
     /**
@@ -49,17 +124,53 @@ public class ToolRentalAgreement {
      */
     public String getOutput()
     {
-        return "Tool code: " + code + "\n" +
-                "Tool type: " + type + "\n" +
-                "Tool brand: " + brand + "\n" +
-                "Rental days: " + numberOfDays + "\n" +
-                "Checkout date: " + checkoutDate + "\n" +
-                "Due date: " + dueDate + "\n" +
-                "Daily rental charge: " + dailyRentalCharge + "\n" +
-                "Charge days: " + chargeDays + "\n" +
-                "Pre-discount charge: " + preDiscountCharge + "\n" +
-                "Discount percent: " + discountPercent + "%\n" +
-                "Discount amount: " + discountAmount + "\n" +
-                "Final charge: " + finalCharge;
+        final StringBuilder output = new StringBuilder(320);
+        AgreementRenderer.renderText(this, output);
+        return output.toString();
+    }
+
+    /**
+     * Constructs the rental agreement text with dates and amounts formatted for a locale.
+     *
+     * @param locale the locale to format dates and amounts for
+     *
+     * @return the constructed rental agreement text
+     */
+    public String getOutput(Locale locale)
+    {
+        final StringBuilder output = new StringBuilder(320);
+        AgreementRenderer.renderText(this, locale, output);
+        return output.toString();
+    }
+
+    /**
+     * Renders the rental agreement text, the same as {@link #getOutput()}, without creating any intermediate objects.
+     *
+     * @param output where to append the text
+     */
+    public void renderTo(Appendable output) throws IOException
+    {
+        AgreementRenderer.renderText(this, output);
+    }
+
+    /**
+     * Renders the rental agreement text, the same as {@link #getOutput()}, without creating any intermediate objects.
+     *
+     * @param output where to put the text
+     */
+    public void renderTo(CharBuffer output)
+    {
+        AgreementRenderer.renderText(this, output);
+    }
+
+    /**
+     * Renders the rental agreement text, the same as {@link #getOutput()}, encoded as UTF-8, without creating any
+     * intermediate objects.
+     *
+     * @param output where to put the encoded text
+     */
+    public void renderTo(ByteBuffer output)
+    {
+        AgreementRenderer.renderText(this, output);
     }
 }
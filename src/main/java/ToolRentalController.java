@@ -1,14 +1,23 @@
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 
-import static java.time.temporal.TemporalAdjusters.firstInMonth;
-
 /**
  * Handles most of the business logic of creating a rental agreement. For a given rental period, calculates how many days qualify
  * for a rental charge. Depending on the type of tool being rented, holidays and/or weekends may be exempt from a rental charge.
+ * <p>
+ * All counting is done arithmetically on epoch days (days since 1970-01-01), so the cost of a calculation does not depend on
+ * the length of the rental period. Rentals within the horizon of the holiday calendar's {@link ChargeDayTable} are looked
+ * up in the table instead.
  */
 public class ToolRentalController {
 
+    // 1970-01-01 was a Thursday; shifting an epoch day by this offset makes Monday day 0 of the week
+    private static final int EPOCH_DAY_TO_MONDAY_OFFSET = 3;
+    private static final int DAYS_PER_WEEK = 7;
+    private static final int WEEKEND_DAYS_PER_WEEK = 2;
+    // Monday-based index of the first weekend day (Saturday)
+    private static final int FIRST_WEEKEND_DAY_INDEX = 5;
+
     public static LocalDate calculateDueDate(LocalDate startDate, int numberOfDays)
     {
         return LocalDate.of(startDate.getYear(), startDate.getMonth(), startDate.getDayOfMonth()).plusDays(numberOfDays);
@@ -16,7 +25,8 @@ public class ToolRentalController {
 
     /**
      * Calculates the total number of billable days for a tool rental agreement. If holidays and/or weekends fall in the
-     * rental period they may be exempt from a rental charge, depending on the type of tool being rented.
+     * rental period they may be exempt from a rental charge, depending on the type of tool being rented. Holidays are
+     * determined by the default {@link HolidayCalendar}.
      *
      * @param toolChargeData contains the daily charge data and whether the tool has a daily charge on holidays and weekends
      * @param rentalDate the date of the start of the tool rental
@@ -26,83 +36,117 @@ public class ToolRentalController {
      */
     public static int calculateChargeDays(ToolChargeData toolChargeData, LocalDate rentalDate, LocalDate dueDate, int numberOfDays)
     {
+        return calculateChargeDays(toolChargeData, rentalDate.toEpochDay(), dueDate.toEpochDay(), numberOfDays,
+                HolidayCalendars.getDefault());
+    }
+
+    /**
+     * Calculates the total number of billable days for a tool rental agreement, with the rental period expressed in epoch days.
+     *
+     * @param toolChargeData contains the daily charge data and whether the tool has a daily charge on holidays and weekends
+     * @param rentalEpochDay the epoch day of the start of the tool rental
+     * @param dueEpochDay the epoch day when the tool is due for return
+     * @param numberOfDays the number of days in the rental period
+     * @param holidayCalendar the calendar determining which days are holidays
+     * @return the number of days in the rental period for which the customer will be charged
+     */
+    public static int calculateChargeDays(ToolChargeData toolChargeData, long rentalEpochDay, long dueEpochDay, int numberOfDays,
+                                          HolidayCalendar holidayCalendar)
+    {
+        final ChargeDayTable chargeDayTable = holidayCalendar.getChargeDayTable();
+        if(chargeDayTable.covers(rentalEpochDay, dueEpochDay))
+        {
+            return chargeDayTable.calculateChargeDays(toolChargeData, rentalEpochDay, dueEpochDay, numberOfDays);
+        }
+
         int daysToSubtract = 0;
-        // deduct any holidays from the rental period if needed
+        // deduct any holidays from the rental period if needed. The standard holidays are observed on the nearest
+        // weekday, but a custom rule may fall on a weekend, and a day is only exempt once when neither is charged
         if(!toolChargeData.hasHolidayCharge())
         {
-            daysToSubtract += determineNumberOfHolidays(rentalDate, dueDate);
+            daysToSubtract += toolChargeData.hasWeekendCharge()
+                    ? holidayCalendar.countHolidays(rentalEpochDay, dueEpochDay)
+                    : holidayCalendar.countWeekdayHolidays(rentalEpochDay, dueEpochDay);
         }
         // deduct any weekend days from the rental period if needed
         if(!toolChargeData.hasWeekendCharge())
         {
-            daysToSubtract += determineNumberOfWeekendDays(rentalDate, dueDate);
+            daysToSubtract += determineNumberOfWeekendDays(rentalEpochDay, dueEpochDay);
         }
 
         return numberOfDays - daysToSubtract;
     }
 
     /**
-     * Determines the number of holidays which fall in the tool rental period. The holidays recognized by the rental agreement
-     * are Independence Day and Labor Day.
-     *
-     * @param rentalDate the date of the start of the tool rental
-     * @param dueDate the date when the tool is due for return
+     * Calculates the billable days added when a rental period is lengthened, such as by an extension or a late return.
+     * The days after the old due date, up to and including the new one, are counted by the same rules as
+     * {@link #calculateChargeDays(ToolChargeData, long, long, int, HolidayCalendar)}, so that the charge days of a rental
+     * and then of its extension always add up to the charge days of the whole lengthened rental.
      *
-     * @return the number of holidays identified within the rental period, between 0 and 2.
+     * @param toolChargeData contains whether the tool has a daily charge on holidays and weekends
+     * @param dueEpochDay the epoch day the tool was due for return
+     * @param newDueEpochDay the epoch day the tool is now due for return, or was returned
+     * @param holidayCalendar the calendar determining which days are holidays
+     * @return the number of added days for which the customer will be charged, or 0 if the period was not lengthened
      */
-    private static int determineNumberOfHolidays(LocalDate rentalDate, LocalDate dueDate)
+    public static int calculateAdditionalChargeDays(ToolChargeData toolChargeData, long dueEpochDay, long newDueEpochDay,
+                                                    HolidayCalendar holidayCalendar)
     {
-        int numberOfHolidays = 0;
-        int currentYear = rentalDate.getYear();
-
-        LocalDate julyFourth = LocalDate.of(currentYear, 7, 4);
-        DayOfWeek julyFourthDayOfWeek = julyFourth.getDayOfWeek();
-
-        if(julyFourthDayOfWeek == DayOfWeek.SATURDAY)
+        if(newDueEpochDay <= dueEpochDay)
         {
-            julyFourth = julyFourth.plusDays(-1);
+            return 0;
         }
-        else if (julyFourthDayOfWeek == DayOfWeek.SUNDAY)
-        {
-            julyFourth = julyFourth.plusDays(1);
-        }
-
-        // we count the holiday even if it happens to be on a weekend - it gets moved to the nearest weekday,
-        // so we always count the holiday as well as the weekend days later on
-        if(rentalDate.isBefore(julyFourth) && (dueDate.isAfter(julyFourth) || dueDate.isEqual(julyFourth)))
+        int daysToSubtract = 0;
+        if(!toolChargeData.hasHolidayCharge())
         {
-            numberOfHolidays++;
+            daysToSubtract += toolChargeData.hasWeekendCharge()
+                    ? holidayCalendar.countHolidays(dueEpochDay, newDueEpochDay)
+                    : holidayCalendar.countWeekdayHolidays(dueEpochDay, newDueEpochDay);
         }
-
-        LocalDate laborDay = LocalDate.of(currentYear, 9, 1).with(firstInMonth(DayOfWeek.MONDAY));
-
-        if(rentalDate.isBefore(laborDay) && (dueDate.isAfter(laborDay) || dueDate.isEqual(laborDay)))
+        if(!toolChargeData.hasWeekendCharge())
         {
-            numberOfHolidays++;
+            // the old due date's weekend day, if any, was already counted with the original period
+            daysToSubtract += determineNumberOfWeekendDays(dueEpochDay + 1, newDueEpochDay);
         }
 
-        return numberOfHolidays;
+        return (int) (newDueEpochDay - dueEpochDay) - daysToSubtract;
     }
 
     /**
-     * Determines the number of days in the rental period which fall upon a weekend (Saturday or Sunday).
+     * Determines the number of days in the rental period which fall upon a weekend (Saturday or Sunday). Both the start and
+     * the end of the period are included in the count.
      *
-     * @param rentalDate the date of the start of the tool rental
-     * @param dueDate the date when the tool is due for return
+     * @param rentalEpochDay the epoch day of the start of the tool rental
+     * @param dueEpochDay the epoch day when the tool is due for return
      *
      * @return the number of days which fall upon a weekend
      */
-    private static int determineNumberOfWeekendDays(LocalDate rentalDate, LocalDate dueDate)
+    static int determineNumberOfWeekendDays(long rentalEpochDay, long dueEpochDay)
     {
-        int numWeekendDays = 0;
-        for(LocalDate startDate = rentalDate; startDate.compareTo(dueDate) <= 0; startDate = startDate.plusDays(1))
+        if(dueEpochDay < rentalEpochDay)
         {
-            DayOfWeek dayOfWeek = startDate.getDayOfWeek();
-            if(dayOfWeek == DayOfWeek.SATURDAY || dayOfWeek == DayOfWeek.SUNDAY)
-            {
-                numWeekendDays++;
-            }
+            return 0;
         }
-        return numWeekendDays;
+        return (int) (weekendDaysBefore(dueEpochDay + 1) - weekendDaysBefore(rentalEpochDay));
+    }
+
+    /**
+     * Counts the weekend days strictly before the given epoch day, relative to an arbitrary Monday. Only the difference
+     * between two results is meaningful.
+     */
+    private static long weekendDaysBefore(long epochDay)
+    {
+        final long mondayBasedDay = epochDay + EPOCH_DAY_TO_MONDAY_OFFSET;
+        final long fullWeeks = Math.floorDiv(mondayBasedDay, DAYS_PER_WEEK);
+        final int remainingDays = Math.floorMod(mondayBasedDay, DAYS_PER_WEEK);
+        return fullWeeks * WEEKEND_DAYS_PER_WEEK + Math.max(0, remainingDays - FIRST_WEEKEND_DAY_INDEX);
+    }
+
+    /**
+     * @return the Monday-based index (matching {@link DayOfWeek#ordinal()}) of the day of the week for the given epoch day
+     */
+    static int dayOfWeekIndex(long epochDay)
+    {
+        return Math.floorMod(epochDay + EPOCH_DAY_TO_MONDAY_OFFSET, DAYS_PER_WEEK);
     }
 }
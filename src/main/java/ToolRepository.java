@@ -1,25 +1,327 @@
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A collection of all tools offered in the rental system. The 4-letter code acts as a primary key for looking up tool
- * details when attempting to check the tool out for rent.
+ * details when attempting to check the tool out for rent. Each code is also interned as a small integer id, so that
+ * bulk pricing can refer to tools without handling Strings.
+ * <p>
+ * The repository can be read and updated concurrently. Reads never lock. Updates lock one of a fixed set of stripes chosen
+ * by tool code, so updates to different tools rarely wait on each other. Secondary indexes of tool codes are kept by
+ * {@link ToolType}, brand and store, and the number of units available at each store can be reserved atomically.
  */
 public class ToolRepository {
 
-    private static final Map<String, Tool> tools;
+    private static final int WRITE_STRIPES = 64;
+    // the available units of a removed tool, which can never be reserved or released again
+    private static final int RETIRED_UNITS = Integer.MIN_VALUE;
+
+    private static final Map<String, ToolSlot> slots = new ConcurrentHashMap<>();
+    // indexed by tool id; replaced with a larger copy when full, under idLock
+    private static volatile ToolSlot[] slotsById = new ToolSlot[16];
+    private static int nextToolId;
+    private static final Object idLock = new Object();
+    private static final Object[] writeLocks = new Object[WRITE_STRIPES];
+
+    private static final Map<ToolType, Set<String>> codesByType = new EnumMap<>(ToolType.class);
+    private static final Map<String, Set<String>> codesByBrand = new ConcurrentHashMap<>();
+    private static final Map<String, Set<String>> codesByStore = new ConcurrentHashMap<>();
 
     static
     {
-        tools = new HashMap<>();
-        tools.put("CHNS", new Tool(ToolType.CHAINSAW, "Stihl"));
-        tools.put("LADW", new Tool(ToolType.LADDER, "Werner"));
-        tools.put("JAKD", new Tool(ToolType.JACKHAMMER, "DeWalt"));
-        tools.put("JAKR", new Tool(ToolType.JACKHAMMER, "Ridgid"));
+        for(int i = 0; i < WRITE_STRIPES; i++)
+        {
+            writeLocks[i] = new Object();
+        }
+        for(ToolType type : ToolType.values())
+        {
+            codesByType.put(type, ConcurrentHashMap.newKeySet());
+        }
+
+        putTool("CHNS", new Tool(ToolType.CHAINSAW, "Stihl"));
+        putTool("LADW", new Tool(ToolType.LADDER, "Werner"));
+        putTool("JAKD", new Tool(ToolType.JACKHAMMER, "DeWalt"));
+        putTool("JAKR", new Tool(ToolType.JACKHAMMER, "Ridgid"));
     }
 
     public static Tool getTool(String toolCode)
     {
-        return tools.get(toolCode);
+        final ToolSlot slot = slots.get(toolCode);
+        return slot == null ? null : slot.tool;
+    }
+
+    /**
+     * @param toolCode the code of a tool
+     *
+     * @return the interned id of the tool code, or -1 if the code does not correspond to an existing tool
+     */
+    public static int getToolId(String toolCode)
+    {
+        final ToolSlot slot = slots.get(toolCode);
+        return slot == null || slot.tool == null ? -1 : slot.id;
+    }
+
+    /**
+     * @param toolId an interned tool id, as returned by {@link #getToolId(String)}
+     *
+     * @return the tool with the given id, or null if there is no such tool
+     */
+    public static Tool getToolById(int toolId)
+    {
+        final ToolSlot[] currentSlots = slotsById;
+        if(toolId < 0 || toolId >= currentSlots.length)
+        {
+            return null;
+        }
+        final ToolSlot slot = currentSlots[toolId];
+        return slot == null ? null : slot.tool;
+    }
+
+    /**
+     * @param toolId an interned tool id, as returned by {@link #getToolId(String)}
+     *
+     * @return the code the id was interned for, or null if there is no such id. Ids of removed tools still have a code.
+     */
+    public static String getToolCode(int toolId)
+    {
+        final ToolSlot[] currentSlots = slotsById;
+        if(toolId < 0 || toolId >= currentSlots.length || currentSlots[toolId] == null)
+        {
+            return null;
+        }
+        return currentSlots[toolId].code;
+    }
+
+    /**
+     * Adds a tool to the repository, or replaces the tool which already has the given code. A replaced tool keeps its id
+     * and its availability at every store.
+     *
+     * @param toolCode the code of the tool
+     * @param tool the tool's details
+     */
+    public static void putTool(String toolCode, Tool tool)
+    {
+        synchronized(writeLockFor(toolCode))
+        {
+            ToolSlot slot = slots.get(toolCode);
+            if(slot == null)
+            {
+                slot = createSlot(toolCode);
+            }
+            final Tool previous = slot.tool;
+            if(previous != null)
+            {
+                removeFromIndexes(toolCode, previous);
+            }
+            codesByType.get(tool.getType()).add(toolCode);
+            codesByBrand.computeIfAbsent(tool.getBrand(), brand -> ConcurrentHashMap.newKeySet()).add(toolCode);
+            slot.tool = tool;
+        }
+        PricingChanges.recordChange();
+    }
+
+    /**
+     * Removes a tool from the repository, along with its availability at every store. Its id is not reused. A concurrent
+     * reservation of one of its units either takes the unit before the tool is removed, or fails.
+     *
+     * @param toolCode the code of the tool
+     *
+     * @return the removed tool, or null if no tool had the given code
+     */
+    public static Tool removeTool(String toolCode)
+    {
+        synchronized(writeLockFor(toolCode))
+        {
+            final ToolSlot slot = slots.get(toolCode);
+            if(slot == null || slot.tool == null)
+            {
+                return null;
+            }
+            // retired before the tool is gone, so a reservation which already looked up a count fails rather than
+            // taking a unit of a removed tool
+            for(Map.Entry<String, AtomicInteger> store : slot.availableUnitsByStore.entrySet())
+            {
+                store.getValue().set(RETIRED_UNITS);
+                codesByStore.get(store.getKey()).remove(toolCode);
+            }
+            final Tool previous = slot.tool;
+            slot.tool = null;
+            removeFromIndexes(toolCode, previous);
+            slot.availableUnitsByStore.clear();
+            PricingChanges.recordChange();
+            return previous;
+        }
+    }
+
+    /**
+     * @return the codes of all tools of the given type. The set reflects later updates to the repository.
+     */
+    public static Set<String> getToolCodesByType(ToolType type)
+    {
+        return Collections.unmodifiableSet(codesByType.get(type));
+    }
+
+    /**
+     * @return the codes of all tools of the given brand. The set reflects later updates to the repository.
+     */
+    public static Set<String> getToolCodesByBrand(String brand)
+    {
+        return Collections.unmodifiableSet(codesByBrand.getOrDefault(brand, Collections.emptySet()));
+    }
+
+    /**
+     * @return the codes of all tools stocked at the given store. The set reflects later updates to the repository.
+     */
+    public static Set<String> getToolCodesByStore(String storeId)
+    {
+        return Collections.unmodifiableSet(codesByStore.getOrDefault(storeId, Collections.emptySet()));
+    }
+
+    /**
+     * Sets the number of units of a tool which are available for rent at a store, replacing any previous count.
+     *
+     * @param toolCode the code of the tool
+     * @param storeId the identifier of the store
+     * @param units the number of available units
+     */
+    public static void setAvailableUnits(String toolCode, String storeId, int units)
+    {
+        if(units < 0)
+        {
+            throw new IllegalArgumentException("Available units must not be negative.");
+        }
+        synchronized(writeLockFor(toolCode))
+        {
+            final ToolSlot slot = slots.get(toolCode);
+            if(slot == null || slot.tool == null)
+            {
+                throw new IllegalArgumentException("Tool code does not correspond to an existing tool.");
+            }
+            slot.availableUnitsByStore.computeIfAbsent(storeId, id -> new AtomicInteger()).set(units);
+            codesByStore.computeIfAbsent(storeId, id -> ConcurrentHashMap.newKeySet()).add(toolCode);
+        }
+    }
+
+    /**
+     * @return the number of units of a tool currently available at a store, or 0 if the store does not stock it
+     */
+    public static int getAvailableUnits(String toolCode, String storeId)
+    {
+        final AtomicInteger units = availableUnits(toolCode, storeId);
+        return units == null ? 0 : Math.max(0, units.get());
+    }
+
+    /**
+     * Atomically takes one available unit of a tool at a store, so that it cannot be rented out twice.
+     *
+     * @param toolCode the code of the tool
+     * @param storeId the identifier of the store
+     *
+     * @return true if a unit was reserved, or false if none were available
+     */
+    public static boolean tryReserveUnit(String toolCode, String storeId)
+    {
+        final AtomicInteger units = availableUnits(toolCode, storeId);
+        if(units == null)
+        {
+            return false;
+        }
+        int available = units.get();
+        while(available > 0)
+        {
+            if(units.compareAndSet(available, available - 1))
+            {
+                return true;
+            }
+            available = units.get();
+        }
+        return false;
+    }
+
+    /**
+     * Returns a previously reserved unit of a tool to a store's available units. A unit of a tool which has since been
+     * removed is not returned, since the tool's units went with it.
+     *
+     * @param toolCode the code of the tool
+     * @param storeId the identifier of the store
+     */
+    public static void releaseUnit(String toolCode, String storeId)
+    {
+        final ToolSlot slot = slots.get(toolCode);
+        final AtomicInteger units = slot == null ? null : slot.availableUnitsByStore.get(storeId);
+        if(units == null)
+        {
+            if(slot != null && slot.tool == null)
+            {
+                return;
+            }
+            throw new IllegalArgumentException("Tool is not stocked at the store.");
+        }
+        int available = units.get();
+        while(available != RETIRED_UNITS && !units.compareAndSet(available, available + 1))
+        {
+            available = units.get();
+        }
+    }
+
+    private static AtomicInteger availableUnits(String toolCode, String storeId)
+    {
+        final ToolSlot slot = slots.get(toolCode);
+        return slot == null ? null : slot.availableUnitsByStore.get(storeId);
+    }
+
+    private static void removeFromIndexes(String toolCode, Tool tool)
+    {
+        codesByType.get(tool.getType()).remove(toolCode);
+        codesByBrand.get(tool.getBrand()).remove(toolCode);
+    }
+
+    /**
+     * Interns a new tool code. Must be called holding the code's write lock.
+     */
+    private static ToolSlot createSlot(String toolCode)
+    {
+        synchronized(idLock)
+        {
+            final ToolSlot slot = new ToolSlot(nextToolId++, toolCode);
+            ToolSlot[] currentSlots = slotsById;
+            if(slot.id >= currentSlots.length)
+            {
+                currentSlots = Arrays.copyOf(currentSlots, currentSlots.length * 2);
+            }
+            currentSlots[slot.id] = slot;
+            // republishing the array makes the new slot visible to readers, even when the array was not grown
+            slotsById = currentSlots;
+            slots.put(toolCode, slot);
+            return slot;
+        }
+    }
+
+    private static Object writeLockFor(String toolCode)
+    {
+        return writeLocks[(toolCode.hashCode() & Integer.MAX_VALUE) % WRITE_STRIPES];
+    }
+
+    /**
+     * Everything stored against one tool code. A slot is never replaced once created, so its id stays fixed.
+     */
+    private static final class ToolSlot {
+
+        final int id;
+        final String code;
+        final Map<String, AtomicInteger> availableUnitsByStore = new ConcurrentHashMap<>();
+        // null once the tool has been removed
+        volatile Tool tool;
+
+        ToolSlot(int id, String code)
+        {
+            this.id = id;
+            this.code = code;
+        }
     }
 }
@@ -0,0 +1,207 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link AgreementJournal} replays the agreements appended to it, including after the journal is reopened,
+ * after an incomplete record is left behind by a crash, and when many threads append at once.
+ */
+public class AgreementJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that agreements spanning several segments are replayed unchanged after the journal is closed and reopened.
+     */
+    @Test
+    public void testReplayAfterReopen() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("agreements.journal");
+        List<String> expectedOutputs = new ArrayList<>();
+        try(AgreementJournal journal = new AgreementJournal(file, 8))
+        {
+            for(int i = 0; i < 30; i++)
+            {
+                ToolRentalAgreement agreement = Checkout.createRentalAgreement(i % 2 == 0 ? "LADW" : "JAKR", 1 + i,
+                        i, LocalDate.of(2015, 7, 1).plusDays(i));
+                expectedOutputs.add(agreement.getOutput());
+                assertEquals(i, journal.append(agreement));
+            }
+        }
+
+        try(AgreementJournal journal = new AgreementJournal(file, 8))
+        {
+            assertEquals(30, journal.size());
+            assertEquals(expectedOutputs, replayOutputs(journal));
+        }
+    }
+
+    /**
+     * Tests that an incomplete record after the last complete one is discarded when the journal is reopened, and that
+     * new records are appended in its place.
+     */
+    @Test
+    public void testRecoveryDiscardsIncompleteRecord() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("agreements.journal");
+        ToolRentalAgreement agreement = Checkout.createRentalAgreement("CHNS", 5, 25, LocalDate.of(2015, 7, 2));
+        try(AgreementJournal journal = new AgreementJournal(file))
+        {
+            journal.appendDurably(agreement);
+            journal.appendDurably(agreement);
+        }
+
+        // simulate a crash part of the way through writing a third record
+        try(RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw"))
+        {
+            raw.seek(raw.length());
+            raw.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        }
+
+        try(AgreementJournal journal = new AgreementJournal(file))
+        {
+            assertEquals(2, journal.size());
+            assertEquals(2, journal.append(agreement));
+        }
+        try(AgreementJournal journal = new AgreementJournal(file))
+        {
+            assertEquals(List.of(agreement.getOutput(), agreement.getOutput(), agreement.getOutput()),
+                    replayOutputs(journal));
+        }
+    }
+
+    /**
+     * Tests that records refer to their tools by code, in the order the journal first saw each code rather than by the
+     * ids interned in this process, including for codes added after the journal is reopened.
+     */
+    @Test
+    public void testRecordsReferToToolCodes() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("agreements.journal");
+        ToolRentalAgreement jackhammer = Checkout.createRentalAgreement("JAKR", 3, 0, LocalDate.of(2020, 7, 2));
+        ToolRentalAgreement ladder = Checkout.createRentalAgreement("LADW", 4, 10, LocalDate.of(2020, 7, 2));
+        try(AgreementJournal journal = new AgreementJournal(file))
+        {
+            journal.append(jackhammer);
+        }
+        try(AgreementJournal journal = new AgreementJournal(file))
+        {
+            journal.append(ladder);
+            journal.append(jackhammer);
+        }
+
+        try(AgreementJournal journal = new AgreementJournal(file))
+        {
+            List<String> toolCodes = new ArrayList<>();
+            journal.replay(record -> toolCodes.add(record.getToolCode()));
+            assertEquals(List.of("JAKR", "LADW", "JAKR"), toolCodes);
+            assertEquals(List.of(jackhammer.getOutput(), ladder.getOutput(), jackhammer.getOutput()),
+                    replayOutputs(journal));
+        }
+        // the codes themselves are in the file
+        String contents = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+        assertTrue(contents.contains("JAKR") && contents.contains("LADW"));
+    }
+
+    /**
+     * Tests that agreements priced in other currencies are replayed in their own currencies.
+     */
+    @Test
+    public void testReplayKeepsCurrency() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("agreements.journal");
+        List<ToolRentalAgreement> agreements = new ArrayList<>();
+        for(String currencyCode : new String[] {"USD", "JPY", "EUR"})
+        {
+            agreements.add(Checkout.createRentalAgreement("JAKR", 9, 25, LocalDate.of(2020, 7, 2),
+                    HolidayCalendars.getDefault(), Currency.getInstance(currencyCode)));
+        }
+        try(AgreementJournal journal = new AgreementJournal(file))
+        {
+            for(ToolRentalAgreement agreement : agreements)
+            {
+                journal.append(agreement);
+            }
+        }
+
+        try(AgreementJournal journal = new AgreementJournal(file))
+        {
+            List<ToolRentalAgreement> replayed = new ArrayList<>();
+            journal.replay(record -> replayed.add(record.toAgreement()));
+            assertEquals(agreements.size(), replayed.size());
+            for(int i = 0; i < agreements.size(); i++)
+            {
+                assertSame(agreements.get(i).getCurrency(), replayed.get(i).getCurrency());
+                assertEquals(agreements.get(i).getOutput(Locale.JAPAN), replayed.get(i).getOutput(Locale.JAPAN));
+            }
+        }
+    }
+
+    /**
+     * Tests that every record appended durably by concurrent threads is present exactly once.
+     */
+    @Test
+    public void testConcurrentDurableAppends() throws Exception {
+        final int numberOfThreads = 8;
+        final int appendsPerThread = 200;
+        Path file = folder.getRoot().toPath().resolve("agreements.journal");
+        try(AgreementJournal journal = new AgreementJournal(file, 64))
+        {
+            ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+            try
+            {
+                List<Future<?>> futures = new ArrayList<>();
+                for(int t = 0; t < numberOfThreads; t++)
+                {
+                    final int numberOfDays = t + 1;
+                    futures.add(executor.submit(() -> {
+                        ToolRentalAgreement agreement = Checkout.createRentalAgreement("JAKD", numberOfDays, 0,
+                                LocalDate.of(2020, 1, 1));
+                        for(int i = 0; i < appendsPerThread; i++)
+                        {
+                            journal.appendDurably(agreement);
+                        }
+                        return null;
+                    }));
+                }
+                for(Future<?> future : futures)
+                {
+                    future.get();
+                }
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+
+            int[] appendsByNumberOfDays = new int[numberOfThreads + 1];
+            journal.replay(record -> appendsByNumberOfDays[record.getNumberOfDays()]++);
+            for(int numberOfDays = 1; numberOfDays <= numberOfThreads; numberOfDays++)
+            {
+                assertEquals(appendsPerThread, appendsByNumberOfDays[numberOfDays]);
+            }
+        }
+    }
+
+    private static List<String> replayOutputs(AgreementJournal journal)
+    {
+        List<String> outputs = new ArrayList<>();
+        journal.replay(record -> outputs.add(record.toAgreement().getOutput()));
+        return outputs;
+    }
+}
@@ -0,0 +1,200 @@
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Currency;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link AgreementRenderer} writes the same rental agreement text as formatting the dates and amounts with
+ * {@link DateTimeFormatter} and {@link NumberFormat}, into every kind of output, and that the JSON and binary forms hold
+ * the agreement's values.
+ */
+public class AgreementRendererTest {
+
+    private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MM-dd-yy");
+    private static final NumberFormat currencyFormatter = NumberFormat.getCurrencyInstance();
+    private static final Currency USD = Currency.getInstance("USD");
+
+    /**
+     * Tests that random agreements, including very large and negative amounts and far away dates, are rendered the same
+     * as the formatters would.
+     */
+    @Test
+    public void testTextMatchesFormatters() {
+        Random random = new Random(11);
+        CharBuffer charBuffer = CharBuffer.allocate(1024);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+        for(int i = 0; i < 5000; i++)
+        {
+            ToolRentalAgreement agreement = randomAgreement(random);
+            String expected = referenceText(agreement);
+            assertEquals(expected, agreement.getOutput());
+
+            charBuffer.clear();
+            agreement.renderTo(charBuffer);
+            charBuffer.flip();
+            assertEquals(expected, charBuffer.toString());
+
+            byteBuffer.clear();
+            agreement.renderTo(byteBuffer);
+            byteBuffer.flip();
+            assertEquals(expected, StandardCharsets.UTF_8.decode(byteBuffer).toString());
+        }
+    }
+
+    /**
+     * Tests that non-ASCII text is encoded as UTF-8.
+     */
+    @Test
+    public void testUtf8Encoding() {
+        ToolRentalAgreement agreement = new ToolRentalAgreement("JAKR", ToolType.JACKHAMMER, "Bosch é中🔨",
+                4, LocalDate.of(2020, 7, 2).toEpochDay(), LocalDate.of(2020, 7, 6).toEpochDay(), 299, 1, 299, 0, 0, 299, USD);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(512);
+        agreement.renderTo(byteBuffer);
+        byteBuffer.flip();
+        byte[] rendered = new byte[byteBuffer.remaining()];
+        byteBuffer.get(rendered);
+        assertArrayEquals(agreement.getOutput().getBytes(StandardCharsets.UTF_8), rendered);
+    }
+
+    /**
+     * Tests the JSON form of a known agreement.
+     */
+    @Test
+    public void testJson() throws Exception {
+        ToolRentalAgreement agreement = new ToolRentalAgreement("LADW", ToolType.LADDER, "Wer\"ner", 3,
+                LocalDate.of(2020, 7, 2).toEpochDay(), LocalDate.of(2020, 7, 5).toEpochDay(), 199, 2, 398, 10, 40, 358, USD);
+        String expected = "{\"toolCode\":\"LADW\",\"toolType\":\"Ladder\",\"toolBrand\":\"Wer\\\"ner\",\"rentalDays\":3,"
+                + "\"checkoutDate\":\"2020-07-02\",\"dueDate\":\"2020-07-05\",\"dailyRentalChargeCents\":199,"
+                + "\"chargeDays\":2,\"preDiscountChargeCents\":398,\"discountPercent\":10,\"discountAmountCents\":40,"
+                + "\"finalChargeCents\":358,\"currency\":\"USD\"}";
+
+        StringBuilder json = new StringBuilder();
+        AgreementRenderer.renderJson(agreement, json);
+        assertEquals(expected, json.toString());
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(512);
+        AgreementRenderer.renderJson(agreement, byteBuffer);
+        byteBuffer.flip();
+        assertEquals(expected, StandardCharsets.UTF_8.decode(byteBuffer).toString());
+
+        // the extremes of a long render exactly, including the one with no positive counterpart
+        ToolRentalAgreement extreme = new ToolRentalAgreement("LADW", ToolType.LADDER, "Werner", 3,
+                LocalDate.of(2020, 7, 2).toEpochDay(), LocalDate.of(2020, 7, 5).toEpochDay(), Long.MIN_VALUE, 2,
+                Long.MAX_VALUE, 10, -1, 0, USD);
+        json.setLength(0);
+        AgreementRenderer.renderJson(extreme, json);
+        assertTrue(json.toString().contains("\"dailyRentalChargeCents\":" + Long.MIN_VALUE + ","));
+        assertTrue(json.toString().contains("\"preDiscountChargeCents\":" + Long.MAX_VALUE + ","));
+        assertTrue(json.toString().contains("\"discountAmountCents\":-1,"));
+    }
+
+    /**
+     * Tests that agreements read back from the binary form render the same as the originals.
+     */
+    @Test
+    public void testBinaryRoundTrip() {
+        Random random = new Random(7);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(256);
+        for(int i = 0; i < 1000; i++)
+        {
+            ToolRentalAgreement agreement = randomAgreement(random);
+            byteBuffer.clear();
+            AgreementRenderer.renderBinary(agreement, byteBuffer);
+            byteBuffer.flip();
+            ToolRentalAgreement read = AgreementRenderer.readBinary(byteBuffer);
+            assertFalse(byteBuffer.hasRemaining());
+            assertEquals(agreement.getOutput(), read.getOutput());
+        }
+    }
+
+    /**
+     * Tests that rendering into a reused buffer allocates nothing once warmed up, where the JVM can measure it.
+     */
+    @Test
+    public void testRenderingDoesNotAllocate() {
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+        {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+        {
+            return;
+        }
+
+        ToolRentalAgreement agreement = Checkout.createRentalAgreement("JAKR", 9, 25, LocalDate.of(2015, 7, 2));
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+        for(int i = 0; i < 20000; i++)
+        {
+            byteBuffer.clear();
+            agreement.renderTo(byteBuffer);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for(int i = 0; i < 10000; i++)
+        {
+            byteBuffer.clear();
+            agreement.renderTo(byteBuffer);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        // allow for the measurement itself, which is far less than one byte per render
+        assertTrue("Allocated " + allocated + " bytes", allocated < 10000);
+    }
+
+    private static ToolRentalAgreement randomAgreement(Random random)
+    {
+        ToolType[] types = ToolType.values();
+        long checkoutEpochDay = random.nextInt(3) == 0 ? random.nextInt(2_000_000) - 1_000_000 : 16000 + random.nextInt(20000);
+        int numberOfDays = 1 + random.nextInt(400);
+        return new ToolRentalAgreement("T" + random.nextInt(1000), types[random.nextInt(types.length)], "Brand",
+                numberOfDays, checkoutEpochDay, checkoutEpochDay + numberOfDays, randomCents(random),
+                random.nextInt(numberOfDays + 1), randomCents(random), random.nextInt(101), randomCents(random),
+                randomCents(random), USD);
+    }
+
+    private static long randomCents(Random random)
+    {
+        switch(random.nextInt(4))
+        {
+            case 0: return random.nextInt(1000);
+            case 1: return random.nextLong() / 100;
+            case 2: return -random.nextInt(1_000_000);
+            default: return random.nextInt(100_000_000);
+        }
+    }
+
+    private static String referenceText(ToolRentalAgreement agreement)
+    {
+        return "Tool code: " + agreement.getCode() + "\n"
+                + "Tool type: " + agreement.getType().getValue() + "\n"
+                + "Tool brand: " + agreement.getBrand() + "\n"
+                + "Rental days: " + agreement.getNumberOfDays() + "\n"
+                + "Checkout date: " + dateFormatter.format(agreement.getCheckoutDate()) + "\n"
+                + "Due date: " + dateFormatter.format(agreement.getDueDate()) + "\n"
+                + "Daily rental charge: " + currency(agreement.getDailyRentalChargeCents()) + "\n"
+                + "Charge days: " + agreement.getChargeDays() + "\n"
+                + "Pre-discount charge: " + currency(agreement.getPreDiscountChargeCents()) + "\n"
+                + "Discount percent: " + agreement.getDiscountPercent() + "%\n"
+                + "Discount amount: " + currency(agreement.getDiscountAmountCents()) + "\n"
+                + "Final charge: " + currency(agreement.getFinalChargeCents());
+    }
+
+    private static String currency(long cents)
+    {
+        return currencyFormatter.format(BigDecimal.valueOf(cents, 2));
+    }
+}
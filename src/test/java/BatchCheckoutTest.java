@@ -0,0 +1,142 @@
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link BatchCheckout} prices each row of a {@link QuoteBatch} the same way as
+ * {@link Checkout#createRentalAgreement(String, int, int, LocalDate)}.
+ */
+public class BatchCheckoutTest {
+
+    private static final String[] TOOL_CODES = {"CHNS", "LADW", "JAKD", "JAKR"};
+
+    /**
+     * Tests that a batch priced sequentially and one priced across a pool both match individual checkouts.
+     */
+    @Test
+    public void testBatchMatchesCheckout() {
+        final int size = 50_000;
+        Random random = new Random(4L);
+        String[] toolCodes = new String[size];
+        int[] toolIds = new int[size];
+        long[] checkoutEpochDays = new long[size];
+        int[] numberOfDays = new int[size];
+        int[] discountPercents = new int[size];
+        for(int row = 0; row < size; row++)
+        {
+            toolCodes[row] = TOOL_CODES[random.nextInt(TOOL_CODES.length)];
+            toolIds[row] = ToolRepository.getToolId(toolCodes[row]);
+            checkoutEpochDays[row] = LocalDate.of(2000, 1, 1).toEpochDay() + random.nextInt(30 * 365);
+            numberOfDays[row] = 1 + random.nextInt(400);
+            discountPercents[row] = random.nextInt(101);
+        }
+
+        QuoteBatch sequential = new QuoteBatch(toolIds, checkoutEpochDays, numberOfDays, discountPercents);
+        BatchCheckout.price(sequential);
+        QuoteBatch parallel = new QuoteBatch(toolIds, checkoutEpochDays, numberOfDays, discountPercents);
+        BatchCheckout.price(parallel, HolidayCalendars.getDefault(), ForkJoinPool.commonPool());
+
+        for(int row = 0; row < size; row++)
+        {
+            ToolRentalAgreement agreement = Checkout.createRentalAgreement(toolCodes[row], numberOfDays[row],
+                    discountPercents[row], LocalDate.ofEpochDay(checkoutEpochDays[row]));
+            for(QuoteBatch batch : new QuoteBatch[] {sequential, parallel})
+            {
+                assertEquals(agreement.getChargeDays(), batch.getChargeDays()[row]);
+                assertEquals(agreement.getPreDiscountChargeCents(), batch.getPreDiscountChargeCents()[row]);
+                assertEquals(agreement.getDiscountAmountCents(), batch.getDiscountAmountCents()[row]);
+                assertEquals(agreement.getFinalChargeCents(), batch.getFinalChargeCents()[row]);
+            }
+        }
+    }
+
+    /**
+     * Tests that every row is priced with the tools and rules in effect when the batch was started, even when a tool is
+     * removed and the rules are reloaded while it is being priced.
+     */
+    @Test
+    public void testBatchPricedFromSnapshot() throws Exception {
+        final int size = 100;
+        ToolRepository.putTool("BTCH", new Tool(ToolType.LADDER, "Batch"));
+        PricingRules original = PricingRules.current();
+        try
+        {
+            int[] toolIds = new int[size];
+            long[] checkoutEpochDays = new long[size];
+            int[] numberOfDays = new int[size];
+            int[] discountPercents = new int[size];
+            long[] expectedFinalChargeCents = new long[size];
+            for(int row = 0; row < size; row++)
+            {
+                String toolCode = row % 2 == 0 ? "BTCH" : "LADW";
+                toolIds[row] = ToolRepository.getToolId(toolCode);
+                checkoutEpochDays[row] = LocalDate.of(2020, 7, 1).toEpochDay() + row;
+                numberOfDays[row] = 5;
+                expectedFinalChargeCents[row] = Checkout.createRentalAgreement(toolCode, 5, 0,
+                        LocalDate.ofEpochDay(checkoutEpochDays[row])).getFinalChargeCents();
+            }
+            Properties properties = new Properties();
+            try(var in = BatchCheckoutTest.class.getResourceAsStream("/pricing-rules.properties"))
+            {
+                properties.load(in);
+            }
+            properties.setProperty("LADDER.dailyCharge", "9.99");
+            PricingRules reloaded = PricingRules.parse(properties);
+
+            // the calendar is consulted for every row, and changes the tools and rules once the first row is priced
+            AtomicBoolean changed = new AtomicBoolean();
+            HolidayCalendar defaultCalendar = HolidayCalendars.getDefault();
+            HolidayCalendar changingCalendar = new HolidayCalendar(List.of()) {
+                @Override
+                public ChargeDayTable getChargeDayTable() {
+                    if(!changed.getAndSet(true))
+                    {
+                        ToolRepository.removeTool("BTCH");
+                        PricingRules.install(reloaded);
+                    }
+                    return defaultCalendar.getChargeDayTable();
+                }
+
+                @Override
+                public int countHolidays(long rentalEpochDay, long dueEpochDay) {
+                    return defaultCalendar.countHolidays(rentalEpochDay, dueEpochDay);
+                }
+
+                @Override
+                public int countWeekdayHolidays(long rentalEpochDay, long dueEpochDay) {
+                    return defaultCalendar.countWeekdayHolidays(rentalEpochDay, dueEpochDay);
+                }
+            };
+            QuoteBatch batch = new QuoteBatch(toolIds, checkoutEpochDays, numberOfDays, discountPercents);
+            BatchCheckout.price(batch, changingCalendar);
+            assertTrue(changed.get());
+            assertArrayEquals(expectedFinalChargeCents, batch.getFinalChargeCents());
+        }
+        finally
+        {
+            ToolRepository.removeTool("BTCH");
+            PricingRules.install(original);
+        }
+    }
+
+    /**
+     * Tests that an unknown tool id is reported with its row number.
+     */
+    @Test
+    public void testInvalidToolId() {
+        QuoteBatch batch = new QuoteBatch(new int[] {0, 99}, new long[] {0, 0}, new int[] {1, 1}, new int[] {0, 0});
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BatchCheckout.price(batch));
+        assertEquals("Row 1: Tool code does not correspond to an existing tool.", thrown.getMessage());
+    }
+}
@@ -0,0 +1,122 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link BulkPricer} writes a priced line for every input line, in the input order, with the same amounts as
+ * {@link Checkout#createRentalAgreement(String, int, int, LocalDate)}.
+ */
+public class BulkPricerTest {
+
+    private static final String[] TOOL_CODES = {"CHNS", "LADW", "JAKD", "JAKR"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests a file spanning several chunks, priced on several threads, including lines which cannot be priced.
+     */
+    @Test
+    public void testPricesFileInOrder() throws IOException {
+        final int numberOfLines = 20_000;
+        Path input = folder.newFile("rentals.csv").toPath();
+        Path output = folder.getRoot().toPath().resolve("priced.csv");
+        Random random = new Random(10L);
+        String[] toolCodes = new String[numberOfLines];
+        LocalDate[] checkoutDates = new LocalDate[numberOfLines];
+        int[] numberOfDays = new int[numberOfLines];
+        int[] discountPercents = new int[numberOfLines];
+        try(BufferedWriter writer = Files.newBufferedWriter(input))
+        {
+            writer.write("toolCode,checkoutDate,rentalDays,discountPercent\n");
+            for(int i = 0; i < numberOfLines; i++)
+            {
+                toolCodes[i] = i % 1000 == 7 ? "XXXX" : TOOL_CODES[random.nextInt(TOOL_CODES.length)];
+                checkoutDates[i] = LocalDate.of(2010, 1, 1).plusDays(random.nextInt(5000));
+                numberOfDays[i] = 1 + random.nextInt(100);
+                discountPercents[i] = random.nextInt(101);
+                writer.write(toolCodes[i] + "," + checkoutDates[i] + "," + numberOfDays[i] + "," + discountPercents[i] + "\n");
+            }
+        }
+
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        assertEquals(numberOfLines, new BulkPricer(3, new PrintStream(progress)).price(input, output));
+
+        List<String> lines = Files.readAllLines(output);
+        assertEquals(numberOfLines + 1, lines.size());
+        for(int i = 0; i < numberOfLines; i++)
+        {
+            String prefix = toolCodes[i] + "," + checkoutDates[i] + "," + numberOfDays[i] + "," + discountPercents[i] + ",";
+            String expected;
+            if(toolCodes[i].equals("XXXX"))
+            {
+                expected = prefix + "ERROR: Tool code does not correspond to an existing tool.";
+            }
+            else
+            {
+                ToolRentalAgreement agreement = Checkout.createRentalAgreement(toolCodes[i], numberOfDays[i],
+                        discountPercents[i], checkoutDates[i]);
+                expected = prefix + agreement.getDueDate() + "," + agreement.getChargeDays() + ","
+                        + cents(agreement.getPreDiscountChargeCents()) + "," + cents(agreement.getDiscountAmountCents())
+                        + "," + cents(agreement.getFinalChargeCents());
+            }
+            assertEquals(expected, lines.get(i + 1));
+        }
+    }
+
+    /**
+     * Tests that a chunk which fails to price fails the run, rather than leaving the reader blocked on a full queue once
+     * the pricer has stopped taking chunks.
+     */
+    @Test(timeout = 60_000)
+    public void testPricingFailureStopsRun() throws IOException {
+        Path input = folder.newFile("failing.csv").toPath();
+        Path output = folder.getRoot().toPath().resolve("failing-priced.csv");
+        try(BufferedWriter writer = Files.newBufferedWriter(input))
+        {
+            // the due date is past the last date there is, so pricing the first chunk throws
+            writer.write("LADW,+999999999-12-01,100,0\n");
+            for(int i = 0; i < 10 * 4096; i++)
+            {
+                writer.write("LADW,2015-07-02,5,0\n");
+            }
+        }
+
+        IllegalStateException thrown = Assertions.assertThrows(IllegalStateException.class,
+                () -> new BulkPricer(1, new PrintStream(new ByteArrayOutputStream())).price(input, output));
+        assertEquals("Bulk pricing failed.", thrown.getMessage());
+        assertTrue(thrown.getCause() instanceof DateTimeException);
+    }
+
+    /**
+     * Tests that amounts are written as plain decimals.
+     */
+    @Test
+    public void testAppendCents() {
+        assertEquals("0.05", cents(5));
+        assertEquals("12.50", cents(1250));
+        assertEquals("-1.07", cents(-107));
+    }
+
+    private static String cents(long cents)
+    {
+        StringBuilder builder = new StringBuilder();
+        BulkPricer.appendCents(builder, cents);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,167 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that charge days looked up in a {@link ChargeDayTable} match counting them day by day for every rental in its
+ * horizon, and that tables survive a snapshot.
+ */
+public class ChargeDayTableTest {
+
+    private static final List<ToolChargeData> PROFILES = List.of(
+            new ToolChargeData(new int[] {1}, new long[] {100}, false, false),
+            new ToolChargeData(new int[] {1}, new long[] {100}, true, false),
+            new ToolChargeData(new int[] {1}, new long[] {100}, false, true),
+            new ToolChargeData(new int[] {1}, new long[] {100}, true, true));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests every checkout date and rental length up to 60 days within an eight-year horizon, for all four profiles.
+     */
+    @Test
+    public void testLookupsMatchReference() {
+        LocalDate firstDate = LocalDate.of(2014, 1, 1);
+        ChargeDayTable table = ChargeDayTable.build(HolidayCalendars.getDefault(), firstDate.toEpochDay(), 8 * 365);
+        for(long checkoutEpochDay = table.getFirstEpochDay(); checkoutEpochDay + 60 <= table.getLastEpochDay(); checkoutEpochDay++)
+        {
+            LocalDate checkoutDate = LocalDate.ofEpochDay(checkoutEpochDay);
+            for(int numberOfDays = 0; numberOfDays <= 60; numberOfDays++)
+            {
+                assertTrue(table.covers(checkoutEpochDay, checkoutEpochDay + numberOfDays));
+                for(ToolChargeData profile : PROFILES)
+                {
+                    assertEquals(checkoutDate + " for " + numberOfDays + " days",
+                            PricingReferenceModel.chargeDays(profile, checkoutDate, numberOfDays),
+                            table.calculateChargeDays(profile, checkoutEpochDay, checkoutEpochDay + numberOfDays, numberOfDays));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that rentals reaching outside the horizon are not covered, and are counted arithmetically instead.
+     */
+    @Test
+    public void testFallbackOutsideHorizon() {
+        HolidayCalendar calendar = new HolidayCalendar(List.of(new FixedDateHolidayRule(Month.JULY, 4)));
+        LocalDate firstDate = LocalDate.of(2020, 7, 1);
+        ChargeDayTable table = ChargeDayTable.build(calendar, firstDate.toEpochDay(), 10);
+        calendar.setChargeDayTable(table);
+        assertSame(table, calendar.getChargeDayTable());
+
+        assertTrue(table.covers(table.getFirstEpochDay(), table.getLastEpochDay()));
+        assertFalse(table.covers(table.getFirstEpochDay() - 1, table.getLastEpochDay()));
+        assertFalse(table.covers(table.getFirstEpochDay(), table.getLastEpochDay() + 1));
+
+        // from a Thursday, over the observed Friday holiday and a weekend, past the end of the horizon and within it
+        LocalDate checkoutDate = LocalDate.of(2020, 7, 2);
+        assertEquals(DayOfWeek.THURSDAY, checkoutDate.getDayOfWeek());
+        ToolChargeData profile = PROFILES.get(0);
+        assertEquals(PricingReferenceModel.chargeDays(profile, checkoutDate, 20),
+                ToolRentalController.calculateChargeDays(profile, checkoutDate.toEpochDay(),
+                        checkoutDate.toEpochDay() + 20, 20, calendar));
+        assertEquals(1, ToolRentalController.calculateChargeDays(profile, checkoutDate.toEpochDay(),
+                checkoutDate.toEpochDay() + 4, 4, calendar));
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> HolidayCalendars.getDefault().setChargeDayTable(table));
+        assertEquals("Charge day table is for a different holiday calendar.", thrown.getMessage());
+    }
+
+    /**
+     * Tests that a holiday a custom rule puts on a weekend is exempt once, both when it is looked up and when it is
+     * counted arithmetically, for every rental of up to 30 days in a year.
+     */
+    @Test
+    public void testWeekendHolidayExemptOnce() {
+        // the first Saturday and Sunday of July, and Independence Day, which is observed on a weekday
+        HolidayCalendar calendar = new HolidayCalendar(List.of(new NthWeekdayHolidayRule(Month.JULY, DayOfWeek.SATURDAY, 1),
+                new NthWeekdayHolidayRule(Month.JULY, DayOfWeek.SUNDAY, 1), new FixedDateHolidayRule(Month.JULY, 4)));
+        ChargeDayTable table = ChargeDayTable.build(calendar, LocalDate.of(2019, 1, 1).toEpochDay(), 3 * 365);
+        // a one-day table far from the rentals, so that they are counted arithmetically
+        calendar.setChargeDayTable(ChargeDayTable.build(calendar, LocalDate.of(2000, 1, 1).toEpochDay(), 1));
+
+        // from Wednesday 2020-07-01 through Monday 2020-07-06, over the observed Friday holiday and a weekend of holidays
+        ToolChargeData noHolidaysOrWeekends = PROFILES.get(0);
+        long checkoutEpochDay = LocalDate.of(2020, 7, 1).toEpochDay();
+        assertEquals(2, table.calculateChargeDays(noHolidaysOrWeekends, checkoutEpochDay, checkoutEpochDay + 5, 5));
+        assertEquals(2, ToolRentalController.calculateChargeDays(noHolidaysOrWeekends, checkoutEpochDay,
+                checkoutEpochDay + 5, 5, calendar));
+
+        for(long epochDay = LocalDate.of(2020, 1, 1).toEpochDay(); epochDay < LocalDate.of(2021, 1, 1).toEpochDay(); epochDay++)
+        {
+            for(int numberOfDays = 0; numberOfDays <= 30; numberOfDays++)
+            {
+                for(ToolChargeData profile : PROFILES)
+                {
+                    int chargeDays = ToolRentalController.calculateChargeDays(profile, epochDay, epochDay + numberOfDays,
+                            numberOfDays, calendar);
+                    assertEquals(LocalDate.ofEpochDay(epochDay) + " for " + numberOfDays + " days",
+                            table.calculateChargeDays(profile, epochDay, epochDay + numberOfDays, numberOfDays), chargeDays);
+                    if(numberOfDays > 0)
+                    {
+                        // and a one-day rental extended to the same length adds up to the same charge days
+                        assertEquals(chargeDays, ToolRentalController.calculateChargeDays(profile, epochDay, epochDay + 1,
+                                1, calendar) + ToolRentalController.calculateAdditionalChargeDays(profile, epochDay + 1,
+                                epochDay + numberOfDays, calendar));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that a table loaded from a snapshot gives the same lookups, and that a snapshot which is damaged or was written
+     * from different holiday rules is rejected.
+     */
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        HolidayCalendar calendar = HolidayCalendars.getDefault();
+        ChargeDayTable table = ChargeDayTable.build(calendar, LocalDate.of(2024, 1, 1).toEpochDay(), 3 * 366);
+        Path file = folder.getRoot().toPath().resolve("charge-days.bin");
+        table.write(file);
+        // 24 bytes of header, one bit a day and an 8 byte checksum
+        assertEquals(24 + (3 * 366 + 7) / 8 + 8, Files.size(file));
+
+        ChargeDayTable loaded = ChargeDayTable.read(file, calendar);
+        assertEquals(table.getFirstEpochDay(), loaded.getFirstEpochDay());
+        assertEquals(table.getLastEpochDay(), loaded.getLastEpochDay());
+        for(long epochDay = table.getFirstEpochDay(); epochDay + 30 <= table.getLastEpochDay(); epochDay++)
+        {
+            for(ToolChargeData profile : PROFILES)
+            {
+                assertEquals(table.calculateChargeDays(profile, epochDay, epochDay + 30, 30),
+                        loaded.calculateChargeDays(profile, epochDay, epochDay + 30, 30));
+            }
+        }
+
+        HolidayCalendar otherRules = new HolidayCalendar(List.of(new FixedDateHolidayRule(Month.JULY, 4)));
+        IOException mismatch = Assertions.assertThrows(IOException.class, () -> ChargeDayTable.read(file, otherRules));
+        assertEquals("Charge day table snapshot is for different holiday rules: " + file, mismatch.getMessage());
+        HolidayCalendar sameRules = new HolidayCalendar(List.of(new FixedDateHolidayRule(Month.JULY, 4),
+                new NthWeekdayHolidayRule(Month.SEPTEMBER, DayOfWeek.MONDAY, 1)));
+        assertEquals(table.getLastEpochDay(), ChargeDayTable.read(file, sameRules).getLastEpochDay());
+
+        byte[] contents = Files.readAllBytes(file);
+        contents[28] ^= 1;
+        Files.write(file, contents);
+        IOException thrown = Assertions.assertThrows(IOException.class, () -> ChargeDayTable.read(file, calendar));
+        assertEquals("Charge day table snapshot is corrupt: " + file, thrown.getMessage());
+    }
+}
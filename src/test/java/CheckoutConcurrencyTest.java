@@ -0,0 +1,76 @@
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link Checkout#createRentalAgreement(String, int, int, LocalDate)} produces the same agreements when called
+ * from many threads at once as it does when called from a single thread.
+ */
+public class CheckoutConcurrencyTest {
+
+    private static final String[] TOOL_CODES = {"CHNS", "LADW", "JAKD", "JAKR"};
+    private static final int NUMBER_OF_REQUESTS = 5_000;
+    private static final int ROUNDS_PER_THREAD = 4;
+
+    /**
+     * Prices a fixed set of random requests on one thread, then re-prices them concurrently on every available core and
+     * checks that every agreement's output is unchanged.
+     */
+    @Test
+    public void testConcurrentCheckoutsMatchSingleThreaded() throws Exception {
+        Random random = new Random(42L);
+        String[] toolCodes = new String[NUMBER_OF_REQUESTS];
+        int[] numberOfDays = new int[NUMBER_OF_REQUESTS];
+        int[] discountPercents = new int[NUMBER_OF_REQUESTS];
+        LocalDate[] checkoutDates = new LocalDate[NUMBER_OF_REQUESTS];
+        String[] expectedOutputs = new String[NUMBER_OF_REQUESTS];
+        for(int i = 0; i < NUMBER_OF_REQUESTS; i++)
+        {
+            toolCodes[i] = TOOL_CODES[random.nextInt(TOOL_CODES.length)];
+            numberOfDays[i] = 1 + random.nextInt(60);
+            discountPercents[i] = random.nextInt(101);
+            checkoutDates[i] = LocalDate.of(2000, 1, 1).plusDays(random.nextInt(30 * 365));
+            expectedOutputs[i] = Checkout.createRentalAgreement(toolCodes[i], numberOfDays[i], discountPercents[i],
+                    checkoutDates[i]).getOutput();
+        }
+
+        int numberOfThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < numberOfThreads; t++)
+            {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    for(int round = 0; round < ROUNDS_PER_THREAD; round++)
+                    {
+                        for(int n = 0; n < NUMBER_OF_REQUESTS; n++)
+                        {
+                            int i = (n + offset * 997) % NUMBER_OF_REQUESTS;
+                            String output = Checkout.createRentalAgreement(toolCodes[i], numberOfDays[i],
+                                    discountPercents[i], checkoutDates[i]).getOutput();
+                            assertEquals(expectedOutputs[i], output);
+                        }
+                    }
+                }));
+            }
+            for(Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link CheckoutService} answers quotes and checkouts over HTTP, reports bad requests, and shares the pricing
+ * of identical quotes in flight at once.
+ */
+public class CheckoutServiceTest {
+
+    private static CheckoutService service;
+    private static HttpClient client;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void startService() throws Exception {
+        service = new CheckoutService(new InetSocketAddress("localhost", 0), 64);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterClass
+    public static void stopService() {
+        service.close();
+    }
+
+    /**
+     * Tests that a quote is returned as the agreement's JSON.
+     */
+    @Test
+    public void testQuote() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("quote?tool=JAKR&days=9&discount=25&date=2015-07-02")));
+        assertEquals(200, response.statusCode());
+
+        StringBuilder expected = new StringBuilder();
+        AgreementRenderer.renderJson(Checkout.createRentalAgreement("JAKR", 9, 25, LocalDate.of(2015, 7, 2)), expected);
+        assertEquals(expected.toString(), response.body());
+    }
+
+    /**
+     * Tests that a checkout with a store reserves a unit there, and is refused once none are left.
+     */
+    @Test
+    public void testCheckoutReservesUnit() throws Exception {
+        ToolRepository.setAvailableUnits("LADW", "service-store", 1);
+        HttpRequest.Builder checkout = HttpRequest.newBuilder(uri("checkout"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("tool=LADW&days=3&discount=10&date=2020-07-02&store=service-store"));
+
+        assertEquals(200, send(checkout).statusCode());
+        assertEquals(0, ToolRepository.getAvailableUnits("LADW", "service-store"));
+
+        HttpResponse<String> refused = send(checkout);
+        assertEquals(409, refused.statusCode());
+        assertEquals("{\"error\":\"No units of the tool are available at the store.\"}", refused.body());
+    }
+
+    /**
+     * Tests that a checkout which cannot be recorded because the journal is closed is answered with 503, and returns the
+     * unit it reserved to the store.
+     */
+    @Test
+    public void testUnrecordedCheckoutReleasesUnit() throws Exception {
+        AgreementJournal journal = new AgreementJournal(folder.getRoot().toPath().resolve("service.journal"));
+        CheckoutService journaled = new CheckoutService(new InetSocketAddress("localhost", 0), 64, 2, journal);
+        try
+        {
+            ToolRepository.setAvailableUnits("LADW", "journaled-store", 1);
+            HttpRequest.Builder checkout = HttpRequest.newBuilder(URI.create("http://localhost:" + journaled.getPort()
+                            + "/checkout"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "tool=LADW&days=3&discount=10&date=2020-07-02&store=journaled-store"));
+            assertEquals(200, send(checkout).statusCode());
+            assertEquals(1, journal.size());
+            ToolRepository.setAvailableUnits("LADW", "journaled-store", 1);
+
+            journal.close();
+            HttpResponse<String> unavailable = send(checkout);
+            assertEquals(503, unavailable.statusCode());
+            assertEquals("{\"error\":\"Journal is closed.\"}", unavailable.body());
+            assertEquals(1, ToolRepository.getAvailableUnits("LADW", "journaled-store"));
+        }
+        finally
+        {
+            journaled.close();
+            journal.close();
+        }
+    }
+
+    /**
+     * Tests that invalid requests are answered with the error.
+     */
+    @Test
+    public void testBadRequests() throws Exception {
+        HttpResponse<String> excessiveDiscount = send(HttpRequest.newBuilder(uri("quote?tool=JAKR&days=5&discount=101&date=2015-09-03")));
+        assertEquals(400, excessiveDiscount.statusCode());
+        assertEquals("{\"error\":\"Discount percent must be between 0 and 100.\"}", excessiveDiscount.body());
+
+        HttpResponse<String> missingDate = send(HttpRequest.newBuilder(uri("quote?tool=JAKR&days=5&discount=10")));
+        assertEquals(400, missingDate.statusCode());
+        assertEquals("{\"error\":\"Missing parameter: date\"}", missingDate.body());
+
+        assertEquals(405, send(HttpRequest.newBuilder(uri("checkout?tool=JAKR&days=5&discount=10&date=2015-09-03"))).statusCode());
+    }
+
+    /**
+     * Tests that identical quotes wait for the one being priced, and that different quotes do not.
+     */
+    @Test
+    public void testQuoteCoalescing() throws Exception {
+        CheckoutService.QuoteCoalescer coalescer = new CheckoutService.QuoteCoalescer();
+        CountDownLatch pricing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger pricedCount = new AtomicInteger();
+        ToolRentalAgreement agreement = Checkout.createRentalAgreement("CHNS", 5, 25, LocalDate.of(2015, 7, 2));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            Future<ToolRentalAgreement> first = executor.submit(() -> coalescer.get(1, () -> {
+                pricedCount.incrementAndGet();
+                pricing.countDown();
+                awaitQuietly(release);
+                return agreement;
+            }));
+            assertTrue(pricing.await(5, TimeUnit.SECONDS));
+
+            Future<ToolRentalAgreement> second = executor.submit(() -> coalescer.get(1, () -> {
+                pricedCount.incrementAndGet();
+                return agreement;
+            }));
+            while(coalescer.getCoalescedCount() == 0)
+            {
+                Thread.sleep(1);
+            }
+            // a different quote is priced straight away
+            assertSame(agreement, coalescer.get(2, () -> agreement));
+
+            release.countDown();
+            assertSame(agreement, first.get(5, TimeUnit.SECONDS));
+            assertSame(agreement, second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, pricedCount.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that the load generator sends the requested number of quotes and they all succeed.
+     */
+    @Test
+    public void testLoadGenerator() throws Exception {
+        LoadGenerator.Result result = new LoadGenerator(uri(""), 1).run(100, Duration.ofSeconds(1));
+        assertEquals(100, result.getRequestCount());
+        assertEquals(100, result.getSucceededCount());
+        assertTrue(result.getLatencyNanos(50) <= result.getLatencyNanos(99));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static URI uri(String pathAndQuery)
+    {
+        return URI.create("http://localhost:" + service.getPort() + "/" + pathAndQuery);
+    }
+
+    private static HttpResponse<String> send(HttpRequest.Builder request) throws Exception
+    {
+        return client.send(request.timeout(Duration.ofSeconds(10)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
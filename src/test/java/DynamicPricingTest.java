@@ -0,0 +1,196 @@
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link DynamicPricing} counts demand in sliding windows, publishes rates within the policy's bounds which
+ * checkout then charges, and that {@link PricingSimulator} replays history under a policy.
+ */
+public class DynamicPricingTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    /**
+     * Tests that the window counts concurrent checkouts exactly, and forgets buckets as they slide out of it.
+     */
+    @Test
+    public void testDemandWindowSlides() throws Exception {
+        DemandWindow window = new DemandWindow(HOUR, 24);
+        long start = 1_000 * HOUR;
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        List<Future<?>> results = new ArrayList<>();
+        for(int thread = 0; thread < 4; thread++)
+        {
+            results.add(threads.submit(() -> {
+                for(int i = 0; i < 10_000; i++)
+                {
+                    window.record(start + i % 3 * HOUR, 2);
+                }
+            }));
+        }
+        for(Future<?> result : results)
+        {
+            result.get();
+        }
+        threads.shutdown();
+        assertEquals(40_000, window.getCheckouts(start + 2 * HOUR));
+        assertEquals(80_000, window.getUnitDays(start + 2 * HOUR));
+        // the first hour's checkouts are counted until it is 24 hours old
+        assertEquals(40_000, window.getCheckouts(start + 23 * HOUR));
+        assertEquals(40_000 - 13_336, window.getCheckouts(start + 24 * HOUR));
+        assertEquals(0, window.getCheckouts(start + 26 * HOUR));
+
+        // a slot reused by a later bucket starts over
+        window.record(start + 24 * HOUR, 5);
+        assertEquals(1, window.getCheckouts(start + 24 * HOUR + HOUR / 2) - (40_000 - 13_336));
+        assertEquals(1, window.getCheckouts(start + 26 * HOUR));
+        assertEquals(5, window.getUnitDays(start + 26 * HOUR));
+    }
+
+    /**
+     * Tests that checkouts at the current time are counted in one-minute buckets, whose numbers are far past the range of
+     * the stamps kept in each slot.
+     */
+    @Test
+    public void testDemandWindowCountsCurrentTime() {
+        long minute = 60_000L;
+        DemandWindow window = new DemandWindow(minute, 60);
+        long now = 1_792_000_000_000L;
+        for(int i = 0; i < 120; i++)
+        {
+            window.record(now + i * minute, 3);
+        }
+        assertEquals(60, window.getCheckouts(now + 119 * minute));
+        assertEquals(180, window.getUnitDays(now + 119 * minute));
+        assertEquals(1, window.getCheckouts(now + 178 * minute));
+        assertEquals(0, window.getCheckouts(now + 179 * minute));
+    }
+
+    /**
+     * Tests that a busy store's rates rise and a quiet store's fall, a step at a time and within bounds, and that
+     * checkouts at the store and elsewhere are charged the published rates.
+     */
+    @Test
+    public void testPublishedRatesFollowDemand() {
+        Properties properties = new Properties();
+        properties.setProperty("publishSeconds", "3600");
+        properties.setProperty("maxStepPercent", "10");
+        properties.setProperty("targetUnitDays", "10");
+        properties.setProperty("sensitivityPercent", "100");
+        properties.setProperty("LADDER.maxPercent", "120");
+        DynamicPricingPolicy policy = DynamicPricingPolicy.parse(properties);
+        LocalDate date = LocalDate.of(2020, 7, 2);
+        ToolRepository.setAvailableUnits("LADW", "dynamicBusy", 100);
+        ToolRepository.setAvailableUnits("LADW", "dynamicQuiet", 100);
+        long listCents = Checkout.createRentalAgreement("LADW", 5, 0, date).getDailyRentalChargeCents();
+
+        DynamicPricing.start(policy);
+        try
+        {
+            assertTrue(DynamicPricing.isRunning());
+            // 40 unit-days against a target of 10 would be 400%, which is capped at 120% by 10% steps
+            for(int i = 0; i < 8; i++)
+            {
+                Checkout.createRentalAgreement("LADW", 5, 0, date, "dynamicBusy");
+            }
+            Checkout.createRentalAgreement("LADW", 1, 0, date, "dynamicQuiet");
+            long version = PricingChanges.currentVersion();
+            DynamicPricing.publish();
+            assertTrue(PricingChanges.currentVersion() > version);
+            DynamicPrices prices = DynamicPrices.current();
+            assertEquals(110, prices.getRatePercent("dynamicBusy", ToolType.LADDER));
+            assertEquals(90, prices.getRatePercent("dynamicQuiet", ToolType.LADDER));
+            assertEquals(100, prices.getRatePercent(null, ToolType.LADDER));
+            assertEquals(90, prices.getRatePercent("dynamicBusy", ToolType.CHAINSAW));
+
+            DynamicPricing.publish();
+            DynamicPricing.publish();
+            prices = DynamicPrices.current();
+            assertEquals(120, prices.getRatePercent("dynamicBusy", ToolType.LADDER));
+            assertEquals(80, prices.getRatePercent("dynamicQuiet", ToolType.LADDER));
+            assertEquals(80, prices.getRatePercent("dynamicBusy", ToolType.CHAINSAW));
+
+            ToolRentalAgreement busy = Checkout.createRentalAgreement("LADW", 5, 0, date, "dynamicBusy");
+            assertEquals((listCents * 120 + 50) / 100, busy.getDailyRentalChargeCents());
+            assertEquals(busy.getChargeDays() * busy.getDailyRentalChargeCents(), busy.getPreDiscountChargeCents());
+            assertEquals(listCents, Checkout.createRentalAgreement("LADW", 5, 0, date).getDailyRentalChargeCents());
+
+            QuoteBatch batch = new QuoteBatch(new int[] {ToolRepository.getToolId("LADW")},
+                    new long[] {date.toEpochDay()}, new int[] {5}, new int[] {0});
+            BatchCheckout.price(batch);
+            assertEquals(Checkout.createRentalAgreement("LADW", 5, 0, date).getFinalChargeCents(),
+                    batch.getFinalChargeCents()[0]);
+        }
+        finally
+        {
+            DynamicPricing.stop();
+        }
+        assertFalse(DynamicPricing.isRunning());
+        assertSame(DynamicPrices.LIST, DynamicPrices.current());
+        assertEquals(listCents, Checkout.createRentalAgreement("LADW", 5, 0, date, "dynamicBusy")
+                .getDailyRentalChargeCents());
+
+        properties.setProperty("LADDER.minPercent", "101");
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> DynamicPricingPolicy.parse(properties));
+        assertEquals("Dynamic pricing bounds must include 100 and be between 1 and 1000: LADDER", thrown.getMessage());
+        properties.remove("LADDER.minPercent");
+        properties.setProperty("bucketMinutes", "7");
+        thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> DynamicPricingPolicy.parse(properties));
+        assertEquals("Dynamic pricing window must be a whole number of buckets, at most 10000.", thrown.getMessage());
+    }
+
+    /**
+     * Tests that replaying history at list rates earns the recorded revenue, and that a policy for higher demand than
+     * recorded earns less and one for lower demand earns more.
+     */
+    @Test
+    public void testSimulatorReplaysHistory() {
+        Random random = new Random(23);
+        String[] toolCodes = {"CHNS", "LADW", "JAKD", "JAKR"};
+        LocalDate start = LocalDate.of(2022, 1, 1);
+        List<ToolRentalAgreement> history = new ArrayList<>();
+        for(int i = 0; i < 20_000; i++)
+        {
+            history.add(Checkout.createRentalAgreement(toolCodes[random.nextInt(toolCodes.length)],
+                    1 + random.nextInt(10), random.nextInt(5) == 0 ? 10 : 0, start.plusDays(random.nextInt(365))));
+        }
+        PricingSimulator simulator = PricingSimulator.of(history);
+        assertEquals(20_000, simulator.size());
+        long recordedRevenue = history.stream().mapToLong(ToolRentalAgreement::getFinalChargeCents).sum();
+
+        Properties properties = new Properties();
+        properties.setProperty("sensitivityPercent", "0");
+        PricingSimulator.Result list = simulator.simulate(DynamicPricingPolicy.parse(properties));
+        assertEquals(recordedRevenue, list.getListRevenueCents());
+        assertEquals(recordedRevenue, list.getRevenueCents());
+        assertEquals(100, list.getAverageRatePercent(), 0);
+        // a publish a minute for a year
+        assertTrue(list.getPublishCount() > 500_000);
+
+        // about 55 rentals of 5.5 days a day make 75 to 150 unit-days a window for each tool type
+        properties.setProperty("sensitivityPercent", "50");
+        properties.setProperty("targetUnitDays", "5000");
+        PricingSimulator.Result lowered = simulator.simulate(DynamicPricingPolicy.parse(properties));
+        assertTrue(lowered.getRevenueCents() < recordedRevenue);
+        assertTrue(lowered.getAverageRatePercent() < 85);
+        properties.setProperty("targetUnitDays", "10");
+        PricingSimulator.Result raised = simulator.simulate(DynamicPricingPolicy.parse(properties));
+        assertTrue(raised.getRevenueCents() > recordedRevenue);
+        assertTrue(raised.getRevenueCents(ToolType.LADDER) > raised.getListRevenueCents(ToolType.LADDER));
+        assertTrue(raised.getAverageRatePercent() > 140);
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link FleetCalendar} finds exactly the units which are free, and never books a unit twice over the same
+ * days, including when bookings race each other.
+ */
+public class FleetCalendarTest {
+
+    private static final LocalDate july = LocalDate.of(2020, 7, 1);
+
+    /**
+     * Tests that a booking occupies its checkout date through its due date, and frees them when cancelled.
+     */
+    @Test
+    public void testBookAndCancel() {
+        FleetCalendar fleet = new FleetCalendar();
+        int unit = fleet.addUnit("LADW");
+
+        assertTrue(fleet.tryBook(unit, july.plusDays(10), 3));
+        // days 10 through 13 are taken
+        assertFalse(fleet.tryBook(unit, july.plusDays(13), 2));
+        assertFalse(fleet.tryBook(unit, july.plusDays(7), 3));
+        assertFalse(fleet.tryBook(unit, july.plusDays(11), 1));
+        assertTrue(fleet.tryBook(unit, july.plusDays(14), 2));
+        assertTrue(fleet.tryBook(unit, july.plusDays(6), 3));
+
+        assertArrayEquals(new int[0], fleet.findFreeUnits(ToolType.LADDER, july.plusDays(12), 1));
+        assertFalse(fleet.cancel(unit, july.plusDays(11)));
+        assertTrue(fleet.cancel(unit, july.plusDays(10)));
+        assertArrayEquals(new int[] {unit}, fleet.findFreeUnits(ToolType.LADDER, july.plusDays(10), 3));
+        assertTrue(fleet.isBooked(unit, july.plusDays(10), 4));
+    }
+
+    /**
+     * Tests that the free units found for random periods match checking every unit's bookings, across several blocks.
+     */
+    @Test
+    public void testFindFreeUnitsMatchesBookings() {
+        Random random = new Random(5);
+        FleetCalendar fleet = new FleetCalendar();
+        int[] units = new int[10_000];
+        for(int i = 0; i < units.length; i++)
+        {
+            units[i] = fleet.addUnit(i % 3 == 0 ? "JAKR" : "LADW");
+        }
+        for(int i = 0; i < 60_000; i++)
+        {
+            fleet.tryBook(units[random.nextInt(units.length)], july.plusDays(random.nextInt(365)), 1 + random.nextInt(14));
+        }
+        fleet.retireUnit(units[1]);
+
+        for(int query = 0; query < 50; query++)
+        {
+            LocalDate checkoutDate = july.plusDays(random.nextInt(365));
+            int numberOfDays = 1 + random.nextInt(10);
+            List<Integer> expected = new ArrayList<>();
+            for(int unit : units)
+            {
+                if(!fleet.getToolCode(unit).equals("LADW") || unit == units[1])
+                {
+                    continue;
+                }
+                if(!fleet.isBooked(unit, checkoutDate, numberOfDays))
+                {
+                    expected.add(unit);
+                }
+            }
+            int[] free = fleet.findFreeUnits(ToolType.LADDER, checkoutDate, numberOfDays);
+            assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), free);
+        }
+    }
+
+    /**
+     * Tests that many threads booking the same few units for overlapping periods never double book a day.
+     */
+    @Test
+    public void testConcurrentBookingsNeverOverlap() throws Exception {
+        FleetCalendar fleet = new FleetCalendar();
+        int[] units = {fleet.addUnit("CHNS"), fleet.addUnit("CHNS")};
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<int[]>> results = new ArrayList<>();
+            for(int t = 0; t < threads; t++)
+            {
+                final int seed = t;
+                results.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    // counts the days each unit was booked by this thread
+                    int[] bookedDays = new int[units.length * 100];
+                    for(int i = 0; i < 2_000; i++)
+                    {
+                        int day = random.nextInt(90);
+                        int numberOfDays = 1 + random.nextInt(5);
+                        int unit = fleet.bookAnyFreeUnit("CHNS", july.plusDays(day), numberOfDays);
+                        if(unit >= 0)
+                        {
+                            for(int d = day; d <= day + numberOfDays; d++)
+                            {
+                                bookedDays[unit * 100 + d]++;
+                            }
+                        }
+                    }
+                    return bookedDays;
+                }));
+            }
+
+            int[] total = new int[units.length * 100];
+            for(Future<int[]> result : results)
+            {
+                int[] bookedDays = result.get(30, TimeUnit.SECONDS);
+                for(int i = 0; i < total.length; i++)
+                {
+                    total[i] += bookedDays[i];
+                }
+            }
+            for(int count : total)
+            {
+                assertTrue(count <= 1);
+            }
+            for(int unit : units)
+            {
+                for(int d = 0; d < 95; d++)
+                {
+                    boolean free = total[unit * 100 + d] == 0 && total[unit * 100 + d + 1] == 0;
+                    assertEquals(!free, fleet.isBooked(unit, july.plusDays(d), 1));
+                    assertEquals(free,
+                            Arrays.stream(fleet.findFreeUnits(ToolType.CHAINSAW, july.plusDays(d), 1)).anyMatch(u -> u == unit));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that checking out a unit books it, that the same unit cannot be checked out again over the same days, and that
+     * a checkout which is not booked is counted as a failure rather than a checkout.
+     */
+    @Test
+    public void testCheckoutBooksUnit() {
+        FleetCalendar fleet = new FleetCalendar();
+        int unit = fleet.addUnit("JAKD");
+
+        ToolRentalAgreement agreement = Checkout.createRentalAgreement("JAKD", 6, 0, july, fleet, unit);
+        assertEquals(Checkout.createRentalAgreement("JAKD", 6, 0, july).getOutput(), agreement.getOutput());
+        assertTrue(fleet.isBooked(unit, july, 6));
+
+        PricingMetrics.setEnabled(true);
+        try
+        {
+            long checkouts = PricingMetrics.getCheckoutCount(ToolType.JACKHAMMER);
+            long failures = PricingMetrics.getFailureCount(PricingMetrics.Failure.NO_UNITS_AVAILABLE);
+            IllegalStateException thrown = Assertions.assertThrows(IllegalStateException.class,
+                    () -> Checkout.createRentalAgreement("JAKD", 2, 0, july.plusDays(3), fleet, unit));
+            assertEquals("The unit is already rented during the rental period.", thrown.getMessage());
+            assertEquals(checkouts, PricingMetrics.getCheckoutCount(ToolType.JACKHAMMER));
+            assertEquals(failures + 1, PricingMetrics.getFailureCount(PricingMetrics.Failure.NO_UNITS_AVAILABLE));
+        }
+        finally
+        {
+            PricingMetrics.setEnabled(false);
+            PricingMetrics.reset();
+        }
+
+        // a rental which cannot be priced leaves the unit free
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createRentalAgreement("JAKD", 2, 101, july.plusDays(30), fleet, unit));
+        assertFalse(fleet.isBooked(unit, july.plusDays(30), 2));
+
+        IllegalArgumentException wrongTool = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createRentalAgreement("JAKR", 2, 0, july.plusDays(30), fleet, unit));
+        assertEquals("Unit is not a unit of the tool.", wrongTool.getMessage());
+    }
+}
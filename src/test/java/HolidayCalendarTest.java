@@ -0,0 +1,92 @@
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link HolidayCalendar} counts observed holidays correctly, including across year boundaries and when its
+ * cached index has to be rebuilt.
+ */
+public class HolidayCalendarTest {
+
+    private static final HolidayCalendar calendar = HolidayCalendars.getDefault();
+
+    /**
+     * Tests that the holidays of both years are counted when a rental period crosses a year boundary.
+     */
+    @Test
+    public void testRentalSpanningNewYear() {
+        long rentalDate = LocalDate.of(2019, 12, 1).toEpochDay();
+        long dueDate = LocalDate.of(2020, 9, 7).toEpochDay();
+
+        // July 3rd 2020 (observed Independence Day) and September 7th 2020 (Labor Day)
+        assertEquals(2, calendar.countHolidays(rentalDate, dueDate));
+        assertEquals(1, calendar.countHolidays(rentalDate, dueDate - 1));
+    }
+
+    /**
+     * Tests that a holiday on the checkout date is not counted, but a holiday on the due date is.
+     */
+    @Test
+    public void testHolidayOnRentalAndDueDates() {
+        long laborDay = LocalDate.of(2015, 9, 7).toEpochDay();
+
+        assertEquals(0, calendar.countHolidays(laborDay, laborDay + 10));
+        assertEquals(1, calendar.countHolidays(laborDay - 10, laborDay));
+        assertEquals(0, calendar.countHolidays(laborDay, laborDay));
+    }
+
+    /**
+     * Tests that a holiday observed in the previous year, such as a New Year's Day falling on a Saturday, is counted even
+     * when only a small number of years can be cached and the index keeps being rebuilt.
+     */
+    @Test
+    public void testObservedAcrossYearBoundaryWithSmallCache() {
+        HolidayCalendar newYearCalendar = new HolidayCalendar(List.of(new FixedDateHolidayRule(Month.JANUARY, 1)), 3);
+        Random random = new Random(2022L);
+        for(int i = 0; i < 10_000; i++)
+        {
+            LocalDate rentalDate = LocalDate.of(1950, 1, 1).plusDays(random.nextInt(100 * 365));
+            LocalDate dueDate = rentalDate.plusDays(random.nextInt(3 * 365));
+
+            int expected = 0;
+            for(int year = rentalDate.getYear() - 1; year <= dueDate.getYear() + 1; year++)
+            {
+                long observed = new FixedDateHolidayRule(Month.JANUARY, 1).observedEpochDay(year);
+                if(observed > rentalDate.toEpochDay() && observed <= dueDate.toEpochDay())
+                {
+                    expected++;
+                }
+            }
+            assertEquals("Holidays from " + rentalDate + " to " + dueDate, expected,
+                    newYearCalendar.countHolidays(rentalDate.toEpochDay(), dueDate.toEpochDay()));
+        }
+    }
+
+    /**
+     * Tests that a region with its own calendar uses it, and other regions fall back to the default calendar.
+     */
+    @Test
+    public void testRegionalCalendar() {
+        HolidayCalendar thanksgivingOnly = new HolidayCalendar(
+                List.of(new NthWeekdayHolidayRule(Month.NOVEMBER, DayOfWeek.THURSDAY, 4)));
+        HolidayCalendars.register("TEST-REGION", thanksgivingOnly);
+        try
+        {
+            long rentalDate = LocalDate.of(2015, 1, 1).toEpochDay();
+            long dueDate = LocalDate.of(2015, 12, 31).toEpochDay();
+
+            assertEquals(1, HolidayCalendars.forRegion("TEST-REGION").countHolidays(rentalDate, dueDate));
+            assertEquals(2, HolidayCalendars.forRegion("OTHER-REGION").countHolidays(rentalDate, dueDate));
+        }
+        finally
+        {
+            HolidayCalendars.unregister("TEST-REGION");
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests pricing rentals in other currencies with {@link CurrencyRates}, and that agreements rendered for a locale match
+ * formatting their dates and amounts with the JDK's formats for that locale.
+ */
+public class LocalizedPricingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Currency USD = Currency.getInstance("USD");
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    /**
+     * Tests that conversions round to the nearest minor unit of the other currency, with halves away from zero.
+     */
+    @Test
+    public void testConversionRounding() {
+        Properties properties = new Properties();
+        properties.setProperty("base", "USD");
+        properties.setProperty("EUR", "0.925");
+        properties.setProperty("JPY", "149.5");
+        properties.setProperty("BHD", "0.376");
+        CurrencyRates rates = CurrencyRates.parse(properties);
+
+        assertSame(USD, rates.getBaseCurrency());
+        assertEquals(Set.of(USD, EUR, JPY, Currency.getInstance("BHD")), rates.getCurrencies());
+        assertEquals(199, rates.convert(199, USD));
+        // 1.99 * 0.925 = 1.84075
+        assertEquals(184, rates.convert(199, EUR));
+        // 0.02 * 0.925 = 0.0185
+        assertEquals(2, rates.convert(2, EUR));
+        assertEquals(-2, rates.convert(-2, EUR));
+        // 1.99 * 149.5 = 297.505 yen, which have no minor unit
+        assertEquals(298, rates.convert(199, JPY));
+        // 1.99 * 0.376 = 0.74824 dinars, in thousandths
+        assertEquals(748, rates.convert(199, Currency.getInstance("BHD")));
+        // too large to convert in a long without overflowing
+        long large = Long.MAX_VALUE / 1000;
+        assertEquals(new BigDecimal(large).multiply(new BigDecimal("1.495")).setScale(0, RoundingMode.HALF_UP).longValueExact(),
+                rates.convert(large, JPY));
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> rates.convert(100, Currency.getInstance("GBP")));
+        assertEquals("No exchange rate is known for GBP.", thrown.getMessage());
+
+        properties.setProperty("XXX", "1");
+        thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> CurrencyRates.parse(properties));
+        assertEquals("Currency has no minor unit: XXX", thrown.getMessage());
+        properties.remove("XXX");
+        properties.setProperty("EUR", "-1");
+        thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> CurrencyRates.parse(properties));
+        assertEquals("Exchange rate must be positive: EUR=-1", thrown.getMessage());
+    }
+
+    /**
+     * Tests that a watched rates file puts changed rates into effect, and that a reload changing the base currency is
+     * reported and leaves the rates unchanged.
+     */
+    @Test
+    public void testWatchedRatesReload() throws Exception {
+        CurrencyRates original = CurrencyRates.current();
+        Path ratesFile = folder.newFile("currency-rates.properties").toPath();
+        Files.writeString(ratesFile, "base=USD\nEUR=0.5\n");
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        try(PricingRulesWatcher watcher = new PricingRulesWatcher(new PrintStream(errors, true)))
+        {
+            watcher.watch(ratesFile, CurrencyRates::reload);
+            assertEquals(50, CurrencyRates.current().convert(100, EUR));
+
+            Files.writeString(ratesFile, "base=USD\nEUR=0.8\n");
+            awaitTrue(() -> CurrencyRates.current().supports(EUR) && CurrencyRates.current().convert(100, EUR) == 80);
+
+            Files.writeString(ratesFile, "base=EUR\nUSD=1.25\n");
+            awaitTrue(() -> errors.toString().contains("was not reloaded: Base currency cannot be changed from USD to EUR."));
+            assertSame(USD, CurrencyRates.current().getBaseCurrency());
+            assertEquals(80, CurrencyRates.current().convert(100, EUR));
+        }
+        finally
+        {
+            CurrencyRates.install(original);
+        }
+    }
+
+    /**
+     * Tests that a rental priced in another currency converts the daily charge, and calculates the other amounts from it.
+     */
+    @Test
+    public void testCheckoutInCurrency() {
+        LocalDate checkoutDate = LocalDate.of(2020, 7, 2);
+        ToolRentalAgreement base = Checkout.createRentalAgreement("JAKR", 9, 25, checkoutDate);
+        ToolRentalAgreement yen = Checkout.createRentalAgreement("JAKR", 9, 25, checkoutDate,
+                HolidayCalendars.getDefault(), JPY);
+        CurrencyRates rates = CurrencyRates.current();
+
+        assertSame(rates.getBaseCurrency(), base.getCurrency());
+        assertSame(JPY, yen.getCurrency());
+        assertEquals(base.getChargeDays(), yen.getChargeDays());
+        assertEquals(rates.convert(base.getDailyRentalChargeCents(), JPY), yen.getDailyRentalChargeCents());
+        assertEquals(yen.getChargeDays() * yen.getDailyRentalChargeCents(), yen.getPreDiscountChargeCents());
+        assertEquals(Checkout.calculateDiscountCents(yen.getPreDiscountChargeCents(), 25), yen.getDiscountAmountCents());
+        assertEquals(yen.getPreDiscountChargeCents() - yen.getDiscountAmountCents(), yen.getFinalChargeCents());
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        AgreementRenderer.renderBinary(yen, buffer);
+        buffer.flip();
+        ToolRentalAgreement read = AgreementRenderer.readBinary(buffer);
+        assertSame(JPY, read.getCurrency());
+        assertEquals(yen.getOutput(Locale.JAPAN), read.getOutput(Locale.JAPAN));
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createRentalAgreement("JAKR", 9, 25, checkoutDate, HolidayCalendars.getDefault(),
+                        Currency.getInstance("XAU")));
+        assertEquals("No exchange rate is known for the currency.", thrown.getMessage());
+    }
+
+    /**
+     * Tests that a store with a locale prices its rentals in the locale's currency.
+     */
+    @Test
+    public void testStoreCurrency() {
+        StoreLocales.register("TORONTO", Locale.CANADA_FRENCH);
+        try
+        {
+            assertEquals(Currency.getInstance("CAD"), StoreLocales.getCurrency("TORONTO"));
+            assertEquals(Locale.CANADA_FRENCH, StoreLocales.forStore("TORONTO"));
+            assertSame(CurrencyRates.current().getBaseCurrency(), StoreLocales.getCurrency("NOWHERE"));
+
+            IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> StoreLocales.register("PARIS", Locale.FRENCH));
+            assertEquals("Store locale must have a country.", thrown.getMessage());
+        }
+        finally
+        {
+            StoreLocales.unregister("TORONTO");
+        }
+    }
+
+    /**
+     * Tests that random agreements in several currencies render for every available locale the same as the locale's
+     * short date format and currency format would.
+     */
+    @Test
+    public void testLocalizedTextMatchesFormatters() {
+        Random random = new Random(19);
+        Currency[] currencies = {USD, EUR, JPY, Currency.getInstance("BHD")};
+        for(Locale locale : Locale.getAvailableLocales())
+        {
+            // extensions such as another calendar are outside the short date format of the ISO calendar
+            if(locale.hasExtensions())
+            {
+                continue;
+            }
+            DateTimeFormatter dateFormatter = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT).withLocale(locale);
+            for(Currency currency : currencies)
+            {
+                NumberFormat currencyFormatter = NumberFormat.getCurrencyInstance(locale);
+                currencyFormatter.setCurrency(currency);
+                for(int i = 0; i < 4; i++)
+                {
+                    ToolRentalAgreement agreement = randomAgreement(random, currency);
+                    assertEquals(locale + " " + currency, referenceText(agreement, dateFormatter, currencyFormatter),
+                            agreement.getOutput(locale));
+                }
+            }
+        }
+    }
+
+    private static ToolRentalAgreement randomAgreement(Random random, Currency currency)
+    {
+        long checkoutEpochDay = random.nextInt(3) == 0 ? random.nextInt(2_000_000) - 1_000_000 : 16000 + random.nextInt(20000);
+        int numberOfDays = 1 + random.nextInt(400);
+        return new ToolRentalAgreement("LADW", ToolType.LADDER, "Werner", numberOfDays, checkoutEpochDay,
+                checkoutEpochDay + numberOfDays, random.nextInt(100_000), random.nextInt(numberOfDays + 1),
+                random.nextLong() / 100, random.nextInt(101), -random.nextInt(1_000_000), random.nextInt(100_000_000),
+                currency);
+    }
+
+    private static String referenceText(ToolRentalAgreement agreement, DateTimeFormatter dateFormatter,
+                                        NumberFormat currencyFormatter)
+    {
+        int digits = agreement.getCurrency().getDefaultFractionDigits();
+        return "Tool code: " + agreement.getCode() + "\n"
+                + "Tool type: " + agreement.getType().getValue() + "\n"
+                + "Tool brand: " + agreement.getBrand() + "\n"
+                + "Rental days: " + agreement.getNumberOfDays() + "\n"
+                + "Checkout date: " + dateFormatter.format(agreement.getCheckoutDate()) + "\n"
+                + "Due date: " + dateFormatter.format(agreement.getDueDate()) + "\n"
+                + "Daily rental charge: " + currencyFormatter.format(BigDecimal.valueOf(agreement.getDailyRentalChargeCents(), digits)) + "\n"
+                + "Charge days: " + agreement.getChargeDays() + "\n"
+                + "Pre-discount charge: " + currencyFormatter.format(BigDecimal.valueOf(agreement.getPreDiscountChargeCents(), digits)) + "\n"
+                + "Discount percent: " + agreement.getDiscountPercent() + "%\n"
+                + "Discount amount: " + currencyFormatter.format(BigDecimal.valueOf(agreement.getDiscountAmountCents(), digits)) + "\n"
+                + "Final charge: " + currencyFormatter.format(BigDecimal.valueOf(agreement.getFinalChargeCents(), digits));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(!condition.getAsBoolean())
+        {
+            assertTrue("Timed out waiting for the watcher", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that extensions and late returns priced incrementally by {@link OpenRentals} match pricing the whole lengthened
+ * rental from scratch, and that late days accrue the same however the sweeps are scheduled.
+ */
+public class OpenRentalsTest {
+
+    private static final String[] toolCodes = {"CHNS", "LADW", "JAKD", "JAKR"};
+    private static final LocalDate start = LocalDate.of(2015, 6, 1);
+
+    /**
+     * Tests that the charge days of a rental plus those added by lengthening it always equal the charge days of the whole
+     * lengthened rental.
+     */
+    @Test
+    public void testAdditionalChargeDaysAddUp() {
+        HolidayCalendar holidayCalendar = HolidayCalendars.getDefault();
+        Random random = new Random(15);
+        for(int i = 0; i < 10_000; i++)
+        {
+            ToolChargeData chargeData = ToolRepository.getTool(toolCodes[random.nextInt(toolCodes.length)]).getChargeData();
+            long checkoutEpochDay = start.toEpochDay() + random.nextInt(3650);
+            int numberOfDays = 1 + random.nextInt(30);
+            int additionalDays = random.nextInt(30);
+            long dueEpochDay = checkoutEpochDay + numberOfDays;
+
+            int whole = ToolRentalController.calculateChargeDays(chargeData, checkoutEpochDay, dueEpochDay + additionalDays,
+                    numberOfDays + additionalDays, holidayCalendar);
+            int original = ToolRentalController.calculateChargeDays(chargeData, checkoutEpochDay, dueEpochDay, numberOfDays,
+                    holidayCalendar);
+            assertEquals(whole, original + ToolRentalController.calculateAdditionalChargeDays(chargeData, dueEpochDay,
+                    dueEpochDay + additionalDays, holidayCalendar));
+        }
+    }
+
+    /**
+     * Tests that an extended agreement matches a fresh checkout for the longer period, other than keeping the daily rate
+     * agreed at checkout.
+     */
+    @Test
+    public void testExtendMatchesFreshCheckout() {
+        OpenRentals rentals = new OpenRentals(HolidayCalendars.getDefault(), 0);
+        LocalDate checkoutDate = LocalDate.of(2020, 7, 2);
+        int rental = rentals.open(Checkout.createRentalAgreement("LADW", 3, 10, checkoutDate));
+
+        rentals.extend(rental, 2, checkoutDate);
+        ToolRentalAgreement extended = rentals.extend(rental, 4, checkoutDate.plusDays(5));
+        ToolRentalAgreement fresh = Checkout.createRentalAgreement("LADW", 9, 10, checkoutDate);
+        assertEquals(fresh.getDueDate(), extended.getDueDate());
+        assertEquals(fresh.getChargeDays(), extended.getChargeDays());
+        assertEquals(fresh.getDailyRentalChargeCents(), extended.getDailyRentalChargeCents());
+        assertEquals(fresh.getFinalChargeCents(), extended.getFinalChargeCents());
+        assertEquals(fresh.getOutput(), extended.getOutput());
+        assertEquals(extended, rentals.getAgreement(rental));
+    }
+
+    /**
+     * Tests that a rental priced in another currency is extended in that currency.
+     */
+    @Test
+    public void testExtendKeepsCurrency() {
+        OpenRentals rentals = new OpenRentals(HolidayCalendars.getDefault(), 0);
+        LocalDate checkoutDate = LocalDate.of(2020, 7, 2);
+        Currency yen = Currency.getInstance("JPY");
+        int rental = rentals.open(Checkout.createRentalAgreement("LADW", 3, 10, checkoutDate,
+                HolidayCalendars.getDefault(), yen));
+
+        ToolRentalAgreement extended = rentals.extend(rental, 2, checkoutDate);
+        ToolRentalAgreement fresh = Checkout.createRentalAgreement("LADW", 5, 10, checkoutDate,
+                HolidayCalendars.getDefault(), yen);
+        assertSame(yen, extended.getCurrency());
+        assertEquals(fresh.getDailyRentalChargeCents(), extended.getDailyRentalChargeCents());
+        assertEquals(fresh.getFinalChargeCents(), extended.getFinalChargeCents());
+        assertEquals(fresh.getOutput(Locale.JAPAN), extended.getOutput(Locale.JAPAN));
+    }
+
+    /**
+     * Tests that a late return pays the surcharged daily rate for each chargeable late day, and that a returned or
+     * overdue rental cannot be extended.
+     */
+    @Test
+    public void testLateReturn() {
+        OpenRentals rentals = new OpenRentals(HolidayCalendars.getDefault(), 50);
+        // due Friday 2020-07-03, the observed Independence Day, then returned on Tuesday 2020-07-07
+        int rental = rentals.open(Checkout.createRentalAgreement("CHNS", 2, 0, LocalDate.of(2020, 7, 1)));
+        // overdue from the day after its due date, before any sweep has accrued its late days
+        IllegalStateException overdue = Assertions.assertThrows(IllegalStateException.class,
+                () -> rentals.extend(rental, 1, LocalDate.of(2020, 7, 4)));
+        assertEquals("Rental is overdue and cannot be extended.", overdue.getMessage());
+        IllegalArgumentException early = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> rentals.extend(rental, 1, LocalDate.of(2020, 6, 30)));
+        assertEquals("Request date must not be before the checkout date.", early.getMessage());
+        rentals.accrueLateDays(LocalDate.of(2020, 7, 5));
+        Assertions.assertThrows(IllegalStateException.class, () -> rentals.extend(rental, 1, LocalDate.of(2020, 7, 3)));
+
+        OpenRentals.RentalReturn rentalReturn = rentals.returnRental(rental, LocalDate.of(2020, 7, 7));
+        assertEquals(4, rentalReturn.getLateDays());
+        // chainsaws are not charged on weekends
+        assertEquals(2, rentalReturn.getLateChargeDays());
+        assertEquals(2 * 149 * 150 / 100, rentalReturn.getLateFeeCents());
+        assertEquals(rentalReturn.getAgreement().getFinalChargeCents() + rentalReturn.getLateFeeCents(),
+                rentalReturn.getTotalChargeCents());
+        assertFalse(rentals.isOpen(rental));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> rentals.returnRental(rental, LocalDate.of(2020, 7, 8)));
+        Assertions.assertThrows(IllegalStateException.class, () -> rentals.extend(rental, 1, LocalDate.of(2020, 7, 2)));
+
+        int onTime = rentals.open(Checkout.createRentalAgreement("CHNS", 2, 0, LocalDate.of(2020, 7, 1)));
+        assertEquals(0, rentals.returnRental(onTime, LocalDate.of(2020, 7, 2)).getLateFeeCents());
+    }
+
+    /**
+     * Tests that returning a rental checked out at a store makes its unit available at the store again.
+     */
+    @Test
+    public void testReturnReleasesStoreUnit() {
+        ToolRepository.setAvailableUnits("LADW", "returnStore", 1);
+        OpenRentals rentals = new OpenRentals(HolidayCalendars.getDefault(), 0);
+        LocalDate checkoutDate = LocalDate.of(2020, 7, 2);
+        int rental = rentals.open(Checkout.createRentalAgreement("LADW", 3, 0, checkoutDate, "returnStore"),
+                "returnStore");
+        assertEquals(0, ToolRepository.getAvailableUnits("LADW", "returnStore"));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> Checkout.createRentalAgreement("LADW", 3, 0, checkoutDate, "returnStore"));
+
+        rentals.returnRental(rental, checkoutDate.plusDays(3));
+        assertEquals(1, ToolRepository.getAvailableUnits("LADW", "returnStore"));
+        Assertions.assertThrows(IllegalStateException.class, () -> rentals.returnRental(rental, checkoutDate.plusDays(4)));
+        assertEquals(1, ToolRepository.getAvailableUnits("LADW", "returnStore"));
+    }
+
+    /**
+     * Tests that nightly sweeps over many chunks, run serially or in a pool, accrue the same late days as one sweep and as
+     * returning each rental on the last swept day.
+     */
+    @Test
+    public void testSweepsAccrueLikeReturns() {
+        HolidayCalendar holidayCalendar = HolidayCalendars.getDefault();
+        OpenRentals nightly = new OpenRentals(holidayCalendar, 25);
+        OpenRentals once = new OpenRentals(holidayCalendar, 25);
+        Random random = new Random(7);
+        for(int i = 0; i < 10_000; i++)
+        {
+            ToolRentalAgreement agreement = Checkout.createRentalAgreement(toolCodes[random.nextInt(toolCodes.length)],
+                    1 + random.nextInt(20), random.nextInt(50), start.plusDays(random.nextInt(60)));
+            nightly.open(agreement);
+            once.open(agreement);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try
+        {
+            for(int day = 0; day <= 100; day++)
+            {
+                if(day % 2 == 0)
+                {
+                    nightly.accrueLateDays(start.plusDays(day));
+                }
+                else
+                {
+                    nightly.accrueLateDays(start.plusDays(day), pool);
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        once.accrueLateDays(start.plusDays(100));
+
+        for(int rental = 0; rental < nightly.size(); rental++)
+        {
+            assertEquals(once.getLateChargeDays(rental), nightly.getLateChargeDays(rental));
+            assertEquals(once.getLateFeeCents(rental), nightly.getLateFeeCents(rental));
+            assertEquals(nightly.getLateFeeCents(rental),
+                    nightly.returnRental(rental, start.plusDays(100)).getLateFeeCents());
+        }
+    }
+}
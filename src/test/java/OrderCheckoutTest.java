@@ -0,0 +1,158 @@
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link Checkout#createOrderAgreement} prices every item the same as checking it out on its own, and applies
+ * the discount once to the order's total.
+ */
+public class OrderCheckoutTest {
+
+    private static final String[] TOOL_CODES = {"CHNS", "LADW", "JAKD", "JAKR"};
+
+    /**
+     * Tests random orders of up to 50 tools against pricing each tool alone.
+     */
+    @Test
+    public void testItemsMatchSingleCheckouts() {
+        Random random = new Random(20);
+        for(int i = 0; i < 2000; i++)
+        {
+            List<String> toolCodes = new ArrayList<>();
+            for(int item = 1 + random.nextInt(50); item > 0; item--)
+            {
+                toolCodes.add(TOOL_CODES[random.nextInt(TOOL_CODES.length)]);
+            }
+            int numberOfDays = 1 + random.nextInt(60);
+            int discountPercent = random.nextInt(101);
+            LocalDate checkoutDate = LocalDate.of(2015, 1, 1).plusDays(random.nextInt(3000));
+
+            OrderAgreement order = Checkout.createOrderAgreement(toolCodes, numberOfDays, discountPercent, checkoutDate);
+            assertEquals(toolCodes.size(), order.getItems().size());
+            assertEquals(checkoutDate.plusDays(numberOfDays), order.getDueDate());
+            long preDiscountChargeCents = 0;
+            for(int item = 0; item < toolCodes.size(); item++)
+            {
+                ToolRentalAgreement expected = Checkout.createRentalAgreement(toolCodes.get(item), numberOfDays, 0,
+                        checkoutDate);
+                assertEquals(expected.getOutput(), order.getItems().get(item).getOutput());
+                preDiscountChargeCents += expected.getPreDiscountChargeCents();
+            }
+            assertEquals(preDiscountChargeCents, order.getPreDiscountChargeCents());
+            assertEquals(Checkout.calculateDiscountCents(preDiscountChargeCents, discountPercent),
+                    order.getDiscountAmountCents());
+            assertEquals(preDiscountChargeCents - order.getDiscountAmountCents(), order.getFinalChargeCents());
+        }
+    }
+
+    /**
+     * Tests the text of a known order, spanning the Independence Day holiday and a weekend.
+     */
+    @Test
+    public void testOutput() {
+        OrderAgreement order = Checkout.createOrderAgreement(List.of("LADW", "CHNS", "JAKR"), 5, 10,
+                LocalDate.of(2015, 7, 2));
+        assertEquals("Rental days: 5\n"
+                + "Checkout date: 07-02-15\n"
+                + "Due date: 07-07-15\n"
+                + "Item 1: LADW Ladder Werner, 4 charge days at $1.99: $7.96\n"
+                + "Item 2: CHNS Chainsaw Stihl, 3 charge days at $1.49: $4.47\n"
+                + "Item 3: JAKR Jackhammer Ridgid, 2 charge days at $2.99: $5.98\n"
+                + "Pre-discount charge: $18.41\n"
+                + "Discount percent: 10%\n"
+                + "Discount amount: $1.85\n"
+                + "Final charge: $16.56", order.getOutput());
+    }
+
+    /**
+     * Tests that an item with a promotion larger than the order's discount is discounted at the promotion's rate, so that
+     * an order of one tool costs the same as checking the tool out alone.
+     */
+    @Test
+    public void testItemsGetPromotions() {
+        Properties properties = new Properties();
+        properties.setProperty("julyLadders.discountPercent", "15");
+        properties.setProperty("julyLadders.toolType", "LADDER");
+        properties.setProperty("julyLadders.from", "2020-07-01");
+        properties.setProperty("julyLadders.to", "2020-07-31");
+        properties.setProperty("goldWeek.discountPercent", "30");
+        properties.setProperty("goldWeek.minimumDays", "7");
+        properties.setProperty("goldWeek.loyaltyTier", "GOLD");
+        PromotionRules original = PromotionRules.current();
+        PromotionRules.install(PromotionRules.parse(properties));
+        try
+        {
+            LocalDate july = LocalDate.of(2020, 7, 2);
+            for(int discountPercent : new int[] {0, 10, 20})
+            {
+                ToolRentalAgreement single = Checkout.createRentalAgreement("LADW", 3, discountPercent, july);
+                OrderAgreement order = Checkout.createOrderAgreement(List.of("LADW"), 3, discountPercent, july);
+                assertEquals(single.getDiscountAmountCents(), order.getDiscountAmountCents());
+                assertEquals(single.getFinalChargeCents(), order.getFinalChargeCents());
+            }
+            ToolRentalAgreement single = Checkout.createRentalAgreement("JAKR", 7, 0, july, LoyaltyTier.PLATINUM);
+            OrderAgreement order = Checkout.createOrderAgreement(List.of("JAKR"), 7, 0, july,
+                    HolidayCalendars.getDefault(), Currency.getInstance("USD"), LoyaltyTier.PLATINUM);
+            assertEquals(30, single.getDiscountPercent());
+            assertEquals(single.getFinalChargeCents(), order.getFinalChargeCents());
+
+            // the ladder is discounted on its own, and the order's discount covers the others
+            order = Checkout.createOrderAgreement(List.of("LADW", "CHNS", "JAKR"), 5, 10, july);
+            assertEquals(15, order.getItems().get(0).getDiscountPercent());
+            assertEquals(0, order.getItems().get(1).getDiscountPercent());
+            long ladderChargeCents = order.getItems().get(0).getPreDiscountChargeCents();
+            assertEquals(Checkout.calculateDiscountCents(ladderChargeCents, 15) + Checkout.calculateDiscountCents(
+                    order.getPreDiscountChargeCents() - ladderChargeCents, 10), order.getDiscountAmountCents());
+            assertEquals("Rental days: 5\n"
+                    + "Checkout date: 07-02-20\n"
+                    + "Due date: 07-07-20\n"
+                    + "Item 1: LADW Ladder Werner, 4 charge days at $1.99: $7.96, less 15%: $6.76\n"
+                    + "Item 2: CHNS Chainsaw Stihl, 3 charge days at $1.49: $4.47\n"
+                    + "Item 3: JAKR Jackhammer Ridgid, 2 charge days at $2.99: $5.98\n"
+                    + "Pre-discount charge: $18.41\n"
+                    + "Discount percent: 10%\n"
+                    + "Discount amount: $2.25\n"
+                    + "Final charge: $16.16", order.getOutput());
+        }
+        finally
+        {
+            PromotionRules.install(original);
+        }
+    }
+
+    /**
+     * Tests that an invalid order is rejected as a whole.
+     */
+    @Test
+    public void testInvalidOrders() {
+        LocalDate checkoutDate = LocalDate.of(2020, 7, 2);
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createOrderAgreement(List.of(), 3, 0, checkoutDate));
+        assertEquals("An order must have at least one tool.", thrown.getMessage());
+
+        thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createOrderAgreement(List.of("LADW", "XXXX"), 3, 0, checkoutDate));
+        assertEquals("Item 1: Tool code does not correspond to an existing tool.", thrown.getMessage());
+
+        thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createOrderAgreement(List.of("LADW"), 0, 0, checkoutDate));
+        assertEquals("Rental day count must be at least 1.", thrown.getMessage());
+
+        thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createOrderAgreement(List.of("LADW"), 3, 101, checkoutDate));
+        assertEquals("Discount percent must be between 0 and 100.", thrown.getMessage());
+
+        thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createOrderAgreement(List.of("LADW"), 3, 0, checkoutDate, HolidayCalendars.getDefault(),
+                        Currency.getInstance("XAU")));
+        assertEquals("No exchange rate is known for the currency.", thrown.getMessage());
+    }
+}
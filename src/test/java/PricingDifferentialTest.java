@@ -0,0 +1,326 @@
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Differential and property-based tests of the pricing paths. Random rentals are priced by the production code and by
+ * {@link PricingReferenceModel}, and checked against properties which any correct pricing must have, in parallel blocks
+ * of cases.
+ * <p>
+ * The number of cases and the seed can be set with {@code -Dpricing.differential.cases} and
+ * {@code -Dpricing.differential.seed}. A failure reports the seed and a shrunk counterexample, so it can be reproduced.
+ */
+public class PricingDifferentialTest {
+
+    private static final int NUMBER_OF_CASES = Integer.getInteger("pricing.differential.cases", 1_000_000);
+    private static final long SEED = Long.getLong("pricing.differential.seed", 20150702L);
+    private static final int CASES_PER_BLOCK = 8192;
+
+    private static final String[] TOOL_CODES = {"CHNS", "LADW", "JAKD", "JAKR"};
+    private static final LocalDate FIRST_CHECKOUT_DATE = LocalDate.of(1, 1, 1);
+    private static final int CHECKOUT_DATE_RANGE_DAYS = 2500 * 365;
+    // the Gregorian calendar, and so every weekday and holiday, repeats every 400 years
+    private static final int DAYS_PER_400_YEARS = 146_097;
+
+    /**
+     * Tests that single checkouts match the reference model, including the agreement text for a sample of them.
+     */
+    @Test
+    public void testCheckoutMatchesReference() {
+        forAllCases(NUMBER_OF_CASES, rental -> {
+            ToolRentalAgreement agreement = Checkout.createRentalAgreement(rental.toolCode, rental.numberOfDays,
+                    rental.discountPercent, rental.checkoutDate);
+            PricingReferenceModel reference = rental.reference();
+            if(!agreement.getDueDate().equals(reference.getDueDate()))
+            {
+                return "due date " + agreement.getDueDate() + ", expected " + reference.getDueDate();
+            }
+            String mismatch = compareCharges(reference, agreement.getChargeDays(), agreement.getPreDiscountChargeCents(),
+                    agreement.getDiscountAmountCents(), agreement.getFinalChargeCents());
+            if(mismatch == null && (rental.numberOfDays & 63) == 0 && !agreement.getOutput().equals(reference.getOutput()))
+            {
+                return "output\n" + agreement.getOutput() + "\nexpected\n" + reference.getOutput();
+            }
+            return mismatch;
+        });
+    }
+
+    /**
+     * Tests that pricing each block of cases as a {@link QuoteBatch} matches the reference model.
+     */
+    @Test
+    public void testBatchMatchesReference() {
+        final int numberOfBlocks = (NUMBER_OF_CASES / 4 + CASES_PER_BLOCK - 1) / CASES_PER_BLOCK;
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        IntStream.range(0, numberOfBlocks).parallel().forEach(block -> {
+            SplittableRandom random = randomForBlock(block);
+            RentalCase[] rentals = new RentalCase[CASES_PER_BLOCK];
+            int[] toolIds = new int[rentals.length];
+            long[] checkoutEpochDays = new long[rentals.length];
+            int[] numberOfDays = new int[rentals.length];
+            int[] discountPercents = new int[rentals.length];
+            for(int i = 0; i < rentals.length; i++)
+            {
+                rentals[i] = RentalCase.random(random);
+                toolIds[i] = ToolRepository.getToolId(rentals[i].toolCode);
+                checkoutEpochDays[i] = rentals[i].checkoutDate.toEpochDay();
+                numberOfDays[i] = rentals[i].numberOfDays;
+                discountPercents[i] = rentals[i].discountPercent;
+            }
+            QuoteBatch batch = new QuoteBatch(toolIds, checkoutEpochDays, numberOfDays, discountPercents);
+            BatchCheckout.price(batch);
+
+            for(int i = 0; i < rentals.length; i++)
+            {
+                String mismatch = compareCharges(rentals[i].reference(), batch.getChargeDays()[i],
+                        batch.getPreDiscountChargeCents()[i], batch.getDiscountAmountCents()[i],
+                        batch.getFinalChargeCents()[i]);
+                if(mismatch != null)
+                {
+                    failures.add("block " + block + " row " + i + ": " + rentals[i] + ": " + mismatch);
+                    return;
+                }
+            }
+        });
+        if(!failures.isEmpty())
+        {
+            fail(failures.size() + " block(s) failed with seed " + SEED + ", first " + failures.peek());
+        }
+    }
+
+    /**
+     * Tests that splitting a rental period anywhere, and pricing the second part as an extension of the first, gives the
+     * charge days of the whole period.
+     */
+    @Test
+    public void testChargeDaysAddUpWhenSplit() {
+        final HolidayCalendar holidayCalendar = HolidayCalendars.getDefault();
+        forAllCases(NUMBER_OF_CASES / 4, rental -> {
+            ToolChargeData chargeData = ToolRepository.getTool(rental.toolCode).getChargeData();
+            long checkoutEpochDay = rental.checkoutDate.toEpochDay();
+            int firstPart = 1 + (rental.discountPercent * rental.numberOfDays) / 101;
+            int whole = ToolRentalController.calculateChargeDays(chargeData, checkoutEpochDay,
+                    checkoutEpochDay + rental.numberOfDays, rental.numberOfDays, holidayCalendar);
+            int split = ToolRentalController.calculateChargeDays(chargeData, checkoutEpochDay,
+                    checkoutEpochDay + firstPart, firstPart, holidayCalendar)
+                    + ToolRentalController.calculateAdditionalChargeDays(chargeData, checkoutEpochDay + firstPart,
+                    checkoutEpochDay + rental.numberOfDays, holidayCalendar);
+            return whole == split ? null : "split after " + firstPart + " days gave " + split + " charge days, not " + whole;
+        });
+    }
+
+    /**
+     * Tests that a rental priced 400 years later, when every date falls on the same weekday, has the same charges, and
+     * that the discount never exceeds the charge it is taken from.
+     */
+    @Test
+    public void testChargesRepeatEvery400Years() {
+        forAllCases(NUMBER_OF_CASES / 4, rental -> {
+            ToolRentalAgreement agreement = Checkout.createRentalAgreement(rental.toolCode, rental.numberOfDays,
+                    rental.discountPercent, rental.checkoutDate);
+            ToolRentalAgreement later = Checkout.createRentalAgreement(rental.toolCode, rental.numberOfDays,
+                    rental.discountPercent, rental.checkoutDate.plusDays(DAYS_PER_400_YEARS));
+            if(agreement.getChargeDays() != later.getChargeDays() || agreement.getFinalChargeCents() != later.getFinalChargeCents())
+            {
+                return "400 years later charged " + later.getChargeDays() + " days and " + later.getFinalChargeCents()
+                        + " cents, not " + agreement.getChargeDays() + " days and " + agreement.getFinalChargeCents();
+            }
+            if(Math.abs(agreement.getDiscountAmountCents()) > Math.abs(agreement.getPreDiscountChargeCents()))
+            {
+                return "discount of " + agreement.getDiscountAmountCents() + " cents exceeds the charge";
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Tests that the harness finds a deliberately introduced off-by-one error, counting a holiday on the checkout date,
+     * and shrinks it to a one-day rental from a holiday.
+     */
+    @Test
+    public void testHarnessShrinksCounterexample() {
+        Property countsCheckoutDateHolidays = rental -> {
+            ToolChargeData chargeData = ToolRepository.getTool(rental.toolCode).getChargeData();
+            int chargeDays = PricingReferenceModel.chargeDays(chargeData, rental.checkoutDate, rental.numberOfDays);
+            if(!chargeData.hasHolidayCharge() && PricingReferenceModel.isHoliday(rental.checkoutDate))
+            {
+                chargeDays--;
+            }
+            return chargeDays == rental.reference().getChargeDays() ? null : "charged " + chargeDays + " days";
+        };
+
+        RentalCase counterexample = null;
+        SplittableRandom random = randomForBlock(0);
+        for(int i = 0; i < NUMBER_OF_CASES && counterexample == null; i++)
+        {
+            RentalCase rental = RentalCase.random(random);
+            if(countsCheckoutDateHolidays.check(rental) != null)
+            {
+                counterexample = shrink(rental, countsCheckoutDateHolidays);
+            }
+        }
+        assertNotNull(counterexample);
+        assertEquals(1, counterexample.numberOfDays);
+        assertEquals(0, counterexample.discountPercent);
+        assertTrue(PricingReferenceModel.isHoliday(counterexample.checkoutDate));
+    }
+
+    private static String compareCharges(PricingReferenceModel reference, int chargeDays, long preDiscountChargeCents,
+                                         long discountAmountCents, long finalChargeCents)
+    {
+        if(chargeDays != reference.getChargeDays())
+        {
+            return chargeDays + " charge days, expected " + reference.getChargeDays();
+        }
+        if(preDiscountChargeCents != reference.getPreDiscountChargeCents())
+        {
+            return "pre-discount charge " + preDiscountChargeCents + ", expected " + reference.getPreDiscountChargeCents();
+        }
+        if(discountAmountCents != reference.getDiscountAmountCents())
+        {
+            return "discount " + discountAmountCents + ", expected " + reference.getDiscountAmountCents();
+        }
+        if(finalChargeCents != reference.getFinalChargeCents())
+        {
+            return "final charge " + finalChargeCents + ", expected " + reference.getFinalChargeCents();
+        }
+        return null;
+    }
+
+    /**
+     * Checks a property of random rentals, a block of cases at a time in parallel, and fails with the shrunk first
+     * counterexample of each failing block.
+     */
+    private static void forAllCases(int numberOfCases, Property property)
+    {
+        final int numberOfBlocks = (numberOfCases + CASES_PER_BLOCK - 1) / CASES_PER_BLOCK;
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        IntStream.range(0, numberOfBlocks).parallel().forEach(block -> {
+            SplittableRandom random = randomForBlock(block);
+            final int casesInBlock = Math.min(CASES_PER_BLOCK, numberOfCases - block * CASES_PER_BLOCK);
+            for(int i = 0; i < casesInBlock; i++)
+            {
+                RentalCase rental = RentalCase.random(random);
+                if(property.check(rental) != null)
+                {
+                    RentalCase shrunk = shrink(rental, property);
+                    failures.add("block " + block + " case " + i + ": " + rental + ", shrunk to " + shrunk + ": "
+                            + property.check(shrunk));
+                    return;
+                }
+            }
+        });
+        if(!failures.isEmpty())
+        {
+            fail(failures.size() + " block(s) failed with seed " + SEED + ", first " + failures.peek());
+        }
+    }
+
+    /**
+     * Repeatedly replaces a failing case with a simpler one which still fails: a shorter rental, a smaller discount or a
+     * later checkout date within the period, until none of them fails.
+     */
+    private static RentalCase shrink(RentalCase rental, Property property)
+    {
+        boolean shrunk = true;
+        while(shrunk)
+        {
+            shrunk = false;
+            RentalCase[] candidates = {
+                    new RentalCase(rental.toolCode, rental.checkoutDate, rental.numberOfDays, 0),
+                    new RentalCase(rental.toolCode, rental.checkoutDate, Math.max(1, rental.numberOfDays / 2), rental.discountPercent),
+                    new RentalCase(rental.toolCode, rental.checkoutDate, Math.max(1, rental.numberOfDays - 1), rental.discountPercent),
+                    new RentalCase(rental.toolCode, rental.checkoutDate.plusDays(1), Math.max(1, rental.numberOfDays - 1),
+                            rental.discountPercent)};
+            for(RentalCase candidate : candidates)
+            {
+                if(!candidate.equals(rental) && property.check(candidate) != null)
+                {
+                    rental = candidate;
+                    shrunk = true;
+                    break;
+                }
+            }
+        }
+        return rental;
+    }
+
+    private static SplittableRandom randomForBlock(int block)
+    {
+        return new SplittableRandom(SEED * 31 + block);
+    }
+
+    /**
+     * A property of a rental, which returns a description of how the rental violates it, or null if it holds.
+     */
+    private interface Property {
+        String check(RentalCase rental);
+    }
+
+    private static final class RentalCase {
+
+        final String toolCode;
+        final LocalDate checkoutDate;
+        final int numberOfDays;
+        final int discountPercent;
+
+        RentalCase(String toolCode, LocalDate checkoutDate, int numberOfDays, int discountPercent)
+        {
+            this.toolCode = toolCode;
+            this.checkoutDate = checkoutDate;
+            this.numberOfDays = numberOfDays;
+            this.discountPercent = discountPercent;
+        }
+
+        /**
+         * Generates a rental, weighted towards the short rentals and the edge discounts seen in practice, with checkout
+         * dates from year 1 onwards so that two-digit years and dates beyond the holiday cache are covered.
+         */
+        static RentalCase random(SplittableRandom random)
+        {
+            final int lengthBucket = random.nextInt(100);
+            final int numberOfDays = lengthBucket < 70 ? 1 + random.nextInt(14)
+                    : lengthBucket < 95 ? 15 + random.nextInt(106)
+                    : 121 + random.nextInt(3530);
+            final int discountBucket = random.nextInt(10);
+            final int discountPercent = discountBucket == 0 ? 0 : discountBucket == 1 ? 100 : random.nextInt(101);
+            return new RentalCase(TOOL_CODES[random.nextInt(TOOL_CODES.length)],
+                    FIRST_CHECKOUT_DATE.plusDays(random.nextInt(CHECKOUT_DATE_RANGE_DAYS)), numberOfDays, discountPercent);
+        }
+
+        PricingReferenceModel reference()
+        {
+            return new PricingReferenceModel(toolCode, numberOfDays, discountPercent, checkoutDate);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof RentalCase))
+            {
+                return false;
+            }
+            RentalCase rental = (RentalCase) other;
+            return toolCode.equals(rental.toolCode) && checkoutDate.equals(rental.checkoutDate)
+                    && numberOfDays == rental.numberOfDays && discountPercent == rental.discountPercent;
+        }
+
+        @Override
+        public int hashCode() {
+            return checkoutDate.hashCode() * 31 + numberOfDays;
+        }
+
+        @Override
+        public String toString() {
+            return toolCode + " for " + numberOfDays + " days from " + checkoutDate + " at " + discountPercent + "% off";
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link LatencyHistogram} reports percentiles to within its precision, and that {@link PricingMetrics} times
+ * and counts checkouts only while enabled and exposes them as text and over JMX.
+ */
+public class PricingMetricsTest {
+
+    @Before
+    public void timeEveryCheckout() {
+        PricingMetrics.setSampleInterval(1);
+    }
+
+    @After
+    public void disableMetrics() {
+        PricingMetrics.setEnabled(false);
+        PricingMetrics.setSampleInterval(32);
+        PricingMetrics.reset();
+    }
+
+    /**
+     * Tests that percentiles of random latencies are within the histogram's precision of the exact values.
+     */
+    @Test
+    public void testHistogramPercentiles() {
+        Random random = new Random(13);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100_000];
+        for(int i = 0; i < values.length; i++)
+        {
+            // spread over several orders of magnitude
+            values[i] = (long) Math.pow(10, 1 + random.nextDouble() * 8);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for(double percentile : new double[] {1, 50, 90, 99, 99.9, 100})
+        {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + reported + " vs " + exact,
+                    reported >= exact && reported <= exact + exact / 16);
+        }
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMaxNanos());
+    }
+
+    /**
+     * Tests that every value maps to a bucket whose range holds it.
+     */
+    @Test
+    public void testHistogramBuckets() {
+        for(long value : new long[] {0, 1, 31, 32, 63, 64, 65, 1000, 123_456_789, LatencyHistogram.HIGHEST_TRACKABLE_VALUE})
+        {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.highestValueInBucket(index));
+            assertTrue(index == 0 || value > LatencyHistogram.highestValueInBucket(index - 1));
+        }
+    }
+
+    /**
+     * Tests that nothing is recorded while metrics are off.
+     */
+    @Test
+    public void testDisabled() {
+        PricingMetrics.setEnabled(false);
+        Checkout.createRentalAgreement("JAKR", 9, 25, LocalDate.of(2015, 7, 2)).getOutput();
+        assertEquals(0, PricingMetrics.getStageLatencies(PricingMetrics.Stage.CHECKOUT).getCount());
+        assertEquals(0, PricingMetrics.getCheckoutCount(ToolType.JACKHAMMER));
+    }
+
+    /**
+     * Tests that each stage, the tool type and failures are recorded while metrics are on.
+     */
+    @Test
+    public void testEnabled() {
+        PricingMetrics.setEnabled(true);
+        Checkout.createRentalAgreement("JAKR", 9, 25, LocalDate.of(2015, 7, 2)).getOutput();
+        Checkout.createRentalAgreement("LADW", 3, 10, LocalDate.of(2020, 7, 2));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createRentalAgreement("XXXX", 3, 10, LocalDate.of(2020, 7, 2)));
+
+        for(PricingMetrics.Stage stage : PricingMetrics.Stage.values())
+        {
+            long expected = stage == PricingMetrics.Stage.RENDERING ? 1
+                    : stage == PricingMetrics.Stage.VALIDATION ? 3 : 2;
+            assertEquals(stage.name(), expected, PricingMetrics.getStageLatencies(stage).getCount());
+        }
+        assertEquals(1, PricingMetrics.getCheckoutCount(ToolType.JACKHAMMER));
+        assertEquals(1, PricingMetrics.getCheckoutCount(ToolType.LADDER));
+        assertEquals(1, PricingMetrics.getFailureCount(PricingMetrics.Failure.UNKNOWN_TOOL));
+
+        StringBuilder text = new StringBuilder();
+        PricingMetrics.writeText(text);
+        assertTrue(text.toString().contains("pricing_stage_latency_nanos_count{stage=\"checkout\"} 2\n"));
+        assertTrue(text.toString().contains("pricing_checkouts_total{tool_type=\"Jackhammer\"} 1\n"));
+        assertTrue(text.toString().contains("pricing_failures_total{reason=\"unknown_tool\"} 1\n"));
+    }
+
+    /**
+     * Tests that the metrics can be read and switched on over JMX.
+     */
+    @Test
+    public void testJmx() throws Exception {
+        PricingMetrics.registerMBean();
+        PricingMetrics.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(PricingMetrics.OBJECT_NAME);
+
+        server.setAttribute(name, new javax.management.Attribute("Enabled", true));
+        assertTrue(PricingMetrics.isEnabled());
+        Checkout.createRentalAgreement("CHNS", 5, 25, LocalDate.of(2015, 7, 2));
+
+        TabularData checkouts = (TabularData) server.getAttribute(name, "CheckoutsByToolType");
+        CompositeData chainsaw = checkouts.get(new Object[] {"Chainsaw"});
+        assertEquals(1L, chainsaw.get("value"));
+    }
+}
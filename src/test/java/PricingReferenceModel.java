@@ -0,0 +1,150 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.NumberFormat;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A deliberately naive model of how a rental is priced, used as the oracle that the production pricing paths are tested
+ * against. It walks the rental period one day at a time, recognizes holidays by their rules rather than through
+ * {@link HolidayCalendar}, and calculates charges with {@link BigDecimal} as the original implementation did, so it shares
+ * no logic with the code under test other than the tools' charge data.
+ */
+final class PricingReferenceModel {
+
+    private static final BigDecimal PERCENT = BigDecimal.valueOf(100);
+    private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MM-dd-yy");
+
+    private final String toolCode;
+    private final Tool tool;
+    private final int numberOfDays;
+    private final LocalDate checkoutDate;
+    private final LocalDate dueDate;
+    private final int chargeDays;
+    private final BigDecimal dailyRentalCharge;
+    private final BigDecimal preDiscountCharge;
+    private final int discountPercent;
+    private final BigDecimal discountAmount;
+    private final BigDecimal finalCharge;
+
+    /**
+     * Prices a rental of one of the tools in {@link ToolRepository}.
+     */
+    PricingReferenceModel(String toolCode, int numberOfDays, int discountPercent, LocalDate checkoutDate)
+    {
+        this.toolCode = toolCode;
+        this.tool = ToolRepository.getTool(toolCode);
+        this.numberOfDays = numberOfDays;
+        this.checkoutDate = checkoutDate;
+        this.dueDate = checkoutDate.plusDays(numberOfDays);
+        this.discountPercent = discountPercent;
+
+        final ToolChargeData chargeData = tool.getChargeData();
+        chargeDays = chargeDays(chargeData, checkoutDate, numberOfDays);
+        dailyRentalCharge = BigDecimal.valueOf(chargeData.getDailyRentalChargeCents(numberOfDays), 2);
+        preDiscountCharge = dailyRentalCharge.multiply(BigDecimal.valueOf(chargeDays));
+        // the discount is rounded up, away from zero
+        discountAmount = preDiscountCharge.multiply(BigDecimal.valueOf(discountPercent))
+                .divide(PERCENT, 2, RoundingMode.UP);
+        finalCharge = preDiscountCharge.subtract(discountAmount);
+    }
+
+    /**
+     * Counts the charge days of a rental one day at a time. Weekend days are counted from the checkout date through the
+     * due date, and holidays from the day after the checkout date through the due date; a day is only exempt once.
+     */
+    static int chargeDays(ToolChargeData chargeData, LocalDate checkoutDate, int numberOfDays)
+    {
+        final LocalDate dueDate = checkoutDate.plusDays(numberOfDays);
+        int daysToSubtract = 0;
+        for(LocalDate date = checkoutDate; !date.isAfter(dueDate); date = date.plusDays(1))
+        {
+            if(!chargeData.hasWeekendCharge() && isWeekend(date))
+            {
+                daysToSubtract++;
+            }
+            else if(!chargeData.hasHolidayCharge() && date.isAfter(checkoutDate) && isHoliday(date))
+            {
+                daysToSubtract++;
+            }
+        }
+        return numberOfDays - daysToSubtract;
+    }
+
+    /**
+     * @return whether the date is Independence Day, observed on the nearest weekday, or Labor Day
+     */
+    static boolean isHoliday(LocalDate date)
+    {
+        if(date.getMonth() == Month.JULY)
+        {
+            LocalDate independenceDay = LocalDate.of(date.getYear(), Month.JULY, 4);
+            if(independenceDay.getDayOfWeek() == DayOfWeek.SATURDAY)
+            {
+                independenceDay = independenceDay.minusDays(1);
+            }
+            else if(independenceDay.getDayOfWeek() == DayOfWeek.SUNDAY)
+            {
+                independenceDay = independenceDay.plusDays(1);
+            }
+            return date.equals(independenceDay);
+        }
+        return date.getMonth() == Month.SEPTEMBER && date.getDayOfWeek() == DayOfWeek.MONDAY && date.getDayOfMonth() <= 7;
+    }
+
+    private static boolean isWeekend(LocalDate date)
+    {
+        return date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY;
+    }
+
+    LocalDate getDueDate() {
+        return dueDate;
+    }
+
+    int getChargeDays() {
+        return chargeDays;
+    }
+
+    long getDailyRentalChargeCents() {
+        return toCents(dailyRentalCharge);
+    }
+
+    long getPreDiscountChargeCents() {
+        return toCents(preDiscountCharge);
+    }
+
+    long getDiscountAmountCents() {
+        return toCents(discountAmount);
+    }
+
+    long getFinalChargeCents() {
+        return toCents(finalCharge);
+    }
+
+    /**
+     * @return the agreement text, formatted with the JDK's own date and currency formats
+     */
+    String getOutput()
+    {
+        final NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
+        return "Tool code: " + toolCode +
+                "\nTool type: " + tool.getType().getValue() +
+                "\nTool brand: " + tool.getBrand() +
+                "\nRental days: " + numberOfDays +
+                "\nCheckout date: " + checkoutDate.format(dateFormatter) +
+                "\nDue date: " + dueDate.format(dateFormatter) +
+                "\nDaily rental charge: " + currencyFormat.format(dailyRentalCharge) +
+                "\nCharge days: " + chargeDays +
+                "\nPre-discount charge: " + currencyFormat.format(preDiscountCharge) +
+                "\nDiscount percent: " + discountPercent + "%" +
+                "\nDiscount amount: " + currencyFormat.format(discountAmount) +
+                "\nFinal charge: " + currencyFormat.format(finalCharge);
+    }
+
+    private static long toCents(BigDecimal amount)
+    {
+        return amount.movePointRight(2).longValueExact();
+    }
+}
@@ -0,0 +1,168 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link PricingRules} are parsed from a rules file, that reloading them changes the price of later checkouts,
+ * and that an invalid file leaves the rules in effect unchanged.
+ */
+public class PricingRulesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that the daily charge of a tiered tool depends on the length of the rental.
+     */
+    @Test
+    public void testTieredDailyCharge() {
+        Properties properties = defaultProperties();
+        properties.setProperty("LADDER.tier.7", "1.79");
+        properties.setProperty("LADDER.tier.30", "1.49");
+        ToolChargeData ladder = PricingRules.parse(properties).getChargeData(ToolType.LADDER);
+
+        assertEquals(199, ladder.getDailyRentalChargeCents(6));
+        assertEquals(179, ladder.getDailyRentalChargeCents(7));
+        assertEquals(179, ladder.getDailyRentalChargeCents(29));
+        assertEquals(149, ladder.getDailyRentalChargeCents(30));
+        assertEquals(149, ladder.getDailyRentalChargeCents(Integer.MAX_VALUE));
+        assertEquals(199, ladder.getDailyRentalChargeCents());
+
+        properties.setProperty("LADDER.tier.3661", "0.99");
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> PricingRules.parse(properties));
+        assertEquals("Charge tiers must start within 3660 days.", thrown.getMessage());
+    }
+
+    /**
+     * Tests that reloading the rules changes the price of the next checkout.
+     */
+    @Test
+    public void testReloadChangesPrice() throws IOException {
+        PricingRules original = PricingRules.current();
+        try
+        {
+            Properties properties = defaultProperties();
+            properties.setProperty("JACKHAMMER.dailyCharge", "3.50");
+            Path rulesFile = writeRules(properties);
+
+            PricingRules.reload(rulesFile);
+            ToolRentalAgreement agreement = Checkout.createRentalAgreement("JAKD", 6, 0, LocalDate.of(15, 9, 3));
+            assertEquals(350, agreement.getDailyRentalChargeCents());
+            assertEquals(3 * 350, agreement.getFinalChargeCents());
+        }
+        finally
+        {
+            PricingRules.install(original);
+        }
+    }
+
+    /**
+     * Tests that a rules file missing a tool type's rules is rejected and the rules in effect stay the same.
+     */
+    @Test
+    public void testInvalidRulesAreNotInstalled() throws IOException {
+        PricingRules original = PricingRules.current();
+        Properties properties = defaultProperties();
+        properties.remove("CHAINSAW.weekendCharge");
+        Path rulesFile = writeRules(properties);
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> PricingRules.reload(rulesFile));
+        assertEquals("Pricing rules are missing CHAINSAW.weekendCharge.", thrown.getMessage());
+        assertSame(original, PricingRules.current());
+    }
+
+    /**
+     * Tests that the watcher puts a changed rules file into effect, and reports a change it cannot load to its error
+     * stream while keeping the rules in effect.
+     */
+    @Test
+    public void testWatcherReloadsChangedFile() throws Exception {
+        PricingRules original = PricingRules.current();
+        Properties properties = defaultProperties();
+        Path rulesFile = writeRules(properties);
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PricingRulesWatcher watcher = new PricingRulesWatcher(rulesFile, new PrintStream(errors, true));
+        try
+        {
+            properties.setProperty("LADDER.dailyCharge", "2.49");
+            storeRules(properties, rulesFile);
+            awaitTrue(() -> PricingRules.current().getChargeData(ToolType.LADDER).getDailyRentalChargeCents() == 249);
+
+            properties.remove("LADDER.dailyCharge");
+            storeRules(properties, rulesFile);
+            awaitTrue(() -> errors.toString().contains("was not reloaded: Pricing rules are missing LADDER.dailyCharge."));
+            assertEquals(249, PricingRules.current().getChargeData(ToolType.LADDER).getDailyRentalChargeCents());
+        }
+        finally
+        {
+            watcher.close();
+            PricingRules.install(original);
+        }
+    }
+
+    /**
+     * Tests that a daily charge with fractions of a cent is rejected.
+     */
+    @Test
+    public void testFractionalCentsRejected() {
+        Properties properties = defaultProperties();
+        properties.setProperty("LADDER.dailyCharge", "1.995");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PricingRules.parse(properties));
+    }
+
+    private Path writeRules(Properties properties) throws IOException
+    {
+        Path rulesFile = folder.newFile("pricing-rules.properties").toPath();
+        storeRules(properties, rulesFile);
+        return rulesFile;
+    }
+
+    private static void storeRules(Properties properties, Path rulesFile) throws IOException
+    {
+        try(var writer = Files.newBufferedWriter(rulesFile))
+        {
+            properties.store(writer, null);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(!condition.getAsBoolean())
+        {
+            assertTrue("Timed out waiting for the watcher", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static Properties defaultProperties()
+    {
+        Properties properties = new Properties();
+        try(var in = PricingRulesTest.class.getResourceAsStream("/pricing-rules.properties"))
+        {
+            properties.load(in);
+        }
+        catch(IOException e)
+        {
+            throw new AssertionError(e);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,184 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the compiled {@link PromotionRules} find the same best promotion as checking every promotion in turn, and
+ * that checkout applies it.
+ */
+public class PromotionRulesTest {
+
+    private static final String[] BRANDS = {"Stihl", "Werner", "DeWalt", "Ridgid"};
+    private static final LoyaltyTier[] TIERS = LoyaltyTier.values();
+    private static final LocalDate start = LocalDate.of(2022, 1, 1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests thousands of overlapping random promotions against a linear scan of them.
+     */
+    @Test
+    public void testBestPromotionMatchesLinearScan() {
+        Random random = new Random(21);
+        List<Promotion> promotions = new ArrayList<>();
+        for(int i = 0; i < 3000; i++)
+        {
+            int minimumDays = random.nextInt(3) == 0 ? 1 + random.nextInt(10) : 1;
+            LocalDate fromDate = random.nextInt(10) == 0 ? null : start.plusDays(random.nextInt(1000));
+            LocalDate toDate = random.nextInt(10) == 0 ? null
+                    : (fromDate == null ? start : fromDate).plusDays(random.nextInt(60));
+            promotions.add(new Promotion("promotion" + i, 1 + random.nextInt(100),
+                    random.nextInt(4) == 0 ? null : ToolType.values()[random.nextInt(ToolType.values().length)],
+                    random.nextInt(3) == 0 ? BRANDS[random.nextInt(BRANDS.length)] : null,
+                    minimumDays, random.nextInt(3) == 0 ? minimumDays + random.nextInt(20) : Integer.MAX_VALUE,
+                    fromDate, toDate, random.nextInt(3) == 0 ? TIERS[random.nextInt(TIERS.length)] : LoyaltyTier.NONE));
+        }
+        PromotionRules rules = PromotionRules.of(promotions);
+        List<Promotion> byDiscount = rules.getPromotions();
+
+        for(int i = 0; i < 100_000; i++)
+        {
+            ToolType toolType = ToolType.values()[random.nextInt(ToolType.values().length)];
+            String brand = BRANDS[random.nextInt(BRANDS.length)];
+            long checkoutEpochDay = start.toEpochDay() + random.nextInt(1200) - 100;
+            int numberOfDays = 1 + random.nextInt(30);
+            LoyaltyTier loyaltyTier = TIERS[random.nextInt(TIERS.length)];
+
+            Promotion expected = null;
+            for(Promotion promotion : byDiscount)
+            {
+                if(promotion.appliesTo(toolType, brand, checkoutEpochDay, numberOfDays, loyaltyTier))
+                {
+                    expected = promotion;
+                    break;
+                }
+            }
+            assertSame(expected, rules.getBestPromotion(toolType, brand, checkoutEpochDay, numberOfDays, loyaltyTier));
+        }
+    }
+
+    /**
+     * Tests loading promotions from properties, and that checkout gives the better of the promotion and its own discount.
+     */
+    @Test
+    public void testCheckoutAppliesPromotions() {
+        Properties properties = new Properties();
+        properties.setProperty("julyLadders.discountPercent", "15");
+        properties.setProperty("julyLadders.toolType", "LADDER");
+        properties.setProperty("julyLadders.from", "2020-07-01");
+        properties.setProperty("julyLadders.to", "2020-07-31");
+        properties.setProperty("goldWeek.discountPercent", "30");
+        properties.setProperty("goldWeek.minimumDays", "7");
+        properties.setProperty("goldWeek.loyaltyTier", "GOLD");
+        PromotionRules rules = PromotionRules.parse(properties);
+        assertEquals(2, rules.getPromotions().size());
+        assertEquals("goldWeek", rules.getPromotions().get(0).getId());
+
+        PromotionRules original = PromotionRules.current();
+        PromotionRules.install(rules);
+        try
+        {
+            LocalDate july = LocalDate.of(2020, 7, 2);
+            assertEquals(15, Checkout.createRentalAgreement("LADW", 3, 10, july).getDiscountPercent());
+            assertEquals(20, Checkout.createRentalAgreement("LADW", 3, 20, july).getDiscountPercent());
+            assertEquals(10, Checkout.createRentalAgreement("LADW", 3, 10, july.plusMonths(1)).getDiscountPercent());
+            assertEquals(0, Checkout.createRentalAgreement("JAKR", 3, 0, july).getDiscountPercent());
+            assertEquals(0, Checkout.createRentalAgreement("JAKR", 7, 0, july, LoyaltyTier.SILVER).getDiscountPercent());
+            assertEquals(30, Checkout.createRentalAgreement("JAKR", 7, 0, july, LoyaltyTier.PLATINUM).getDiscountPercent());
+
+            ToolRentalAgreement agreement = Checkout.createRentalAgreement("LADW", 3, 0, july);
+            assertEquals(Checkout.calculateDiscountCents(agreement.getPreDiscountChargeCents(), 15),
+                    agreement.getDiscountAmountCents());
+
+            QuoteBatch batch = new QuoteBatch(new int[] {ToolRepository.getToolId("LADW")},
+                    new long[] {july.toEpochDay()}, new int[] {3}, new int[] {0});
+            BatchCheckout.price(batch);
+            assertEquals(agreement.getFinalChargeCents(), batch.getFinalChargeCents()[0]);
+        }
+        finally
+        {
+            PromotionRules.install(original);
+        }
+        assertNull(PromotionRules.current().getBestPromotion(ToolType.LADDER, "Werner", LocalDate.of(2020, 7, 2).toEpochDay(),
+                3, LoyaltyTier.PLATINUM));
+
+        properties.setProperty("goldWeek.loyaltyTier", "DIAMOND");
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> PromotionRules.parse(properties));
+        assertEquals("Unknown value for goldWeek.loyaltyTier: DIAMOND", thrown.getMessage());
+        properties.setProperty("goldWeek.loyaltyTier", "GOLD");
+        properties.setProperty("julyLadders.to", "2020-06-30");
+        thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> PromotionRules.parse(properties));
+        assertEquals("Promotion must not end before it starts: julyLadders", thrown.getMessage());
+    }
+
+    /**
+     * Tests that a watched promotions file puts changed promotions into effect for the next checkout, and that an invalid
+     * change is reported and leaves the promotions unchanged.
+     */
+    @Test
+    public void testWatchedPromotionsReload() throws Exception {
+        PromotionRules original = PromotionRules.current();
+        Path promotionsFile = folder.newFile("promotions.properties").toPath();
+        Files.writeString(promotionsFile, "ladders.discountPercent=15\nladders.toolType=LADDER\n");
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        LocalDate july = LocalDate.of(2020, 7, 2);
+        try(PricingRulesWatcher watcher = new PricingRulesWatcher(new PrintStream(errors, true)))
+        {
+            watcher.watch(promotionsFile, PromotionRules::reload);
+            assertEquals(15, Checkout.createRentalAgreement("LADW", 3, 0, july).getDiscountPercent());
+
+            replace(promotionsFile, "ladders.discountPercent=25\nladders.toolType=LADDER\n");
+            awaitTrue(() -> Checkout.createRentalAgreement("LADW", 3, 0, july).getDiscountPercent() == 25);
+
+            replace(promotionsFile, "ladders.discountPercent=125\nladders.toolType=LADDER\n");
+            awaitTrue(() -> errors.toString().contains(promotionsFile.getFileName() + " was not reloaded: "));
+            assertEquals(25, Checkout.createRentalAgreement("LADW", 3, 0, july).getDiscountPercent());
+        }
+        finally
+        {
+            PromotionRules.install(original);
+        }
+    }
+
+    /**
+     * Replaces a file in one step, so that the watcher never reads it half written; an empty promotions file is valid.
+     */
+    private void replace(Path file, String contents) throws IOException
+    {
+        Path written = folder.newFile().toPath();
+        Files.writeString(written, contents);
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(!condition.getAsBoolean())
+        {
+            assertTrue("Timed out waiting for the watcher", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
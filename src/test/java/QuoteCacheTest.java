@@ -0,0 +1,85 @@
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link QuoteCache} serves repeated quotes from the cache, and stops serving them once they expire or the
+ * pricing they were calculated with changes.
+ */
+public class QuoteCacheTest {
+
+    private static final LocalDate checkoutDate = LocalDate.of(2015, 7, 2);
+
+    /**
+     * Tests that the same quote is served again until it expires.
+     */
+    @Test
+    public void testHitUntilExpiry() {
+        AtomicLong clock = new AtomicLong();
+        QuoteCache cache = new QuoteCache(64, Duration.ofSeconds(10), clock::get);
+
+        ToolRentalAgreement first = cache.getRentalAgreement("CHNS", 5, 25, checkoutDate);
+        assertSame(first, cache.getRentalAgreement("CHNS", 5, 25, checkoutDate));
+        assertNotSame(first, cache.getRentalAgreement("CHNS", 5, 20, checkoutDate));
+
+        clock.addAndGet(Duration.ofSeconds(11).toNanos());
+        ToolRentalAgreement afterExpiry = cache.getRentalAgreement("CHNS", 5, 25, checkoutDate);
+        assertNotSame(first, afterExpiry);
+        assertEquals(first.getOutput(), afterExpiry.getOutput());
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    /**
+     * Tests that a change to a tool's details stops earlier quotes from being served.
+     */
+    @Test
+    public void testInvalidatedByToolChange() {
+        QuoteCache cache = new QuoteCache(64, Duration.ofMinutes(1));
+        ToolRepository.putTool("QCT1", new Tool(ToolType.LADDER, "TestBrand"));
+
+        ToolRentalAgreement ladder = cache.getRentalAgreement("QCT1", 3, 0, checkoutDate);
+        assertSame(ladder, cache.getRentalAgreement("QCT1", 3, 0, checkoutDate));
+
+        ToolRepository.putTool("QCT1", new Tool(ToolType.JACKHAMMER, "TestBrand"));
+        ToolRentalAgreement jackhammer = cache.getRentalAgreement("QCT1", 3, 0, checkoutDate);
+        assertEquals(Checkout.createRentalAgreement("QCT1", 3, 0, checkoutDate).getOutput(), jackhammer.getOutput());
+        ToolRepository.removeTool("QCT1");
+    }
+
+    /**
+     * Tests that the cache never holds more quotes than its maximum size, so filling it evicts earlier quotes.
+     */
+    @Test
+    public void testSizeBound() {
+        QuoteCache cache = new QuoteCache(16, Duration.ofMinutes(1));
+        for(int day = 0; day < 100; day++)
+        {
+            cache.getRentalAgreement("JAKD", 3, 0, checkoutDate.plusDays(day));
+        }
+        assertTrue(cache.getEvictionCount() >= 100 - 16);
+    }
+
+    /**
+     * Tests that packed keys are distinct for neighbouring values and that out-of-range values are not packed.
+     */
+    @Test
+    public void testPackKey() {
+        long key = QuoteCache.packKey(3, 16_000, 10, 50);
+        assertTrue(key >= 0);
+        assertTrue(key != QuoteCache.packKey(3, 16_000, 10, 51));
+        assertTrue(key != QuoteCache.packKey(3, 16_001, 10, 50));
+        assertTrue(key != QuoteCache.packKey(3, 16_000, 11, 50));
+        assertTrue(key != QuoteCache.packKey(4, 16_000, 10, 50));
+        assertEquals(-1, QuoteCache.packKey(3, 16_000, 1 << 14, 50));
+        assertEquals(-1, QuoteCache.packKey(-1, 16_000, 10, 50));
+    }
+}
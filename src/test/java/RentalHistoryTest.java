@@ -0,0 +1,145 @@
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the rollups of {@link RentalHistory} match grouping the agreements one by one, across several chunks and
+ * whether or not they run in a pool.
+ */
+public class RentalHistoryTest {
+
+    private static final String[] toolCodes = {"CHNS", "LADW", "JAKD", "JAKR"};
+    private static final LocalDate start = LocalDate.of(2019, 1, 1);
+
+    /**
+     * Tests every kind of group over random date ranges of a history spanning three chunks.
+     */
+    @Test
+    public void testRollupsMatchAgreements() {
+        Random random = new Random(17);
+        RentalHistory history = new RentalHistory();
+        List<ToolRentalAgreement> agreements = new ArrayList<>();
+        for(int i = 0; i < 150_000; i++)
+        {
+            // mostly in date order, as agreements arrive, with some stragglers
+            LocalDate checkoutDate = start.plusDays(i / 200 + (random.nextInt(10) == 0 ? random.nextInt(700) : 0));
+            ToolRentalAgreement agreement = Checkout.createRentalAgreement(toolCodes[random.nextInt(toolCodes.length)],
+                    1 + random.nextInt(20), random.nextInt(4) == 0 ? random.nextInt(101) : 0, checkoutDate);
+            agreements.add(agreement);
+            history.append(agreement);
+        }
+        assertEquals(agreements.size(), history.size());
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try
+        {
+            for(int query = 0; query < 20; query++)
+            {
+                LocalDate fromDate = start.plusDays(random.nextInt(800) - 50);
+                LocalDate toDate = fromDate.plusDays(random.nextInt(400));
+                for(RentalHistory.GroupBy groupBy : RentalHistory.GroupBy.values())
+                {
+                    Map<String, long[]> expected = expectedRollup(agreements, groupBy, fromDate, toDate);
+                    assertRollup(expected, history.rollup(groupBy, fromDate, toDate));
+                    assertRollup(expected, history.rollup(groupBy, fromDate, toDate, pool));
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests the labels of each kind of group, and that an empty range or history has no groups.
+     */
+    @Test
+    public void testLabels() {
+        RentalHistory history = new RentalHistory();
+        assertEquals(0, history.rollup(RentalHistory.GroupBy.WEEK, start, start.plusDays(10)).size());
+        // a Thursday
+        history.append(Checkout.createRentalAgreement("LADW", 3, 15, LocalDate.of(2020, 7, 2)));
+
+        RentalHistory.Rollup byWeek = history.rollup(RentalHistory.GroupBy.WEEK, start, start.plusYears(5));
+        assertEquals(1, byWeek.size());
+        assertEquals("2020-06-29", byWeek.getLabel(0));
+        assertEquals(1, byWeek.getRentalCount(0));
+        assertEquals("11-20%", history.rollup(RentalHistory.GroupBy.DISCOUNT_BAND, start, start.plusYears(5)).getLabel(0));
+        assertEquals("Ladder", history.rollup(RentalHistory.GroupBy.TOOL_TYPE, start, start.plusYears(5)).getLabel(0));
+        assertEquals("Werner", history.rollup(RentalHistory.GroupBy.BRAND, start, start.plusYears(5)).getLabel(0));
+        assertEquals(0, history.rollup(RentalHistory.GroupBy.BRAND, start, start.plusDays(10)).size());
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> history.rollup(RentalHistory.GroupBy.BRAND, start, start.minusDays(1)));
+        assertEquals("The end of the date range must not be before its start.", thrown.getMessage());
+    }
+
+    private static void assertRollup(Map<String, long[]> expected, RentalHistory.Rollup rollup)
+    {
+        assertEquals(expected.size(), rollup.size());
+        long total = 0;
+        for(int group = 0; group < rollup.size(); group++)
+        {
+            long[] sums = expected.get(rollup.getLabel(group));
+            assertEquals(rollup.getLabel(group), sums[0], rollup.getRentalCount(group));
+            assertEquals(sums[1], rollup.getChargeDays(group));
+            assertEquals(sums[2], rollup.getPreDiscountChargeCents(group));
+            assertEquals(sums[3], rollup.getDiscountAmountCents(group));
+            assertEquals(sums[4], rollup.getFinalChargeCents(group));
+            total += sums[4];
+        }
+        assertEquals(total, rollup.getTotalFinalChargeCents());
+    }
+
+    private static Map<String, long[]> expectedRollup(List<ToolRentalAgreement> agreements, RentalHistory.GroupBy groupBy,
+                                                      LocalDate fromDate, LocalDate toDate)
+    {
+        Map<String, long[]> sums = new LinkedHashMap<>();
+        for(ToolRentalAgreement agreement : agreements)
+        {
+            if(agreement.getCheckoutDate().isBefore(fromDate) || agreement.getCheckoutDate().isAfter(toDate))
+            {
+                continue;
+            }
+            String label;
+            switch(groupBy)
+            {
+                case TOOL_TYPE:
+                    label = agreement.getType().getValue();
+                    break;
+                case TOOL_CODE:
+                    label = agreement.getCode();
+                    break;
+                case BRAND:
+                    label = agreement.getBrand();
+                    break;
+                case WEEK:
+                    label = agreement.getCheckoutDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toString();
+                    break;
+                default:
+                    int percent = agreement.getDiscountPercent();
+                    label = percent == 0 ? "0%" : ((percent - 1) / 10 * 10 + 1) + "-" + ((percent - 1) / 10 * 10 + 10) + "%";
+                    break;
+            }
+            long[] groupSums = sums.computeIfAbsent(label, key -> new long[5]);
+            groupSums[0]++;
+            groupSums[1] += agreement.getChargeDays();
+            groupSums[2] += agreement.getPreDiscountChargeCents();
+            groupSums[3] += agreement.getDiscountAmountCents();
+            groupSums[4] += agreement.getFinalChargeCents();
+        }
+        return sums;
+    }
+}
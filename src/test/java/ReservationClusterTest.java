@@ -0,0 +1,203 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests a cluster of three {@link ReservationNode}s on the loopback interface: that reservations are made and released
+ * across partitions, that replicas catch up for quoting, and that losing a partition's leader during reservations neither
+ * loses a reservation nor hands out a unit twice.
+ */
+public class ReservationClusterTest {
+
+    private static final int NODES = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ReservationCluster cluster;
+    private final ReservationNode[] nodes = new ReservationNode[NODES];
+    private ReservationClient client;
+
+    @Before
+    public void startCluster() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for(int node = 0; node < NODES; node++)
+        {
+            try(ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+            {
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()));
+            }
+        }
+        cluster = new ReservationCluster(addresses, 6, NODES);
+        for(int node = 0; node < NODES; node++)
+        {
+            startNode(node);
+        }
+        client = new ReservationClient(cluster);
+    }
+
+    @After
+    public void stopCluster() {
+        client.close();
+        for(ReservationNode node : nodes)
+        {
+            if(node != null)
+            {
+                node.close();
+            }
+        }
+    }
+
+    /**
+     * Tests reserving every unit at several stores, releasing reservations, and reading the counts from any replica.
+     */
+    @Test
+    public void testReserveAndRelease() throws Exception {
+        String[] stores = {"store1", "store2", "store3", "store4", "store5", "store6", "store7", "store8"};
+        for(String store : stores)
+        {
+            client.setAvailableUnits(store, "LADW", 3);
+        }
+        for(String store : stores)
+        {
+            long first = client.reserve(store, "LADW");
+            long second = client.reserve(store, "LADW");
+            long third = client.reserve(store, "LADW");
+            assertNotEquals(ReservationClient.NO_RESERVATION, first);
+            assertNotEquals(ReservationClient.NO_RESERVATION, second);
+            assertNotEquals(ReservationClient.NO_RESERVATION, third);
+            assertEquals(ReservationClient.NO_RESERVATION, client.reserve(store, "LADW"));
+            assertEquals(ReservationClient.NO_RESERVATION, client.reserve(store, "CHNS"));
+
+            assertTrue(client.release(store, second));
+            // a retried release succeeds without giving back another unit
+            assertTrue(client.release(store, second));
+            long fourth = client.reserve(store, "LADW");
+            assertNotEquals(ReservationClient.NO_RESERVATION, fourth);
+            assertEquals(ReservationClient.NO_RESERVATION, client.reserve(store, "LADW"));
+            assertTrue(client.release(store, fourth));
+            assertFalse(client.release(store, first ^ second ^ third));
+            assertNotEquals(first, second);
+        }
+        for(String store : stores)
+        {
+            // every replica is read in turn, and each catches up within a few heartbeats
+            for(int read = 0; read < NODES; read++)
+            {
+                assertEquals(1, readEventually(store, "LADW", 1));
+            }
+        }
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> client.setAvailableUnits("store1", "LADW", -1));
+        assertEquals("Available units must be 0 or greater.", thrown.getMessage());
+    }
+
+    /**
+     * Tests that when the leader of a store's partition is stopped in the middle of concurrent reservations, a new leader
+     * takes over, no more units are reserved than the store has, and every reservation a client was told of is kept,
+     * including on the old leader once it is restarted from its data directory.
+     */
+    @Test
+    public void testFailoverDoesNotDoubleBook() throws Exception {
+        final String store = "store1";
+        final int units = 200;
+        client.setAvailableUnits(store, "JAKR", units);
+        final int partition = cluster.partitionOf(store);
+        int leader = -1;
+        for(int node = 0; node < NODES; node++)
+        {
+            if(nodes[node].isLeader(partition))
+            {
+                leader = node;
+            }
+        }
+        assertTrue(leader >= 0);
+
+        final AtomicInteger reserved = new AtomicInteger();
+        final AtomicBoolean soldOut = new AtomicBoolean();
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for(int thread = 0; thread < 8; thread++)
+        {
+            results.add(clients.submit(() -> {
+                // more reservations are attempted than there are units
+                for(int i = 0; i < 40; i++)
+                {
+                    if(client.reserve(store, "JAKR") != ReservationClient.NO_RESERVATION)
+                    {
+                        reserved.incrementAndGet();
+                    }
+                    else
+                    {
+                        soldOut.set(true);
+                    }
+                }
+                return null;
+            }));
+        }
+        while(reserved.get() < units / 4)
+        {
+            Thread.sleep(1);
+        }
+        nodes[leader].close();
+        for(Future<?> result : results)
+        {
+            result.get();
+        }
+        clients.shutdown();
+
+        assertTrue(soldOut.get());
+        assertEquals(units, reserved.get());
+        assertEquals(ReservationClient.NO_RESERVATION, client.reserve(store, "JAKR"));
+
+        // the old leader rejoins from its log and catches up with the reservations made without it
+        startNode(leader);
+        for(int read = 0; read < NODES; read++)
+        {
+            assertEquals(0, readEventually(store, "JAKR", 0));
+        }
+    }
+
+    private void startNode(int node) throws IOException
+    {
+        Path dataDirectory = folder.getRoot().toPath().resolve("node" + node);
+        nodes[node] = new ReservationNode(cluster, node, dataDirectory);
+    }
+
+    /**
+     * Reads a count from the next replica until it is the expected one, or a few seconds have passed.
+     */
+    private int readEventually(String store, String toolCode, int expected) throws Exception
+    {
+        final long deadline = System.nanoTime() + 5_000_000_000L;
+        int units = client.getAvailableUnits(store, toolCode);
+        while(units != expected && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+            units = client.getAvailableUnits(store, toolCode);
+        }
+        return units;
+    }
+}
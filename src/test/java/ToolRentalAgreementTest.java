@@ -1,5 +1,6 @@
 import org.junit.Test;
 import org.junit.jupiter.api.Assertions;
+
 import java.time.LocalDate;
 
 import static org.junit.Assert.assertEquals;
@@ -144,7 +145,7 @@ public class ToolRentalAgreementTest {
      * Tests that the expected output is generated when a jackhammer is rented over a time period containing a holiday
      * which falls on a weekend. There is no charge for holidays or weekends when renting a jackhammer, and since the
      * holiday falls on Saturday, it is celebrated on the closest weekday (Friday). This means Friday through Sunday
-     * are non-charge days.
+     * are non-charge days. Five charge days at $2.99 is exactly $14.95.
      */
     @Test
     public void testWeekendJulyFourthJackhammer() {
@@ -158,10 +159,10 @@ public class ToolRentalAgreementTest {
                 Due date: 07-11-15
                 Daily rental charge: $2.99
                 Charge days: 5
-                Pre-discount charge: $14.96
+                Pre-discount charge: $14.95
                 Discount percent: 0%
                 Discount amount: $0.00
-                Final charge: $14.96""";
+                Final charge: $14.95""";
 
         ToolRentalAgreement rentalAgreement = Checkout.createRentalAgreement("JAKR", 9,
                 0, LocalDate.of(15, 7, 2));
@@ -197,4 +198,45 @@ public class ToolRentalAgreementTest {
 
         assertEquals(expectedOutput, rentalAgreement.getOutput());
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that a discount which works out to a whole number of cents is not rounded up by an extra cent. A chainsaw
+     * rented for 5 weekdays costs $7.45, and 20% of that is exactly $1.49.
+     */
+    @Test
+    public void testExactCentDiscountChainsaw() {
+
+        String expectedOutput = """
+                Tool code: CHNS
+                Tool type: Chainsaw
+                Tool brand: Stihl
+                Rental days: 7
+                Checkout date: 09-08-15
+                Due date: 09-15-15
+                Daily rental charge: $1.49
+                Charge days: 5
+                Pre-discount charge: $7.45
+                Discount percent: 20%
+                Discount amount: $1.49
+                Final charge: $5.96""";
+
+        ToolRentalAgreement rentalAgreement = Checkout.createRentalAgreement("CHNS", 7,
+                20, LocalDate.of(15, 9, 8));
+
+        assertEquals(expectedOutput, rentalAgreement.getOutput());
+    }
+
+    /**
+     * Tests that a discount which is a whole number of cents is not rounded, and one just past it is rounded up to the
+     * next cent, away from zero.
+     */
+    @Test
+    public void testDiscountAtExactCentBoundary() {
+        assertEquals(149, Checkout.calculateDiscountCents(745, 20));
+        assertEquals(150, Checkout.calculateDiscountCents(746, 20));
+        assertEquals(-149, Checkout.calculateDiscountCents(-745, 20));
+        assertEquals(-150, Checkout.calculateDiscountCents(-746, 20));
+        assertEquals(1, Checkout.calculateDiscountCents(1, 1));
+        assertEquals(0, Checkout.calculateDiscountCents(1495, 0));
+    }
+}
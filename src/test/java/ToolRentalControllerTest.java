@@ -0,0 +1,120 @@
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+import static java.time.temporal.TemporalAdjusters.firstInMonth;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the arithmetic charge-day calculations in {@link ToolRentalController} match a straightforward day-by-day
+ * reference model across randomized rental periods.
+ */
+public class ToolRentalControllerTest {
+
+    private static final int NUMBER_OF_SAMPLES = 20_000;
+    private static final List<ToolChargeData> CHARGE_DATA = List.of(
+            PricingRules.current().getChargeData(ToolType.CHAINSAW),
+            PricingRules.current().getChargeData(ToolType.LADDER),
+            PricingRules.current().getChargeData(ToolType.JACKHAMMER));
+
+    /**
+     * Tests that the weekend day count matches a day-by-day walk over the rental period, including periods which start
+     * before the epoch and periods which are empty.
+     */
+    @Test
+    public void testWeekendDaysMatchReference() {
+        Random random = new Random(20150702L);
+        for(int i = 0; i < NUMBER_OF_SAMPLES; i++)
+        {
+            LocalDate rentalDate = randomDate(random);
+            LocalDate dueDate = rentalDate.plusDays(random.nextInt(3700) - 5);
+
+            assertEquals("Weekend days from " + rentalDate + " to " + dueDate,
+                    referenceWeekendDays(rentalDate, dueDate),
+                    ToolRentalController.determineNumberOfWeekendDays(rentalDate.toEpochDay(), dueDate.toEpochDay()));
+        }
+    }
+
+    /**
+     * Tests that the charge days for every tool type match the reference model for random rental periods, including
+     * periods which span several years.
+     */
+    @Test
+    public void testChargeDaysMatchReference() {
+        Random random = new Random(20200704L);
+        for(int i = 0; i < NUMBER_OF_SAMPLES; i++)
+        {
+            LocalDate rentalDate = randomDate(random);
+            int numberOfDays = 1 + random.nextInt(3650);
+            LocalDate dueDate = ToolRentalController.calculateDueDate(rentalDate, numberOfDays);
+            ToolChargeData chargeData = CHARGE_DATA.get(random.nextInt(CHARGE_DATA.size()));
+
+            assertEquals("Charge days for " + numberOfDays + " days from " + rentalDate,
+                    referenceChargeDays(chargeData, rentalDate, dueDate, numberOfDays),
+                    ToolRentalController.calculateChargeDays(chargeData, rentalDate, dueDate, numberOfDays));
+        }
+    }
+
+    private static LocalDate randomDate(Random random)
+    {
+        return LocalDate.of(1900, 1, 1).plusDays(random.nextInt(200 * 365));
+    }
+
+    private static int referenceChargeDays(ToolChargeData chargeData, LocalDate rentalDate, LocalDate dueDate, int numberOfDays)
+    {
+        int daysToSubtract = 0;
+        if(!chargeData.hasHolidayCharge())
+        {
+            daysToSubtract += referenceHolidays(rentalDate, dueDate);
+        }
+        if(!chargeData.hasWeekendCharge())
+        {
+            daysToSubtract += referenceWeekendDays(rentalDate, dueDate);
+        }
+        return numberOfDays - daysToSubtract;
+    }
+
+    private static int referenceHolidays(LocalDate rentalDate, LocalDate dueDate)
+    {
+        int numberOfHolidays = 0;
+        for(int year = rentalDate.getYear() - 1; year <= dueDate.getYear() + 1; year++)
+        {
+            LocalDate julyFourth = LocalDate.of(year, 7, 4);
+            if(julyFourth.getDayOfWeek() == DayOfWeek.SATURDAY)
+            {
+                julyFourth = julyFourth.minusDays(1);
+            }
+            else if(julyFourth.getDayOfWeek() == DayOfWeek.SUNDAY)
+            {
+                julyFourth = julyFourth.plusDays(1);
+            }
+            if(rentalDate.isBefore(julyFourth) && !dueDate.isBefore(julyFourth))
+            {
+                numberOfHolidays++;
+            }
+
+            LocalDate laborDay = LocalDate.of(year, 9, 1).with(firstInMonth(DayOfWeek.MONDAY));
+            if(rentalDate.isBefore(laborDay) && !dueDate.isBefore(laborDay))
+            {
+                numberOfHolidays++;
+            }
+        }
+        return numberOfHolidays;
+    }
+
+    private static int referenceWeekendDays(LocalDate rentalDate, LocalDate dueDate)
+    {
+        int numWeekendDays = 0;
+        for(LocalDate date = rentalDate; !date.isAfter(dueDate); date = date.plusDays(1))
+        {
+            if(date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY)
+            {
+                numWeekendDays++;
+            }
+        }
+        return numWeekendDays;
+    }
+}
@@ -0,0 +1,164 @@
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link ToolRepository} keeps its indexes up to date as tools change, and that units can never be reserved
+ * more times than they are available.
+ */
+public class ToolRepositoryTest {
+
+    /**
+     * Tests that replacing and removing a tool updates the type and brand indexes, and that the tool keeps its id.
+     */
+    @Test
+    public void testIndexesFollowUpdates() {
+        ToolRepository.putTool("TRT1", new Tool(ToolType.LADDER, "TestBrand"));
+        int toolId = ToolRepository.getToolId("TRT1");
+        assertTrue(ToolRepository.getToolCodesByType(ToolType.LADDER).contains("TRT1"));
+        assertTrue(ToolRepository.getToolCodesByBrand("TestBrand").contains("TRT1"));
+
+        ToolRepository.putTool("TRT1", new Tool(ToolType.CHAINSAW, "OtherTestBrand"));
+        assertEquals(toolId, ToolRepository.getToolId("TRT1"));
+        assertEquals(ToolType.CHAINSAW, ToolRepository.getToolById(toolId).getType());
+        assertFalse(ToolRepository.getToolCodesByType(ToolType.LADDER).contains("TRT1"));
+        assertFalse(ToolRepository.getToolCodesByBrand("TestBrand").contains("TRT1"));
+        assertTrue(ToolRepository.getToolCodesByType(ToolType.CHAINSAW).contains("TRT1"));
+
+        ToolRepository.removeTool("TRT1");
+        assertNull(ToolRepository.getTool("TRT1"));
+        assertNull(ToolRepository.getToolById(toolId));
+        assertEquals(-1, ToolRepository.getToolId("TRT1"));
+        assertFalse(ToolRepository.getToolCodesByType(ToolType.CHAINSAW).contains("TRT1"));
+    }
+
+    /**
+     * Tests that many threads checking out the same tool from one store never rent out more units than the store has.
+     */
+    @Test
+    public void testConcurrentCheckoutsNeverDoubleBook() throws Exception {
+        final int units = 1_000;
+        final int numberOfThreads = 8;
+        ToolRepository.putTool("TRT2", new Tool(ToolType.JACKHAMMER, "TestBrand"));
+        AtomicInteger rented = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try
+        {
+            ToolRepository.setAvailableUnits("TRT2", "TEST-STORE", units);
+            assertTrue(ToolRepository.getToolCodesByStore("TEST-STORE").contains("TRT2"));
+
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < numberOfThreads; t++)
+            {
+                futures.add(executor.submit(() -> {
+                    for(int i = 0; i < units; i++)
+                    {
+                        try
+                        {
+                            Checkout.createRentalAgreement("TRT2", 3, 0, LocalDate.of(2020, 7, 2), "TEST-STORE");
+                            rented.incrementAndGet();
+                        }
+                        catch(IllegalStateException e)
+                        {
+                            // every unit is rented out
+                        }
+                    }
+                }));
+            }
+            for(Future<?> future : futures)
+            {
+                future.get();
+            }
+
+            assertEquals(units, rented.get());
+            assertEquals(0, ToolRepository.getAvailableUnits("TRT2", "TEST-STORE"));
+        }
+        finally
+        {
+            executor.shutdownNow();
+            ToolRepository.removeTool("TRT2");
+        }
+    }
+
+    /**
+     * Tests that a unit reserved for a checkout which fails validation is returned to the store.
+     */
+    @Test
+    public void testFailedCheckoutReleasesUnit() {
+        ToolRepository.putTool("TRT3", new Tool(ToolType.LADDER, "TestBrand"));
+        try
+        {
+            ToolRepository.setAvailableUnits("TRT3", "TEST-STORE", 1);
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> Checkout.createRentalAgreement("TRT3", 0, 0, LocalDate.of(2020, 7, 2), "TEST-STORE"));
+            assertEquals(1, ToolRepository.getAvailableUnits("TRT3", "TEST-STORE"));
+        }
+        finally
+        {
+            ToolRepository.removeTool("TRT3");
+        }
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Checkout.createRentalAgreement("TRT3", 3, 0, LocalDate.of(2020, 7, 2), "TEST-STORE"));
+        assertEquals("Tool code does not correspond to an existing tool.", thrown.getMessage());
+    }
+
+    /**
+     * Tests that a tool removed while it is being checked out at a store is never rented out after its removal, and that
+     * a unit reserved just before the removal can still be released.
+     */
+    @Test
+    public void testRemoveToolRacingReservations() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            for(int round = 0; round < 200; round++)
+            {
+                ToolRepository.putTool("TRT4", new Tool(ToolType.LADDER, "TestBrand"));
+                ToolRepository.setAvailableUnits("TRT4", "TEST-STORE", 1_000_000);
+                AtomicInteger reservedAfterRemoval = new AtomicInteger();
+                Future<?> reserving = executor.submit(() -> {
+                    while(true)
+                    {
+                        boolean removed = ToolRepository.getTool("TRT4") == null;
+                        boolean reserved = ToolRepository.tryReserveUnit("TRT4", "TEST-STORE");
+                        if(reserved)
+                        {
+                            ToolRepository.releaseUnit("TRT4", "TEST-STORE");
+                        }
+                        if(removed)
+                        {
+                            if(reserved)
+                            {
+                                reservedAfterRemoval.incrementAndGet();
+                            }
+                            return;
+                        }
+                    }
+                });
+                ToolRepository.removeTool("TRT4");
+                reserving.get();
+                assertEquals(0, reservedAfterRemoval.get());
+                assertEquals(0, ToolRepository.getAvailableUnits("TRT4", "TEST-STORE"));
+                assertFalse(ToolRepository.tryReserveUnit("TRT4", "TEST-STORE"));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            ToolRepository.removeTool("TRT4");
+        }
+    }
+}